@@ -33,6 +33,7 @@ import java.util.Arrays;
 import java.util.Spliterator;
 import java.util.function.Consumer;
 
+import hageldave.imagingkit.core.util.BufferedImageConverter;
 import hageldave.imagingkit.core.util.ImagingKitUtils;
 
 /**
@@ -162,7 +163,7 @@ public class Img implements ImgBase<Pixel> {
 	 */
 	public Img(BufferedImage bimg){
 		this(bimg.getWidth(), bimg.getHeight());
-		bimg.getRGB(0, 0, this.getWidth(), this.getHeight(), this.getData(), 0, this.getWidth());
+		BufferedImageConverter.getRGB(bimg, 0, 0, this.getWidth(), this.getHeight(), this.getData(), 0, this.getWidth());
 	}
 
 	/**
@@ -0,0 +1,125 @@
+package hageldave.imagingkit.core.filter;
+
+import java.util.stream.IntStream;
+
+import hageldave.imagingkit.core.Img;
+
+/**
+ * Package private helper methods shared by the filter implementations.
+ * 
+ * @author hageldave
+ * @since 2.2
+ */
+final class FilterUtils {
+
+	private FilterUtils(){/* not constructable */}
+
+	/**
+	 * Maps the specified (possibly out of bounds) coordinate into the range [0,size)
+	 * according to the specified boundary mode, the same way {@link Img#getValue(int, int, int)}
+	 * does it.
+	 * @param i coordinate
+	 * @param size extent of the dimension the coordinate belongs to
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_mirror}
+	 * @return coordinate within [0,size) or -1 when the boundary mode demands a
+	 * constant value (see {@link #boundaryConstant(int)}) for the coordinate.
+	 */
+	static int boundaryIndex(int i, final int size, final int boundaryMode){
+		if(i >= 0 && i < size){
+			return i;
+		}
+		switch (boundaryMode) {
+		case Img.boundary_mode_repeat_edge:
+			return i < 0 ? 0:size-1;
+		case Img.boundary_mode_repeat_image:
+			return (size + (i % size)) % size;
+		case Img.boundary_mode_mirror:
+			if(i < 0){
+				i = -i - 1;
+			}
+			return (i/size) % 2 == 0 ? (i%size) : (size-1)-(i%size);
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @param boundaryMode one of the boundary modes or a default color
+	 * @return the constant value used for out of bounds positions when
+	 * {@link #boundaryIndex(int, int, int)} returns -1.
+	 */
+	static int boundaryConstant(final int boundaryMode){
+		return boundaryMode == Img.boundary_mode_zero ? 0:boundaryMode;
+	}
+
+	/**
+	 * Executes the specified action for consecutive ranges [from,to) that 
+	 * partition [0,n) in parallel. The number of ranges is chosen with respect to
+	 * the available processors so that each task can allocate its own work buffers
+	 * once and reuse them for every element of its range.
+	 * @param n number of elements to partition
+	 * @param action to be executed for each range (arguments from, to)
+	 */
+	static void parallelRanges(final int n, final RangeAction action){
+		parallelRanges(n, Runtime.getRuntime().availableProcessors()*4, action);
+	}
+
+	/**
+	 * Executes the specified action for consecutive ranges [from,to) that 
+	 * partition [0,n) in parallel using the specified number of ranges.
+	 * This is useful when the setup of a range is expensive so that fewer 
+	 * but larger ranges are preferable.
+	 * @param n number of elements to partition
+	 * @param numRanges number of ranges to partition into (will be clamped to [1,n])
+	 * @param action to be executed for each range (arguments from, to)
+	 */
+	static void parallelRanges(final int n, int numRanges, final RangeAction action){
+		final int numTasks = Math.max(1, Math.min(n, numRanges));
+		IntStream.range(0, numTasks).parallel().forEach(task->{
+			int from = (int)((long)n*task/numTasks);
+			int to = (int)((long)n*(task+1)/numTasks);
+			if(from < to){
+				action.run(from, to);
+			}
+		});
+	}
+
+	/**
+	 * Compares the 8-bit channels of the specified colors without unpacking them (SIMD within a register).
+	 * @param c1 first ARGB color
+	 * @param c2 second ARGB color
+	 * @return mask that has all bits of a channel set where the channel of c1 is greater 
+	 * than the channel of c2, and cleared otherwise.
+	 */
+	static int greaterMaskARGB(final int c1, final int c2){
+		// channels are compared in 16 bit lanes, bit 8 of a lane is borrowed if c1 > c2
+		final int even = (((c2 & 0x00ff00ff) | 0x01000100) - (c1 & 0x00ff00ff)) & 0x01000100;
+		final int odd  = ((((c2>>>8) & 0x00ff00ff) | 0x01000100) - ((c1>>>8) & 0x00ff00ff)) & 0x01000100;
+		final int notGreater = ((even>>>8)*0xff) | ((odd>>>8)*0xff)<<8;
+		return ~notGreater;
+	}
+
+	/**
+	 * @param c1 first ARGB color
+	 * @param c2 second ARGB color
+	 * @return color consisting of the channel wise minimum of the specified colors
+	 */
+	static int minARGB(final int c1, final int c2){
+		return c1 ^ ((c1^c2) & greaterMaskARGB(c1, c2));
+	}
+
+	/**
+	 * @param c1 first ARGB color
+	 * @param c2 second ARGB color
+	 * @return color consisting of the channel wise maximum of the specified colors
+	 */
+	static int maxARGB(final int c1, final int c2){
+		return c2 ^ ((c1^c2) & greaterMaskARGB(c1, c2));
+	}
+
+	@FunctionalInterface
+	static interface RangeAction {
+		void run(int from, int to);
+	}
+
+}
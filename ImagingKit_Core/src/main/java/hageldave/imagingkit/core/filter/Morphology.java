@@ -0,0 +1,628 @@
+/*
+ * Copyright 2017 David Haegele
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+
+package hageldave.imagingkit.core.filter;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntBinaryOperator;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.Pixel;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * Class providing the morphological operators erosion, dilation, opening and closing
+ * with rectangular structuring elements for {@link Img} and the channels of {@link ColorImg}.
+ * <p>
+ * The operators are implemented using the van Herk/Gil-Werman algorithm, which computes
+ * the running minimum (or maximum) along a line with a constant number of comparisons per pixel.
+ * Since a rectangular structuring element is separable, the operation is carried out as a 
+ * horizontal pass followed by a vertical pass, both of which are executed in parallel.
+ * The runtime is thus independent of the size of the structuring element, which is reduced
+ * to an equivalent size when it is larger than the image.
+ * <p>
+ * For {@link Img} the operators can work in two ways. Per channel, where the A,R,G and B
+ * channels are processed independently (e.g. the result of an erosion is the minimum of each
+ * channel in the neighborhood), or by luminance, where the pixel of least (or greatest) 
+ * luminance (see {@link Pixel#getLuminance(int)}) within the neighborhood is selected as a whole.
+ * <p>
+ * Out of bounds positions are handled according to the specified boundary mode, which is one
+ * of {@link Img#boundary_mode_zero}, {@link Img#boundary_mode_repeat_edge}, 
+ * {@link Img#boundary_mode_repeat_image}, {@link Img#boundary_mode_mirror} or a default value
+ * (see {@link Img#getValue(int, int, int)}).
+ * <p>
+ * The structuring element of size w x h is anchored at (w/2, h/2) for erosion, dilation uses
+ * the reflected structuring element so that {@link #open(Img, Img, int, int, int, boolean)} and
+ * {@link #close(Img, Img, int, int, int, boolean)} are proper openings and closings also for even sizes.
+ * <p>
+ * Example for a document cleanup that removes small dark specks from a bright background:
+ * <pre>
+ * {@code
+ * Img scan = ImageLoader.loadImg(...);
+ * Img cleaned = Morphology.close(scan, null, 3, 3, Img.boundary_mode_repeat_edge, true);
+ * }</pre>
+ * 
+ * @author hageldave
+ * @since 2.2
+ */
+public final class Morphology {
+
+	private Morphology(){/* not constructable */}
+
+	private static final int STRIP_WIDTH = 64;
+
+	private static final IntBinaryOperator MIN_ARGB = FilterUtils::minARGB;
+	private static final IntBinaryOperator MAX_ARGB = FilterUtils::maxARGB;
+	private static final IntBinaryOperator MIN_LUM = (a,b)->Pixel.getLuminance(b) < Pixel.getLuminance(a) ? b:a;
+	private static final IntBinaryOperator MAX_LUM = (a,b)->Pixel.getLuminance(b) > Pixel.getLuminance(a) ? b:a;
+	private static final DoubleBinaryOperator MIN = Math::min;
+	private static final DoubleBinaryOperator MAX = Math::max;
+
+
+	/**
+	 * Erodes the specified image with a rectangular structuring element of the specified size.
+	 * The result is stored in the specified target image, which may be the source image itself
+	 * or null in which case a new Img is created.
+	 * @param img to be eroded
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @param luminance when true the pixel of least luminance in the neighborhood is selected,
+	 * otherwise each channel is eroded independently.
+	 * @return the target image or a new Img if target was null
+	 * @throws IllegalArgumentException if the structuring element size is not positive or
+	 * if target is of different dimensions than img
+	 */
+	public static Img erode(Img img, Img target, int seWidth, int seHeight, int boundaryMode, boolean luminance){
+		target = sanityCheck(img, target, seWidth, seHeight);
+		filter(img.getData(), target.getData(), img.getWidth(), img.getHeight(),
+				seWidth, seWidth/2, seHeight, seHeight/2,
+				boundaryMode, luminance ? MIN_LUM:MIN_ARGB);
+		return target;
+	}
+
+	/**
+	 * Dilates the specified image with a rectangular structuring element of the specified size.
+	 * The result is stored in the specified target image, which may be the source image itself
+	 * or null in which case a new Img is created.
+	 * @param img to be dilated
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @param luminance when true the pixel of greatest luminance in the neighborhood is selected,
+	 * otherwise each channel is dilated independently.
+	 * @return the target image or a new Img if target was null
+	 * @throws IllegalArgumentException if the structuring element size is not positive or
+	 * if target is of different dimensions than img
+	 */
+	public static Img dilate(Img img, Img target, int seWidth, int seHeight, int boundaryMode, boolean luminance){
+		target = sanityCheck(img, target, seWidth, seHeight);
+		filter(img.getData(), target.getData(), img.getWidth(), img.getHeight(),
+				seWidth, seWidth-1-seWidth/2, seHeight, seHeight-1-seHeight/2,
+				boundaryMode, luminance ? MAX_LUM:MAX_ARGB);
+		return target;
+	}
+
+	/**
+	 * Opens the specified image (erosion followed by dilation) with a rectangular
+	 * structuring element of the specified size.
+	 * The result is stored in the specified target image, which may be the source image itself
+	 * or null in which case a new Img is created.
+	 * @param img to be opened
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @param luminance whether to operate on luminance or on each channel independently
+	 * @return the target image or a new Img if target was null
+	 * @throws IllegalArgumentException if the structuring element size is not positive or
+	 * if target is of different dimensions than img
+	 * 
+	 * @see #erode(Img, Img, int, int, int, boolean)
+	 * @see #dilate(Img, Img, int, int, int, boolean)
+	 */
+	public static Img open(Img img, Img target, int seWidth, int seHeight, int boundaryMode, boolean luminance){
+		target = erode(img, target, seWidth, seHeight, boundaryMode, luminance);
+		return dilate(target, target, seWidth, seHeight, boundaryMode, luminance);
+	}
+
+	/**
+	 * Closes the specified image (dilation followed by erosion) with a rectangular
+	 * structuring element of the specified size.
+	 * The result is stored in the specified target image, which may be the source image itself
+	 * or null in which case a new Img is created.
+	 * @param img to be closed
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @param luminance whether to operate on luminance or on each channel independently
+	 * @return the target image or a new Img if target was null
+	 * @throws IllegalArgumentException if the structuring element size is not positive or
+	 * if target is of different dimensions than img
+	 * 
+	 * @see #dilate(Img, Img, int, int, int, boolean)
+	 * @see #erode(Img, Img, int, int, int, boolean)
+	 */
+	public static Img close(Img img, Img target, int seWidth, int seHeight, int boundaryMode, boolean luminance){
+		target = dilate(img, target, seWidth, seHeight, boundaryMode, luminance);
+		return erode(target, target, seWidth, seHeight, boundaryMode, luminance);
+	}
+
+	/**
+	 * Erodes each channel of the specified image independently and returns the result as new Img.
+	 * This is a shortcut for {@code erode(img, null, seWidth, seHeight, boundaryMode, false)}.
+	 * @param img to be eroded
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @return eroded image
+	 * @throws IllegalArgumentException if the structuring element size is not positive
+	 */
+	public static Img erode(Img img, int seWidth, int seHeight, int boundaryMode){
+		return erode(img, null, seWidth, seHeight, boundaryMode, false);
+	}
+
+	/**
+	 * Dilates each channel of the specified image independently and returns the result as new Img.
+	 * This is a shortcut for {@code dilate(img, null, seWidth, seHeight, boundaryMode, false)}.
+	 * @param img to be dilated
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @return dilated image
+	 * @throws IllegalArgumentException if the structuring element size is not positive
+	 */
+	public static Img dilate(Img img, int seWidth, int seHeight, int boundaryMode){
+		return dilate(img, null, seWidth, seHeight, boundaryMode, false);
+	}
+
+	/**
+	 * Opens each channel of the specified image independently and returns the result as new Img.
+	 * This is a shortcut for {@code open(img, null, seWidth, seHeight, boundaryMode, false)}.
+	 * @param img to be opened
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @return opened image
+	 * @throws IllegalArgumentException if the structuring element size is not positive
+	 */
+	public static Img open(Img img, int seWidth, int seHeight, int boundaryMode){
+		return open(img, null, seWidth, seHeight, boundaryMode, false);
+	}
+
+	/**
+	 * Closes each channel of the specified image independently and returns the result as new Img.
+	 * This is a shortcut for {@code close(img, null, seWidth, seHeight, boundaryMode, false)}.
+	 * @param img to be closed
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_repeat_edge}
+	 * @return closed image
+	 * @throws IllegalArgumentException if the structuring element size is not positive
+	 */
+	public static Img close(Img img, int seWidth, int seHeight, int boundaryMode){
+		return close(img, null, seWidth, seHeight, boundaryMode, false);
+	}
+
+	/**
+	 * Erodes the specified channel of the specified {@link ColorImg} with a rectangular
+	 * structuring element of the specified size. The result is stored in the same channel of
+	 * the specified target image, which may be the source image itself or null in which case
+	 * a new ColorImg is created (only the specified channel of it will be set). 
+	 * <p>
+	 * For out of bounds positions that do not map into the image according to the boundary mode,
+	 * the boundary mode itself is used as value (see {@link ColorImg#getValue(int, int, int, int)}).
+	 * @param img to be eroded
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param channel the channel to be eroded, one of {@link ColorImg#channel_r}, {@link ColorImg#channel_g},
+	 * {@link ColorImg#channel_b}, {@link ColorImg#channel_a}
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link ColorImg#boundary_mode_repeat_edge}
+	 * @return the target image or a new ColorImg if target was null
+	 * @throws IllegalArgumentException if the structuring element size is not positive,
+	 * if target is of different dimensions than img, or if the specified channel is out of range 
+	 * ([0..3]) or is alpha (3) but one of the images does not have an alpha channel 
+	 */
+	public static ColorImg erode(ColorImg img, ColorImg target, int channel, int seWidth, int seHeight, int boundaryMode){
+		target = sanityCheck(img, target, channel, seWidth, seHeight);
+		filter(img.getData()[channel], target.getData()[channel], img.getWidth(), img.getHeight(),
+				seWidth, seWidth/2, seHeight, seHeight/2,
+				boundaryMode, MIN);
+		return target;
+	}
+
+	/**
+	 * Dilates the specified channel of the specified {@link ColorImg} with a rectangular
+	 * structuring element of the specified size. The result is stored in the same channel of
+	 * the specified target image, which may be the source image itself or null in which case
+	 * a new ColorImg is created (only the specified channel of it will be set).
+	 * <p>
+	 * For out of bounds positions that do not map into the image according to the boundary mode,
+	 * the boundary mode itself is used as value (see {@link ColorImg#getValue(int, int, int, int)}).
+	 * @param img to be dilated
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param channel the channel to be dilated, one of {@link ColorImg#channel_r}, {@link ColorImg#channel_g},
+	 * {@link ColorImg#channel_b}, {@link ColorImg#channel_a}
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link ColorImg#boundary_mode_repeat_edge}
+	 * @return the target image or a new ColorImg if target was null
+	 * @throws IllegalArgumentException if the structuring element size is not positive,
+	 * if target is of different dimensions than img, or if the specified channel is out of range 
+	 * ([0..3]) or is alpha (3) but one of the images does not have an alpha channel 
+	 */
+	public static ColorImg dilate(ColorImg img, ColorImg target, int channel, int seWidth, int seHeight, int boundaryMode){
+		target = sanityCheck(img, target, channel, seWidth, seHeight);
+		filter(img.getData()[channel], target.getData()[channel], img.getWidth(), img.getHeight(),
+				seWidth, seWidth-1-seWidth/2, seHeight, seHeight-1-seHeight/2,
+				boundaryMode, MAX);
+		return target;
+	}
+
+	/**
+	 * Opens (erosion followed by dilation) the specified channel of the specified {@link ColorImg}.
+	 * See {@link #erode(ColorImg, ColorImg, int, int, int, int)} for details on the arguments.
+	 * @param img to be opened
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param channel the channel to be opened
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link ColorImg#boundary_mode_repeat_edge}
+	 * @return the target image or a new ColorImg if target was null
+	 * @throws IllegalArgumentException see {@link #erode(ColorImg, ColorImg, int, int, int, int)}
+	 */
+	public static ColorImg open(ColorImg img, ColorImg target, int channel, int seWidth, int seHeight, int boundaryMode){
+		target = erode(img, target, channel, seWidth, seHeight, boundaryMode);
+		return dilate(target, target, channel, seWidth, seHeight, boundaryMode);
+	}
+
+	/**
+	 * Closes (dilation followed by erosion) the specified channel of the specified {@link ColorImg}.
+	 * See {@link #erode(ColorImg, ColorImg, int, int, int, int)} for details on the arguments.
+	 * @param img to be closed
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param channel the channel to be closed
+	 * @param seWidth width of the structuring element
+	 * @param seHeight height of the structuring element
+	 * @param boundaryMode one of the boundary modes e.g. {@link ColorImg#boundary_mode_repeat_edge}
+	 * @return the target image or a new ColorImg if target was null
+	 * @throws IllegalArgumentException see {@link #erode(ColorImg, ColorImg, int, int, int, int)}
+	 */
+	public static ColorImg close(ColorImg img, ColorImg target, int channel, int seWidth, int seHeight, int boundaryMode){
+		target = dilate(img, target, channel, seWidth, seHeight, boundaryMode);
+		return erode(target, target, channel, seWidth, seHeight, boundaryMode);
+	}
+
+
+	/* * * * * * * * * * * * */
+	// IMPLEMENTATION (int)  //
+	/* * * * * * * * * * * * */
+
+	private static void filter(
+			final int[] src, final int[] dst, final int w, final int h, 
+			int kx, int lox, int ky, int loy, 
+			final int boundaryMode, final IntBinaryOperator op)
+	{
+		// reduce structuring elements larger than the image to an equivalent size
+		final int hix = effectiveExtent(kx-1-lox, w, boundaryMode);
+		final int hiy = effectiveExtent(ky-1-loy, h, boundaryMode);
+		lox = effectiveExtent(lox, w, boundaryMode);
+		loy = effectiveExtent(loy, h, boundaryMode);
+		kx = lox+hix+1;
+		ky = loy+hiy+1;
+		if(kx == 1 && ky == 1){
+			if(src != dst)
+				System.arraycopy(src, 0, dst, 0, src.length);
+		} else if(ky == 1){
+			rowPass(src, dst, w, h, kx, lox, boundaryMode, op);
+		} else if(kx == 1){
+			colPass(src, dst, w, h, ky, loy, boundaryMode, op);
+		} else {
+			int[] tmp = new int[src.length];
+			rowPass(src, tmp, w, h, kx, lox, boundaryMode, op);
+			colPass(tmp, dst, w, h, ky, loy, boundaryMode, op);
+		}
+	}
+
+	private static void rowPass(
+			final int[] src, final int[] dst, final int w, final int h, 
+			final int k, final int lo, final int boundaryMode, final IntBinaryOperator op)
+	{
+		final int n = w+k-1;
+		final int constant = FilterUtils.boundaryConstant(boundaryMode);
+		FilterUtils.parallelRanges(h, (from,to)->{
+			final int[] line = new int[n];
+			final int[] g = new int[n];
+			final int[] hh = new int[n];
+			for(int y = from; y < to; y++){
+				final int row = y*w;
+				// fill line with row and boundary values
+				for(int j = 0; j < lo; j++){
+					int x = FilterUtils.boundaryIndex(j-lo, w, boundaryMode);
+					line[j] = x < 0 ? constant:src[row+x];
+				}
+				System.arraycopy(src, row, line, lo, w);
+				for(int j = lo+w; j < n; j++){
+					int x = FilterUtils.boundaryIndex(j-lo, w, boundaryMode);
+					line[j] = x < 0 ? constant:src[row+x];
+				}
+				// running extrema within blocks of size k (forward g, backward h)
+				for(int j = 0; j < n; j++){
+					g[j] = j%k == 0 ? line[j]:op.applyAsInt(g[j-1], line[j]);
+				}
+				for(int j = n-1; j >= 0; j--){
+					hh[j] = (j%k == k-1 || j == n-1) ? line[j]:op.applyAsInt(line[j], hh[j+1]);
+				}
+				// combine
+				for(int x = 0; x < w; x++){
+					dst[row+x] = op.applyAsInt(hh[x], g[x+k-1]);
+				}
+			}
+		});
+	}
+
+	private static void colPass(
+			final int[] src, final int[] dst, final int w, final int h, 
+			final int k, final int lo, final int boundaryMode, final IntBinaryOperator op)
+	{
+		/* columns are processed in strips of STRIP_WIDTH columns which allows
+		 * for row wise memory access instead of gathering single columns */
+		final int n = h+k-1;
+		final int sw = Math.min(STRIP_WIDTH, w);
+		final int numStrips = (w+sw-1)/sw;
+		final int constant = FilterUtils.boundaryConstant(boundaryMode);
+		FilterUtils.parallelRanges(numStrips, (from,to)->{
+			final int[] g = new int[n*sw];
+			final int[] hh = new int[n*sw];
+			for(int s = from; s < to; s++){
+				final int x0 = s*sw;
+				final int cw = Math.min(sw, w-x0);
+				// forward running extrema within blocks of k rows
+				for(int j = 0; j < n; j++){
+					final int y = FilterUtils.boundaryIndex(j-lo, h, boundaryMode);
+					final int srcOff = y*w+x0;
+					final int off = j*sw;
+					if(j%k == 0){
+						for(int i = 0; i < cw; i++)
+							g[off+i] = y < 0 ? constant:src[srcOff+i];
+					} else {
+						for(int i = 0; i < cw; i++)
+							g[off+i] = op.applyAsInt(g[off-sw+i], y < 0 ? constant:src[srcOff+i]);
+					}
+				}
+				// backward running extrema within blocks of k rows
+				for(int j = n-1; j >= 0; j--){
+					final int y = FilterUtils.boundaryIndex(j-lo, h, boundaryMode);
+					final int srcOff = y*w+x0;
+					final int off = j*sw;
+					if(j%k == k-1 || j == n-1){
+						for(int i = 0; i < cw; i++)
+							hh[off+i] = y < 0 ? constant:src[srcOff+i];
+					} else {
+						for(int i = 0; i < cw; i++)
+							hh[off+i] = op.applyAsInt(y < 0 ? constant:src[srcOff+i], hh[off+sw+i]);
+					}
+				}
+				// combine
+				for(int y = 0; y < h; y++){
+					final int hOff = y*sw;
+					final int gOff = (y+k-1)*sw;
+					final int dstOff = y*w+x0;
+					for(int i = 0; i < cw; i++){
+						dst[dstOff+i] = op.applyAsInt(hh[hOff+i], g[gOff+i]);
+					}
+				}
+			}
+		});
+	}
+
+
+	/* * * * * * * * * * * * * */
+	// IMPLEMENTATION (double) //
+	/* * * * * * * * * * * * * */
+
+	private static void filter(
+			final double[] src, final double[] dst, final int w, final int h, 
+			int kx, int lox, int ky, int loy, 
+			final int boundaryMode, final DoubleBinaryOperator op)
+	{
+		// reduce structuring elements larger than the image to an equivalent size
+		final int hix = effectiveExtent(kx-1-lox, w, boundaryMode);
+		final int hiy = effectiveExtent(ky-1-loy, h, boundaryMode);
+		lox = effectiveExtent(lox, w, boundaryMode);
+		loy = effectiveExtent(loy, h, boundaryMode);
+		kx = lox+hix+1;
+		ky = loy+hiy+1;
+		if(kx == 1 && ky == 1){
+			if(src != dst)
+				System.arraycopy(src, 0, dst, 0, src.length);
+		} else if(ky == 1){
+			rowPass(src, dst, w, h, kx, lox, boundaryMode, op);
+		} else if(kx == 1){
+			colPass(src, dst, w, h, ky, loy, boundaryMode, op);
+		} else {
+			double[] tmp = new double[src.length];
+			rowPass(src, tmp, w, h, kx, lox, boundaryMode, op);
+			colPass(tmp, dst, w, h, ky, loy, boundaryMode, op);
+		}
+	}
+
+	private static void rowPass(
+			final double[] src, final double[] dst, final int w, final int h, 
+			final int k, final int lo, final int boundaryMode, final DoubleBinaryOperator op)
+	{
+		final int n = w+k-1;
+		final double constant = FilterUtils.boundaryConstant(boundaryMode);
+		FilterUtils.parallelRanges(h, (from,to)->{
+			final double[] line = new double[n];
+			final double[] g = new double[n];
+			final double[] hh = new double[n];
+			for(int y = from; y < to; y++){
+				final int row = y*w;
+				// fill line with row and boundary values
+				for(int j = 0; j < lo; j++){
+					int x = FilterUtils.boundaryIndex(j-lo, w, boundaryMode);
+					line[j] = x < 0 ? constant:src[row+x];
+				}
+				System.arraycopy(src, row, line, lo, w);
+				for(int j = lo+w; j < n; j++){
+					int x = FilterUtils.boundaryIndex(j-lo, w, boundaryMode);
+					line[j] = x < 0 ? constant:src[row+x];
+				}
+				// running extrema within blocks of size k (forward g, backward h)
+				for(int j = 0; j < n; j++){
+					g[j] = j%k == 0 ? line[j]:op.applyAsDouble(g[j-1], line[j]);
+				}
+				for(int j = n-1; j >= 0; j--){
+					hh[j] = (j%k == k-1 || j == n-1) ? line[j]:op.applyAsDouble(line[j], hh[j+1]);
+				}
+				// combine
+				for(int x = 0; x < w; x++){
+					dst[row+x] = op.applyAsDouble(hh[x], g[x+k-1]);
+				}
+			}
+		});
+	}
+
+	private static void colPass(
+			final double[] src, final double[] dst, final int w, final int h, 
+			final int k, final int lo, final int boundaryMode, final DoubleBinaryOperator op)
+	{
+		final int n = h+k-1;
+		final int sw = Math.min(STRIP_WIDTH, w);
+		final int numStrips = (w+sw-1)/sw;
+		final double constant = FilterUtils.boundaryConstant(boundaryMode);
+		FilterUtils.parallelRanges(numStrips, (from,to)->{
+			final double[] g = new double[n*sw];
+			final double[] hh = new double[n*sw];
+			for(int s = from; s < to; s++){
+				final int x0 = s*sw;
+				final int cw = Math.min(sw, w-x0);
+				// forward running extrema within blocks of k rows
+				for(int j = 0; j < n; j++){
+					final int y = FilterUtils.boundaryIndex(j-lo, h, boundaryMode);
+					final int srcOff = y*w+x0;
+					final int off = j*sw;
+					if(j%k == 0){
+						for(int i = 0; i < cw; i++)
+							g[off+i] = y < 0 ? constant:src[srcOff+i];
+					} else {
+						for(int i = 0; i < cw; i++)
+							g[off+i] = op.applyAsDouble(g[off-sw+i], y < 0 ? constant:src[srcOff+i]);
+					}
+				}
+				// backward running extrema within blocks of k rows
+				for(int j = n-1; j >= 0; j--){
+					final int y = FilterUtils.boundaryIndex(j-lo, h, boundaryMode);
+					final int srcOff = y*w+x0;
+					final int off = j*sw;
+					if(j%k == k-1 || j == n-1){
+						for(int i = 0; i < cw; i++)
+							hh[off+i] = y < 0 ? constant:src[srcOff+i];
+					} else {
+						for(int i = 0; i < cw; i++)
+							hh[off+i] = op.applyAsDouble(y < 0 ? constant:src[srcOff+i], hh[off+sw+i]);
+					}
+				}
+				// combine
+				for(int y = 0; y < h; y++){
+					final int hOff = y*sw;
+					final int gOff = (y+k-1)*sw;
+					final int dstOff = y*w+x0;
+					for(int i = 0; i < cw; i++){
+						dst[dstOff+i] = op.applyAsDouble(hh[hOff+i], g[gOff+i]);
+					}
+				}
+			}
+		});
+	}
+
+
+	/* * * * * * * * */
+	// HELPERS       //
+	/* * * * * * * * */
+
+	/**
+	 * Returns an extent of the structuring element along one axis (number of samples before or after 
+	 * the anchor) that yields the same result as the specified extent.
+	 * Beyond twice the image size, a window already covers a full period of each boundary mode so 
+	 * that further samples only repeat values. The extent is reduced to less than four times the 
+	 * image size, keeping the phase of periodic boundary modes so that even the selection among 
+	 * pixels of equal luminance is unchanged.
+	 */
+	static int effectiveExtent(int extent, int size, int boundaryMode){
+		final int bound = 2*size;
+		if(extent <= bound){
+			return extent;
+		}
+		final int period;
+		switch (boundaryMode) {
+		case Img.boundary_mode_repeat_image: period = size; break;
+		case Img.boundary_mode_mirror: period = 2*size; break;
+		default: period = 1; // constant outside values
+		}
+		return bound + (extent-bound)%period;
+	}
+
+	private static void sanityCheckSE(int seWidth, int seHeight){
+		if(seWidth < 1 || seHeight < 1){
+			throw new IllegalArgumentException(String.format(
+					"Structuring element size has to be positive, but is %dx%d.", seWidth, seHeight));
+		}
+	}
+
+	private static Img sanityCheck(Img img, Img target, int seWidth, int seHeight){
+		sanityCheckSE(seWidth, seHeight);
+		if(target == null){
+			return new Img(img.getDimension());
+		}
+		if(!target.getDimension().equals(img.getDimension())){
+			throw new IllegalArgumentException(String.format(
+					"specified target is of wrong dimensions. Expected %s but has %s.", 
+					img.getDimension(), target.getDimension()));
+		}
+		return target;
+	}
+
+	private static ColorImg sanityCheck(ColorImg img, ColorImg target, int channel, int seWidth, int seHeight){
+		sanityCheckSE(seWidth, seHeight);
+		if(target == null){
+			target = new ColorImg(img.getDimension(), channel==ColorImg.channel_a);
+		} else if(!target.getDimension().equals(img.getDimension())){
+			throw new IllegalArgumentException(String.format(
+					"specified target is of wrong dimensions. Expected %s but has %s.", 
+					img.getDimension(), target.getDimension()));
+		}
+		if( channel < 0 || channel > 3 || (channel > 2 && !(img.hasAlpha() && target.hasAlpha())) ){
+			throw new IllegalArgumentException(String.format(
+					"Channels can be 0,1,2 (also 3 if images have alpha). But channel is %d and image %s alpha",
+					channel, img.hasAlpha() ? "has":"does not have"));
+		}
+		return target;
+	}
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2017 David Haegele
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+
+package hageldave.imagingkit.core.filter;
+
+import java.util.Arrays;
+
+import hageldave.imagingkit.core.Img;
+
+/**
+ * Class providing median and rank filters with square windows for the 8-bit channels of {@link Img}.
+ * <p>
+ * The filters are implemented using Perreault's constant time median filtering algorithm,
+ * which maintains a histogram for each column of the image and a histogram of the window
+ * that is moved along a row by adding and removing whole column histograms.
+ * Each histogram is split into a coarse level of 16 bins and a fine level of 256 bins of which 
+ * only the required segment is updated when searching the rank. The runtime per pixel is thus
+ * independent of the filter radius. The image is processed in horizontal strips in parallel.
+ * <p>
+ * For the common 3x3 and 5x5 medians sorting networks are used instead which operate on all
+ * four channels of a pixel at once.
+ * <p>
+ * Each of the A,R,G,B channels is filtered independently. Out of bounds positions are handled 
+ * according to the specified boundary mode, which is one of {@link Img#boundary_mode_zero}, 
+ * {@link Img#boundary_mode_repeat_edge}, {@link Img#boundary_mode_repeat_image}, 
+ * {@link Img#boundary_mode_mirror} or a default color (see {@link Img#getValue(int, int, int)}).
+ * <p>
+ * Example for denoising a scan:
+ * <pre>
+ * {@code
+ * Img scan = ImageLoader.loadImg(...);
+ * Img denoised = RankFilter.median(scan, null, 15, Img.boundary_mode_mirror);
+ * }</pre>
+ * 
+ * @author hageldave
+ * @since 2.2
+ */
+public final class RankFilter {
+
+	private RankFilter(){/* not constructable */}
+
+	/** maximum radius, so that column histogram counts fit into a char */
+	private static final int MAX_RADIUS = (Character.MAX_VALUE-1)/2;
+
+	/** median selection network for 9 elements (compare exchange pairs) */
+	private static final byte[] MED9 = {
+			1,2, 4,5, 7,8, 0,1, 3,4, 6,7, 1,2, 4,5, 7,8, 0,3, 5,8, 4,7, 3,6, 1,4, 2,5, 4,7, 4,2, 6,4, 4,2
+	};
+
+	/** median selection network for 25 elements (compare exchange pairs) */
+	private static final byte[] MED25 = {
+			0,1, 3,4, 2,4, 2,3, 6,7, 5,7, 5,6, 9,10, 8,10, 8,9, 12,13, 11,13, 11,12, 15,16, 14,16,
+			14,15, 18,19, 17,19, 17,18, 21,22, 20,22, 20,21, 23,24, 2,5, 3,6, 0,6, 0,3, 4,7, 1,7, 1,4,
+			11,14, 8,14, 8,11, 12,15, 9,15, 9,12, 13,16, 10,16, 10,13, 20,23, 17,23, 17,20, 21,24, 18,24, 18,21,
+			19,22, 8,17, 9,18, 0,18, 0,9, 10,19, 1,19, 1,10, 11,20, 2,20, 2,11, 12,21, 3,21, 3,12, 13,22,
+			4,22, 4,13, 14,23, 5,23, 5,14, 15,24, 6,24, 6,15, 7,16, 7,19, 13,21, 15,23, 7,13, 7,15, 1,9,
+			3,11, 5,17, 11,17, 9,17, 4,10, 6,12, 7,14, 4,6, 4,7, 12,14, 10,14, 6,7, 10,12, 6,10, 6,17,
+			12,17, 7,17, 7,10, 12,18, 7,12, 10,18, 12,20, 10,20, 10,12
+	};
+
+
+	/**
+	 * Applies a median filter with a square window of size (2*radius+1) to each channel
+	 * of the specified image. 
+	 * The result is stored in the specified target image, which may be the source image itself
+	 * or null in which case a new Img is created.
+	 * @param img to be filtered
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param radius of the window, 0 results in a copy
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_mirror}
+	 * @return the target image or a new Img if target was null
+	 * @throws IllegalArgumentException if radius is negative or too large (&gt;32766) or
+	 * if target is of different dimensions than img
+	 */
+	public static Img median(Img img, Img target, int radius, int boundaryMode){
+		long n = (2L*radius+1)*(2L*radius+1);
+		return rank(img, target, radius, (int)(n/2), boundaryMode);
+	}
+
+	/**
+	 * Applies a median filter with a square window of size (2*radius+1) to each channel
+	 * of the specified image and returns the result as new Img.
+	 * @param img to be filtered
+	 * @param radius of the window, 0 results in a copy
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_mirror}
+	 * @return filtered image
+	 * @throws IllegalArgumentException if radius is negative or too large (&gt;32766)
+	 */
+	public static Img median(Img img, int radius, int boundaryMode){
+		return median(img, null, radius, boundaryMode);
+	}
+
+	/**
+	 * Applies a percentile filter with a square window of size (2*radius+1) to each channel
+	 * of the specified image. For a percentile of 0.5 this is the median filter, 0 corresponds
+	 * to the minimum filter (erosion) and 1 to the maximum filter (dilation).
+	 * The result is stored in the specified target image, which may be the source image itself
+	 * or null in which case a new Img is created.
+	 * @param img to be filtered
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param radius of the window, 0 results in a copy
+	 * @param percentile in [0,1]
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_mirror}
+	 * @return the target image or a new Img if target was null
+	 * @throws IllegalArgumentException if radius is negative or too large (&gt;32766),
+	 * if the percentile is not within [0,1] or if target is of different dimensions than img
+	 * 
+	 * @see #rank(Img, Img, int, int, int)
+	 */
+	public static Img percentile(Img img, Img target, int radius, double percentile, int boundaryMode){
+		if(!(percentile >= 0 && percentile <= 1)){
+			throw new IllegalArgumentException(String.format(
+					"Percentile has to be within [0,1] but is %f.", percentile));
+		}
+		long n = (2L*radius+1)*(2L*radius+1);
+		return rank(img, target, radius, (int)Math.round(percentile*(n-1)), boundaryMode);
+	}
+
+	/**
+	 * Applies a rank filter with a square window of size (2*radius+1) to each channel
+	 * of the specified image. The rank filter selects the value of the specified rank
+	 * from the sorted values within the window, i.e. rank 0 selects the minimum,
+	 * rank (2*radius+1)^2 / 2 the median and rank (2*radius+1)^2 -1 the maximum.
+	 * The result is stored in the specified target image, which may be the source image itself
+	 * or null in which case a new Img is created.
+	 * @param img to be filtered
+	 * @param target (may be null) image to store the result in, may be the same as img
+	 * @param radius of the window, 0 results in a copy
+	 * @param rank in [0, (2*radius+1)^2)
+	 * @param boundaryMode one of the boundary modes e.g. {@link Img#boundary_mode_mirror}
+	 * @return the target image or a new Img if target was null
+	 * @throws IllegalArgumentException if radius is negative or too large (&gt;32766),
+	 * if the rank is out of range or if target is of different dimensions than img
+	 */
+	public static Img rank(Img img, Img target, int radius, int rank, int boundaryMode){
+		if(radius < 0 || radius > MAX_RADIUS){
+			throw new IllegalArgumentException(String.format(
+					"Radius has to be within [0,%d] but is %d.", MAX_RADIUS, radius));
+		}
+		long n = (2L*radius+1)*(2L*radius+1);
+		if(rank < 0 || rank >= n){
+			throw new IllegalArgumentException(String.format(
+					"Rank has to be within [0,%d) for radius %d but is %d.", n, radius, rank));
+		}
+		if(target == null){
+			target = new Img(img.getDimension());
+		} else if(!target.getDimension().equals(img.getDimension())){
+			throw new IllegalArgumentException(String.format(
+					"specified target is of wrong dimensions. Expected %s but has %s.", 
+					img.getDimension(), target.getDimension()));
+		}
+		if(radius == 0){
+			System.arraycopy(img.getData(), 0, target.getData(), 0, img.numValues());
+			return target;
+		}
+		// filtering reads neighbors that may already have been written when operating in place
+		int[] src = target == img ? img.getData().clone() : img.getData();
+		int[] dst = target.getData();
+		int w = img.getWidth();
+		int h = img.getHeight();
+		if(radius == 1 && rank == 4){
+			medianNetwork(src, dst, w, h, 1, MED9, boundaryMode);
+		} else if(radius == 2 && rank == 12){
+			medianNetwork(src, dst, w, h, 2, MED25, boundaryMode);
+		} else {
+			rankHistogram(src, dst, w, h, radius, rank, boundaryMode);
+		}
+		return target;
+	}
+
+
+	private static void medianNetwork(
+			final int[] src, final int[] dst, final int w, final int h, final int r, 
+			final byte[] network, final int boundaryMode)
+	{
+		final int d = 2*r+1;
+		final int mid = (d*d)/2;
+		final int constant = FilterUtils.boundaryConstant(boundaryMode);
+		final int[] colIdx = paddedIndices(w, r, boundaryMode);
+		FilterUtils.parallelRanges(h, (from,to)->{
+			final int[] rowOff = new int[d];
+			final int[] p = new int[d*d];
+			for(int y = from; y < to; y++){
+				for(int dy = 0; dy < d; dy++){
+					int yy = FilterUtils.boundaryIndex(y+dy-r, h, boundaryMode);
+					rowOff[dy] = yy < 0 ? -1 : yy*w;
+				}
+				for(int x = 0; x < w; x++){
+					// gather window
+					for(int dy = 0, i = 0; dy < d; dy++){
+						final int ro = rowOff[dy];
+						for(int dx = 0; dx < d; dx++, i++){
+							final int xx = colIdx[x+dx];
+							p[i] = (ro < 0 || xx < 0) ? constant:src[ro+xx];
+						}
+					}
+					// compare exchange on all channels at once
+					for(int k = 0; k < network.length; k+=2){
+						final int a = network[k], b = network[k+1];
+						final int pa = p[a], pb = p[b];
+						final int swap = (pa^pb) & FilterUtils.greaterMaskARGB(pa, pb);
+						p[a] = pa ^ swap;
+						p[b] = pb ^ swap;
+					}
+					dst[y*w+x] = p[mid];
+				}
+			}
+		});
+	}
+
+	private static void rankHistogram(
+			final int[] src, final int[] dst, final int w, final int h, final int r, 
+			final int rank, final int boundaryMode)
+	{
+		final int d = 2*r+1;
+		final int nc = w+2*r;
+		final int[] colIdx = paddedIndices(w, r, boundaryMode);
+		final int constant = FilterUtils.boundaryConstant(boundaryMode);
+		/* initializing the column histograms of a strip requires reading 2r+1 rows,
+		 * so strips should not be too thin compared to the window size */
+		final int cores = Runtime.getRuntime().availableProcessors();
+		final int numStrips = Math.max(Math.min(cores, h), Math.min(cores*4, h/(4*d)));
+		FilterUtils.parallelRanges(h, numStrips, (from,to)->{
+			final char[] colFine = new char[nc*256];
+			final char[] colCoarse = new char[nc*16];
+			final int[] fine = new int[256];
+			final int[] coarse = new int[16];
+			final int[] lastUpdate = new int[16];
+			for(int shift = 24; shift >= 0; shift -= 8){
+				final int constVal = (constant >>> shift) & 0xff;
+				// initialize column histograms for first row of strip
+				Arrays.fill(colFine, (char)0);
+				Arrays.fill(colCoarse, (char)0);
+				for(int dy = -r; dy <= r; dy++){
+					int yy = FilterUtils.boundaryIndex(from+dy, h, boundaryMode);
+					int ro = yy < 0 ? -1 : yy*w;
+					for(int j = 0; j < nc; j++){
+						int xx = colIdx[j];
+						int v = (ro < 0 || xx < 0) ? constVal : (src[ro+xx] >>> shift) & 0xff;
+						colFine[j*256+v]++;
+						colCoarse[j*16+(v>>4)]++;
+					}
+				}
+				for(int y = from; y < to; y++){
+					if(y > from){
+						// move column histograms down by one row
+						int yOld = FilterUtils.boundaryIndex(y-r-1, h, boundaryMode);
+						int yNew = FilterUtils.boundaryIndex(y+r, h, boundaryMode);
+						int roOld = yOld < 0 ? -1 : yOld*w;
+						int roNew = yNew < 0 ? -1 : yNew*w;
+						for(int j = 0; j < nc; j++){
+							int xx = colIdx[j];
+							int vOld = (roOld < 0 || xx < 0) ? constVal : (src[roOld+xx] >>> shift) & 0xff;
+							int vNew = (roNew < 0 || xx < 0) ? constVal : (src[roNew+xx] >>> shift) & 0xff;
+							if(vOld != vNew){
+								colFine[j*256+vOld]--;
+								colCoarse[j*16+(vOld>>4)]--;
+								colFine[j*256+vNew]++;
+								colCoarse[j*16+(vNew>>4)]++;
+							}
+						}
+					}
+					// initialize coarse window histogram with first d columns
+					Arrays.fill(coarse, 0);
+					Arrays.fill(lastUpdate, 0);
+					for(int j = 0; j < d; j++){
+						for(int k = 0; k < 16; k++){
+							coarse[k] += colCoarse[j*16+k];
+						}
+					}
+					final int row = y*w;
+					for(int x = 0; x < w; x++){
+						if(x > 0){
+							final int add = (x+d-1)*16;
+							final int sub = (x-1)*16;
+							for(int k = 0; k < 16; k++){
+								coarse[k] += colCoarse[add+k] - colCoarse[sub+k];
+							}
+						}
+						// find coarse bin containing the rank
+						int sum = 0;
+						int k = 0;
+						while(sum + coarse[k] <= rank){
+							sum += coarse[k++];
+						}
+						// bring corresponding segment of fine histogram up to date
+						final int seg = k*16;
+						if(lastUpdate[k] <= x){
+							// segment is too outdated, sum up window from scratch
+							Arrays.fill(fine, seg, seg+16, 0);
+							for(int j = x; j < x+d; j++){
+								final int off = j*256+seg;
+								for(int i = 0; i < 16; i++){
+									fine[seg+i] += colFine[off+i];
+								}
+							}
+						} else {
+							for(int j = lastUpdate[k]; j < x+d; j++){
+								final int offAdd = j*256+seg;
+								final int offSub = (j-d)*256+seg;
+								for(int i = 0; i < 16; i++){
+									fine[seg+i] += colFine[offAdd+i] - colFine[offSub+i];
+								}
+							}
+						}
+						lastUpdate[k] = x+d;
+						// find fine bin containing the rank
+						int v = seg;
+						while(sum + fine[v] <= rank){
+							sum += fine[v++];
+						}
+						if(shift == 24){
+							dst[row+x] = v << 24;
+						} else {
+							dst[row+x] |= v << shift;
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return array of size+2r that maps padded indices to image indices 
+	 * according to the boundary mode (or -1 for constant values).
+	 */
+	private static int[] paddedIndices(int size, int r, int boundaryMode){
+		int[] indices = new int[size+2*r];
+		for(int j = 0; j < indices.length; j++){
+			indices[j] = FilterUtils.boundaryIndex(j-r, size, boundaryMode);
+		}
+		return indices;
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 David Haegele
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+
+package hageldave.imagingkit.core.io;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Helper for the asynchronous methods of {@link ImageLoader} and {@link ImageSaver}.
+ * @author hageldave
+ * @since 2.2
+ */
+final class AsyncIO {
+
+	private AsyncIO(){/* not constructable */}
+
+	/** lazily created default executor */
+	private static final class DefaultExecutor {
+		static final ThreadPoolExecutor INSTANCE;
+		static {
+			int numThreads = Runtime.getRuntime().availableProcessors();
+			AtomicInteger threadCount = new AtomicInteger();
+			INSTANCE = new ThreadPoolExecutor(
+					numThreads, numThreads, 
+					10, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<>(), 
+					runnable->{
+						Thread t = new Thread(runnable, "ImagingKit IO " + threadCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+			// idle threads go away so that an unused pool does not occupy resources
+			INSTANCE.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	/**
+	 * Returns the executor used by the asynchronous methods of {@link ImageLoader} and
+	 * {@link ImageSaver} when no executor is specified. It uses as many daemon threads as 
+	 * there are available processors.
+	 * @return default executor
+	 */
+	static Executor defaultExecutor(){
+		return DefaultExecutor.INSTANCE;
+	}
+
+	/**
+	 * Runs the specified supplier on the specified executor.
+	 * In contrast to {@link CompletableFuture#supplyAsync(Supplier, Executor)}, an exception
+	 * thrown by the supplier is not wrapped in a {@link java.util.concurrent.CompletionException} 
+	 * but is the exception the returned future is completed with.
+	 * @param supplier to run
+	 * @param executor to run on
+	 * @return future of the supplier's result
+	 */
+	static <T> CompletableFuture<T> supply(Supplier<T> supplier, Executor executor){
+		CompletableFuture<T> future = new CompletableFuture<>();
+		Runnable task = ()->{
+			if(future.isDone()){
+				// cancelled before it was started
+				return;
+			}
+			try {
+				future.complete(supplier.get());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RuntimeException e) {
+			// e.g. RejectedExecutionException
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2017 David Haegele
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+
+package hageldave.imagingkit.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
+import hageldave.imagingkit.core.io.ImageSaver.ImageSaverException;
+
+/**
+ * Class for loading and saving many images concurrently.
+ * <p>
+ * Images are decoded and encoded by a number of worker threads (the parallelism) using
+ * {@link ImageLoader#loadImg(File, java.awt.Rectangle, int, int)} and 
+ * {@link ImageSaver#saveImage(java.awt.Image, File)}. 
+ * To keep memory consumption bounded, the number of pixels of all images that are in flight 
+ * (i.e. being decoded, waiting to be delivered or waiting to be encoded) is limited by a 
+ * pixel budget. When the budget is used up, no further image is started until enough 
+ * pixels have been released. An image that is larger than the whole budget is processed 
+ * on its own.
+ * <p>
+ * Example: converting a list of PNG files to JPEG
+ * <pre>
+ * {@code
+ * BatchImageIO batch = new BatchImageIO(4, 1<<24);
+ * batch.loadAll(pngFiles, false, (file,img)->{
+ *     ImageSaver.saveImage(img.getRemoteBufferedImage(), toJpgFile(file));
+ * });
+ * }
+ * </pre>
+ * The methods of this class block until all images have been processed. The first failure
+ * aborts the whole batch, images that are still in flight are discarded.
+ * 
+ * @author hageldave
+ * @since 2.2
+ */
+public class BatchImageIO {
+
+	/** default pixel budget of 2^26 pixels, corresponding to 256MB of ARGB data */
+	public static final long DEFAULT_PIXEL_BUDGET = 1L<<26;
+
+	private final int parallelism;
+	private final int pixelBudget;
+
+	/**
+	 * Creates a new BatchImageIO that uses as many threads as there are available processors
+	 * and the {@link #DEFAULT_PIXEL_BUDGET}.
+	 */
+	public BatchImageIO() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_PIXEL_BUDGET);
+	}
+
+	/**
+	 * Creates a new BatchImageIO.
+	 * @param parallelism number of images that are decoded or encoded at the same time
+	 * @param pixelBudget maximum number of pixels of all images in flight. 
+	 * Values beyond {@link Integer#MAX_VALUE} are clamped.
+	 * @throws IllegalArgumentException if parallelism or pixelBudget is not positive
+	 */
+	public BatchImageIO(int parallelism, long pixelBudget) {
+		if(parallelism < 1){
+			throw new IllegalArgumentException(String.format(
+					"Parallelism has to be positive, but is %d.", parallelism));
+		}
+		if(pixelBudget < 1){
+			throw new IllegalArgumentException(String.format(
+					"Pixel budget has to be positive, but is %d.", pixelBudget));
+		}
+		this.parallelism = parallelism;
+		this.pixelBudget = (int)Math.min(pixelBudget, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return number of images that are decoded or encoded at the same time
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @return maximum number of pixels of all images in flight
+	 */
+	public long getPixelBudget() {
+		return pixelBudget;
+	}
+
+	/**
+	 * Loads the specified image files concurrently and passes each loaded Img along with
+	 * its file to the specified consumer. 
+	 * The consumer is called on the calling thread, either in the order of the files
+	 * or in the order in which decoding finishes. 
+	 * An Img counts against the pixel budget until the consumer returns, so it has to be copied
+	 * if it is retained in order for the budget to be meaningful.
+	 * <p>
+	 * The image headers are read on the calling thread to determine
+	 * the number of pixels before an image is handed to a worker thread.
+	 * 
+	 * @param files the image files to load
+	 * @param inputOrder true when images are to be delivered in the order of the files,
+	 * false when they are to be delivered as soon as they are loaded.
+	 * @param consumer to which the loaded images are passed
+	 * @throws ImageLoaderException if one of the files does not exist or no image could be
+	 * loaded from it, or if the calling thread is interrupted.
+	 */
+	public void loadAll(Iterable<File> files, boolean inputOrder, BiConsumer<File, Img> consumer){
+		Batch<File> batch = new Batch<>(inputOrder, consumer);
+		try {
+			for(File file: files){
+				long numPixels = readNumPixels(file);
+				batch.submit(file, numPixels, ()->{
+					try {
+						return ImageLoader.loadImg(file, null, 1, 1);
+					} catch (ImageLoaderException e) {
+						throw new ImageLoaderException("Could not load image " + file, e);
+					}
+				});
+			}
+			batch.finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImageLoaderException(e);
+		} finally {
+			batch.shutdown();
+		}
+	}
+
+	/**
+	 * Loads the specified image files concurrently and passes each loaded Img along with
+	 * its file to the specified consumer. 
+	 * See {@link #loadAll(Iterable, boolean, BiConsumer)} for details.
+	 * @param files the image files to load
+	 * @param inputOrder true when images are to be delivered in the order of the files,
+	 * false when they are to be delivered as soon as they are loaded.
+	 * @param consumer to which the loaded images are passed
+	 * @throws ImageLoaderException if one of the files does not exist or no image could be
+	 * loaded from it, or if the calling thread is interrupted.
+	 */
+	public void loadAll(Stream<File> files, boolean inputOrder, BiConsumer<File, Img> consumer){
+		loadAll((Iterable<File>)files::iterator, inputOrder, consumer);
+	}
+
+	/**
+	 * Saves images concurrently. For each of the specified items, the Img to save and
+	 * the file to save to are obtained from the specified functions. The image file format
+	 * is determined by the file name's extension (see {@link ImageSaver#saveImage(java.awt.Image, File)}).
+	 * <p>
+	 * The images are obtained on the calling thread, one after another, and count against 
+	 * the pixel budget until they have been saved. When the budget is used up, the calling 
+	 * thread waits for images to be saved before obtaining the next one. 
+	 * This way, the images can be created lazily, e.g. by 
+	 * <pre>
+	 * {@code batch.saveAll(inputFiles, file->process(ImageLoader.loadImg(file)), file->outputFile(file));}
+	 * </pre>
+	 * 
+	 * @param items the items to obtain images and files from
+	 * @param toImg function returning the Img of an item
+	 * @param toFile function returning the file to save the Img of an item to
+	 * @param <T> type of the items
+	 * @throws ImageSaverException if one of the images could not be saved, 
+	 * or if the calling thread is interrupted.
+	 */
+	public <T> void saveAll(Iterable<T> items, Function<? super T, ? extends Img> toImg, Function<? super T, File> toFile){
+		Batch<T> batch = new Batch<>(false, null);
+		try {
+			for(T item: items){
+				Img img = toImg.apply(item);
+				File file = toFile.apply(item);
+				batch.submit(item, img.numValues(), ()->{
+					try {
+						ImageSaver.saveImage(img.getRemoteBufferedImage(), file);
+					} catch (ImageSaverException e) {
+						throw new ImageSaverException("Could not save image " + file, e);
+					}
+					return null;
+				});
+			}
+			batch.finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImageSaverException(e);
+		} finally {
+			batch.shutdown();
+		}
+	}
+
+	/**
+	 * Saves images concurrently. 
+	 * See {@link #saveAll(Iterable, Function, Function)} for details.
+	 * @param items the items to obtain images and files from
+	 * @param toImg function returning the Img of an item
+	 * @param toFile function returning the file to save the Img of an item to
+	 * @param <T> type of the items
+	 * @throws ImageSaverException if one of the images could not be saved, 
+	 * or if the calling thread is interrupted.
+	 */
+	public <T> void saveAll(Stream<T> items, Function<? super T, ? extends Img> toImg, Function<? super T, File> toFile){
+		saveAll((Iterable<T>)items::iterator, toImg, toFile);
+	}
+
+	private static long readNumPixels(File file){
+		try {
+			ImageInputStream iis = ImageLoader.createImageInputStream(file);
+			try {
+				ImageReader reader = ImageLoader.createImageReader(iis);
+				try {
+					return (long)reader.getWidth(0)*reader.getHeight(0);
+				} catch (IOException e) {
+					throw new ImageLoaderException(e);
+				} finally {
+					reader.dispose();
+				}
+			} finally {
+				ImageLoader.closeQuietly(iis);
+			}
+		} catch (ImageLoaderException e) {
+			throw new ImageLoaderException("Could not load image " + file, e);
+		}
+	}
+
+	/** 
+	 * Work in flight. Tasks are submitted and their results collected on the calling thread,
+	 * every acquired permit belongs to an image that is not yet delivered.
+	 */
+	private final class Batch<T> {
+		final ExecutorService executor;
+		final Semaphore budget = new Semaphore(pixelBudget);
+		final BlockingQueue<Task<T>> done = new LinkedBlockingQueue<>();
+		final HashMap<Integer, Task<T>> reorderBuffer = new HashMap<>();
+		final boolean inputOrder;
+		final BiConsumer<T, Img> consumer;
+		int numSubmitted;
+		int numDelivered;
+
+		Batch(boolean inputOrder, BiConsumer<T, Img> consumer) {
+			this.inputOrder = inputOrder;
+			this.consumer = consumer;
+			this.executor = Executors.newFixedThreadPool(parallelism, runnable->{
+				Thread t = new Thread(runnable, "BatchImageIO worker");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+
+		void submit(T item, long numPixels, Supplier<Img> work) throws InterruptedException {
+			int permits = (int)Math.min(numPixels, pixelBudget);
+			// wait for images to finish until enough of the budget is released.
+			// The oldest undelivered image is always still in flight, so this cannot stall.
+			while(!budget.tryAcquire(permits)){
+				collect(done.take());
+			}
+			Task<T> task = new Task<>(numSubmitted++, item, permits);
+			executor.execute(()->{
+				try {
+					task.img = work.get();
+				} catch (Throwable t) {
+					task.failure = t;
+				}
+				done.add(task);
+			});
+			for(Task<T> finished = done.poll(); finished != null; finished = done.poll()){
+				collect(finished);
+			}
+		}
+
+		void finish() throws InterruptedException {
+			while(numDelivered < numSubmitted){
+				collect(done.take());
+			}
+		}
+
+		void shutdown() {
+			executor.shutdownNow();
+		}
+
+		private void collect(Task<T> task){
+			if(task.failure != null){
+				if(task.failure instanceof Error){
+					throw (Error)task.failure;
+				}
+				throw (RuntimeException)task.failure;
+			}
+			if(!inputOrder){
+				deliver(task);
+				return;
+			}
+			reorderBuffer.put(task.index, task);
+			for(Task<T> next = reorderBuffer.remove(numDelivered); next != null; next = reorderBuffer.remove(numDelivered)){
+				deliver(next);
+			}
+		}
+
+		private void deliver(Task<T> task){
+			numDelivered++;
+			try {
+				if(consumer != null){
+					consumer.accept(task.item, task.img);
+				}
+			} finally {
+				task.img = null;
+				budget.release(task.permits);
+			}
+		}
+	}
+
+	private static final class Task<T> {
+		final int index;
+		final T item;
+		final int permits;
+		Img img;
+		Throwable failure;
+
+		Task(int index, T item, int permits) {
+			this.index = index;
+			this.item = item;
+			this.permits = permits;
+		}
+	}
+
+}
@@ -22,16 +22,25 @@
 
 package hageldave.imagingkit.core.io;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 
 import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.util.BufferedImageConverter;
 import hageldave.imagingkit.core.util.BufferedImageFactory;
 
 /**
@@ -185,6 +194,102 @@ public class ImageLoader {
 		return Img.createRemoteImg(loadImage(is, BufferedImage.TYPE_INT_ARGB));
 	}
 	
+	/**
+	 * Tries to load the specified region of an Img from the specified file while
+	 * subsampling it. Only every subsampleX'th column and subsampleY'th row
+	 * of the region is decoded (starting with the region's first column/row), 
+	 * so the resulting Img has dimensions ceil(w/subsampleX) x ceil(h/subsampleY) where
+	 * w and h are the dimensions of the region clipped to the image bounds.
+	 * Pixels outside the region or skipped by subsampling are not stored
+	 * and (depending on the format) not even decoded, which makes this a cheap way of
+	 * loading crops or thumbnails of large images.
+	 * The image color model will be ARGB.
+	 * 
+	 * @param file the image file
+	 * @param roi (may be null) the region of interest to be loaded, null for the whole image
+	 * @param subsampleX horizontal sampling period, 1 for no subsampling
+	 * @param subsampleY vertical sampling period, 1 for no subsampling
+	 * @return loaded Img
+	 * @throws ImageLoaderException if the file does not exist or no image could be loaded
+	 * from it.
+	 * @throws IllegalArgumentException if a sampling period is not positive or if the
+	 * region of interest does not intersect the image.
+	 * @since 2.2
+	 */
+	public static Img loadImg(File file, Rectangle roi, int subsampleX, int subsampleY){
+		sanityCheckSubsampling(subsampleX, subsampleY);
+		ImageInputStream iis = createImageInputStream(file);
+		try {
+			return loadImg(iis, roi, subsampleX, subsampleY);
+		} finally {
+			closeQuietly(iis);
+		}
+	}
+
+	/**
+	 * Tries to load the specified region of an Img from the specified {@link InputStream}
+	 * while subsampling it. 
+	 * See {@link #loadImg(File, Rectangle, int, int)} for details.
+	 * The InputStream is not closed, this is the responsibility of the caller.
+	 * 
+	 * @param is InputStream of the image
+	 * @param roi (may be null) the region of interest to be loaded, null for the whole image
+	 * @param subsampleX horizontal sampling period, 1 for no subsampling
+	 * @param subsampleY vertical sampling period, 1 for no subsampling
+	 * @return loaded Img
+	 * @throws ImageLoaderException if no image could be loaded from the InputStream.
+	 * @throws IllegalArgumentException if a sampling period is not positive or if the
+	 * region of interest does not intersect the image.
+	 * @since 2.2
+	 */
+	public static Img loadImg(InputStream is, Rectangle roi, int subsampleX, int subsampleY){
+		sanityCheckSubsampling(subsampleX, subsampleY);
+		ImageInputStream iis = createImageInputStream(is);
+		try {
+			return loadImg(iis, roi, subsampleX, subsampleY);
+		} finally {
+			closeQuietly(iis);
+		}
+	}
+
+	private static void sanityCheckSubsampling(int subsampleX, int subsampleY){
+		if(subsampleX < 1 || subsampleY < 1){
+			throw new IllegalArgumentException(String.format(
+					"Subsampling periods have to be positive, but are %d and %d.", subsampleX, subsampleY));
+		}
+	}
+
+	private static Img loadImg(ImageInputStream iis, Rectangle roi, int subsampleX, int subsampleY){
+		ImageReader reader = createImageReader(iis);
+		try {
+			Rectangle bounds = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+			Rectangle region = roi == null ? bounds : roi.intersection(bounds);
+			if(region.isEmpty()){
+				throw new IllegalArgumentException(String.format(
+						"Region of interest %s does not intersect image bounds %s.", roi, bounds));
+			}
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(region);
+			param.setSourceSubsampling(subsampleX, subsampleY, 0, 0);
+			Img img = new Img(
+					(region.width +subsampleX-1)/subsampleX, 
+					(region.height+subsampleY-1)/subsampleY);
+			if(findImageType(reader, BufferedImage.TYPE_INT_ARGB) != null){
+				// decode straight into the Img
+				param.setDestination(img.getRemoteBufferedImage());
+				reader.read(0, param);
+			} else {
+				BufferedImage bimg = reader.read(0, param);
+				BufferedImageConverter.getRGB(bimg, 0, 0, img.getWidth(), img.getHeight(), img.getData(), 0, img.getWidth());
+			}
+			return img;
+		} catch (IOException e) {
+			throw new ImageLoaderException(e);
+		} finally {
+			reader.dispose();
+		}
+	}
+
 	/**
 	 * Tries to load an Img from the specified url 
 	 * (e.g. "file:///home/user1/myimage.png" or "http://mywebsite.org/myimage.png").
@@ -206,6 +311,140 @@ public class ImageLoader {
 		}
 	}
 	
+	/**
+	 * Asynchronously loads an Img from the specified file on a default executor 
+	 * with as many daemon threads as there are available processors.
+	 * The image color model will be ARGB.
+	 * @param file the image file
+	 * @return future of the loaded Img. It completes exceptionally with an
+	 * {@link ImageLoaderException} if the file does not exist or no image could be 
+	 * loaded from it.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Img> loadImgAsync(File file){
+		return loadImgAsync(file, AsyncIO.defaultExecutor());
+	}
+
+	/**
+	 * Asynchronously loads an Img from the specified file on the specified executor.
+	 * The image color model will be ARGB.
+	 * @param file the image file
+	 * @param executor to load the image on, e.g. an executor creating a thread per task
+	 * @return future of the loaded Img. It completes exceptionally with an
+	 * {@link ImageLoaderException} if the file does not exist or no image could be 
+	 * loaded from it.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Img> loadImgAsync(File file, Executor executor){
+		return AsyncIO.supply(()->loadImg(file, null, 1, 1), executor);
+	}
+
+	/**
+	 * Asynchronously loads an Img from the specified url on a default executor 
+	 * with as many daemon threads as there are available processors.
+	 * See {@link #loadImgFromURL(String)}.
+	 * @param urlspec the String to parse as a {@link URL}.
+	 * @return future of the loaded Img. It completes exceptionally with an
+	 * {@link ImageLoaderException} if no image could be loaded from the specified url.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Img> loadImgFromURLAsync(String urlspec){
+		return loadImgFromURLAsync(urlspec, AsyncIO.defaultExecutor());
+	}
+
+	/**
+	 * Asynchronously loads an Img from the specified url on the specified executor.
+	 * See {@link #loadImgFromURL(String)}.
+	 * @param urlspec the String to parse as a {@link URL}.
+	 * @param executor to load the image on, e.g. an executor creating a thread per task
+	 * @return future of the loaded Img. It completes exceptionally with an
+	 * {@link ImageLoaderException} if no image could be loaded from the specified url.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Img> loadImgFromURLAsync(String urlspec, Executor executor){
+		return AsyncIO.supply(()->loadImgFromURL(urlspec), executor);
+	}
+
+	/**
+	 * Creates an {@link ImageInputStream} for the specified file.
+	 * @param file the image file
+	 * @return ImageInputStream of the file
+	 * @throws ImageLoaderException if the file cannot be read or no stream could be created
+	 */
+	static ImageInputStream createImageInputStream(File file){
+		if(!file.canRead()){
+			throw new ImageLoaderException(new FileNotFoundException(file.getPath()));
+		}
+		return createImageInputStream((Object)file);
+	}
+
+	/**
+	 * Creates an {@link ImageInputStream} for the specified {@link InputStream}.
+	 * Closing the returned stream does not close the InputStream.
+	 * @param is InputStream of the image
+	 * @return ImageInputStream wrapping the InputStream
+	 * @throws ImageLoaderException if no stream could be created
+	 */
+	static ImageInputStream createImageInputStream(InputStream is){
+		return createImageInputStream((Object)is);
+	}
+
+	private static ImageInputStream createImageInputStream(Object input){
+		try {
+			ImageInputStream iis = ImageIO.createImageInputStream(input);
+			if(iis == null){
+				throw new ImageLoaderException("Could not load Image! ImageIO.createImageInputStream() returned null.");
+			}
+			return iis;
+		} catch (IOException e) {
+			throw new ImageLoaderException(e);
+		}
+	}
+
+	/**
+	 * Finds a suitable {@link ImageReader} for the specified stream and sets
+	 * the stream as its input. The reader has to be disposed by the caller.
+	 * @param iis stream to read from
+	 * @return reader with input set
+	 * @throws ImageLoaderException if no suitable reader is available
+	 */
+	static ImageReader createImageReader(ImageInputStream iis){
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if(!readers.hasNext()){
+			throw new ImageLoaderException("Could not load Image! No suitable ImageReader found.");
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(iis, false, false);
+		return reader;
+	}
+
+	/**
+	 * Returns the image type of the specified reader's first image that corresponds
+	 * to the specified {@link BufferedImage} type.
+	 * @param reader with input set
+	 * @param bufferedImageType e.g. {@link BufferedImage#TYPE_INT_ARGB}
+	 * @return the corresponding type or null if the reader does not support it
+	 * @throws IOException if reading the image header fails
+	 */
+	static ImageTypeSpecifier findImageType(ImageReader reader, int bufferedImageType) throws IOException {
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		while(types.hasNext()){
+			ImageTypeSpecifier type = types.next();
+			if(type.getBufferedImageType() == bufferedImageType){
+				return type;
+			}
+		}
+		return null;
+	}
+
+	static void closeQuietly(ImageInputStream iis){
+		try {
+			iis.close();
+		} catch (IOException e) {
+			// nothing to be done about it
+		}
+	}
+
 	/**
 	 * RuntimeException class for Exceptions that occur during image loading.
 	 * @author hageldave
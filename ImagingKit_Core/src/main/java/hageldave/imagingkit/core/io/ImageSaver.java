@@ -24,14 +24,28 @@ package hageldave.imagingkit.core.io;
 
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
+import hageldave.imagingkit.core.Img;
 import hageldave.imagingkit.core.util.BufferedImageFactory;
 
 /**
@@ -42,6 +56,9 @@ import hageldave.imagingkit.core.util.BufferedImageFactory;
 public class ImageSaver {
 	
 	private ImageSaver(){}
+
+	/** image writers per format, cached for each thread */
+	private static final ThreadLocal<HashMap<String, ImageWriter>> CACHED_WRITERS = ThreadLocal.withInitial(HashMap::new);
 	
 	/**
 	 * @return {@link ImageIO#getWriterFileSuffixes()}
@@ -109,13 +126,163 @@ public class ImageSaver {
 		} else {
 			rImg = BufferedImageFactory.getINT_ARGB(image);
 		}
-		try { 
-			boolean success = ImageIO.write(rImg, imgFileFormat, os);
-			if(!success){
+		write(rImg, os, imgFileFormat, null);
+	}
+
+	/**
+	 * Saves the specified Img to the specified {@link OutputStream} using the
+	 * specified {@link WriteOptions}.
+	 * <p>
+	 * In contrast to {@link #saveImage(Image, OutputStream, String)} the Img's data
+	 * is handed to the image writer directly without being redrawn. For RGB only 
+	 * formats (see {@link #isFormatRGBOnly(String)}) the alpha channel is ignored,
+	 * for black and white formats the image is converted to type BYTE_BINARY.
+	 * The image writer of the format is reused for subsequent calls on the same thread.
+	 * <p>
+	 * The provided {@link OutputStream} will not be closed, this is the
+	 * responsibility of the caller.
+	 * @param img to be saved
+	 * @param os {@link OutputStream} to write image to.
+	 * @param imgFileFormat image file format. Consult {@link #getSaveableImageFileFormats()}
+	 * to get the supported img file formats of your system. 
+	 * @param options (may be null) encoder options, null for the writer's defaults
+	 * @throws ImageSaverException if an IOException occurred during 
+	 * the process or no appropriate writer could be found for specified format.
+	 * @since 2.2
+	 */
+	public static void saveImg(Img img, OutputStream os, String imgFileFormat, WriteOptions options){
+		final RenderedImage rImg;
+		if( isFormatRGBOnly(imgFileFormat) ){
+			rImg = getRemoteRGBImage(img);
+		} else 
+		if( isFormatBWOnly(imgFileFormat) ){
+			rImg = BufferedImageFactory.get(img.getRemoteBufferedImage(), BufferedImage.TYPE_BYTE_BINARY);
+		} else {
+			rImg = img.getRemoteBufferedImage();
+		}
+		write(rImg, os, imgFileFormat, options);
+	}
+
+	/**
+	 * Saves the specified Img to the specified file using the specified {@link WriteOptions}.
+	 * See {@link #saveImg(Img, OutputStream, String, WriteOptions)}.
+	 * @param img to be saved
+	 * @param file to save image to
+	 * @param imgFileFormat image file format. Consult {@link #getSaveableImageFileFormats()}
+	 * to get the supported img file formats of your system. 
+	 * @param options (may be null) encoder options, null for the writer's defaults
+	 * @throws ImageSaverException if an IOException occurred during 
+	 * the process or no appropriate writer could be found for specified format.
+	 * @since 2.2
+	 */
+	public static void saveImg(Img img, File file, String imgFileFormat, WriteOptions options){
+		try (FileOutputStream fos = new FileOutputStream(file)){
+			saveImg(img, fos, imgFileFormat, options);
+		} catch (IOException e) {
+			throw new ImageSaverException(e);
+		}
+	}
+
+	/**
+	 * Saves the specified Img to the specified file using the specified {@link WriteOptions}.
+	 * The file format is extracted from the file's name.
+	 * See {@link #saveImg(Img, OutputStream, String, WriteOptions)}.
+	 * @param img to be saved
+	 * @param file to save image to
+	 * @param options (may be null) encoder options, null for the writer's defaults
+	 * @throws ImageSaverException if an IOException occurred during 
+	 * the process, the filename does not contain a dot to get the filetype
+	 * or no appropriate writer could be found for specified format.
+	 * @since 2.2
+	 */
+	public static void saveImg(Img img, File file, WriteOptions options){
+		saveImg(img, file, getFileFormat(file), options);
+	}
+
+	/**
+	 * Disposes the image writers that were cached for the calling thread.
+	 * Image writers are cached per thread and format to avoid looking them up and 
+	 * creating them for every image that is saved.
+	 * <p>
+	 * Only the calling thread's cache is cleared. Writers cached by other threads, 
+	 * e.g. the threads of the executor used for asynchronous saving, are not disposed 
+	 * by this method (they are released when their thread terminates and they are garbage collected).
+	 * @since 2.2
+	 */
+	public static void clearWriterCache(){
+		HashMap<String, ImageWriter> writers = CACHED_WRITERS.get();
+		writers.values().forEach(ImageWriter::dispose);
+		writers.clear();
+	}
+
+	private static void write(RenderedImage image, OutputStream os, String imgFileFormat, WriteOptions options){
+		String key = imgFileFormat.toLowerCase();
+		HashMap<String, ImageWriter> writers = CACHED_WRITERS.get();
+		ImageWriter writer = writers.remove(key);
+		if(writer != null && !canEncode(writer, image)){
+			// cached writer stays available for images it can encode
+			writers.put(key, writer);
+			writer = null;
+		}
+		if(writer == null){
+			// like ImageIO.write, use the first writer that can encode the image
+			Iterator<ImageWriter> candidates = ImageIO.getImageWritersByFormatName(key);
+			while(candidates.hasNext() && writer == null){
+				ImageWriter candidate = candidates.next();
+				if(canEncode(candidate, image)){
+					writer = candidate;
+				} else {
+					candidate.dispose();
+				}
+			}
+			if(writer == null){
 				throw new ImageSaverException("Could not save Image! No appropriate writer was found.");
 			}
+		}
+		boolean reusable = false;
+		try {
+			ImageWriteParam param = options == null ? null:options.createParam(writer);
+			// caching in memory, ImageIO.write would use a temporary file per default
+			try(ImageOutputStream ios = new MemoryCacheImageOutputStream(os)){
+				writer.setOutput(ios);
+				writer.write(null, new IIOImage(image, null, null), param);
+			}
+			reusable = true;
 		} catch (IOException e) {
 			throw new ImageSaverException(e);
+		} finally {
+			// writer is only taken out of the cache while in use so that a failed one is not reused
+			if(reusable){
+				writer.reset();
+				ImageWriter replaced = writers.put(key, writer);
+				if(replaced != null && replaced != writer){
+					replaced.dispose();
+				}
+			} else {
+				writer.dispose();
+			}
+		}
+	}
+
+	private static boolean canEncode(ImageWriter writer, RenderedImage image){
+		return writer.getOriginatingProvider() == null || writer.getOriginatingProvider().canEncodeImage(image);
+	}
+
+	/** view of the Img's data as {@link BufferedImage#TYPE_INT_RGB}, ignoring alpha */
+	private static BufferedImage getRemoteRGBImage(Img img){
+		DirectColorModel cm = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+		DataBufferInt buffer = new DataBufferInt(img.getData(), img.numValues());
+		WritableRaster raster = Raster.createPackedRaster(
+				buffer, img.getWidth(), img.getHeight(), img.getWidth(), cm.getMasks(), null);
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+	private static String getFileFormat(File file){
+		int dotIndex = file.getName().lastIndexOf('.');
+		if(dotIndex >= 0){
+			return file.getName().substring(dotIndex+1, file.getName().length());
+		} else {
+			throw new ImageSaverException("could not detect file format from file name. Missing dot. " + file.getName());
 		}
 	}
 	
@@ -172,14 +339,7 @@ public class ImageSaver {
 	 * @since 1.0
 	 */
 	public static void saveImage(Image image, File file){
-		// get file ending
-		int dotIndex = file.getName().lastIndexOf('.');
-		if(dotIndex >= 0){
-			String ending = file.getName().substring(dotIndex+1, file.getName().length());
-			saveImage(image, file, ending);
-		} else {
-			throw new ImageSaverException("could not detect file format from file name. Missing dot. " + file.getName());
-		}
+		saveImage(image, file, getFileFormat(file));
 	}
 	
 	/**
@@ -202,6 +362,187 @@ public class ImageSaver {
 		}
 	}
 	
+	/**
+	 * Asynchronously saves Image using {@link #saveImage(Image, File)} on a default executor 
+	 * with as many daemon threads as there are available processors.
+	 * The image must not be modified until the returned future is completed.
+	 * @param image to be saved
+	 * @param file to save image to
+	 * @return future that completes when the image is saved. It completes exceptionally with
+	 * an {@link ImageSaverException} if an IOException occurred during the process, 
+	 * the filename does not contain a dot to get the filetype
+	 * or no appropriate writer could be found for specified format.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Void> saveImageAsync(Image image, File file){
+		return saveImageAsync(image, file, AsyncIO.defaultExecutor());
+	}
+
+	/**
+	 * Asynchronously saves Image using {@link #saveImage(Image, File)} on the specified executor.
+	 * The image must not be modified until the returned future is completed.
+	 * @param image to be saved
+	 * @param file to save image to
+	 * @param executor to save the image on, e.g. an executor creating a thread per task
+	 * @return future that completes when the image is saved. It completes exceptionally with
+	 * an {@link ImageSaverException} if an IOException occurred during the process, 
+	 * the filename does not contain a dot to get the filetype
+	 * or no appropriate writer could be found for specified format.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Void> saveImageAsync(Image image, File file, Executor executor){
+		return AsyncIO.supply(()->{
+			saveImage(image, file);
+			return null;
+		}, executor);
+	}
+
+	/**
+	 * Asynchronously saves Image using {@link #saveImage(Image, File, String)} on the 
+	 * specified executor.
+	 * The image must not be modified until the returned future is completed.
+	 * @param image to be saved
+	 * @param file to save image to
+	 * @param imgFileFormat format of the image file
+	 * @param executor to save the image on, e.g. an executor creating a thread per task
+	 * @return future that completes when the image is saved. It completes exceptionally with
+	 * an {@link ImageSaverException} if an IOException occurred during the process or 
+	 * no appropriate writer could be found for specified format.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Void> saveImageAsync(Image image, File file, String imgFileFormat, Executor executor){
+		return AsyncIO.supply(()->{
+			saveImage(image, file, imgFileFormat);
+			return null;
+		}, executor);
+	}
+
+	/**
+	 * Asynchronously saves Image using {@link #saveImage(Image, OutputStream, String)} on the 
+	 * specified executor. 
+	 * The image must not be modified and the OutputStream must not be closed
+	 * until the returned future is completed.
+	 * @param image to be saved
+	 * @param os OutputStream to write image to
+	 * @param imgFileFormat format of the image
+	 * @param executor to save the image on, e.g. an executor creating a thread per task
+	 * @return future that completes when the image is written. It completes exceptionally with
+	 * an {@link ImageSaverException} if an IOException occurred during the process or 
+	 * no appropriate writer could be found for specified format.
+	 * @since 2.2
+	 */
+	public static CompletableFuture<Void> saveImageAsync(Image image, OutputStream os, String imgFileFormat, Executor executor){
+		return AsyncIO.supply(()->{
+			saveImage(image, os, imgFileFormat);
+			return null;
+		}, executor);
+	}
+
+	/**
+	 * Options for encoding an image, which are translated into an {@link ImageWriteParam} 
+	 * for the image writer of the format. Options that are not supported by a format's 
+	 * writer are ignored, options that were not set keep the writer's defaults.
+	 * <p>
+	 * Example:
+	 * <pre>
+	 * {@code
+	 * // JPEG with 90% quality
+	 * ImageSaver.saveImg(img, new File("img.jpg"), new WriteOptions().setCompressionQuality(0.9f));
+	 * // fast PNG encoding with little compression (requires Java 9 or later)
+	 * ImageSaver.saveImg(img, new File("img.png"), new WriteOptions().setCompressionQuality(1f));
+	 * }
+	 * </pre>
+	 * @author hageldave
+	 * @since 2.2
+	 */
+	public static class WriteOptions {
+		private float compressionQuality = -1;
+		private String compressionType = null;
+		private Boolean progressive = null;
+
+		/**
+		 * Sets the compression quality (see {@link ImageWriteParam#setCompressionQuality(float)}).
+		 * For JPEG this is the image quality, 
+		 * for PNG it is the inverse of the compression level (1 means no compression, 
+		 * 0 means maximum compression), which trades file size for encoding speed.
+		 * Note that the PNG writer of Java 8 does not support compression settings 
+		 * ({@link ImageWriteParam#canWriteCompressed()} is false), so this option only 
+		 * affects PNG encoding on Java 9 and later and is ignored otherwise.
+		 * @param quality between 0 and 1
+		 * @return this
+		 * @throws IllegalArgumentException if quality is not within [0,1]
+		 */
+		public WriteOptions setCompressionQuality(float quality){
+			if(!(quality >= 0 && quality <= 1)){
+				throw new IllegalArgumentException(String.format(
+						"Compression quality has to be within [0,1], but is %f.", quality));
+			}
+			this.compressionQuality = quality;
+			return this;
+		}
+
+		/**
+		 * Sets the compression type (see {@link ImageWriteParam#getCompressionTypes()}), 
+		 * e.g. "LZW" for TIFF.
+		 * @param compressionType name of the compression type
+		 * @return this
+		 */
+		public WriteOptions setCompressionType(String compressionType){
+			this.compressionType = compressionType;
+			return this;
+		}
+
+		/**
+		 * Sets whether the image is to be written progressively (interlaced),
+		 * e.g. progressive JPEG or interlaced PNG.
+		 * @param progressive true for progressive encoding
+		 * @return this
+		 */
+		public WriteOptions setProgressive(boolean progressive){
+			this.progressive = progressive;
+			return this;
+		}
+
+		/** @return the compression quality or -1 if not set */
+		public float getCompressionQuality() {
+			return compressionQuality;
+		}
+
+		/** @return the compression type or null if not set */
+		public String getCompressionType() {
+			return compressionType;
+		}
+
+		/** @return whether progressive encoding was requested, or null if not set */
+		public Boolean getProgressive() {
+			return progressive;
+		}
+
+		/**
+		 * Creates the write parameters for the specified writer.
+		 * @param writer the image writer
+		 * @return parameters corresponding to these options
+		 */
+		ImageWriteParam createParam(ImageWriter writer){
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if((compressionQuality >= 0 || compressionType != null) && param.canWriteCompressed()){
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				if(compressionType != null){
+					param.setCompressionType(compressionType);
+				} else if(param.getCompressionType() == null && param.getCompressionTypes() != null){
+					param.setCompressionType(param.getCompressionTypes()[0]);
+				}
+				if(compressionQuality >= 0){
+					param.setCompressionQuality(compressionQuality);
+				}
+			}
+			if(progressive != null && param.canWriteProgressive()){
+				param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT:ImageWriteParam.MODE_DISABLED);
+			}
+			return param;
+		}
+	}
+
 	/**
 	 * RuntimeException class for Exceptions that occur during image saving.
 	 * @author hageldave
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2017 David Haegele
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+
+package hageldave.imagingkit.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
+import hageldave.imagingkit.core.io.ImageSaver.ImageSaverException;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * Class providing methods for saving and loading {@link Img}s and {@link ColorImg}s
+ * in an uncompressed binary format. 
+ * The format is meant for storing intermediate results as fast as possible 
+ * and without any loss of precision, it is not meant for exchanging images with other software.
+ * <p>
+ * A file consists of a 32 byte header followed by the pixel data.
+ * All values are stored in little endian byte order. The header consists of 8 ints:
+ * <pre>
+ * magic number 'I','K','R','W' | version | element type | layout 
+ * width | height | number of channels | reserved (0)
+ * </pre>
+ * An {@link Img} is stored as {@link #ELEMENT_TYPE_INT32} with {@link #LAYOUT_PACKED_ARGB},
+ * i.e. exactly as its data array. A {@link ColorImg} is stored as {@link #ELEMENT_TYPE_FLOAT64} 
+ * with {@link #LAYOUT_PLANAR}, i.e. its channel arrays one after another.
+ * <p>
+ * Files are written using gather writes of a {@link FileChannel} and read by
+ * memory mapping them. {@link #map(File)} gives access to the data of a file without 
+ * copying it to the heap.
+ * 
+ * @author hageldave
+ * @since 2.2
+ */
+public class RawImageIO {
+
+	private RawImageIO(){}
+
+	/** element type of 32 bit integers */
+	public static final int ELEMENT_TYPE_INT32 = 1;
+	/** element type of 64 bit floating point numbers */
+	public static final int ELEMENT_TYPE_FLOAT64 = 2;
+	/** layout of a single channel of packed 8 bit per channel ARGB values */
+	public static final int LAYOUT_PACKED_ARGB = 1;
+	/** layout of separate channel planes (row major) stored one after another */
+	public static final int LAYOUT_PLANAR = 2;
+
+	/** current format version */
+	static final int VERSION = 1;
+	/** 'I','K','R','W' read as little endian int */
+	static final int MAGIC = 'I' | 'K'<<8 | 'R'<<16 | 'W'<<24;
+	static final int HEADER_SIZE = 32;
+
+	/** size of the staging buffers used for writing */
+	private static final int STAGING_SIZE = 1<<20;
+	/** number of staging buffers written with a single gather write */
+	private static final int NUM_STAGING = 8;
+	/** maximum number of bytes mapped at once when loading */
+	private static final int MAX_MAPPING_SIZE = 1<<30;
+
+	/**
+	 * Saves the specified Img to the specified file.
+	 * @param img to be saved
+	 * @param file to save to
+	 * @throws ImageSaverException if an IOException occurs
+	 */
+	public static void saveImg(Img img, File file){
+		try(FileChannel channel = openForWriting(file)){
+			Stager stager = new Stager(channel, header(ELEMENT_TYPE_INT32, LAYOUT_PACKED_ARGB, img.getWidth(), img.getHeight(), 1));
+			stager.put(img.getData());
+			stager.flush();
+		} catch (IOException e) {
+			throw new ImageSaverException(e);
+		}
+	}
+
+	/**
+	 * Saves the specified ColorImg to the specified file.
+	 * @param img to be saved
+	 * @param file to save to
+	 * @throws ImageSaverException if an IOException occurs
+	 */
+	public static void saveColorImg(ColorImg img, File file){
+		double[][] data = img.getData();
+		try(FileChannel channel = openForWriting(file)){
+			Stager stager = new Stager(channel, header(ELEMENT_TYPE_FLOAT64, LAYOUT_PLANAR, img.getWidth(), img.getHeight(), data.length));
+			for(double[] plane: data){
+				stager.put(plane);
+			}
+			stager.flush();
+		} catch (IOException e) {
+			throw new ImageSaverException(e);
+		}
+	}
+
+	/**
+	 * Loads an Img from the specified file that was saved using {@link #saveImg(Img, File)}.
+	 * @param file to load from
+	 * @return loaded Img
+	 * @throws ImageLoaderException if an IOException occurs, the file is not a valid raw image file 
+	 * or does not contain an Img.
+	 */
+	public static Img loadImg(File file){
+		try(FileChannel channel = openForReading(file)){
+			Header header = readHeader(channel, file);
+			header.require(ELEMENT_TYPE_INT32, LAYOUT_PACKED_ARGB, 1);
+			Img img = new Img(header.width, header.height);
+			readPlane(channel, HEADER_SIZE, img.getData(), null);
+			return img;
+		} catch (IOException e) {
+			throw new ImageLoaderException(e);
+		}
+	}
+
+	/**
+	 * Loads a ColorImg from the specified file that was saved using 
+	 * {@link #saveColorImg(ColorImg, File)}.
+	 * @param file to load from
+	 * @return loaded ColorImg
+	 * @throws ImageLoaderException if an IOException occurs, the file is not a valid raw image file 
+	 * or does not contain a ColorImg.
+	 */
+	public static ColorImg loadColorImg(File file){
+		try(FileChannel channel = openForReading(file)){
+			Header header = readHeader(channel, file);
+			header.require(ELEMENT_TYPE_FLOAT64, LAYOUT_PLANAR, header.channels == 4 ? 4:3);
+			ColorImg img = new ColorImg(header.width, header.height, header.channels == 4);
+			double[][] data = img.getData();
+			for(int c = 0; c < data.length; c++){
+				readPlane(channel, HEADER_SIZE+c*header.planeSize(), null, data[c]);
+			}
+			return img;
+		} catch (IOException e) {
+			throw new ImageLoaderException(e);
+		}
+	}
+
+	/**
+	 * Maps the specified raw image file into memory without copying its data to the heap.
+	 * The data is accessible through read only buffers, which is useful for images that are
+	 * too large for the heap or when only a part of the data is needed.
+	 * The mapping stays valid until the returned object is garbage collected, 
+	 * the file should not be modified in the meantime.
+	 * @param file to map
+	 * @return mapped image
+	 * @throws ImageLoaderException if an IOException occurs, the file is not a valid raw image 
+	 * file or a channel plane exceeds 2GB.
+	 */
+	public static MappedImage map(File file){
+		try(FileChannel channel = openForReading(file)){
+			Header header = readHeader(channel, file);
+			long planeSize = header.planeSize();
+			if(planeSize > Integer.MAX_VALUE){
+				throw new ImageLoaderException(String.format(
+						"Cannot map %s, channel planes of %d bytes exceed 2GB.", file, planeSize));
+			}
+			MappedByteBuffer[] planes = new MappedByteBuffer[header.layout == LAYOUT_PLANAR ? header.channels:1];
+			for(int c = 0; c < planes.length; c++){
+				planes[c] = channel.map(MapMode.READ_ONLY, HEADER_SIZE+c*planeSize, planeSize);
+				planes[c].order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new MappedImage(header, planes);
+		} catch (IOException e) {
+			throw new ImageLoaderException(e);
+		}
+	}
+
+	private static FileChannel openForWriting(File file) throws IOException {
+		return FileChannel.open(file.toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	private static FileChannel openForReading(File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	private static ByteBuffer header(int elementType, int layout, int width, int height, int channels){
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header
+		.putInt(MAGIC)
+		.putInt(VERSION)
+		.putInt(elementType)
+		.putInt(layout)
+		.putInt(width)
+		.putInt(height)
+		.putInt(channels)
+		.putInt(0)
+		.flip();
+		return header;
+	}
+
+	private static Header readHeader(FileChannel channel, File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+		if(buffer.hasRemaining() || buffer.getInt(0) != MAGIC){
+			throw new ImageLoaderException(String.format("%s is not a raw image file.", file));
+		}
+		buffer.flip();
+		buffer.getInt();
+		int version = buffer.getInt();
+		if(version != VERSION){
+			throw new ImageLoaderException(String.format(
+					"Unsupported raw image file version %d in %s.", version, file));
+		}
+		Header header = new Header(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+		boolean valid = header.width > 0 && header.height > 0 && header.channels > 0 && (
+				(header.elementType == ELEMENT_TYPE_INT32 && header.layout == LAYOUT_PACKED_ARGB && header.channels == 1) ||
+				(header.elementType == ELEMENT_TYPE_FLOAT64 && header.layout == LAYOUT_PLANAR));
+		if(!valid){
+			throw new ImageLoaderException(String.format("Invalid raw image file header in %s: %s", file, header));
+		}
+		long expectedSize = HEADER_SIZE + header.planeSize()*header.channels;
+		if(channel.size() < expectedSize){
+			throw new ImageLoaderException(String.format(
+					"%s is truncated, expected %d bytes but has %d.", file, expectedSize, channel.size()));
+		}
+		return header;
+	}
+
+	/** reads a plane into either the int or the double array */
+	private static void readPlane(FileChannel channel, long position, int[] intDst, double[] doubleDst) throws IOException {
+		int elementSize = intDst != null ? 4:8;
+		int length = intDst != null ? intDst.length:doubleDst.length;
+		int elementsPerMapping = MAX_MAPPING_SIZE/elementSize;
+		for(int offset = 0; offset < length; offset += Math.min(elementsPerMapping, length-offset)){
+			int n = Math.min(elementsPerMapping, length-offset);
+			MappedByteBuffer mapping = channel.map(MapMode.READ_ONLY, position+(long)offset*elementSize, (long)n*elementSize);
+			mapping.order(ByteOrder.LITTLE_ENDIAN);
+			if(intDst != null){
+				mapping.asIntBuffer().get(intDst, offset, n);
+			} else {
+				mapping.asDoubleBuffer().get(doubleDst, offset, n);
+			}
+		}
+	}
+
+	/** 
+	 * Copies arrays into direct staging buffers and writes them (preceded by the header) 
+	 * using gather writes.
+	 */
+	private static final class Stager {
+		final FileChannel channel;
+		final ByteBuffer[] buffers = new ByteBuffer[NUM_STAGING+1];
+		/** index of the buffer currently being filled */
+		int current = 1;
+
+		Stager(FileChannel channel, ByteBuffer header) {
+			this.channel = channel;
+			this.buffers[0] = header;
+			for(int i = 1; i < buffers.length; i++){
+				buffers[i] = ByteBuffer.allocateDirect(STAGING_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+
+		void put(int[] data) throws IOException {
+			for(int offset = 0; offset < data.length;){
+				ByteBuffer buffer = nextBuffer(4);
+				int n = Math.min(buffer.remaining()/4, data.length-offset);
+				buffer.asIntBuffer().put(data, offset, n);
+				buffer.position(buffer.position()+n*4);
+				offset += n;
+			}
+		}
+
+		void put(double[] data) throws IOException {
+			for(int offset = 0; offset < data.length;){
+				ByteBuffer buffer = nextBuffer(8);
+				int n = Math.min(buffer.remaining()/8, data.length-offset);
+				buffer.asDoubleBuffer().put(data, offset, n);
+				buffer.position(buffer.position()+n*8);
+				offset += n;
+			}
+		}
+
+		/** @return buffer with room for at least one element, writing the buffers when all are full */
+		private ByteBuffer nextBuffer(int elementSize) throws IOException {
+			if(buffers[current].remaining() < elementSize){
+				if(current == NUM_STAGING){
+					flush();
+				} else {
+					current++;
+				}
+			}
+			return buffers[current];
+		}
+
+		void flush() throws IOException {
+			int first = buffers[0].hasRemaining() ? 0:1;
+			for(int i = 1; i <= current; i++){
+				buffers[i].flip();
+			}
+			// the header is only pending on the first write, the last buffer is written last
+			while(buffers[first].hasRemaining() || buffers[current].hasRemaining()){
+				channel.write(buffers, first, current+1-first);
+			}
+			for(int i = 1; i <= current; i++){
+				buffers[i].clear();
+			}
+			current = 1;
+		}
+	}
+
+	private static final class Header {
+		final int elementType;
+		final int layout;
+		final int width;
+		final int height;
+		final int channels;
+
+		Header(int elementType, int layout, int width, int height, int channels) {
+			this.elementType = elementType;
+			this.layout = layout;
+			this.width = width;
+			this.height = height;
+			this.channels = channels;
+		}
+
+		long planeSize(){
+			return (long)width*height*(elementType == ELEMENT_TYPE_INT32 ? 4:8);
+		}
+
+		void require(int elementType, int layout, int channels){
+			if(this.elementType != elementType || this.layout != layout || this.channels != channels){
+				throw new ImageLoaderException(String.format(
+						"Raw image file contains %s but expected element type %d, layout %d, %d channels.", 
+						this, elementType, layout, channels));
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format("element type %d, layout %d, %dx%d, %d channels", 
+					elementType, layout, width, height, channels);
+		}
+	}
+
+	/**
+	 * A raw image file mapped into memory, see {@link RawImageIO#map(File)}.
+	 * @author hageldave
+	 * @since 2.2
+	 */
+	public static final class MappedImage {
+		private final Header header;
+		private final MappedByteBuffer[] planes;
+
+		private MappedImage(Header header, MappedByteBuffer[] planes) {
+			this.header = header;
+			this.planes = planes;
+		}
+
+		/** @return width of the image */
+		public int getWidth(){
+			return header.width;
+		}
+
+		/** @return height of the image */
+		public int getHeight(){
+			return header.height;
+		}
+
+		/** @return number of channels of the image */
+		public int getNumChannels(){
+			return header.channels;
+		}
+
+		/** @return {@link RawImageIO#ELEMENT_TYPE_INT32} or {@link RawImageIO#ELEMENT_TYPE_FLOAT64} */
+		public int getElementType(){
+			return header.elementType;
+		}
+
+		/** @return {@link RawImageIO#LAYOUT_PACKED_ARGB} or {@link RawImageIO#LAYOUT_PLANAR} */
+		public int getLayout(){
+			return header.layout;
+		}
+
+		/**
+		 * Returns a read only view of the packed ARGB values of an image of element type 
+		 * {@link RawImageIO#ELEMENT_TYPE_INT32}.
+		 * @return buffer of row major ARGB values
+		 * @throws IllegalStateException if the image is not of element type int32
+		 */
+		public IntBuffer getIntData(){
+			if(header.elementType != ELEMENT_TYPE_INT32){
+				throw new IllegalStateException("Mapped image is not of element type int32 but " + header);
+			}
+			return planes[0].duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+
+		/**
+		 * Returns a read only view of the specified channel of an image of element type 
+		 * {@link RawImageIO#ELEMENT_TYPE_FLOAT64}.
+		 * @param channel index of the channel, e.g. {@link ColorImg#channel_r}
+		 * @return buffer of the row major channel values
+		 * @throws IllegalStateException if the image is not of element type float64
+		 * @throws IndexOutOfBoundsException if the channel does not exist
+		 */
+		public DoubleBuffer getDoubleData(int channel){
+			if(header.elementType != ELEMENT_TYPE_FLOAT64){
+				throw new IllegalStateException("Mapped image is not of element type float64 but " + header);
+			}
+			return planes[channel].duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+	}
+
+}
@@ -0,0 +1,689 @@
+/*
+ * Copyright 2017 David Haegele
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+
+package hageldave.imagingkit.core.io;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
+import hageldave.imagingkit.core.util.BufferedImageConverter;
+
+/**
+ * Class providing methods for loading images with {@link ImageIO} strip by strip,
+ * without decoding the whole image into a {@link BufferedImage} first.
+ * <p>
+ * {@link #streamImg(File, int, StripConsumer)} delivers consecutive row strips of an image
+ * to a {@link StripConsumer}. Decoding happens on a separate thread, so that the next strip
+ * is decoded while the consumer processes the current one.
+ * {@link #loadImg(File)} decodes the strips straight into the rows of a single {@link Img},
+ * which avoids holding the decoded image and its ARGB copy in memory at the same time.
+ * <p>
+ * The way an image is decoded depends on the format and its {@link ImageReader}:
+ * <ul>
+ * <li>Images whose reader reports cheap random access ({@link ImageReader#isRandomAccessEasy(int)})
+ * or tiles that are less high than the image (e.g. tiled or striped TIFF) are decoded strip by strip 
+ * using source regions.</li>
+ * <li>Non interlaced PNG and non progressive JPEG images are decoded in a single pass, rows
+ * are picked up as soon as they are decoded. Only a few rows of the decoder's 
+ * output are kept in memory at a time, in exchange decoding is somewhat slower than 
+ * with {@link ImageIO#read(File)}.</li>
+ * <li>Any other image (e.g. interlaced PNG, progressive JPEG, GIF, BMP) has to be decoded 
+ * completely before the first strip can be delivered.</li>
+ * </ul>
+ * 
+ * @author hageldave
+ * @since 2.2
+ */
+public class StreamingImageLoader {
+
+	private StreamingImageLoader(){}
+
+	/** number of rows per strip used for loading a whole Img */
+	private static final int LOAD_STRIP_HEIGHT = 64;
+	/** number of strips circulating between decoder and consumer */
+	private static final int NUM_STRIP_BUFFERS = 3;
+	/** number of decoder output rows kept in memory for single pass decoding */
+	private static final int RING_ROWS = 8;
+	/** marks the end of the image in the queue of decoded strips */
+	private static final Object END_OF_IMAGE = new Object();
+
+	/**
+	 * Consumer of image strips.
+	 * @author hageldave
+	 * @since 2.2
+	 */
+	@FunctionalInterface
+	public static interface StripConsumer {
+		/**
+		 * Processes the specified strip of an image.
+		 * The strip is reused for subsequent strips after this method returns, 
+		 * so it has to be copied if it is needed later on.
+		 * @param strip the rows y to y+strip.getHeight()-1 of the image
+		 * @param y index of the first row of the strip in the image
+		 */
+		public void accept(Img strip, int y);
+	}
+
+	/**
+	 * Decodes the specified image file strip by strip and passes each strip in
+	 * order to the specified consumer. The strips are of the specified height except for 
+	 * the last one which may contain less rows. Decoding of the next strip is done 
+	 * concurrently while the consumer processes the current strip.
+	 * The consumer is called on the calling thread.
+	 * @param file the image file
+	 * @param stripHeight number of rows per strip
+	 * @param consumer to which the strips are passed
+	 * @throws ImageLoaderException if the file does not exist or no image could be
+	 * loaded from it.
+	 * @throws IllegalArgumentException if stripHeight is not positive
+	 */
+	public static void streamImg(File file, int stripHeight, StripConsumer consumer){
+		sanityCheckStripHeight(stripHeight);
+		stream(ImageLoader.createImageInputStream(file), stripHeight, consumer);
+	}
+
+	/**
+	 * Decodes the image from the specified {@link InputStream} strip by strip and passes 
+	 * each strip in order to the specified consumer. The strips are of the specified height
+	 * except for the last one which may contain less rows. Decoding of the next strip is done 
+	 * concurrently while the consumer processes the current strip.
+	 * The consumer is called on the calling thread.
+	 * The InputStream is not closed, this is the responsibility of the caller.
+	 * @param is InputStream of the image
+	 * @param stripHeight number of rows per strip
+	 * @param consumer to which the strips are passed
+	 * @throws ImageLoaderException if no image could be loaded from the InputStream.
+	 * @throws IllegalArgumentException if stripHeight is not positive
+	 */
+	public static void streamImg(InputStream is, int stripHeight, StripConsumer consumer){
+		sanityCheckStripHeight(stripHeight);
+		stream(ImageLoader.createImageInputStream(is), stripHeight, consumer);
+	}
+
+	/**
+	 * Loads an Img from the specified file by decoding it strip by strip into the Img.
+	 * The image color model will be ARGB.
+	 * @param file the image file
+	 * @return loaded Img
+	 * @throws ImageLoaderException if the file does not exist or no image could be
+	 * loaded from it.
+	 */
+	public static Img loadImg(File file){
+		return load(ImageLoader.createImageInputStream(file));
+	}
+
+	/**
+	 * Loads an Img from the specified {@link InputStream} by decoding it strip by strip
+	 * into the Img. The image color model will be ARGB.
+	 * The InputStream is not closed, this is the responsibility of the caller.
+	 * @param is InputStream of the image
+	 * @return loaded Img
+	 * @throws ImageLoaderException if no image could be loaded from the InputStream.
+	 */
+	public static Img loadImg(InputStream is){
+		return load(ImageLoader.createImageInputStream(is));
+	}
+
+
+	private static void sanityCheckStripHeight(int stripHeight){
+		if(stripHeight < 1){
+			throw new IllegalArgumentException(String.format(
+					"Strip height has to be positive, but is %d.", stripHeight));
+		}
+	}
+
+	private static Img load(ImageInputStream iis){
+		LoadingSink sink = new LoadingSink();
+		try {
+			decode(iis, LOAD_STRIP_HEIGHT, sink);
+		} catch (IOException e) {
+			throw new ImageLoaderException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImageLoaderException(e);
+		} finally {
+			ImageLoader.closeQuietly(iis);
+		}
+		return sink.img;
+	}
+
+	private static void stream(ImageInputStream iis, int stripHeight, StripConsumer consumer){
+		final QueueSink sink = new QueueSink(stripHeight);
+		Thread decoder = new Thread(()->{
+			Object result = END_OF_IMAGE;
+			try {
+				decode(iis, stripHeight, sink);
+			} catch (InterruptedException e) {
+				// consumer side has given up, nobody is waiting for a result
+				return;
+			} catch (Throwable t) {
+				result = t;
+			} finally {
+				ImageLoader.closeQuietly(iis);
+			}
+			try {
+				sink.decoded.put(result);
+			} catch (InterruptedException e) {
+				// consumer side has given up
+			}
+		}, "StreamingImageLoader decoder");
+		decoder.setDaemon(true);
+		decoder.start();
+
+		boolean decoderDone = false;
+		try {
+			while(true){
+				Object next = sink.decoded.take();
+				if(next == END_OF_IMAGE){
+					decoderDone = true;
+					return;
+				}
+				if(next instanceof Throwable){
+					decoderDone = true;
+					if(next instanceof Error){
+						throw (Error)next;
+					}
+					throw new ImageLoaderException((Throwable)next);
+				}
+				Strip strip = (Strip)next;
+				consumer.accept(strip.img, strip.y);
+				sink.recycle(strip.img);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImageLoaderException(e);
+		} finally {
+			if(!decoderDone){
+				decoder.interrupt();
+			}
+			joinUninterruptibly(decoder);
+		}
+	}
+
+	private static void decode(ImageInputStream iis, int stripHeight, StripSink sink) 
+			throws IOException, InterruptedException
+	{
+		ImageReader reader = ImageLoader.createImageReader(iis);
+		try {
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			sink.start(width, height);
+			if(reader.isRandomAccessEasy(0) || reader.getTileHeight(0) < height){
+				decodeRegions(reader, width, height, stripHeight, sink);
+			} else if(isSinglePassDecodable(reader)){
+				decodeSinglePass(reader, width, height, stripHeight, sink);
+			} else {
+				decodeWhole(reader, width, height, stripHeight, sink);
+			}
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	/** reads each strip separately using source regions */
+	private static void decodeRegions(ImageReader reader, int width, int height, int stripHeight, StripSink sink)
+			throws IOException, InterruptedException
+	{
+		boolean argbSupported = ImageLoader.findImageType(reader, BufferedImage.TYPE_INT_ARGB) != null;
+		ImageTypeSpecifier type = argbSupported ? null : defaultImageType(reader);
+		if(!argbSupported && type == null){
+			// no destination type to decode strips into (e.g. CMYK JPEG)
+			decodeWhole(reader, width, height, stripHeight, sink);
+			return;
+		}
+		ImageReadParam param = reader.getDefaultReadParam();
+		BufferedImage buffer = null;
+		for(int y = 0; y < height; y += stripHeight){
+			int h = Math.min(stripHeight, height-y);
+			Img strip = sink.acquire(h);
+			param.setSourceRegion(new Rectangle(0, y, width, h));
+			if(argbSupported){
+				// decode straight into the strip
+				param.setDestination(strip.getRemoteBufferedImage());
+				reader.read(0, param);
+			} else {
+				if(buffer == null){
+					buffer = type.createBufferedImage(width, Math.min(stripHeight, height));
+				}
+				param.setDestination(buffer);
+				reader.read(0, param);
+				BufferedImageConverter.getRGB(buffer, 0, 0, width, h, strip.getData(), 0, width);
+			}
+			sink.deliver(strip, y);
+		}
+	}
+
+	/** decodes the whole image and then hands it out strip by strip */
+	private static void decodeWhole(ImageReader reader, int width, int height, int stripHeight, StripSink sink)
+			throws IOException, InterruptedException
+	{
+		BufferedImage bimg = reader.read(0);
+		for(int y = 0; y < height; y += stripHeight){
+			int h = Math.min(stripHeight, height-y);
+			Img strip = sink.acquire(h);
+			BufferedImageConverter.getRGB(bimg, 0, y, width, h, strip.getData(), 0, width);
+			sink.deliver(strip, y);
+		}
+	}
+
+	/** 
+	 * reads the image in a single pass and picks up the rows as soon as they are decoded.
+	 * The decoder's destination image is backed by a ring buffer of only a few rows.
+	 */
+	private static void decodeSinglePass(ImageReader reader, int width, int height, int stripHeight, StripSink sink)
+			throws IOException, InterruptedException
+	{
+		ImageTypeSpecifier type = defaultImageType(reader);
+		if(type == null){
+			// no destination type to decode into (e.g. CMYK JPEG)
+			decodeWhole(reader, width, height, stripHeight, sink);
+			return;
+		}
+		SampleModel sm = type.getSampleModel(width, height);
+		int dataType = sm.getDataType();
+		int scanlineStride;
+		if(dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT && dataType != DataBuffer.TYPE_INT){
+			decodeWhole(reader, width, height, stripHeight, sink);
+			return;
+		} else if(sm instanceof ComponentSampleModel && isSingleBank((ComponentSampleModel)sm)){
+			scanlineStride = ((ComponentSampleModel)sm).getScanlineStride();
+		} else if(sm instanceof SinglePixelPackedSampleModel){
+			scanlineStride = ((SinglePixelPackedSampleModel)sm).getScanlineStride();
+		} else if(sm instanceof MultiPixelPackedSampleModel){
+			scanlineStride = ((MultiPixelPackedSampleModel)sm).getScanlineStride();
+		} else {
+			// unusual layout, play it safe
+			decodeWhole(reader, width, height, stripHeight, sink);
+			return;
+		}
+		int ringRows = Math.min(RING_ROWS, height);
+		RingDataBuffer ring = new RingDataBuffer(dataType, scanlineStride*height, scanlineStride*ringRows);
+		WritableRaster raster = Raster.createWritableRaster(sm, ring, null);
+		ColorModel cm = type.getColorModel();
+		BufferedImage destination = new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+
+		RowCollector collector = new RowCollector(reader, destination, ring, scanlineStride, stripHeight, sink);
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setDestination(destination);
+		reader.addIIOReadUpdateListener(collector);
+		try {
+			reader.read(0, param);
+		} finally {
+			reader.removeIIOReadUpdateListener(collector);
+		}
+		if(collector.failure != null){
+			if(collector.failure instanceof InterruptedException){
+				throw (InterruptedException)collector.failure;
+			}
+			throw (RuntimeException)collector.failure;
+		}
+		if(collector.nextRow != height){
+			throw new ImageLoaderException(String.format(
+					"Could not load Image! Decoder delivered only %d of %d rows.", collector.nextRow, height));
+		}
+	}
+
+	/**
+	 * Determines whether the reader's format is known to decode rows in order
+	 * through the destination's raster, and the image is not interlaced.
+	 */
+	private static boolean isSinglePassDecodable(ImageReader reader) throws IOException {
+		String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+		if(!(format.equals("png") || format.equals("jpeg"))){
+			return false;
+		}
+		IIOMetadata metadata = reader.getImageMetadata(0);
+		if(metadata == null || metadata.getNativeMetadataFormatName() == null){
+			return false;
+		}
+		Node root = metadata.getAsTree(metadata.getNativeMetadataFormatName());
+		if(format.equals("png")){
+			return "none".equals(findAttribute(root, "IHDR", "interlaceMethod"));
+		} else {
+			// process 0 = baseline, 1 = extended, 2 = progressive
+			String process = findAttribute(root, "sof", "process");
+			return "0".equals(process) || "1".equals(process);
+		}
+	}
+
+	private static String findAttribute(Node node, String nodeName, String attribute){
+		if(node.getNodeName().equals(nodeName) && node instanceof Element){
+			return ((Element)node).getAttribute(attribute);
+		}
+		for(Node child = node.getFirstChild(); child != null; child = child.getNextSibling()){
+			String value = findAttribute(child, nodeName, attribute);
+			if(value != null){
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/** @return the first image type of the reader or null if it does not provide any */
+	private static ImageTypeSpecifier defaultImageType(ImageReader reader) throws IOException {
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		return types.hasNext() ? types.next() : null;
+	}
+
+	private static boolean isSingleBank(ComponentSampleModel sm){
+		for(int bank: sm.getBankIndices()){
+			if(bank != 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void joinUninterruptibly(Thread thread){
+		boolean interrupted = false;
+		while(thread.isAlive()){
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/** receives strips from the decoder */
+	private static interface StripSink {
+		/** called before decoding with the image dimensions */
+		public void start(int width, int height);
+		/** returns an Img of the image's width and specified height for the next strip */
+		public Img acquire(int height) throws InterruptedException;
+		/** hands over a completely decoded strip */
+		public void deliver(Img strip, int y) throws InterruptedException;
+	}
+
+	/** copies the strips into a single Img */
+	private static final class LoadingSink implements StripSink {
+		Img img;
+		Img buffer;
+
+		@Override
+		public void start(int width, int height) {
+			img = new Img(width, height);
+		}
+
+		@Override
+		public Img acquire(int height) {
+			if(buffer == null || buffer.getHeight() != height){
+				buffer = new Img(img.getWidth(), height);
+			}
+			return buffer;
+		}
+
+		@Override
+		public void deliver(Img strip, int y) {
+			System.arraycopy(strip.getData(), 0, img.getData(), y*img.getWidth(), strip.numValues());
+		}
+	}
+
+	/** passes strips to the consuming thread and recycles them afterwards */
+	private static final class QueueSink implements StripSink {
+		final BlockingQueue<Object> decoded = new ArrayBlockingQueue<>(NUM_STRIP_BUFFERS);
+		final BlockingQueue<Img> recycled = new ArrayBlockingQueue<>(NUM_STRIP_BUFFERS);
+		final int stripHeight;
+		int width;
+		int numAllocated;
+
+		QueueSink(int stripHeight) {
+			this.stripHeight = stripHeight;
+		}
+
+		@Override
+		public void start(int width, int height) {
+			this.width = width;
+		}
+
+		@Override
+		public Img acquire(int height) throws InterruptedException {
+			if(height != stripHeight){
+				return new Img(width, height);
+			}
+			Img strip = recycled.poll();
+			if(strip == null){
+				if(numAllocated < NUM_STRIP_BUFFERS){
+					numAllocated++;
+					return new Img(width, height);
+				}
+				strip = recycled.take();
+			}
+			return strip;
+		}
+
+		@Override
+		public void deliver(Img strip, int y) throws InterruptedException {
+			decoded.put(new Strip(strip, y));
+		}
+
+		void recycle(Img strip){
+			if(strip.getHeight() == stripHeight){
+				recycled.offer(strip);
+			}
+		}
+	}
+
+	private static final class Strip {
+		final Img img;
+		final int y;
+		Strip(Img img, int y) {
+			this.img = img;
+			this.y = y;
+		}
+	}
+
+	/** copies rows from the decoder's destination into strips as soon as they are decoded */
+	private static final class RowCollector implements IIOReadUpdateListener {
+		final ImageReader reader;
+		final BufferedImage destination;
+		final int[] ring;
+		final int scanlineStride;
+		final int ringRows;
+		final int stripHeight;
+		final StripSink sink;
+		final int width, height;
+		int nextRow = 0;
+		Img strip = null;
+		int stripY = 0;
+		Exception failure = null;
+
+		/* fast conversion of 8 bit interleaved rows from the ring */
+		int pixelStride;
+		int[] bandOffsets;
+		/* ARGB values for single band images */
+		int[] lut;
+		/* true for non premultiplied sRGB(A) images */
+		boolean rgb;
+
+		RowCollector(ImageReader reader, BufferedImage destination, RingDataBuffer ring, int scanlineStride, int stripHeight, StripSink sink) {
+			this.reader = reader;
+			this.destination = destination;
+			this.ring = ring.ring;
+			this.scanlineStride = scanlineStride;
+			this.ringRows = ring.ring.length/scanlineStride;
+			this.stripHeight = stripHeight;
+			this.sink = sink;
+			this.width = destination.getWidth();
+			this.height = destination.getHeight();
+
+			SampleModel sm = destination.getSampleModel();
+			ColorModel cm = destination.getColorModel();
+			if(sm instanceof ComponentSampleModel && sm.getDataType() == DataBuffer.TYPE_BYTE){
+				this.pixelStride = ((ComponentSampleModel)sm).getPixelStride();
+				this.bandOffsets = ((ComponentSampleModel)sm).getBandOffsets();
+				if(sm.getNumBands() == 1){
+					// gray or indexed, color model takes care of e.g. gamma
+					this.lut = new int[256];
+					byte[] pixel = new byte[1];
+					for(int v = 0; v < 256; v++){
+						pixel[0] = (byte)v;
+						this.lut[v] = cm.getRGB(pixel);
+					}
+				} else {
+					this.rgb = cm instanceof ComponentColorModel 
+							&& cm.getColorSpace().isCS_sRGB() 
+							&& !cm.isAlphaPremultiplied()
+							&& sm.getNumBands() == (cm.hasAlpha() ? 4:3);
+				}
+			}
+		}
+
+		/** converts the specified row of the destination into ARGB */
+		void convertRow(int y, int[] argb, int offset){
+			final int rowStart = (y % ringRows)*scanlineStride;
+			if(lut != null){
+				final int b0 = rowStart+bandOffsets[0];
+				for(int x = 0; x < width; x++){
+					argb[offset+x] = lut[ring[b0+x*pixelStride]];
+				}
+			} else if(rgb && bandOffsets.length == 3){
+				final int r = rowStart+bandOffsets[0], g = rowStart+bandOffsets[1], b = rowStart+bandOffsets[2];
+				for(int x = 0, p = 0; x < width; x++, p += pixelStride){
+					argb[offset+x] = 0xff000000 | ring[r+p]<<16 | ring[g+p]<<8 | ring[b+p];
+				}
+			} else if(rgb){
+				final int r = rowStart+bandOffsets[0], g = rowStart+bandOffsets[1], b = rowStart+bandOffsets[2], a = rowStart+bandOffsets[3];
+				for(int x = 0, p = 0; x < width; x++, p += pixelStride){
+					argb[offset+x] = ring[a+p]<<24 | ring[r+p]<<16 | ring[g+p]<<8 | ring[b+p];
+				}
+			} else {
+				destination.getRGB(0, y, width, 1, argb, offset, width);
+			}
+		}
+
+		@Override
+		public void imageUpdate(ImageReader source, BufferedImage theImage, 
+				int minX, int minY, int width, int height, 
+				int periodX, int periodY, int[] bands) 
+		{
+			if(failure != null){
+				return;
+			}
+			try {
+				int endY = minY + (height-1)*periodY + 1;
+				if(minY != nextRow || periodY != 1){
+					throw new ImageLoaderException(String.format(
+							"Could not load Image! Decoder delivered rows out of order, expected row %d but got %d.", nextRow, minY));
+				}
+				for(int y = minY; y < endY; y++){
+					if(strip == null){
+						strip = sink.acquire(Math.min(stripHeight, this.height-y));
+						stripY = y;
+					}
+					int row = y-stripY;
+					convertRow(y, strip.getData(), row*this.width);
+					if(row+1 == strip.getHeight()){
+						Img completed = strip;
+						strip = null;
+						sink.deliver(completed, stripY);
+					}
+				}
+				nextRow = endY;
+			} catch (InterruptedException | RuntimeException e) {
+				failure = e;
+				reader.abort();
+			}
+		}
+
+		@Override
+		public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {/* not needed */}
+
+		@Override
+		public void passComplete(ImageReader source, BufferedImage theImage) {/* not needed */}
+
+		@Override
+		public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {/* not needed */}
+
+		@Override
+		public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands) {/* not needed */}
+
+		@Override
+		public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {/* not needed */}
+	}
+
+	/**
+	 * DataBuffer that pretends to be of a certain size but only stores the
+	 * most recent elements (modulo ring size). With a ring size that is a multiple of
+	 * the scanline stride, this keeps the last few rows of an image.
+	 */
+	private static final class RingDataBuffer extends DataBuffer {
+		final int[] ring;
+		final int mask;
+
+		RingDataBuffer(int dataType, int size, int ringSize) {
+			super(dataType, size);
+			this.ring = new int[ringSize];
+			// truncate values the same way the standard data buffers do
+			switch (dataType) {
+			case TYPE_BYTE:   mask = 0xff; break;
+			case TYPE_USHORT: mask = 0xffff; break;
+			default:          mask = 0xffffffff; break;
+			}
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			return ring[i % ring.length];
+		}
+
+		@Override
+		public void setElem(int bank, int i, int val) {
+			ring[i % ring.length] = val & mask;
+		}
+	}
+
+}
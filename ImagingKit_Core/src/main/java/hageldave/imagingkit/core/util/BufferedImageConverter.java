@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017 David Haegele
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+
+package hageldave.imagingkit.core.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.stream.IntStream;
+
+/**
+ * Class for fast conversion of {@link BufferedImage} pixels into ARGB integers.
+ * <p>
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} converts every pixel
+ * through the image's {@link ColorModel}, which is slow. 
+ * The {@link #getRGB(BufferedImage, int, int, int, int, int[], int, int)} method of this class 
+ * yields the same results but reads the raster's data directly for the common layouts:
+ * <ul>
+ * <li>integer packed sRGB with or without alpha (e.g. {@link BufferedImage#TYPE_INT_ARGB},
+ * {@link BufferedImage#TYPE_INT_RGB})</li>
+ * <li>byte interleaved sRGB with or without alpha (e.g. {@link BufferedImage#TYPE_3BYTE_BGR},
+ * {@link BufferedImage#TYPE_4BYTE_ABGR}, as decoded from JPEG or PNG)</li>
+ * <li>single byte per pixel (e.g. {@link BufferedImage#TYPE_BYTE_GRAY}, 
+ * {@link BufferedImage#TYPE_BYTE_INDEXED})</li>
+ * </ul>
+ * Larger areas are converted in parallel over rows.
+ * Any other layout falls back to {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+ * 
+ * @author hageldave
+ * @since 2.2
+ */
+public class BufferedImageConverter {
+
+	private BufferedImageConverter(){}
+
+	/** number of pixels from which on conversion is done in parallel */
+	private static final int PARALLEL_THRESHOLD = 1<<16;
+
+	/**
+	 * Returns the pixels of the specified image as ARGB integers.
+	 * @param bimg image to convert
+	 * @return array of ARGB values of size width*height in row major order
+	 */
+	public static int[] getRGB(BufferedImage bimg){
+		return getRGB(bimg, 0, 0, bimg.getWidth(), bimg.getHeight(), null, 0, bimg.getWidth());
+	}
+
+	/**
+	 * Returns the pixels of the specified area of the specified image as ARGB integers.
+	 * This is equivalent to {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}
+	 * but faster for common image layouts.
+	 * The pixel at (x,y) of the image is stored at 
+	 * {@code rgbArray[offset + (y-startY)*scansize + (x-startX)]}.
+	 * @param bimg image to convert
+	 * @param startX the starting x coordinate
+	 * @param startY the starting y coordinate
+	 * @param w width of the area
+	 * @param h height of the area
+	 * @param rgbArray (may be null) array to store the ARGB values in, a new array is allocated if null
+	 * @param offset into the array
+	 * @param scansize distance between rows in the array
+	 * @return the array of ARGB values
+	 * @throws ArrayIndexOutOfBoundsException if the area is not within the image's bounds
+	 * or if rgbArray is too small to hold the values
+	 */
+	public static int[] getRGB(BufferedImage bimg, int startX, int startY, int w, int h, int[] rgbArray, int offset, int scansize){
+		RowConverter converter = getRowConverter(bimg);
+		if(converter == null){
+			return bimg.getRGB(startX, startY, w, h, rgbArray, offset, scansize);
+		}
+		if(startX < 0 || startY < 0 || startX+w > bimg.getWidth() || startY+h > bimg.getHeight()){
+			throw new ArrayIndexOutOfBoundsException(String.format(
+					"Area [%d,%d][%d,%d] is not within bounds of the image [%d,%d]", 
+					startX, startY, w, h, bimg.getWidth(), bimg.getHeight()));
+		}
+		final int[] argb = rgbArray != null ? rgbArray : new int[offset+h*scansize];
+		final int lastRow = offset+(h-1)*scansize;
+		if(h > 0 && (Math.min(offset, lastRow) < 0 || Math.max(offset, lastRow)+w > argb.length)){
+			throw new ArrayIndexOutOfBoundsException(String.format(
+					"Array of length %d is too small for area of size %dx%d with offset %d and scansize %d", 
+					argb.length, w, h, offset, scansize));
+		}
+		if((long)w*h >= PARALLEL_THRESHOLD){
+			IntStream.range(0, h).parallel().forEach(row->
+				converter.convert(startX, startY+row, w, argb, offset+row*scansize));
+		} else {
+			for(int row = 0; row < h; row++){
+				converter.convert(startX, startY+row, w, argb, offset+row*scansize);
+			}
+		}
+		return argb;
+	}
+
+	/**
+	 * Returns whether the specified image is of a layout that is directly converted
+	 * by this class (without going through its color model pixel by pixel).
+	 * @param bimg image in question
+	 * @return true when {@link #getRGB(BufferedImage, int, int, int, int, int[], int, int)}
+	 * has a fast path for the image.
+	 */
+	public static boolean isDirectlyConvertible(BufferedImage bimg){
+		return getRowConverter(bimg) != null;
+	}
+
+
+	@FunctionalInterface
+	private static interface RowConverter {
+		void convert(int x, int y, int w, int[] argb, int offset);
+	}
+
+	private static RowConverter getRowConverter(BufferedImage bimg){
+		WritableRaster raster = bimg.getRaster();
+		ColorModel cm = bimg.getColorModel();
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db = raster.getDataBuffer();
+		final int tx = raster.getSampleModelTranslateX();
+		final int ty = raster.getSampleModelTranslateY();
+
+		if(db instanceof DataBufferInt && db.getNumBanks() == 1 
+				&& sm instanceof SinglePixelPackedSampleModel && cm instanceof DirectColorModel
+				&& isStandardRGBMasks((DirectColorModel)cm)
+				&& cm.getColorSpace().isCS_sRGB() && !cm.isAlphaPremultiplied())
+		{
+			final int[] data = ((DataBufferInt)db).getData();
+			final int stride = ((SinglePixelPackedSampleModel)sm).getScanlineStride();
+			final int base = db.getOffset() - ty*stride - tx;
+			if(cm.hasAlpha()){
+				return (x,y,w,argb,offset)->System.arraycopy(data, base+y*stride+x, argb, offset, w);
+			} else {
+				return (x,y,w,argb,offset)->{
+					final int start = base+y*stride+x;
+					for(int i = 0; i < w; i++){
+						argb[offset+i] = 0xff000000 | data[start+i];
+					}
+				};
+			}
+		}
+
+		if(db instanceof DataBufferByte && db.getNumBanks() == 1 
+				&& sm instanceof ComponentSampleModel && isSingleBank((ComponentSampleModel)sm)
+				&& is8Bit(sm))
+		{
+			final byte[] data = ((DataBufferByte)db).getData();
+			final int stride = ((ComponentSampleModel)sm).getScanlineStride();
+			final int pixelStride = ((ComponentSampleModel)sm).getPixelStride();
+			final int[] bandOffsets = ((ComponentSampleModel)sm).getBandOffsets();
+			final int base = db.getOffset() - ty*stride - tx*pixelStride;
+			if(sm.getNumBands() == 1){
+				// gray or indexed, lookup table takes care of palette or gamma
+				final int[] lut = new int[256];
+				byte[] pixel = new byte[1];
+				for(int v = 0; v < 256; v++){
+					pixel[0] = (byte)v;
+					lut[v] = cm.getRGB(pixel);
+				}
+				final int b0 = base+bandOffsets[0];
+				return (x,y,w,argb,offset)->{
+					final int start = b0+y*stride+x*pixelStride;
+					for(int i = 0, p = start; i < w; i++, p += pixelStride){
+						argb[offset+i] = lut[data[p]&0xff];
+					}
+				};
+			}
+			if(cm instanceof ComponentColorModel && cm.getColorSpace().isCS_sRGB() && !cm.isAlphaPremultiplied()){
+				if(sm.getNumBands() == 3 && !cm.hasAlpha()){
+					final int r = base+bandOffsets[0], g = base+bandOffsets[1], b = base+bandOffsets[2];
+					return (x,y,w,argb,offset)->{
+						final int start = y*stride+x*pixelStride;
+						for(int i = 0, p = start; i < w; i++, p += pixelStride){
+							argb[offset+i] = 0xff000000 | (data[r+p]&0xff)<<16 | (data[g+p]&0xff)<<8 | (data[b+p]&0xff);
+						}
+					};
+				}
+				if(sm.getNumBands() == 4 && cm.hasAlpha()){
+					final int r = base+bandOffsets[0], g = base+bandOffsets[1], b = base+bandOffsets[2], a = base+bandOffsets[3];
+					return (x,y,w,argb,offset)->{
+						final int start = y*stride+x*pixelStride;
+						for(int i = 0, p = start; i < w; i++, p += pixelStride){
+							argb[offset+i] = (data[a+p]&0xff)<<24 | (data[r+p]&0xff)<<16 | (data[g+p]&0xff)<<8 | (data[b+p]&0xff);
+						}
+					};
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean isStandardRGBMasks(DirectColorModel cm){
+		return cm.getRedMask() == 0x00ff0000 
+				&& cm.getGreenMask() == 0x0000ff00 
+				&& cm.getBlueMask() == 0x000000ff
+				&& (!cm.hasAlpha() || cm.getAlphaMask() == 0xff000000);
+	}
+
+	private static boolean isSingleBank(ComponentSampleModel sm){
+		for(int bank: sm.getBankIndices()){
+			if(bank != 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean is8Bit(SampleModel sm){
+		for(int size: sm.getSampleSize()){
+			if(size != 8){
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -25,6 +25,7 @@ import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.ImageObserver;
 import java.util.function.Function;
 
@@ -50,6 +51,11 @@ public class BufferedImageFactory {
 	/**
 	 * Creates a new BufferedImage of the specified imgType and same size as 
 	 * the provided image and draws the provided Image onto the new BufferedImage.
+	 * <p>
+	 * When the provided image is a BufferedImage of a common sRGB layout 
+	 * (see {@link BufferedImageConverter}) and the imgType is 
+	 * {@link BufferedImage#TYPE_INT_ARGB} (or {@link BufferedImage#TYPE_INT_RGB} 
+	 * for images without alpha), the pixels are converted directly instead of being drawn.
 	 * @param img to be copied to BufferedImage
 	 * @param imgType of the BufferedImage. See 
 	 * {@link BufferedImage#BufferedImage(int, int, int)} for details on the
@@ -58,6 +64,12 @@ public class BufferedImageFactory {
 	 * @since 1.0
 	 */
 	public static BufferedImage get(Image img, int imgType){
+		if(img instanceof BufferedImage){
+			BufferedImage converted = convertDirectly((BufferedImage)img, imgType);
+			if(converted != null){
+				return converted;
+			}
+		}
 		Function<Integer, ImageObserver> obs = flags->{
 			return (image, infoflags, x, y, width, height)->(infoflags & flags)!=flags;
 		};
@@ -73,6 +85,21 @@ public class BufferedImageFactory {
 		return bimg;
 	}
 	
+	private static BufferedImage convertDirectly(BufferedImage img, int imgType){
+		boolean hasAlpha = img.getColorModel().hasAlpha();
+		if( !(imgType == BufferedImage.TYPE_INT_ARGB || (imgType == BufferedImage.TYPE_INT_RGB && !hasAlpha)) ||
+			/* drawing does not apply the gamma correction that getRGB does for gray color spaces */
+			!img.getColorModel().getColorSpace().isCS_sRGB() ||
+			!BufferedImageConverter.isDirectlyConvertible(img) )
+		{
+			return null;
+		}
+		BufferedImage bimg = new BufferedImage(img.getWidth(), img.getHeight(), imgType);
+		int[] data = ((DataBufferInt)bimg.getRaster().getDataBuffer()).getData();
+		BufferedImageConverter.getRGB(img, 0, 0, img.getWidth(), img.getHeight(), data, 0, img.getWidth());
+		return bimg;
+	}
+
 	/**
 	 * Instancing method for BufferedImage of type {@link BufferedImage#TYPE_INT_ARGB}
 	 * @param d dimension of the created BufferedImage
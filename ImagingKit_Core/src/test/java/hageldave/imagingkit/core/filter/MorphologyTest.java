@@ -0,0 +1,173 @@
+package hageldave.imagingkit.core.filter;
+
+import static hageldave.imagingkit.core.JunitUtils.testException;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.Pixel;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class MorphologyTest {
+
+	static final int[] modes = {
+			Img.boundary_mode_zero, 
+			Img.boundary_mode_repeat_edge, 
+			Img.boundary_mode_repeat_image, 
+			Img.boundary_mode_mirror,
+			0xff00ff00
+	};
+
+	static final int[][] seSizes = {{1,1},{3,3},{1,5},{4,1},{5,2},{7,9},{40,3}};
+
+	@Test
+	public void testImg(){
+		Random rand = new Random(0x5eed);
+		Img img = new Img(37, 23);
+		img.fill(0).forEach(px->px.setValue(rand.nextInt()));
+
+		for(int mode: modes)
+		for(int[] se: seSizes)
+		for(boolean lum: new boolean[]{false,true})
+		{
+			String msg = String.format("mode %d, se %dx%d, luminance %b", mode, se[0], se[1], lum);
+			Img eroded = Morphology.erode(img, null, se[0], se[1], mode, lum);
+			Img dilated = Morphology.dilate(img, null, se[0], se[1], mode, lum);
+			assertArrayEquals(msg, bruteForce(img, se[0], se[1], se[0]/2, se[1]/2, mode, lum, false), eroded.getData());
+			assertArrayEquals(msg, bruteForce(img, se[0], se[1], se[0]-1-se[0]/2, se[1]-1-se[1]/2, mode, lum, true), dilated.getData());
+		}
+
+		// in place
+		Img copy = img.copy();
+		Morphology.erode(copy, copy, 5, 3, Img.boundary_mode_mirror, false);
+		assertArrayEquals(Morphology.erode(img, 5, 3, Img.boundary_mode_mirror).getData(), copy.getData());
+		// open and close
+		Img opened = Morphology.open(img, 4, 6, Img.boundary_mode_repeat_edge);
+		Img expected = Morphology.dilate(Morphology.erode(img, 4, 6, Img.boundary_mode_repeat_edge), 4, 6, Img.boundary_mode_repeat_edge);
+		assertArrayEquals(expected.getData(), opened.getData());
+		Img closed = Morphology.close(img, 4, 6, Img.boundary_mode_repeat_edge);
+		expected = Morphology.erode(Morphology.dilate(img, 4, 6, Img.boundary_mode_repeat_edge), 4, 6, Img.boundary_mode_repeat_edge);
+		assertArrayEquals(expected.getData(), closed.getData());
+		// opening is anti-extensive and idempotent, closing is extensive
+		for(int i = 0; i < img.numValues(); i++){
+			assertTrue(Pixel.r(opened.getData()[i]) <= Pixel.r(img.getData()[i]));
+			assertTrue(Pixel.r(closed.getData()[i]) >= Pixel.r(img.getData()[i]));
+		}
+		assertArrayEquals(opened.getData(), Morphology.open(opened, 4, 6, Img.boundary_mode_repeat_edge).getData());
+	}
+
+	@Test
+	public void testColorImg(){
+		Random rand = new Random(0x5eed);
+		ColorImg img = new ColorImg(29, 31, true);
+		for(int c = 0; c < 4; c++)
+			for(int i = 0; i < img.numValues(); i++)
+				img.getData()[c][i] = rand.nextDouble();
+
+		for(int mode: new int[]{ColorImg.boundary_mode_zero, ColorImg.boundary_mode_repeat_edge, ColorImg.boundary_mode_repeat_image, ColorImg.boundary_mode_mirror, 2})
+		for(int[] se: seSizes)
+		for(int channel = 0; channel < 4; channel++)
+		{
+			String msg = String.format("mode %d, se %dx%d, channel %d", mode, se[0], se[1], channel);
+			ColorImg eroded = Morphology.erode(img, null, channel, se[0], se[1], mode);
+			ColorImg dilated = Morphology.dilate(img, null, channel, se[0], se[1], mode);
+			assertArrayEquals(msg, bruteForce(img, channel, se[0], se[1], se[0]/2, se[1]/2, mode, false), eroded.getData()[channel], 0);
+			assertArrayEquals(msg, bruteForce(img, channel, se[0], se[1], se[0]-1-se[0]/2, se[1]-1-se[1]/2, mode, true), dilated.getData()[channel], 0);
+		}
+
+		ColorImg copy = img.copy();
+		Morphology.close(copy, copy, ColorImg.channel_g, 3, 3, ColorImg.boundary_mode_mirror);
+		ColorImg expected = Morphology.erode(
+				Morphology.dilate(img, null, ColorImg.channel_g, 3, 3, ColorImg.boundary_mode_mirror), 
+				null, ColorImg.channel_g, 3, 3, ColorImg.boundary_mode_mirror);
+		assertArrayEquals(expected.getDataG(), copy.getDataG(), 0);
+		// other channels untouched
+		assertArrayEquals(img.getDataR(), copy.getDataR(), 0);
+	}
+
+	@Test
+	public void testLargeStructuringElements(){
+		Random rand = new Random(0x5eed);
+		Img img = new Img(7, 5);
+		img.fill(0).forEach(px->px.setValue(rand.nextInt()));
+		for(int mode: modes)
+		for(int[] se: new int[][]{{120,1},{1,131},{64,47},{15,11},{30,29}})
+		for(boolean lum: new boolean[]{false,true})
+		{
+			String msg = String.format("mode %d, se %dx%d, luminance %b", mode, se[0], se[1], lum);
+			Img eroded = Morphology.erode(img, null, se[0], se[1], mode, lum);
+			Img dilated = Morphology.dilate(img, null, se[0], se[1], mode, lum);
+			assertArrayEquals(msg, bruteForce(img, se[0], se[1], se[0]/2, se[1]/2, mode, lum, false), eroded.getData());
+			assertArrayEquals(msg, bruteForce(img, se[0], se[1], se[0]-1-se[0]/2, se[1]-1-se[1]/2, mode, lum, true), dilated.getData());
+		}
+		// huge structuring elements cover the whole image
+		ColorImg cimg = new ColorImg(100, 3, false);
+		for(int i = 0; i < cimg.numValues(); i++)
+			cimg.getDataR()[i] = rand.nextDouble()+1;
+		double min = cimg.getMinValue(ColorImg.channel_r);
+		ColorImg eroded = Morphology.erode(cimg, null, ColorImg.channel_r, 1<<30, 100_000, ColorImg.boundary_mode_repeat_edge);
+		for(double v: eroded.getDataR())
+			assertEquals(min, v, 0);
+		eroded = Morphology.erode(cimg, null, ColorImg.channel_r, 3, Integer.MAX_VALUE, ColorImg.boundary_mode_zero);
+		for(double v: eroded.getDataR())
+			assertEquals(0, v, 0);
+	}
+
+	@Test
+	public void testExceptions(){
+		Img img = new Img(10, 10);
+		ColorImg cimg = new ColorImg(10, 10, false);
+		testException(()->Morphology.erode(img, 0, 3, 0), IllegalArgumentException.class);
+		testException(()->Morphology.dilate(img, 3, -1, 0), IllegalArgumentException.class);
+		testException(()->Morphology.erode(img, new Img(10,11), 3, 3, 0, false), IllegalArgumentException.class);
+		testException(()->Morphology.erode(cimg, null, ColorImg.channel_a, 3, 3, 0), IllegalArgumentException.class);
+		testException(()->Morphology.erode(cimg, null, 4, 3, 3, 0), IllegalArgumentException.class);
+		testException(()->Morphology.dilate(cimg, new ColorImg(11, 10, false), 0, 3, 3, 0), IllegalArgumentException.class);
+	}
+
+	static int[] bruteForce(Img img, int kx, int ky, int lox, int loy, int mode, boolean lum, boolean max){
+		int[] result = new int[img.numValues()];
+		for(int y = 0; y < img.getHeight(); y++){
+			for(int x = 0; x < img.getWidth(); x++){
+				int best = img.getValue(x-lox, y-loy, mode);
+				int a=Pixel.a(best), r=Pixel.r(best), g=Pixel.g(best), b=Pixel.b(best);
+				for(int dy = 0; dy < ky; dy++){
+					for(int dx = 0; dx < kx; dx++){
+						int v = img.getValue(x+dx-lox, y+dy-loy, mode);
+						if(lum){
+							int l = Pixel.getLuminance(v), lb = Pixel.getLuminance(best);
+							if(max ? l > lb : l < lb) best = v;
+						} else if(max){
+							a=Math.max(a, Pixel.a(v)); r=Math.max(r, Pixel.r(v)); g=Math.max(g, Pixel.g(v)); b=Math.max(b, Pixel.b(v));
+						} else {
+							a=Math.min(a, Pixel.a(v)); r=Math.min(r, Pixel.r(v)); g=Math.min(g, Pixel.g(v)); b=Math.min(b, Pixel.b(v));
+						}
+					}
+				}
+				result[y*img.getWidth()+x] = lum ? best : Pixel.argb_fast(a, r, g, b);
+			}
+		}
+		return result;
+	}
+
+	static double[] bruteForce(ColorImg img, int channel, int kx, int ky, int lox, int loy, int mode, boolean max){
+		double[] result = new double[img.numValues()];
+		for(int y = 0; y < img.getHeight(); y++){
+			for(int x = 0; x < img.getWidth(); x++){
+				double best = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+				for(int dy = 0; dy < ky; dy++){
+					for(int dx = 0; dx < kx; dx++){
+						double v = img.getValue(channel, x+dx-lox, y+dy-loy, mode);
+						best = max ? Math.max(best, v) : Math.min(best, v);
+					}
+				}
+				result[y*img.getWidth()+x] = best;
+			}
+		}
+		return result;
+	}
+
+}
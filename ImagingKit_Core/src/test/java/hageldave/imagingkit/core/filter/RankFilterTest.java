@@ -0,0 +1,112 @@
+package hageldave.imagingkit.core.filter;
+
+import static hageldave.imagingkit.core.JunitUtils.testException;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.Pixel;
+
+public class RankFilterTest {
+
+	static final int[] modes = {
+			Img.boundary_mode_zero, 
+			Img.boundary_mode_repeat_edge, 
+			Img.boundary_mode_repeat_image, 
+			Img.boundary_mode_mirror,
+			0x80ff2040
+	};
+
+	@Test
+	public void testMedian(){
+		Random rand = new Random(0x5eed);
+		Img img = new Img(41, 27);
+		img.forEach(px->px.setValue(rand.nextInt()));
+
+		for(int mode: modes){
+			for(int radius: new int[]{1,2,3,7,20}){
+				int n = (2*radius+1)*(2*radius+1);
+				String msg = String.format("mode %d, radius %d", mode, radius);
+				assertArrayEquals(msg, bruteForce(img, radius, n/2, mode), RankFilter.median(img, radius, mode).getData());
+			}
+		}
+	}
+
+	@Test
+	public void testRank(){
+		Random rand = new Random(0x5eed);
+		// few distinct values to provoke ties
+		Img img = new Img(23, 35);
+		img.forEach(px->px.setValue(Pixel.argb_fast(rand.nextInt(4)*80, rand.nextInt(256), rand.nextInt(3), rand.nextInt(256))));
+
+		for(int mode: modes){
+			for(int radius: new int[]{1,2,4}){
+				int n = (2*radius+1)*(2*radius+1);
+				for(int rank: new int[]{0, 1, n/3, n/2, n-2, n-1}){
+					String msg = String.format("mode %d, radius %d, rank %d", mode, radius, rank);
+					assertArrayEquals(msg, bruteForce(img, radius, rank, mode), RankFilter.rank(img, null, radius, rank, mode).getData());
+				}
+			}
+		}
+		// min and max rank correspond to erosion and dilation
+		assertArrayEquals(
+				Morphology.erode(img, 7, 7, Img.boundary_mode_mirror).getData(), 
+				RankFilter.percentile(img, null, 3, 0.0, Img.boundary_mode_mirror).getData());
+		assertArrayEquals(
+				Morphology.dilate(img, 7, 7, Img.boundary_mode_mirror).getData(), 
+				RankFilter.percentile(img, null, 3, 1.0, Img.boundary_mode_mirror).getData());
+	}
+
+	@Test
+	public void testInPlace(){
+		Random rand = new Random(0x5eed);
+		Img img = new Img(30, 30);
+		img.forEach(px->px.setValue(rand.nextInt()));
+		for(int radius: new int[]{0,1,2,5}){
+			Img copy = img.copy();
+			RankFilter.median(copy, copy, radius, Img.boundary_mode_repeat_edge);
+			assertArrayEquals(RankFilter.median(img, radius, Img.boundary_mode_repeat_edge).getData(), copy.getData());
+		}
+		assertArrayEquals(img.getData(), RankFilter.median(img, 0, 0).getData());
+	}
+
+	@Test
+	public void testExceptions(){
+		Img img = new Img(10, 10);
+		testException(()->RankFilter.median(img, -1, 0), IllegalArgumentException.class);
+		testException(()->RankFilter.median(img, 40000, 0), IllegalArgumentException.class);
+		testException(()->RankFilter.rank(img, null, 1, 9, 0), IllegalArgumentException.class);
+		testException(()->RankFilter.rank(img, null, 1, -1, 0), IllegalArgumentException.class);
+		testException(()->RankFilter.percentile(img, null, 1, 1.5, 0), IllegalArgumentException.class);
+		testException(()->RankFilter.median(img, new Img(9, 10), 1, 0), IllegalArgumentException.class);
+	}
+
+	static int[] bruteForce(Img img, int radius, int rank, int mode){
+		int d = 2*radius+1;
+		int[] result = new int[img.numValues()];
+		int[][] channels = new int[4][d*d];
+		for(int y = 0; y < img.getHeight(); y++){
+			for(int x = 0; x < img.getWidth(); x++){
+				int i = 0;
+				for(int dy = -radius; dy <= radius; dy++){
+					for(int dx = -radius; dx <= radius; dx++, i++){
+						int v = img.getValue(x+dx, y+dy, mode);
+						channels[0][i] = Pixel.a(v);
+						channels[1][i] = Pixel.r(v);
+						channels[2][i] = Pixel.g(v);
+						channels[3][i] = Pixel.b(v);
+					}
+				}
+				for(int[] c: channels)
+					Arrays.sort(c);
+				result[y*img.getWidth()+x] = Pixel.argb_fast(channels[0][rank], channels[1][rank], channels[2][rank], channels[3][rank]);
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,88 @@
+package hageldave.imagingkit.core.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.JunitUtils;
+import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
+import hageldave.imagingkit.core.io.ImageSaver.ImageSaverException;
+
+public class BatchImageIOTest {
+
+	@Test
+	public void testSaveAndLoad() {
+		IOTest.testDir.mkdir();
+		HashMap<File, Img> imgs = new HashMap<>();
+		List<File> files = new ArrayList<>();
+		for(int i = 0; i < 12; i++){
+			File file = new File(IOTest.testDir, "img"+i+".png");
+			imgs.put(file, StreamingImageLoaderTest.getTestImg(20+i*7, 60-i*3));
+			files.add(file);
+		}
+
+		// budgets: smaller than any image, few images, all images
+		for(long budget: new long[]{10, 5000, BatchImageIO.DEFAULT_PIXEL_BUDGET}){
+			IOTest.deleteTestDir();
+			IOTest.testDir.mkdir();
+			BatchImageIO batch = new BatchImageIO(3, budget);
+			batch.saveAll(files, imgs::get, file->file);
+			for(File file: files){
+				assertArrayEquals(imgs.get(file).getData(), ImageLoader.loadImg(file, null, 1, 1).getData());
+			}
+
+			List<File> delivered = new ArrayList<>();
+			batch.loadAll(files, true, (file,img)->{
+				delivered.add(file);
+				assertArrayEquals(imgs.get(file).getData(), img.getData());
+			});
+			assertEquals(files, delivered);
+
+			delivered.clear();
+			batch.loadAll(files.stream(), false, (file,img)->{
+				delivered.add(file);
+				assertArrayEquals(imgs.get(file).getData(), img.getData());
+			});
+			assertEquals(files.size(), delivered.size());
+			assertEquals(new HashSet<>(files), new HashSet<>(delivered));
+		}
+	}
+
+	@Test
+	public void testExceptions() {
+		IOTest.testDir.mkdir();
+		JunitUtils.testException(()->new BatchImageIO(0, 100), IllegalArgumentException.class);
+		JunitUtils.testException(()->new BatchImageIO(1, 0), IllegalArgumentException.class);
+		BatchImageIO batch = new BatchImageIO(2, 1000);
+		File file = new File(IOTest.testDir, "img.png");
+		batch.saveAll(Arrays.asList(file), f->StreamingImageLoaderTest.getTestImg(30, 30), f->f);
+
+		JunitUtils.testException(()->{
+			batch.loadAll(Arrays.asList(file, new File(IOTest.testDir, "thefilethatdoesnotexist.png")), true, (f,img)->{});
+		}, ImageLoaderException.class);
+		// consumer exception is passed through
+		JunitUtils.testException(()->{
+			batch.loadAll(Arrays.asList(file, file, file), false, (f,img)->{
+				throw new IllegalStateException();
+			});
+		}, IllegalStateException.class);
+		JunitUtils.testException(()->{
+			batch.saveAll(Arrays.asList("a.png", "b.noformat"), s->new Img(10, 10), s->new File(IOTest.testDir, s));
+		}, ImageSaverException.class);
+	}
+
+	@After
+	public void cleanup(){
+		IOTest.deleteTestDir();
+	}
+
+}
@@ -1,5 +1,6 @@
 package hageldave.imagingkit.core.io;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -12,6 +13,20 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
 
 import org.junit.After;
 import org.junit.Test;
@@ -23,6 +38,7 @@ import hageldave.imagingkit.core.io.ImageLoader;
 import hageldave.imagingkit.core.io.ImageSaver;
 import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
 import hageldave.imagingkit.core.io.ImageSaver.ImageSaverException;
+import hageldave.imagingkit.core.util.BufferedImageFactory;
 
 import static org.junit.Assert.*;
 
@@ -208,6 +224,140 @@ public class IOTest {
 		}
 	}
 	
+	@Test
+	public void roiSubsampleTest() throws IOException {
+		testDir.mkdir();
+		Img img = getTestImg(120, 90);
+		img.forEach(px->px.setA(px.getIndex()%3 == 0 ? 255:100));
+		for(String format: new String[]{"png", "bmp"}){
+			// png with alpha decodes into ARGB, bmp without alpha decodes into RGB
+			File file = new File(testDir, "roi."+format);
+			BufferedImage bimg = BufferedImageFactory.get(img.getRemoteBufferedImage(), 
+					format.equals("png") ? BufferedImage.TYPE_INT_ARGB:BufferedImage.TYPE_INT_RGB);
+			ImageSaver.saveImage(bimg, file);
+			Img full = ImageLoader.loadImg(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+
+			Rectangle[] rois = {null, new Rectangle(10, 20, 50, 30), new Rectangle(100, -5, 50, 30), new Rectangle(0,0,1,1)};
+			int[][] samplings = {{1,1},{2,2},{3,1},{1,7},{200,200}};
+			for(Rectangle roi: rois){
+				for(int[] s: samplings){
+					Rectangle region = roi == null ? new Rectangle(120,90) : roi.intersection(new Rectangle(120,90));
+					Img loaded = ImageLoader.loadImg(file, roi, s[0], s[1]);
+					Img loadedFromStream = ImageLoader.loadImg(new ByteArrayInputStream(Files.readAllBytes(file.toPath())), roi, s[0], s[1]);
+					assertEquals((region.width+s[0]-1)/s[0], loaded.getWidth());
+					assertEquals((region.height+s[1]-1)/s[1], loaded.getHeight());
+					assertArrayEquals(loaded.getData(), loadedFromStream.getData());
+					for(Pixel p: loaded){
+						assertEquals(full.getValue(region.x+p.getX()*s[0], region.y+p.getY()*s[1]), p.getValue());
+					}
+				}
+			}
+		}
+		File file = new File(testDir, "roi.png");
+		JunitUtils.testException(()->ImageLoader.loadImg(file, new Rectangle(200, 0, 10, 10), 1, 1), IllegalArgumentException.class);
+		JunitUtils.testException(()->ImageLoader.loadImg(file, null, 0, 1), IllegalArgumentException.class);
+		JunitUtils.testException(()->ImageLoader.loadImg(new File(testDir, "doesnotexist.png"), null, 1, 1), ImageLoaderException.class);
+		JunitUtils.testException(()->ImageLoader.loadImg(new ByteArrayInputStream(new byte[]{0,0,0,0,0}), null, 1, 1), ImageLoaderException.class);
+	}
+
+	@Test
+	public void asyncTest() throws Exception {
+		testDir.mkdir();
+		Img img = getTestImg(64, 48);
+		File file = new File(testDir, "async.png");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ImageSaver.saveImageAsync(img.getRemoteBufferedImage(), file).get();
+			assertArrayEquals(img.getData(), ImageLoader.loadImgAsync(file).get().getData());
+			assertArrayEquals(img.getData(), ImageLoader.loadImgAsync(file, executor).get().getData());
+			assertArrayEquals(img.getData(), ImageLoader.loadImgFromURLAsync(filePath2URL(file.getPath()), executor).get().getData());
+
+			// pipeline load -> process -> save
+			File file2 = new File(testDir, "async2.jpg");
+			ImageLoader.loadImgAsync(file, executor)
+			.thenApply(loaded->loaded.copy().fill(0xff00ff00))
+			.thenCompose(processed->ImageSaver.saveImageAsync(processed.getRemoteBufferedImage(), file2, "jpg", executor))
+			.get();
+			Img saved = ImageLoader.loadImgAsync(file2, executor).get();
+			assertEquals(img.getDimension(), saved.getDimension());
+			assertTrue(Pixel.g(saved.getValue(10, 10)) > 240 && Pixel.r(saved.getValue(10, 10)) < 15);
+
+			// failures complete the future with the exception of the synchronous method
+			Throwable failure = ImageLoader.loadImgAsync(new File(testDir, "doesnotexist.png"), executor)
+					.handle((result,t)->t).get();
+			assertEquals(ImageLoaderException.class, failure.getClass());
+			failure = ImageSaver.saveImageAsync(img.getRemoteBufferedImage(), new File(testDir, "nodot"), executor)
+					.handle((result,t)->t).get();
+			assertEquals(ImageSaverException.class, failure.getClass());
+			try {
+				ImageLoader.loadImgAsync(new File(testDir, "doesnotexist.png")).get();
+				fail();
+			} catch (ExecutionException e) {
+				assertEquals(ImageLoaderException.class, e.getCause().getClass());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void writeOptionsTest() throws IOException {
+		testDir.mkdir();
+		Img img = new Img(200, 150);
+		img.forEach(px->px.setARGB(px.getX()%3 == 0 ? 128:255, px.getX(), px.getY(), (px.getX()*px.getY())%256));
+
+		// png is lossless regardless of compression level
+		File fast = new File(testDir, "fast.png");
+		File small = new File(testDir, "small.png");
+		ImageSaver.saveImg(img, fast, new ImageSaver.WriteOptions().setCompressionQuality(1f));
+		ImageSaver.saveImg(img, small, "png", new ImageSaver.WriteOptions().setCompressionQuality(0f));
+		assertArrayEquals(img.getData(), ImageLoader.loadImg(fast, null, 1, 1).getData());
+		assertArrayEquals(img.getData(), ImageLoader.loadImg(small, null, 1, 1).getData());
+		// the PNG writer supports compression levels only since Java 9
+		ImageWriter pngWriter = ImageIO.getImageWritersByFormatName("png").next();
+		if(pngWriter.getDefaultWriteParam().canWriteCompressed()){
+			assertTrue(fast.length() > small.length());
+		}
+		pngWriter.dispose();
+		
+		// rgb only formats ignore alpha
+		File bmp = new File(testDir, "img.bmp");
+		ImageSaver.saveImg(img, bmp, null);
+		Img loaded = ImageLoader.loadImg(bmp, null, 1, 1);
+		for(int i = 0; i < img.numValues(); i++){
+			assertEquals(img.getData()[i] | 0xff000000, loaded.getData()[i]);
+		}
+
+		// jpeg quality and progressive mode
+		ByteArrayOutputStream high = new ByteArrayOutputStream();
+		ByteArrayOutputStream low = new ByteArrayOutputStream();
+		ImageSaver.saveImg(img, high, "jpg", new ImageSaver.WriteOptions().setCompressionQuality(1f).setProgressive(true));
+		ImageSaver.saveImg(img, low, "JPEG", new ImageSaver.WriteOptions().setCompressionQuality(0.1f));
+		assertTrue(high.size() > low.size());
+		Img highLoaded = ImageLoader.loadImg(new ByteArrayInputStream(high.toByteArray()));
+		assertEquals(img.getDimension(), highLoaded.getDimension());
+		assertEquals(Pixel.g(img.getValue(20, 100)), Pixel.g(highLoaded.getValue(20, 100)), 20);
+
+		// black and white
+		ByteArrayOutputStream bw = new ByteArrayOutputStream();
+		ImageSaver.saveImg(img, bw, "wbmp", null);
+		assertEquals(img.getDimension(), ImageLoader.loadImg(new ByteArrayInputStream(bw.toByteArray())).getDimension());
+
+		// writers are reused, a failure does not break subsequent saves
+		for(int i = 0; i < 3; i++){
+			ImageSaver.saveImg(img, fast, null);
+			ImageSaver.saveImage(img.getRemoteBufferedImage(), fast);
+		}
+		JunitUtils.testException(()->ImageSaver.saveImg(img, new File(testDir, "nodir/img.png"), null), ImageSaverException.class);
+		JunitUtils.testException(()->ImageSaver.saveImg(img, new File(testDir, "img.unknownformat"), null), ImageSaverException.class);
+		JunitUtils.testException(()->new ImageSaver.WriteOptions().setCompressionQuality(2f), IllegalArgumentException.class);
+		ImageSaver.saveImg(img, fast, null);
+		assertArrayEquals(img.getData(), ImageLoader.loadImg(fast, null, 1, 1).getData());
+		ImageSaver.clearWriterCache();
+		ImageSaver.saveImg(img, fast, null);
+		assertArrayEquals(img.getData(), ImageLoader.loadImg(fast, null, 1, 1).getData());
+	}
+
 	static Img getTestImg(int w, int h) {
 		Img img = new Img(w, h);
 		for(Pixel p: img){
@@ -216,6 +366,68 @@ public class IOTest {
 		return img;
 	}
 	
+	@Test
+	public void writerSelectionTest() {
+		// two writers for a made up format, the preferred one cannot encode any image
+		IIORegistry registry = IIORegistry.getDefaultInstance();
+		// (registry holds one provider per class, hence the anonymous subclasses)
+		TestWriterSpi refusing = new TestWriterSpi(false){};
+		TestWriterSpi accepting = new TestWriterSpi(true){};
+		registry.registerServiceProvider(refusing, ImageWriterSpi.class);
+		registry.registerServiceProvider(accepting, ImageWriterSpi.class);
+		registry.setOrdering(ImageWriterSpi.class, refusing, accepting);
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			ImageSaver.saveImg(new Img(4, 3), os, "testformat", null);
+			ImageSaver.saveImg(new Img(4, 3), os, "testformat", null);
+			assertEquals(2, os.size());
+		} finally {
+			ImageSaver.clearWriterCache();
+			registry.deregisterServiceProvider(refusing, ImageWriterSpi.class);
+			registry.deregisterServiceProvider(accepting, ImageWriterSpi.class);
+		}
+	}
+
+	/** writer provider for format "testformat" writing a single byte per image */
+	static class TestWriterSpi extends ImageWriterSpi {
+		final boolean canEncode;
+
+		TestWriterSpi(boolean canEncode) {
+			super("test", "1", new String[]{"testformat"}, null, null, 
+					TestWriterSpi.class.getName()+canEncode, ImageWriterSpi.STANDARD_OUTPUT_TYPE, 
+					null, false, null, null, null, null, false, null, null, null, null);
+			this.canEncode = canEncode;
+		}
+
+		@Override
+		public boolean canEncodeImage(ImageTypeSpecifier type) {
+			return canEncode;
+		}
+
+		@Override
+		public ImageWriter createWriterInstance(Object extension) {
+			return new ImageWriter(this) {
+				@Override
+				public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IOException {
+					((ImageOutputStream)getOutput()).write(1);
+				}
+				@Override
+				public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {return null;}
+				@Override
+				public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param) {return null;}
+				@Override
+				public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {return null;}
+				@Override
+				public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param) {return null;}
+			};
+		}
+
+		@Override
+		public String getDescription(Locale locale) {
+			return "test writer";
+		}
+	}
+
 	@After
 	public void cleanup(){
 		deleteTestDir();
@@ -0,0 +1,80 @@
+package hageldave.imagingkit.core.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.JunitUtils;
+import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
+
+public class QoiStripCodecTest {
+
+	@Test
+	public void testRoundTrip() {
+		IOTest.testDir.mkdir();
+		File file = new File(IOTest.testDir, "img.qs");
+		Random rand = new Random(0);
+		for(int[] size: new int[][]{{1,1},{1,300},{300,1},{100000,2},{237,511}}){
+			Img noise = new Img(size[0], size[1]);
+			noise.forEach(px->px.setValue(rand.nextInt()));
+			Img smooth = new Img(size[0], size[1]);
+			smooth.forEach(px->px.setARGB(px.getX()%7 == 0 ? 255:200, px.getX()/3, px.getY()/2, (px.getX()+px.getY())/5));
+			Img flat = new Img(size[0], size[1]).fill(0xff000000);
+			flat.setValue(flat.getWidth()-1, flat.getHeight()-1, 0x12345678);
+			Img steps = new Img(size[0], size[1]);
+			steps.forEach(px->px.setValue(0xff000000 | rand.nextInt(4)*0x010101 * (px.getIndex()%64 < 32 ? 1:60)));
+			for(Img img: new Img[]{noise, smooth, flat, steps}){
+				QoiStripCodec.saveImg(img, file);
+				assertArrayEquals(img.getData(), QoiStripCodec.loadImg(file).getData());
+			}
+		}
+	}
+
+	@Test
+	public void testCompression() {
+		IOTest.testDir.mkdir();
+		File file = new File(IOTest.testDir, "img.qs");
+		Img img = new Img(400, 300);
+		img.forEach(px->px.setRGB(px.getX()/2, px.getY()/2, (px.getX()+px.getY())/4));
+		QoiStripCodec.saveImg(img, file);
+		assertTrue(file.length() < img.numValues()*4/2);
+	}
+
+	@Test
+	public void testExceptions() throws IOException {
+		IOTest.testDir.mkdir();
+		File file = new File(IOTest.testDir, "img.qs");
+		Img img = StreamingImageLoaderTest.getTestImg(100, 100);
+		QoiStripCodec.saveImg(img, file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+
+		JunitUtils.testException(()->QoiStripCodec.loadImg(new File(IOTest.testDir, "doesnotexist.qs")), ImageLoaderException.class);
+		// truncated
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+			raf.setLength(raf.length()-1);
+		}
+		JunitUtils.testException(()->QoiStripCodec.loadImg(file), ImageLoaderException.class);
+		// corrupted strip
+		// first op of the single strip becomes a run of 62 pixels
+		bytes[QoiStripCodec.HEADER_SIZE+4] = (byte)0xfd;
+		Files.write(file.toPath(), bytes);
+		JunitUtils.testException(()->QoiStripCodec.loadImg(file), ImageLoaderException.class);
+		// not a codec file
+		Files.write(file.toPath(), new byte[100]);
+		JunitUtils.testException(()->QoiStripCodec.loadImg(file), ImageLoaderException.class);
+	}
+
+	@After
+	public void cleanup(){
+		IOTest.deleteTestDir();
+	}
+
+}
@@ -0,0 +1,117 @@
+package hageldave.imagingkit.core.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.JunitUtils;
+import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
+import hageldave.imagingkit.core.io.RawImageIO.MappedImage;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class RawImageIOTest {
+
+	@Test
+	public void testImg() {
+		IOTest.testDir.mkdir();
+		File file = new File(IOTest.testDir, "img.raw");
+		for(int[] size: new int[][]{{1,1},{13,7},{1200,1000}}){
+			Img img = new Img(size[0], size[1]);
+			Random rand = new Random(size[0]);
+			img.forEach(px->px.setValue(rand.nextInt()));
+			RawImageIO.saveImg(img, file);
+			assertEquals(32+img.numValues()*4, file.length());
+			assertArrayEquals(img.getData(), RawImageIO.loadImg(file).getData());
+
+			MappedImage mapped = RawImageIO.map(file);
+			assertEquals(img.getWidth(), mapped.getWidth());
+			assertEquals(img.getHeight(), mapped.getHeight());
+			assertEquals(1, mapped.getNumChannels());
+			assertEquals(RawImageIO.ELEMENT_TYPE_INT32, mapped.getElementType());
+			assertEquals(RawImageIO.LAYOUT_PACKED_ARGB, mapped.getLayout());
+			IntBuffer data = mapped.getIntData();
+			assertEquals(img.numValues(), data.remaining());
+			assertEquals(img.getValue(img.getWidth()-1, img.getHeight()/2), data.get(img.getWidth()*(img.getHeight()/2+1)-1));
+			JunitUtils.testException(()->mapped.getDoubleData(0), IllegalStateException.class);
+		}
+	}
+
+	@Test
+	public void testColorImg() {
+		IOTest.testDir.mkdir();
+		File file = new File(IOTest.testDir, "colorimg.raw");
+		for(boolean alpha: new boolean[]{false, true}){
+			ColorImg img = new ColorImg(600, 700, alpha);
+			Random rand = new Random(0);
+			img.forEach(px->px.setRGB_fromDouble_preserveAlpha(rand.nextGaussian(), rand.nextDouble()*1e-300, -rand.nextDouble()));
+			img.getDataR()[17] = Double.NaN;
+			img.getDataG()[18] = Double.NEGATIVE_INFINITY;
+			if(alpha){
+				img.fill(ColorImg.channel_a, 0.25);
+			}
+			RawImageIO.saveColorImg(img, file);
+			ColorImg loaded = RawImageIO.loadColorImg(file);
+			assertEquals(alpha, loaded.hasAlpha());
+			assertEquals(img.getDimension(), loaded.getDimension());
+			for(int c = 0; c < img.getData().length; c++){
+				assertArrayEquals(img.getData()[c], loaded.getData()[c], 0.0);
+			}
+
+			MappedImage mapped = RawImageIO.map(file);
+			assertEquals(alpha ? 4:3, mapped.getNumChannels());
+			assertEquals(RawImageIO.ELEMENT_TYPE_FLOAT64, mapped.getElementType());
+			assertEquals(RawImageIO.LAYOUT_PLANAR, mapped.getLayout());
+			for(int c = 0; c < mapped.getNumChannels(); c++){
+				DoubleBuffer channel = mapped.getDoubleData(c);
+				assertEquals(img.numValues(), channel.remaining());
+				assertEquals(img.getData()[c][1234], channel.get(1234), 0.0);
+			}
+			JunitUtils.testException(()->mapped.getIntData(), IllegalStateException.class);
+		}
+	}
+
+	@Test
+	public void testExceptions() throws IOException {
+		IOTest.testDir.mkdir();
+		File imgFile = new File(IOTest.testDir, "img.raw");
+		File colorFile = new File(IOTest.testDir, "colorimg.raw");
+		RawImageIO.saveImg(new Img(20, 10), imgFile);
+		RawImageIO.saveColorImg(new ColorImg(20, 10, false), colorFile);
+
+		// wrong content type
+		JunitUtils.testException(()->RawImageIO.loadColorImg(imgFile), ImageLoaderException.class);
+		JunitUtils.testException(()->RawImageIO.loadImg(colorFile), ImageLoaderException.class);
+		// not existing
+		JunitUtils.testException(()->RawImageIO.loadImg(new File(IOTest.testDir, "doesnotexist.raw")), ImageLoaderException.class);
+		// not a raw file
+		File pngFile = new File(IOTest.testDir, "img.png");
+		ImageSaver.saveImage(new Img(20, 10).getRemoteBufferedImage(), pngFile);
+		JunitUtils.testException(()->RawImageIO.map(pngFile), ImageLoaderException.class);
+		// truncated
+		try(RandomAccessFile raf = new RandomAccessFile(colorFile, "rw")){
+			raf.setLength(raf.length()-8);
+		}
+		JunitUtils.testException(()->RawImageIO.loadColorImg(colorFile), ImageLoaderException.class);
+		// unknown version
+		byte[] bytes = Files.readAllBytes(imgFile.toPath());
+		bytes[4] = 2;
+		Files.write(imgFile.toPath(), bytes);
+		JunitUtils.testException(()->RawImageIO.loadImg(imgFile), ImageLoaderException.class);
+	}
+
+	@After
+	public void cleanup(){
+		IOTest.deleteTestDir();
+	}
+
+}
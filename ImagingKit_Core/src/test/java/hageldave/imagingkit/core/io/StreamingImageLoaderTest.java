@@ -0,0 +1,131 @@
+package hageldave.imagingkit.core.io;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.JunitUtils;
+import hageldave.imagingkit.core.io.ImageLoader.ImageLoaderException;
+
+public class StreamingImageLoaderTest {
+
+	@Test
+	public void testFormats() throws IOException {
+		IOTest.testDir.mkdir();
+		Img img = getTestImg(97, 203);
+
+		ArrayList<File> files = new ArrayList<>();
+		files.add(write(img, BufferedImage.TYPE_INT_ARGB, "png", false, "argb.png"));
+		files.add(write(img, BufferedImage.TYPE_INT_RGB, "png", false, "rgb.png"));
+		files.add(write(img, BufferedImage.TYPE_BYTE_GRAY, "png", false, "gray.png"));
+		files.add(write(img, BufferedImage.TYPE_BYTE_BINARY, "png", false, "binary.png"));
+		files.add(write(img, BufferedImage.TYPE_BYTE_INDEXED, "png", false, "indexed.png"));
+		files.add(write(img, BufferedImage.TYPE_INT_ARGB, "png", true, "interlaced.png"));
+		files.add(write(img, BufferedImage.TYPE_INT_RGB, "jpg", false, "baseline.jpg"));
+		files.add(write(img, BufferedImage.TYPE_INT_RGB, "jpg", true, "progressive.jpg"));
+		files.add(write(img, BufferedImage.TYPE_INT_RGB, "bmp", false, "rgb.bmp"));
+		files.add(write(img, BufferedImage.TYPE_INT_ARGB, "tiff", false, "argb.tiff"));
+		files.add(write(img, BufferedImage.TYPE_BYTE_INDEXED, "gif", false, "indexed.gif"));
+
+		for(File file: files){
+			Img expected = new Img(ImageIO.read(file));
+			assertArrayEquals(file.getName(), expected.getData(), StreamingImageLoader.loadImg(file).getData());
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			assertArrayEquals(file.getName(), expected.getData(), 
+					StreamingImageLoader.loadImg(new ByteArrayInputStream(bytes)).getData());
+
+			for(int stripHeight: new int[]{1, 10, 64, 500}){
+				Img streamed = new Img(expected.getDimension());
+				int[] nextY = {0};
+				StreamingImageLoader.streamImg(file, stripHeight, (strip,y)->{
+					assertEquals(nextY[0], y);
+					assertEquals(Math.min(stripHeight, expected.getHeight()-y), strip.getHeight());
+					System.arraycopy(strip.getData(), 0, streamed.getData(), y*streamed.getWidth(), strip.numValues());
+					nextY[0] += strip.getHeight();
+				});
+				assertEquals(expected.getHeight(), nextY[0]);
+				assertArrayEquals(file.getName()+" "+stripHeight, expected.getData(), streamed.getData());
+			}
+		}
+	}
+
+	@Test
+	public void testExceptions() throws IOException {
+		IOTest.testDir.mkdir();
+		File file = write(getTestImg(50, 50), BufferedImage.TYPE_INT_ARGB, "png", false, "img.png");
+
+		// consumer exception is passed through and decoder stops
+		JunitUtils.testException(()->{
+			StreamingImageLoader.streamImg(file, 5, (strip,y)->{
+				if(y == 10) throw new IllegalStateException();
+			});
+		}, IllegalStateException.class);
+
+		JunitUtils.testException(()->{
+			StreamingImageLoader.streamImg(file, 0, (strip,y)->{});
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			StreamingImageLoader.loadImg(new File(IOTest.testDir, "thefilethatdoesnotexist.png"));
+		}, ImageLoaderException.class);
+		JunitUtils.testException(()->{
+			StreamingImageLoader.loadImg(new ByteArrayInputStream(new byte[]{0,0,0,0,0}));
+		}, ImageLoaderException.class);
+		// truncated file
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		JunitUtils.testException(()->{
+			StreamingImageLoader.streamImg(new ByteArrayInputStream(bytes, 0, bytes.length/2), 5, (strip,y)->{});
+		}, ImageLoaderException.class);
+	}
+
+	static Img getTestImg(int w, int h){
+		Random rand = new Random(0x5eed);
+		Img img = new Img(w, h);
+		img.forEach(px->{
+			int noise = rand.nextInt(16);
+			px.setRGB(px.getX()+noise, px.getY()+noise, (px.getX()^px.getY())+noise);
+			px.setA(px.getX()%7 == 0 ? 128:255);
+		});
+		return img;
+	}
+
+	static File write(Img img, int type, String format, boolean progressive, String name) throws IOException {
+		BufferedImage bimg = new BufferedImage(img.getWidth(), img.getHeight(), type);
+		bimg.getGraphics().drawImage(img.getRemoteBufferedImage(), 0, 0, null);
+		File file = new File(IOTest.testDir, name);
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if(progressive){
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		}
+		file.delete();
+		try(ImageOutputStream ios = ImageIO.createImageOutputStream(file)){
+			writer.setOutput(ios);
+			writer.write(null, new IIOImage(bimg, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return file;
+	}
+
+	@After
+	public void cleanup(){
+		IOTest.deleteTestDir();
+	}
+
+}
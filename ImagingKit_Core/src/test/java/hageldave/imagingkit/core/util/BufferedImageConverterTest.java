@@ -0,0 +1,124 @@
+package hageldave.imagingkit.core.util;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import javax.imageio.ImageTypeSpecifier;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.JunitUtils;
+
+public class BufferedImageConverterTest {
+
+	static final int[] types = {
+			BufferedImage.TYPE_INT_ARGB,
+			BufferedImage.TYPE_INT_ARGB_PRE,
+			BufferedImage.TYPE_INT_RGB,
+			BufferedImage.TYPE_INT_BGR,
+			BufferedImage.TYPE_3BYTE_BGR,
+			BufferedImage.TYPE_4BYTE_ABGR,
+			BufferedImage.TYPE_4BYTE_ABGR_PRE,
+			BufferedImage.TYPE_BYTE_GRAY,
+			BufferedImage.TYPE_USHORT_GRAY,
+			BufferedImage.TYPE_BYTE_BINARY,
+			BufferedImage.TYPE_BYTE_INDEXED,
+			BufferedImage.TYPE_USHORT_565_RGB,
+	};
+
+	@Test
+	public void testGetRGB(){
+		Img img = getTestImg(300, 250);
+		ArrayList<BufferedImage> images = new ArrayList<>();
+		for(int type: types){
+			images.add(draw(img, new BufferedImage(img.getWidth(), img.getHeight(), type)));
+		}
+		// interleaved layouts as produced by the PNG decoder
+		ColorSpace sRGB = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+		images.add(draw(img, ImageTypeSpecifier.createInterleaved(sRGB, new int[]{0,1,2}, DataBuffer.TYPE_BYTE, false, false)
+				.createBufferedImage(img.getWidth(), img.getHeight())));
+		images.add(draw(img, ImageTypeSpecifier.createInterleaved(sRGB, new int[]{0,1,2,3}, DataBuffer.TYPE_BYTE, true, false)
+				.createBufferedImage(img.getWidth(), img.getHeight())));
+
+		for(BufferedImage bimg: images){
+			String msg = "type "+bimg.getType();
+			int[] expected = bimg.getRGB(0, 0, bimg.getWidth(), bimg.getHeight(), null, 0, bimg.getWidth());
+			assertArrayEquals(msg, expected, BufferedImageConverter.getRGB(bimg));
+			// area with offset and scansize
+			int[] area = new int[5 + 40*60];
+			int[] expectedArea = new int[area.length];
+			bimg.getRGB(17, 31, 37, 40, expectedArea, 5, 60);
+			BufferedImageConverter.getRGB(bimg, 17, 31, 37, 40, area, 5, 60);
+			assertArrayEquals(msg, expectedArea, area);
+			// sub image with translated raster
+			BufferedImage sub = bimg.getSubimage(13, 21, 101, 77);
+			expected = sub.getRGB(0, 0, sub.getWidth(), sub.getHeight(), null, 0, sub.getWidth());
+			assertArrayEquals(msg, expected, BufferedImageConverter.getRGB(sub));
+			// Img constructor
+			assertArrayEquals(msg, bimg.getRGB(0, 0, bimg.getWidth(), bimg.getHeight(), null, 0, bimg.getWidth()), new Img(bimg).getData());
+		}
+
+		BufferedImage bimg = images.get(0);
+		JunitUtils.testException(()->BufferedImageConverter.getRGB(bimg, 200, 0, 101, 1, null, 0, 101), ArrayIndexOutOfBoundsException.class);
+		JunitUtils.testException(()->BufferedImageConverter.getRGB(bimg, 0, 0, 10, 10, new int[99], 0, 10), ArrayIndexOutOfBoundsException.class);
+	}
+
+	@Test
+	public void testFastPaths(){
+		for(int type: new int[]{
+				BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, 
+				BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED})
+		{
+			assertTrue(BufferedImageConverter.isDirectlyConvertible(new BufferedImage(2, 2, type)));
+		}
+		for(int type: new int[]{
+				BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_4BYTE_ABGR_PRE, BufferedImage.TYPE_BYTE_BINARY, 
+				BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_INT_BGR})
+		{
+			assertFalse(BufferedImageConverter.isDirectlyConvertible(new BufferedImage(2, 2, type)));
+		}
+	}
+
+	@Test
+	public void testFactory(){
+		Img img = getTestImg(64, 48);
+		img.forEach(px->px.setA(255));
+		for(int type: new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_INT_RGB}){
+			BufferedImage bimg = draw(img, new BufferedImage(img.getWidth(), img.getHeight(), type));
+			for(int targetType: new int[]{BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB}){
+				BufferedImage drawn = draw(bimg, new BufferedImage(img.getWidth(), img.getHeight(), targetType));
+				BufferedImage converted = BufferedImageFactory.get(bimg, targetType);
+				assertEquals(targetType, converted.getType());
+				assertArrayEquals(
+						drawn.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth()),
+						converted.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth()));
+			}
+		}
+	}
+
+	static BufferedImage draw(Img img, BufferedImage target){
+		return draw(img.getRemoteBufferedImage(), target);
+	}
+
+	static BufferedImage draw(BufferedImage img, BufferedImage target){
+		Graphics2D g = target.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return target;
+	}
+
+	static Img getTestImg(int w, int h){
+		Random rand = new Random(0x5eed);
+		Img img = new Img(w, h);
+		img.forEach(px->px.setValue(rand.nextInt()));
+		return img;
+	}
+
+}
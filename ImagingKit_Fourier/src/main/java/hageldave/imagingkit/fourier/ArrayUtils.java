@@ -18,7 +18,9 @@
 package hageldave.imagingkit.fourier;
 
 import java.util.Collections;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * Utility class for doing things with double arrays
@@ -28,10 +30,20 @@ public class ArrayUtils {
 	
 	private ArrayUtils(){/* not constructable */}
 
+	/** number of array elements below which {@link #shift2D(double[], int, int, int, int)} runs sequentially */
+	static final int SHIFT_PARALLEL_THRESHOLD = 1<<16;
+	/** number of elements processed per work unit (row chunk or column stripe) of a 2D shift */
+	static final int SHIFT_BLOCK_SIZE = 1<<12;
+
 	/**
 	 * Applies a 2D torus shift to the specified row major order array of specified dimensions.
 	 * The array is interpreted as an image of given width and height (with elements in row major order)
 	 * and is shifted by x to the right and by y to the bottom.
+	 * <p>
+	 * The half size shift of an array with even dimensions (as done by an fftshift) is carried out
+	 * as an in-place swap of diagonally opposite quadrants. Other shifts rotate each row using 
+	 * block copies and then rotate whole rows in column stripes. 
+	 * Large arrays are processed in parallel.
 	 * @param a array
 	 * @param w width
 	 * @param h height
@@ -41,18 +53,112 @@ public class ArrayUtils {
 	public static void shift2D(double[] a, int w, int h, int x, int y){
 		assertPositive(w, ()->"specified width is not positive. w="+w);
 		assertPositive(h, ()->"specified height is not positive. h="+h);
-		while(x < 0) x = w+x;
-		while(y < 0) y = h+y;
-		x %=w;
-		y %=h;
+		x %= w;
+		y %= h;
+		if(x < 0) x += w;
+		if(y < 0) y += h;
 		if(x==0 && y==0){
 			return;
 		}
-		for(int row = 0; row < h; row++){
-			int offset = row*w;
-			rotateArray(a, w, offset, x);
+		final boolean parallel = (long)w*h >= SHIFT_PARALLEL_THRESHOLD;
+		if(w%2==0 && h%2==0 && x==w/2 && y==h/2){
+			swapQuadrants(a, w, h, parallel);
+			return;
+		}
+		if(x != 0){
+			rotateRows(a, w, h, x, parallel);
 		}
-		rotateArray(a,w*h, 0, y*w);
+		if(y != 0){
+			rotateColumns(a, w, h, y, parallel);
+		}
+	}
+
+	/** swaps top left with bottom right and top right with bottom left quadrant */
+	private static void swapQuadrants(final double[] a, final int w, final int h, boolean parallel){
+		final int hw = w/2, hh = h/2;
+		final int rowsPerChunk = Math.max(1, SHIFT_BLOCK_SIZE/w);
+		final int numChunks = (hh+rowsPerChunk-1)/rowsPerChunk;
+		forEachChunk(numChunks, parallel, chunk->{
+			final int rowEnd = Math.min(hh, (chunk+1)*rowsPerChunk);
+			for(int row = chunk*rowsPerChunk; row < rowEnd; row++){
+				final int top = row*w;
+				final int bottom = (row+hh)*w;
+				for(int i = 0; i < hw; i++){
+					double t = a[top+i];
+					a[top+i] = a[bottom+hw+i];
+					a[bottom+hw+i] = t;
+					t = a[top+hw+i];
+					a[top+hw+i] = a[bottom+i];
+					a[bottom+i] = t;
+				}
+			}
+		});
+	}
+
+	/** rotates every row of the array by x elements to the right (0 &lt; x &lt; w) */
+	private static void rotateRows(final double[] a, final int w, final int h, final int x, boolean parallel){
+		final int rowsPerChunk = Math.max(1, SHIFT_BLOCK_SIZE/w);
+		final int numChunks = (h+rowsPerChunk-1)/rowsPerChunk;
+		final int left = w-x;
+		forEachChunk(numChunks, parallel, chunk->{
+			final int rowEnd = Math.min(h, (chunk+1)*rowsPerChunk);
+			final double[] tmp = new double[Math.min(x, left)];
+			for(int row = chunk*rowsPerChunk; row < rowEnd; row++){
+				final int offset = row*w;
+				if(x <= left){
+					System.arraycopy(a, offset+left, tmp, 0, x);
+					System.arraycopy(a, offset, a, offset+x, left);
+					System.arraycopy(tmp, 0, a, offset, x);
+				} else {
+					System.arraycopy(a, offset, tmp, 0, left);
+					System.arraycopy(a, offset+left, a, offset, x);
+					System.arraycopy(tmp, 0, a, offset+x, left);
+				}
+			}
+		});
+	}
+
+	/** rotates the rows of the array by y rows to the bottom (0 &lt; y &lt; h) */
+	private static void rotateColumns(final double[] a, final int w, final int h, final int y, boolean parallel){
+		final int stripeWidth = Math.min(w, SHIFT_BLOCK_SIZE);
+		final int numStripes = (w+stripeWidth-1)/stripeWidth;
+		final int numCycles = gcd(h, y);
+		forEachChunk(numStripes, parallel, stripe->{
+			final int x0 = stripe*stripeWidth;
+			final int sw = Math.min(w, x0+stripeWidth)-x0;
+			final double[] tmp = new double[sw];
+			// juggling rotation at row granularity, row i receives row i-y
+			for(int cycleStart = 0; cycleStart < numCycles; cycleStart++){
+				System.arraycopy(a, cycleStart*w+x0, tmp, 0, sw);
+				int dst = cycleStart;
+				int src = dst-y < 0 ? dst-y+h : dst-y;
+				while(src != cycleStart){
+					System.arraycopy(a, src*w+x0, a, dst*w+x0, sw);
+					dst = src;
+					src = dst-y < 0 ? dst-y+h : dst-y;
+				}
+				System.arraycopy(tmp, 0, a, dst*w+x0, sw);
+			}
+		});
+	}
+
+	private static void forEachChunk(int numChunks, boolean parallel, IntConsumer action){
+		if(parallel && numChunks > 1){
+			IntStream.range(0, numChunks).parallel().forEach(action);
+		} else {
+			for(int i = 0; i < numChunks; i++){
+				action.accept(i);
+			}
+		}
+	}
+
+	private static int gcd(int a, int b){
+		while(b != 0){
+			int t = a%b;
+			a = b;
+			b = t;
+		}
+		return a;
 	}
 
 	/**
@@ -122,4 +228,29 @@ public class ArrayUtils {
 		}
 	}
 
+	/**
+	 * Multiplies the complex numbers given by the specified real and imaginary arrays element wise
+	 * with the complex numbers of the other specified arrays (or their conjugates). 
+	 * The result is stored in the first pair of arrays.
+	 * @param real real parts of the multiplicand, will be overwritten with the product's real parts
+	 * @param imag imaginary parts of the multiplicand, will be overwritten with the product's imaginary parts
+	 * @param otherReal real parts of the multiplier
+	 * @param otherImag imaginary parts of the multiplier
+	 * @param conjugate when true, the conjugates of the multiplier are used
+	 * @throws IllegalArgumentException if arrays are not of the same length
+	 */
+	public static void multiplyComplex(final double[] real, final double[] imag, final double[] otherReal, final double[] otherImag, boolean conjugate){
+		final int n = real.length;
+		assertArraySize(n, imag, ()->"imaginary array has different length than real array");
+		assertArraySize(n, otherReal, ()->"other real array has different length than real array");
+		assertArraySize(n, otherImag, ()->"other imaginary array has different length than real array");
+		final double sign = conjugate ? -1:1;
+		for(int i = 0; i < n; i++){
+			final double r1 = real[i], i1 = imag[i];
+			final double r2 = otherReal[i], i2 = otherImag[i]*sign;
+			real[i] = r1*r2 - i1*i2;
+			imag[i] = r1*i2 + i1*r2;
+		}
+	}
+
 }
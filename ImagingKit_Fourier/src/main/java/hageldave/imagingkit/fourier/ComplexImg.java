@@ -21,6 +21,10 @@ import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
 
 import hageldave.imagingkit.core.ImgBase;
 import hageldave.imagingkit.core.operations.ColorSpaceTransformation;
@@ -33,6 +37,7 @@ import hageldave.imagingkit.core.scientific.ColorImg;
  * the power spectrum of the image which consists of the squared lengths
  * of the complex values {@code (complex=a+bi, power=a*a+b*b)}, see
  * {@link #enableSynchronizePowerSpectrum(boolean)} and {@link #recomputePowerChannel()}.
+ * The power channel is only allocated once it is used.
  * <p>
  * The main purpose of the ComplexImg is to store the result of a Fourier transformation
  * of another image, which can be obtained using the {@link Fourier} class.
@@ -44,7 +49,8 @@ import hageldave.imagingkit.core.scientific.ColorImg;
  * for any kinds of shifting stuff</li>
  * <li>{@link #computePower(int, int)},{@link #computePhase(int, int)} to obtain power and phase</li>
  * <li>{@link #getPowerSpectrumImg()}, {@link #getPhaseSpectrumImg()}, {@link #getPowerPhaseSpectrumImg()}
- * for displaying and examining interesting quantities of the transform</li>
+ * for displaying and examining interesting quantities of the transform 
+ * (or {@link SpectrumRenderer} for repeated rendering)</li>
  * </ul>
  *
  * @author hageldave
@@ -64,14 +70,26 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 
 	private final double[] real;
 	private final double[] imag;
-	/* power spectrum: real*real+imag*imag */
-	private final double[] power;
-
-	/* delegate image for operations like interpolate that are already implemented */
-	private final ColorImg delegate;
+	/* power spectrum: real*real+imag*imag, allocated on first use */
+	private volatile double[] power;
+	/* rows of the stored power array that need to be recomputed before being read (1 if dirty),
+	 * atomic so that rows marked by other threads are recomputed with the values they have written */
+	private final AtomicIntegerArray dirtyPowerRows;
+	private final AtomicBoolean powerOutdated = new AtomicBoolean(false);
+	/* true while dirty rows are recomputed, readers have to wait for the recomputation to finish */
+	private volatile boolean updatingPower = false;
+
+	/* delegate image for operations like interpolate that are already implemented, created on first use */
+	private ColorImg delegate;
 
 	private int currentXshift = 0;
 	private int currentYshift = 0;
+	/* shift at which the data is physically stored, may lag behind the current shift */
+	private int storedXshift = 0;
+	private int storedYshift = 0;
+
+	/* number of values above which the power channel is recomputed in parallel */
+	private static final int PARALLEL_THRESHOLD = 1<<16;
 
 	private boolean synchronizePowerSpectrum = false;
 
@@ -89,12 +107,13 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @param height of the image
 	 */
 	public ComplexImg(int width, int height) {
-		this(width, height, new double[width*height],new double[width*height],new double[width*height]);
+		this(width, height, new double[width*height],new double[width*height],null);
 	}
 
 	/**
 	 * Creates a new ComplexImg of specified dimension, using the provided arrays as channels.
-	 * Only the real channel is mandatory, the others may be null and will then be initialized by the constructor.
+	 * Only the real channel is mandatory, the others may be null and will then be initialized by the constructor
+	 * (the power channel once it is used).
 	 * @param width of the image
 	 * @param height of the image
 	 * @param real the real part array to be used by this image (has to have length {@code width*height})
@@ -116,16 +135,16 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 		this.width = width;
 		this.height = height;
 		this.imag = imag !=null ?  imag:new double[width*height];
-		this.power= power!=null ? power:new double[width*height];
+		this.power= power;
 
 		// sanity check 2:
-		if(this.real.length != this.imag.length || this.imag.length != this.power.length){
+		if(this.real.length != this.imag.length || (this.power != null && this.imag.length != this.power.length)){
 			throw new IllegalArgumentException(String.format(
 					"Provided data arrays are not of same size. real[%d] imag[%d] power[%d]", 
-					this.real.length, this.imag.length, this.power.length));
+					this.real.length, this.imag.length, this.power != null ? this.power.length:this.real.length));
 		}
 
-		this.delegate = new ColorImg(this.width, this.height, this.real, this.imag, this.power, null);
+		this.dirtyPowerRows = new AtomicIntegerArray(height);
 	}
 
 
@@ -154,7 +173,8 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 
 	@Override
 	public BufferedImage toBufferedImage(BufferedImage bimg) {
-		return delegate.toBufferedImage(bimg);
+		materializeShift();
+		return delegate().toBufferedImage(bimg);
 	}
 
 
@@ -165,9 +185,15 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 				getHeight(),
 				Arrays.copyOf(real, real.length),
 				Arrays.copyOf(imag, imag.length),
-				Arrays.copyOf(power, power.length));
+				power != null ? Arrays.copyOf(power, power.length):null);
+		for(int row = 0; row < height; row++){
+			copy.dirtyPowerRows.set(row, dirtyPowerRows.get(row));
+		}
+		copy.powerOutdated.set(powerOutdated.get());
 		copy.currentXshift = currentXshift;
 		copy.currentYshift = currentYshift;
+		copy.storedXshift = storedXshift;
+		copy.storedYshift = storedYshift;
 		return copy;
 	}
 
@@ -186,7 +212,12 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * is not within the data arrays bounds or if the specified channel is not in [0,2]
 	 */
 	public double getValue(int channel, int x, int y) {
-		return delegate.getValue(channel, x, y);
+		switch (channel) {
+		case CHANNEL_REAL: return real[index(x, y)];
+		case CHANNEL_IMAG: return imag[index(x, y)];
+		case CHANNEL_POWER: return powerData()[index(x, y)];
+		default: throw new ArrayIndexOutOfBoundsException(channel);
+		}
 	}
 
 	/**
@@ -201,7 +232,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * is not within the data arrays bounds
 	 */
 	public double getValueR(int x, int y) {
-		return delegate.getValueR(x, y);
+		return real[index(x, y)];
 	}
 
 	/**
@@ -216,14 +247,14 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * is not within the data arrays bounds
 	 */
 	public double getValueI(int x, int y) {
-		return delegate.getValueG(x, y);
+		return imag[index(x, y)];
 	}
 
 	/**
 	 * Returns the power value ({@code a*a+b*b} of {@code a+bi}) of this image at the specified position. <br>
 	 * <b>Please Note:</b> there is no guarantee that the power channel is up to date, except when {@link #recomputePowerChannel()}
 	 * has been called before. You can also use {@link #synchronizePowerSpectrum} to enable power spectrum synchronization
-	 * on changes via the set and pixel methods. Alternatively to {@link #getValueP(int, int)} you can use
+	 * on changes via the set and pixel methods (power of modified rows is then recomputed when read). Alternatively to {@link #getValueP(int, int)} you can use
 	 * {@link #computePower(int, int)}.
 	 * <p>
 	 * No bounds checks will be performed, positions outside of this
@@ -236,7 +267,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * is not within the data arrays bounds
 	 */
 	public double getValueP(int x, int y) {
-		return delegate.getValueB(x, y);
+		return powerData()[index(x, y)];
 	}
 
 	/**
@@ -253,7 +284,33 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * boundary mode for out of bounds positions.
 	 */
 	public double getValue(int channel, int x, int y, int boundaryMode) {
-		return delegate.getValue(channel, x, y, boundaryMode);
+		if(x < 0 || y < 0 || x >= width || y >= height){
+			switch (boundaryMode) {
+			case ColorImg.boundary_mode_zero:
+				return 0;
+			case ColorImg.boundary_mode_repeat_edge:
+				x = (x < 0 ? 0: (x >= width ? width-1:x));
+				y = (y < 0 ? 0: (y >= height ? height-1:y));
+				break;
+			case ColorImg.boundary_mode_repeat_image:
+				x = (width + (x % width)) % width;
+				y = (height + (y % height)) % height;
+				break;
+			case ColorImg.boundary_mode_mirror:
+				if(x < 0){ // mirror x to right side of image
+					x = -x - 1;
+				}
+				if(y < 0 ){ // mirror y to bottom side of image
+					y = -y - 1;
+				}
+				x = (x/width) % 2 == 0 ? (x%width) : (width-1)-(x%width);
+				y = (y/height) % 2 == 0 ? (y%height) : (height-1)-(y%height);
+				break;
+			default:
+				return boundaryMode; // boundary mode can be default value
+			}
+		}
+		return getValue(channel, x, y);
 	}
 
 	/**
@@ -266,7 +323,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * boundary mode for out of bounds positions.
 	 */
 	public double getValueR(int x, int y, int boundaryMode) {
-		return delegate.getValueR(x, y, boundaryMode);
+		return getValue(CHANNEL_REAL, x, y, boundaryMode);
 	}
 
 	/**
@@ -279,7 +336,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * boundary mode for out of bounds positions.
 	 */
 	public double getValueI(int x, int y, int boundaryMode) {
-		return delegate.getValueG(x, y, boundaryMode);
+		return getValue(CHANNEL_IMAG, x, y, boundaryMode);
 	}
 
 	/**
@@ -295,7 +352,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * boundary mode for out of bounds positions.
 	 */
 	public double getValueP(int x, int y, int boundaryMode) {
-		return delegate.getValueB(x, y, boundaryMode);
+		return getValue(CHANNEL_POWER, x, y, boundaryMode);
 	}
 
 	/**
@@ -304,7 +361,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return index of pixel with max channel value
 	 */
 	public int getIndexOfMaxValue(int channel) {
-		return delegate.getIndexOfMaxValue(channel);
+		return getIndexOfExtremeValue(channel, true);
 	}
 
 	/**
@@ -313,7 +370,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return max channel value
 	 */
 	public double getMaxValue(int channel) {
-		return delegate.getMaxValue(channel);
+		return getValue_atIndex(channel, getIndexOfMaxValue(channel));
 	}
 
 	/**
@@ -322,7 +379,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return index of pixel with min channel value
 	 */
 	public int getIndexOfMinValue(int channel) {
-		return delegate.getIndexOfMinValue(channel);
+		return getIndexOfExtremeValue(channel, false);
 	}
 
 	/**
@@ -331,7 +388,37 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return min channel value
 	 */
 	public double getMinValue(int channel) {
-		return delegate.getMinValue(channel);
+		return getValue_atIndex(channel, getIndexOfMinValue(channel));
+	}
+
+	/** 
+	 * @return index (in current layout) of the first maximum or minimum of the channel, 
+	 * found without rearranging the data 
+	 */
+	private int getIndexOfExtremeValue(int channel, boolean max){
+		final double[] values;
+		switch (channel) {
+		case CHANNEL_REAL: values = real; break;
+		case CHANNEL_IMAG: values = imag; break;
+		case CHANNEL_POWER: values = powerData(); break;
+		default: throw new ArrayIndexOutOfBoundsException(channel);
+		}
+		int index = 0;
+		double val = values[index(0, 0)];
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				double v = values[index(x, y)];
+				if(max ? v > val : v < val){
+					index = y*width+x;
+					val = v;
+				}
+			}
+		}
+		return index;
+	}
+
+	private double getValue_atIndex(int channel, int index){
+		return getValue(channel, index%width, index/width);
 	}
 
 	/**
@@ -340,7 +427,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return value at index
 	 */
 	public double getValueR_atIndex(int index){
-		return real[index];
+		return real[index(index)];
 	}
 
 	/**
@@ -349,7 +436,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return value at index
 	 */
 	public double getValueI_atIndex(int index){
-		return imag[index];
+		return imag[index(index)];
 	}
 
 	/**
@@ -362,14 +449,14 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return value at index
 	 */
 	public double getValueP_atIndex(int index){
-		return power[index];
+		return powerData()[index(index)];
 	}
 
 	/**
 	 * Equivalent to {@link #getDataReal()}[index] = value.
 	 * <br>
 	 * If {@link #isSynchronizePowerSpectrum()} is true, then this will also
-	 * update the corresponding power value.
+	 * mark the corresponding power value for recomputation.
 	 * @param index for the value to be set
 	 * @param value to be set at index
 	 * 
@@ -377,9 +464,10 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @see #setComplex_atIndex(int, double, double)
 	 */
 	public void setValueR_atIndex(int index, double value){
+		index = index(index);
 		real[index] = value;
 		if(synchronizePowerSpectrum){
-			computePower(index);
+			markPowerDirty(index);
 		}
 	}
 
@@ -387,7 +475,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * Equivalent to {@link #getDataImag()}[index] = value.
 	 * <br>
 	 * If {@link #isSynchronizePowerSpectrum()} is true, then this will also
-	 * update the corresponding power value.
+	 * mark the corresponding power value for recomputation.
 	 * @param index for the value to be set
 	 * @param value to be set at index
 	 * 
@@ -395,9 +483,10 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @see #setComplex_atIndex(int, double, double)
 	 */
 	public void setValueI_atIndex(int index, double value){
+		index = index(index);
 		imag[index] = value;
 		if(synchronizePowerSpectrum){
-			computePower(index);
+			markPowerDirty(index);
 		}
 	}
 
@@ -405,16 +494,17 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * Sets real part and imaginary part of the complex number at specified index.
 	 * <br>
 	 * If {@link #isSynchronizePowerSpectrum()} is true, then this will also
-	 * update the corresponding power value.
+	 * mark the corresponding power value for recomputation.
 	 * @param index for the value to be set
 	 * @param real part
 	 * @param imag part
 	 */
 	public void setComplex_atIndex(int index, double real, double imag){
+		index = index(index);
 		this.real[index] = real;
 		this.imag[index] = imag;
 		if(synchronizePowerSpectrum){
-			computePower(index);
+			markPowerDirty(index);
 		}
 	}
 
@@ -422,7 +512,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * Sets the real part at the specified position
 	 * <br>
 	 * If {@link #isSynchronizePowerSpectrum()} is true, then this will also
-	 * update the corresponding power value.
+	 * mark the corresponding power value for recomputation.
 	 * @param x coordinate
 	 * @param y coordinate
 	 * @param value to be set
@@ -436,7 +526,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * Sets the imaginary part at the specified position
 	 * <br>
 	 * If {@link #isSynchronizePowerSpectrum()} is true, then this will also
-	 * update the corresponding power value.
+	 * mark the corresponding power value for recomputation.
 	 * @param x coordinate
 	 * @param y coordinate
 	 * @param value to be set
@@ -450,7 +540,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * Sets the real and imaginary part at the specified position
 	 * <br>
 	 * If {@link #isSynchronizePowerSpectrum()} is true, then this will also
-	 * update the corresponding power value.
+	 * mark the corresponding power value for recomputation.
 	 * @param x coordinate
 	 * @param y coordinate
 	 * @param real part to be set
@@ -468,9 +558,8 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return this
 	 */
 	public ComplexImg recomputePowerChannel(){
-		for(int i=0; i<real.length; i++){
-			computePower(i);
-		}
+		markAllPowerDirty();
+		updatePower();
 		return this;
 	}
 
@@ -482,10 +571,15 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return power of pixel at index
 	 */
 	public double computePower(int idx){
+		return computeStoredPower(index(idx));
+	}
+
+	/** computes power at index of the stored arrays */
+	private double computeStoredPower(int idx){
+		allocatePower();
 		double r = real[idx];
 		double i = imag[idx];
-		power[idx] = r*r+i*i;
-		return power[idx];
+		return power[idx] = r*r+i*i;
 	}
 	
 	/**
@@ -508,6 +602,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return the phase in [0,2pi] of the complex number at index
 	 */
 	public double computePhase(int idx){
+		idx = index(idx);
 		double r = real[idx];
 		double i = imag[idx];
 		return atan2(r, i);
@@ -530,16 +625,20 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * All values of this channel will be same afterwards.
 	 * <br>
 	 * If {@link #isSynchronizePowerSpectrum()} is true, then this will also
-	 * call {@link #recomputePowerChannel()}.
+	 * mark the power channel for recomputation.
 	 * 
 	 * @param channel to fill
 	 * @param value to fill with
 	 * @return this
 	 */
 	public ComplexImg fill(int channel, double value) {
-		delegate.fill(channel, value);
-		if(synchronizePowerSpectrum && (channel == CHANNEL_REAL || channel == CHANNEL_IMAG)){
-			recomputePowerChannel();
+		if(channel == CHANNEL_REAL || channel == CHANNEL_IMAG){
+			Arrays.fill(channel == CHANNEL_REAL ? real:imag, value);
+			if(synchronizePowerSpectrum){
+				markAllPowerDirty();
+			}
+		} else {
+			delegate().fill(channel, value);
 		}
 		return this;
 	}
@@ -552,14 +651,15 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return {@code getDelegate().getRemoteBufferedImage() }
 	 */
 	public BufferedImage getRemoteBufferedImage() {
-		return delegate.getRemoteBufferedImage();
+		materializeShift();
+		return delegate().getRemoteBufferedImage();
 	}
 
 	/**
 	 * Returns true.
 	 */
 	public boolean supportsRemoteBufferedImage() {
-		return delegate.supportsRemoteBufferedImage();
+		return true;
 	}
 
 	/**
@@ -580,9 +680,14 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 		if(dest == null){
 			dest = new ComplexImg(w, h);
 		}
-		delegate.copyArea(x, y, w, h, dest.delegate, destX, destY);
+		materializeShift();
+		dest.materializeShift();
+		delegate().copyArea(x, y, w, h, dest.delegate(), destX, destY);
 		if(dest.isSynchronizePowerSpectrum()){
-			dest.recomputePowerChannel();
+			for(int row = destY; row < destY+h; row++){
+				dest.dirtyPowerRows.set(row, 1);
+			}
+			dest.powerOutdated.set(true);
 		}
 		return dest;
 	}
@@ -591,10 +696,13 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * Returns the delegate {@link ColorImg} backing this {@link ComplexImg}.
 	 * The delegate is used to implement functionality like {@link #getRemoteBufferedImage()}.
 	 * It can also be used to gain access to {@link ColorImg#interpolate(int, double, double)}.
+	 * Since the delegate's blue channel is the power channel, this allocates the power channel 
+	 * if it does not exist yet.
 	 * @return {@link ColorImg} delegate of this complex image.
 	 */
 	public ColorImg getDelegate(){
-		return delegate;
+		materializeShift();
+		return delegate();
 	}
 
 	/**
@@ -602,6 +710,7 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return real part channel
 	 */
 	public double[] getDataReal() {
+		materializeShift();
 		return real;
 	}
 
@@ -610,15 +719,17 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * @return imaginary part channel
 	 */
 	public double[] getDataImag() {
+		materializeShift();
 		return imag;
 	}
 
 	/**
-	 * Returns the power channel
+	 * Returns the power channel, allocating it if it does not exist yet.
 	 * @return power spectrum channel
 	 */
 	public double[] getDataPower() {
-		return power;
+		materializeShift();
+		return powerData();
 	}
 
 	/**
@@ -632,18 +743,22 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	/**
 	 * Enables or disables power channel synchronization.
 	 * When enabled this will update the power value (squared magnitude of the complex number) when changes to
-	 * the real or imaginary values are made.
+	 * the real or imaginary values are made. 
+	 * The update is deferred: modified rows are remembered and their power is recomputed (in parallel for large 
+	 * numbers of rows) when the power channel is read next, so that modifications are cheap.
+	 * Modifying and reading pixels concurrently (e.g. in a parallel forEach loop) 
+	 * is supported, the recomputation is synchronized.
 	 * Only changes made using methods like {@link #setValueR(int, int, double)} or {@link ComplexPixel#setImag(double)}
 	 * will result in the power being updated, indirect modifications via {@link #getDataReal()} or {@link #getDelegate()}
 	 * are not noticed.
-	 * When enabling, this will also call {@link #recomputePowerChannel()} in order to have the power synchronized
+	 * When enabling, this will also mark the whole power channel for recomputation in order to have the power synchronized
 	 * @param synchronizePowerSpectrum true when enabling, false when disabling
 	 * @return this
 	 */
 	public ComplexImg enableSynchronizePowerSpectrum(boolean synchronizePowerSpectrum) {
 		this.synchronizePowerSpectrum = synchronizePowerSpectrum;
 		if(synchronizePowerSpectrum){
-			recomputePowerChannel();
+			markAllPowerDirty();
 		}
 		return this;
 	}
@@ -657,6 +772,12 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * To reset use {@link #resetShift()}, 
 	 * use {@link #getCurrentXshift()} and {@link #getCurrentYshift()} to get the current shift
 	 * of this image.
+	 * <p>
+	 * The shift is applied lazily as an offset to positions in the value accessors, 
+	 * pixels and iterations, which makes this a constant time operation.
+	 * The data arrays are only rearranged when they are accessed directly 
+	 * (e.g. {@link #getDataReal()}, {@link #getDelegate()}, {@link #toBufferedImage(BufferedImage)}), 
+	 * or when calling {@link #materializeShift()}.
 	 * 
 	 * @param x shift (positive shifts right)
 	 * @param y shift (positive shift down)
@@ -667,11 +788,8 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 		while(y < 0) y += getHeight();
 		x %= getWidth();
 		y %= getHeight();
-		ArrayUtils.shift2D(real, width, height, x, y);
-		ArrayUtils.shift2D(imag, width, height, x, y);
-		if(synchronizePowerSpectrum)
-			ArrayUtils.shift2D(power, width, height, x, y);
-		setCurrentShift(this.currentXshift+x, this.currentYshift+y);
+		this.currentXshift = (this.currentXshift+x)%width;
+		this.currentYshift = (this.currentYshift+y)%height;
 		return this;
 	}
 
@@ -693,14 +811,188 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 		return shift(width-currentXshift, height-currentYshift);
 	}
 
+	/**
+	 * Rearranges the data arrays according to the current shift, which is otherwise 
+	 * only applied as offset during indexing (see {@link #shift(int, int)}).
+	 * This is done implicitly when accessing the data arrays.
+	 * <p>
+	 * Rearranging is synchronized, so that threads that access the data arrays of a shifted image
+	 * concurrently rearrange it only once. Value accessors (including those with boundary modes and 
+	 * the min/max methods) never rearrange the data, but they must not run concurrently with
+	 * a rearrangement, i.e. the data arrays of a shifted image should be obtained before 
+	 * reading values in parallel.
+	 * @return this
+	 */
+	public synchronized ComplexImg materializeShift(){
+		int x = (width +currentXshift-storedXshift)%width;
+		int y = (height+currentYshift-storedYshift)%height;
+		if(x != 0 || y != 0){
+			ArrayUtils.shift2D(real, width, height, x, y);
+			ArrayUtils.shift2D(imag, width, height, x, y);
+			if(power != null){
+				if(synchronizePowerSpectrum || powerOutdated.get()){
+					// stale anyway, recompute when read instead of moving
+					markAllPowerDirty();
+				} else {
+					ArrayUtils.shift2D(power, width, height, x, y);
+				}
+			}
+			storedXshift = currentXshift;
+			storedYshift = currentYshift;
+		}
+		return this;
+	}
+
 	/**
 	 * Sets the current shift values
 	 * @param xshift shift in x direction
 	 * @param yshift shift in y direction
 	 */
-	protected void setCurrentShift(int xshift, int yshift){
-		this.currentXshift = xshift%width;
-		this.currentYshift = yshift%height;
+	protected synchronized void setCurrentShift(int xshift, int yshift){
+		materializeShift();
+		this.currentXshift = this.storedXshift = xshift%width;
+		this.currentYshift = this.storedYshift = yshift%height;
+	}
+
+	/** @return index into the stored arrays for the specified position, taking a pending shift into account */
+	private int index(int x, int y){
+		if(currentXshift == storedXshift && currentYshift == storedYshift){
+			return y*width+x;
+		}
+		x -= currentXshift-storedXshift;
+		y -= currentYshift-storedYshift;
+		if(x < 0) x += width; else if(x >= width) x -= width;
+		if(y < 0) y += height; else if(y >= height) y -= height;
+		return y*width+x;
+	}
+
+	/** @return index into the stored arrays for the specified index, taking a pending shift into account */
+	private int index(int idx){
+		if(currentXshift == storedXshift && currentYshift == storedYshift){
+			return idx;
+		}
+		return index(idx%width, idx/width);
+	}
+
+	/** @return real part array in stored layout without rearranging, see {@link #getStoredXshift()} */
+	double[] getStoredReal(){
+		return real;
+	}
+
+	/** @return imaginary part array in stored layout without rearranging, see {@link #getStoredXshift()} */
+	double[] getStoredImag(){
+		return imag;
+	}
+
+	/** @return the x shift of the stored layout of the data arrays */
+	int getStoredXshift(){
+		return storedXshift;
+	}
+
+	/** @return the y shift of the stored layout of the data arrays */
+	int getStoredYshift(){
+		return storedYshift;
+	}
+
+	/** 
+	 * declares the stored layout to be the current shift without rearranging the data,
+	 * for when all values are about to be overwritten 
+	 */
+	synchronized void discardPendingShift(){
+		storedXshift = currentXshift;
+		storedYshift = currentYshift;
+		if(synchronizePowerSpectrum){
+			markAllPowerDirty();
+		}
+	}
+
+	/** 
+	 * to be called after real or imaginary parts have been modified in the stored arrays,
+	 * marks the power for recomputation if synchronized
+	 */
+	void storedDataModified(){
+		if(synchronizePowerSpectrum){
+			markAllPowerDirty();
+		}
+	}
+
+	/** @return power array in stored layout, allocated and with all pending rows recomputed */
+	private double[] powerData(){
+		if(powerOutdated.get() || updatingPower || power == null){
+			updatePower();
+		}
+		return power;
+	}
+
+	private void allocatePower(){
+		if(power == null){
+			synchronized (this) {
+				if(power == null){
+					power = new double[width*height];
+				}
+			}
+		}
+	}
+
+	/** @return the delegate, created with an up to date power channel */
+	private synchronized ColorImg delegate(){
+		updatePower();
+		if(delegate == null){
+			delegate = new ColorImg(width, height, real, imag, power, null);
+		}
+		return delegate;
+	}
+
+	/** recomputes the power of all dirty rows */
+	private void updatePower(){
+		allocatePower();
+		if(!powerOutdated.get() && !updatingPower){
+			return;
+		}
+		synchronized (this) {
+			updatingPower = true;
+			try {
+				// rows marked during recomputation are picked up by the next iteration
+				while(powerOutdated.getAndSet(false)){
+					int[] rows = IntStream.range(0, height).filter(row->dirtyPowerRows.get(row)==1).toArray();
+					IntStream stream = IntStream.of(rows);
+					// a fork join worker (e.g. of a parallel forEach) could execute tasks of its own stream 
+					// while joining, which would then re-enter here with rows that are not computed yet
+					if((long)rows.length*width >= PARALLEL_THRESHOLD && !(Thread.currentThread() instanceof ForkJoinWorkerThread)){
+						stream = stream.parallel();
+					}
+					stream.forEach(this::computeStoredPowerRow);
+				}
+			} finally {
+				updatingPower = false;
+			}
+		}
+	}
+
+	/** recomputes the power of the specified row if it is dirty */
+	private void computeStoredPowerRow(int row){
+		if(dirtyPowerRows.getAndSet(row, 0) == 0){
+			return;
+		}
+		final double[] power = this.power;
+		for(int i = row*width; i < (row+1)*width; i++){
+			double r = real[i];
+			double im = imag[i];
+			power[i] = r*r+im*im;
+		}
+	}
+
+	/** marks the row of the specified stored index for power recomputation */
+	private void markPowerDirty(int idx){
+		dirtyPowerRows.set(idx/width, 1);
+		powerOutdated.set(true);
+	}
+
+	private void markAllPowerDirty(){
+		for(int row = 0; row < height; row++){
+			dirtyPowerRows.set(row, 1);
+		}
+		powerOutdated.set(true);
 	}
 
 	/**
@@ -736,9 +1028,13 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * 
 	 * @see #getPhaseSpectrumImg()
 	 * @see #getPowerPhaseSpectrumImg()
+
+	 * @see SpectrumRenderer
 	 */
 	public ColorImg getPowerSpectrumImg(){
-		this.recomputePowerChannel();
+		if(!synchronizePowerSpectrum){
+			this.recomputePowerChannel();
+		}
 		// get copy of power channel
 		ColorImg powerSpectrum = this.getDelegate().getChannelImage(ComplexImg.CHANNEL_POWER).copy();
 		// logarithmize values
@@ -761,6 +1057,8 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * 
 	 * @see #getPowerSpectrumImg()
 	 * @see #getPowerPhaseSpectrumImg()
+
+	 * @see SpectrumRenderer
 	 */
 	public ColorImg getPhaseSpectrumImg(){
 		ColorImg phaseImg = new ColorImg(this.getDimension(), false);
@@ -791,10 +1089,14 @@ public class ComplexImg implements ImgBase<ComplexPixel> {
 	 * 
 	 * @see #getPowerSpectrumImg()
 	 * @see #getPhaseSpectrumImg()
+
+	 * @see SpectrumRenderer
 	 */
 	public ColorImg getPowerPhaseSpectrumImg(){
-		// calculate power spectrum
-		this.recomputePowerChannel();
+		// calculate power spectrum (synchronized power only needs its modified rows updated)
+		if(!synchronizePowerSpectrum){
+			this.recomputePowerChannel();
+		}
 		// get upper bound (used for normalization)
 		final double maxLogPow = Math.log(1+this.getMaxValue(CHANNEL_POWER));
 		ColorImg powerphase = new ColorImg(this.getDimension(), false);
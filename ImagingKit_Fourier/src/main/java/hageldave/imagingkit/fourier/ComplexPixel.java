@@ -60,7 +60,7 @@ public class ComplexPixel implements PixelBase {
 
 	@Override
 	public double b_asDouble() {
-		return getSource().getDataPower()[index];
+		return getSource().getValueP_atIndex(index);
 	}
 
 	/**
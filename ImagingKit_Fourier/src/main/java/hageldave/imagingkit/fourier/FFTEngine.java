@@ -0,0 +1,100 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.util.Arrays;
+
+/**
+ * An FFTEngine computes discrete Fourier transforms of row major arrays, either in 2D or 
+ * row wise / column wise in 1D. 
+ * Complex data is given as separate real and imaginary part arrays ("split" format) like the 
+ * data arrays of a {@link ComplexImg}, which allows engines to work directly on images' data.
+ * <p>
+ * The {@link Fourier} class uses an engine for its transforms, see {@link Fourier#setEngine(FFTEngine)}.
+ * Implementations are the native {@link FFTWEngine} and the pure Java {@link JavaFFTEngine}.
+ * Inverse transforms are normalized, i.e. the inverse of the forward transform yields the 
+ * original data again.
+ * 
+ * @author hageldave
+ */
+public interface FFTEngine {
+
+	/** transform along both axes (2D) */
+	public static final int AXES_XY = 0;
+	/** transform along x axis (rows) */
+	public static final int AXIS_X = 1;
+	/** transform along y axis (columns) */
+	public static final int AXIS_Y = 2;
+
+	/**
+	 * Fourier transforms the specified complex data in place (inversely if specified).
+	 * @param inverse calculates inverse transform if true, otherwise forward transform
+	 * @param real part of the data (row major), will be overwritten with the real part of the transform
+	 * @param imag imaginary part of the data (row major), will be overwritten with the imaginary part of the transform
+	 * @param width of the data
+	 * @param height of the data
+	 * @param axes one of {@link #AXES_XY}, {@link #AXIS_X}, {@link #AXIS_Y}
+	 * 
+	 * @throws IllegalArgumentException if width or height are not positive, the arrays are 
+	 * not of length width*height or the specified axes are invalid
+	 */
+	public void transform(boolean inverse, double[] real, double[] imag, int width, int height, int axes);
+
+	/**
+	 * Fourier transforms the specified real data.
+	 * The default implementation uses a complex transform of the data (with zero imaginary part).
+	 * @param input real data (row major), is not modified
+	 * @param real array to store the real part of the transform in
+	 * @param imag array to store the imaginary part of the transform in
+	 * @param width of the data
+	 * @param height of the data
+	 * @param axes one of {@link #AXES_XY}, {@link #AXIS_X}, {@link #AXIS_Y}
+	 * 
+	 * @throws IllegalArgumentException if width or height are not positive, the arrays are 
+	 * not of length width*height or the specified axes are invalid
+	 */
+	public default void transformReal(double[] input, double[] real, double[] imag, int width, int height, int axes){
+		ArrayUtils.assertArraySize(real.length, input, ()->"input array has different length than real array");
+		System.arraycopy(input, 0, real, 0, input.length);
+		Arrays.fill(imag, 0);
+		transform(false, real, imag, width, height, axes);
+	}
+
+	/**
+	 * Inversely Fourier transforms the specified complex data of which only the real part of the 
+	 * result is of interest (i.e. the spectrum of real data).
+	 * The default implementation uses a complex transform of a copy of the data.
+	 * @param real part of the data (row major), is not modified
+	 * @param imag imaginary part of the data (row major), is not modified
+	 * @param output array to store the real valued result in
+	 * @param width of the data
+	 * @param height of the data
+	 * @param axes one of {@link #AXES_XY}, {@link #AXIS_X}, {@link #AXIS_Y}
+	 * 
+	 * @throws IllegalArgumentException if width or height are not positive, the arrays are 
+	 * not of length width*height or the specified axes are invalid
+	 */
+	public default void inverseTransformReal(double[] real, double[] imag, double[] output, int width, int height, int axes){
+		ArrayUtils.assertArraySize(real.length, output, ()->"output array has different length than real array");
+		double[] re = real.clone();
+		double[] im = imag.clone();
+		transform(true, re, im, width, height, axes);
+		System.arraycopy(re, 0, output, 0, re.length);
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+import hageldave.ezfftw.FFTW_Initializer;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * {@link FFTEngine} implementation using the native FFTW library through {@link FourierContext}.
+ * By default, every transform is planned in a temporary context. 
+ * To reuse plans and native buffers, an engine can be created for a {@link FourierContext} that
+ * is kept open for as long as the engine is used.
+ * <p>
+ * Use {@link #isAvailable()} to check whether the native library can be loaded on this system.
+ * 
+ * @author hageldave
+ */
+public class FFTWEngine implements FFTEngine {
+
+	private static volatile Boolean available = null;
+
+	private final FourierContext context;
+
+	/**
+	 * Creates a new FFTWEngine that plans every transform in a temporary {@link FourierContext}.
+	 */
+	public FFTWEngine() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new FFTWEngine that uses the specified context for its transforms.
+	 * @param context (may be null) the context to use, when null temporary contexts are used
+	 */
+	public FFTWEngine(FourierContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Returns whether the native FFTW library can be loaded on this system.
+	 * The library is loaded on the first call.
+	 * @return true when FFTW is available
+	 */
+	public static boolean isAvailable(){
+		if(available == null){
+			synchronized (FFTWEngine.class) {
+				if(available == null){
+					try {
+						FFTW_Initializer.initFFTW();
+						available = true;
+					} catch (LinkageError e){
+						available = false;
+					}
+				}
+			}
+		}
+		return available;
+	}
+
+	@Override
+	public void transform(boolean inverse, double[] real, double[] imag, int width, int height, int axes) {
+		ComplexImg img = wrap(real, imag, width, height);
+		switch (axes) {
+		case AXES_XY: withContext(ctx->ctx.transform(inverse, img, img)); break;
+		case AXIS_X: withContext(ctx->ctx.horizontalTransform(inverse, img, img)); break;
+		case AXIS_Y: withContext(ctx->ctx.verticalTransform(inverse, img, img)); break;
+		default: throw invalidAxes(axes);
+		}
+	}
+
+	@Override
+	public void transformReal(double[] input, double[] real, double[] imag, int width, int height, int axes) {
+		ComplexImg target = wrap(real, imag, width, height);
+		ColorImg src = wrap(input, width, height);
+		switch (axes) {
+		case AXES_XY: withContext(ctx->ctx.transform(src, ColorImg.channel_r, target)); break;
+		case AXIS_X: withContext(ctx->ctx.horizontalTransform(src, ColorImg.channel_r, target)); break;
+		case AXIS_Y: withContext(ctx->ctx.verticalTransform(src, ColorImg.channel_r, target)); break;
+		default: throw invalidAxes(axes);
+		}
+	}
+
+	@Override
+	public void inverseTransformReal(double[] real, double[] imag, double[] output, int width, int height, int axes) {
+		ComplexImg fourier = wrap(real, imag, width, height);
+		ColorImg target = wrap(output, width, height);
+		switch (axes) {
+		case AXES_XY: withContext(ctx->ctx.inverseTransform(target, fourier, ColorImg.channel_r)); break;
+		case AXIS_X: withContext(ctx->ctx.horizontalInverseTransform(target, fourier, ColorImg.channel_r)); break;
+		case AXIS_Y: withContext(ctx->ctx.verticalInverseTransform(target, fourier, ColorImg.channel_r)); break;
+		default: throw invalidAxes(axes);
+		}
+	}
+
+	private <T> T withContext(Function<FourierContext, T> transform){
+		if(context != null){
+			return transform.apply(context);
+		}
+		try(FourierContext ctx = new FourierContext()){
+			return transform.apply(ctx);
+		}
+	}
+
+	/** complex image using the specified arrays without copying */
+	private static ComplexImg wrap(double[] real, double[] imag, int width, int height){
+		ArrayUtils.assertPositive(width, ()->"specified width is not positive. w="+width);
+		ArrayUtils.assertPositive(height, ()->"specified height is not positive. h="+height);
+		return new ComplexImg(width, height, real, Objects.requireNonNull(imag), null);
+	}
+
+	/** color image using the specified array for all of its channels without copying */
+	private static ColorImg wrap(double[] data, int width, int height){
+		ArrayUtils.assertPositive(width, ()->"specified width is not positive. w="+width);
+		ArrayUtils.assertPositive(height, ()->"specified height is not positive. h="+height);
+		return new ColorImg(width, height, data, data, data, null);
+	}
+
+	static IllegalArgumentException invalidAxes(int axes){
+		return new IllegalArgumentException(String.format(
+				"Axes can be AXES_XY(0), AXIS_X(1) or AXIS_Y(2). But axes is %d", axes));
+	}
+
+}
@@ -19,24 +19,59 @@ package hageldave.imagingkit.fourier;
 
 import java.awt.Dimension;
 
-import hageldave.ezfftw.dp.FFT;
-import hageldave.ezfftw.dp.FFTW_Guru;
-import hageldave.ezfftw.dp.NativeRealArray;
-import hageldave.ezfftw.dp.PrecisionDependentUtils;
-import hageldave.ezfftw.dp.RowMajorArrayAccessor;
-import hageldave.ezfftw.dp.samplers.ComplexValuedSampler;
-import hageldave.ezfftw.dp.writers.ComplexValuedWriter;
 import hageldave.imagingkit.core.scientific.ColorImg;
-import hageldave.imagingkit.core.scientific.ColorPixel;
 
 /**
  * The Fourier class provides methods to execute FFTs on {@link ColorImg}es and {@link ComplexImg}es.
+ * <p>
+ * The 2D and the row/column wise transforms are computed by an {@link FFTEngine}. 
+ * Unless an engine is set using {@link #setEngine(FFTEngine)}, small transforms are computed by a 
+ * {@link JavaFFTEngine} to avoid the overhead of native calls, and large transforms by an {@link FFTWEngine}
+ * (or also by the {@link JavaFFTEngine} if the native FFTW library cannot be loaded).
  * @author hageldave
  */
 public class Fourier {
 	
+	/** number of values up to which transforms are computed by the Java engine by default */
+	static final int SMALL_TRANSFORM_SIZE = 1<<12;
+
+	private static final FFTEngine JAVA_ENGINE = new JavaFFTEngine();
+	private static final FFTEngine FFTW_ENGINE = new FFTWEngine();
+	private static volatile FFTEngine engine = null;
+
 	private Fourier(){/* not constructable */}
 
+	/**
+	 * Sets the {@link FFTEngine} that is used for the 2D and row/column wise transforms of this class.
+	 * When set to null (default), the engine is chosen depending on the size of the transform, 
+	 * see {@link Fourier}. 
+	 * The half spectrum, batched and convolution methods always use FFTW through a {@link FourierContext}.
+	 * @param engine to use or null for automatic selection
+	 */
+	public static void setEngine(FFTEngine engine) {
+		Fourier.engine = engine;
+	}
+
+	/**
+	 * Returns the {@link FFTEngine} set by {@link #setEngine(FFTEngine)}.
+	 * @return the engine or null if the engine is selected automatically
+	 */
+	public static FFTEngine getEngine() {
+		return engine;
+	}
+
+	/** @return the engine to use for a transform of the specified number of values */
+	static FFTEngine engineFor(int numValues) {
+		FFTEngine e = engine;
+		if(e != null){
+			return e;
+		}
+		if(numValues <= SMALL_TRANSFORM_SIZE || !FFTWEngine.isAvailable()){
+			return JAVA_ENGINE;
+		}
+		return FFTW_ENGINE;
+	}
+
 	/**
 	 * Fourier transforms the specified channel of the specified {@link ColorImg}.
 	 * @param img of which one channel is to be transformed
@@ -47,15 +82,24 @@ public class Fourier {
 	 * but the specified image does not have an alpha channel 
 	 */
 	public static ComplexImg transform(ColorImg img, int channel) {
-		sanityCheckForward(img, channel);
-		// transform
-		ComplexImg transformed = new ComplexImg(img.getDimension());
-		FFT.fft(
-				img.getData()[channel], // input
-				transformed.getDataReal(), // real out
-				transformed.getDataImag(), // imaginary out
-				img.getWidth(), img.getHeight()); // dimensions
-		return transformed;
+		return realToComplex(FFTEngine.AXES_XY, img, channel);
+	}
+	
+	/**
+	 * Fourier transforms the specified channel of the specified {@link ColorImg} into a {@link HalfComplexImg}.
+	 * Since the transform of a real valued image is Hermitian symmetric, only half of it is computed and stored,
+	 * which takes roughly half the time and memory of {@link #transform(ColorImg, int)}.
+	 * @param img of which one channel is to be transformed
+	 * @param channel the channel which will be transformed
+	 * @return the transform as HalfComplexImg
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the specified image does not have an alpha channel 
+	 */
+	public static HalfComplexImg transformHalf(ColorImg img, int channel) {
+		try(FourierContext ctx = new FourierContext()){
+			return ctx.transformHalf(img, channel, null);
+		}
 	}
 	
 	/**
@@ -71,51 +115,7 @@ public class Fourier {
 	 * @throws IllegalArgumentException if specified target does not match dimensions of transformed image
 	 */
 	public static ComplexImg transform(final boolean inverse, ComplexImg toTransform, ComplexImg target){
-		if(target == null){
-			target = new ComplexImg(toTransform.getDimension());
-		} else if(!target.getDimension().equals(toTransform.getDimension())){
-			throw new IllegalArgumentException(String.format(
-					"specified target is of wrong dimensions. Expected %s but has %s.", 
-					toTransform.getDimension(), target.getDimension()));
-		}
-		final int w = toTransform.getWidth();
-		final int h = toTransform.getHeight();
-		try(
-				NativeRealArray inr = new NativeRealArray(toTransform.numValues());
-				NativeRealArray ini = new NativeRealArray(inr.length);
-				NativeRealArray outr = new NativeRealArray(inr.length);
-				NativeRealArray outi = new NativeRealArray(inr.length);
-		){
-			if(toTransform.getCurrentXshift() != 0 || toTransform.getCurrentYshift() != 0){
-				ComplexValuedSampler sampler = getSamplerForShiftedComplexImg(toTransform);
-				PrecisionDependentUtils.fillNativeArrayFromSampler(inr, sampler.getPartSampler(false), w,h);
-				PrecisionDependentUtils.fillNativeArrayFromSampler(ini, sampler.getPartSampler(true),  w,h);
-			} else {
-				inr.set(toTransform.getDataReal());
-				ini.set(toTransform.getDataImag());
-			}
-			if(inverse){
-				// swap real and imaginary args
-				FFTW_Guru.execute_split_c2c(ini, inr, outi, outr, w,h);
-			} else {
-				FFTW_Guru.execute_split_c2c(inr, ini, outr, outi, w,h);
-			}
-			if(target.getCurrentXshift() != 0 || target.getCurrentYshift() != 0){
-				ComplexValuedWriter writer = getWriterForShiftedComplexImg(target);
-				PrecisionDependentUtils.readNativeArrayToWriter(outr, writer.getPartWriter(false), w,h);
-				PrecisionDependentUtils.readNativeArrayToWriter(outi, writer.getPartWriter(true), w,h);
-			} else {
-				outr.get(0, target.getDataReal());
-				outi.get(0, target.getDataImag());
-			}
-			if(inverse){
-				// need to rescale
-				double scaling = 1.0/toTransform.numValues();
-				ArrayUtils.scaleArray(target.getDataReal(), scaling);
-				ArrayUtils.scaleArray(target.getDataImag(), scaling);
-			}
-		}
-		return target;
+		return complexToComplex(FFTEngine.AXES_XY, inverse, toTransform, target);
 	}
 	
 	/**
@@ -137,29 +137,127 @@ public class Fourier {
 	 * if alpha is specified as channel but specified target (if not null) is does not have an alpha channel
 	 */
 	public static ColorImg inverseTransform(ColorImg target, ComplexImg fourier, int channel) {
-		Dimension dim = fourier.getDimension();
-		// if no target was specified create a new one
-		if(target == null) {
-			target = new ColorImg(dim, channel==ColorImg.channel_a);
+		return complexToReal(FFTEngine.AXES_XY, target, fourier, channel);
+	}
+	
+	/**
+	 * Executes the inverse Fourier transform on the specified {@link HalfComplexImg} that corresponds
+	 * to a specific channel of a {@link ColorImg} defined by the channel argument.
+	 * This is the inverse of {@link #transformHalf(ColorImg, int)}.
+	 * If target is null a new ColorImg will be created and returned.
+	 * 
+	 * @param target image where the transform is stored to
+	 * @param fourier the HalfComplexImg that will be transformed and corresponds to the specified channel
+	 * @param channel the specified HalfComplexImg correspond to
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException <br>
+	 * if images are not of the same dimensions <br>
+	 * if alpha is specified as channel but specified target (if not null) is does not have an alpha channel
+	 */
+	public static ColorImg inverseTransform(ColorImg target, HalfComplexImg fourier, int channel) {
+		try(FourierContext ctx = new FourierContext()){
+			return ctx.inverseTransform(target, fourier, channel);
 		}
-		// continue sanity checks
-		sanityCheckInverse_target(target, dim, channel);
-		// now do the transforms
-		if(fourier.getCurrentXshift() != 0 || fourier.getCurrentYshift() != 0){
-			ComplexValuedSampler complexIn = getSamplerForShiftedComplexImg(fourier);
-			RowMajorArrayAccessor realOut = new RowMajorArrayAccessor(target.getData()[channel], target.getWidth(), target.getHeight());
-			FFT.ifft(complexIn, realOut, realOut.getDimensions());
-		} else {
-			FFT.ifft(	fourier.getDataReal(), 
-						fourier.getDataImag(), 
-						target.getData()[channel], 
-						target.getWidth(), target.getHeight());
+	}
+	
+	/**
+	 * Fourier transforms all channels of the specified {@link ColorImg} (r,g,b and a if present)
+	 * in a single batched transform, which is cheaper than transforming each channel on its own.
+	 * Use a {@link FourierContext} when transforming repeatedly.
+	 * @param img to be transformed
+	 * @return the transforms indexed by channel
+	 */
+	public static ComplexImg[] transformAll(ColorImg img) {
+		try(FourierContext ctx = new FourierContext()){
+			return ctx.transformAll(img, null);
+		}
+	}
+	
+	/**
+	 * Executes the inverse Fourier transforms of the specified {@link ComplexImg}s that correspond
+	 * to the channels of a {@link ColorImg} in a single batched transform.
+	 * This is the inverse of {@link #transformAll(ColorImg)}.
+	 * If target is null a new ColorImg will be created and returned.
+	 * 
+	 * @param target image where the transforms are stored to
+	 * @param fouriers 3 or 4 ComplexImgs corresponding to the r,g,b and a channels
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException <br>
+	 * if images are not of the same dimensions <br>
+	 * if not 3 or 4 ComplexImgs were specified <br>
+	 * if 4 ComplexImgs were specified but the specified target (if not null) does not have an alpha channel
+	 */
+	public static ColorImg inverseTransformAll(ColorImg target, ComplexImg... fouriers) {
+		try(FourierContext ctx = new FourierContext()){
+			return ctx.inverseTransformAll(target, fouriers);
 		}
-		double scaling = 1.0/target.numValues();
-		ArrayUtils.scaleArray(target.getData()[channel], scaling);
-		return target;
 	}
 
+	/**
+	 * Convolves the specified channel of the specified image with the same channel of the specified kernel.
+	 * The convolution is computed as product of the Fourier transforms, which is much faster than 
+	 * spatial convolution for large kernels. The image is padded according to the specified boundary mode 
+	 * and to a size for which the Fourier transform is efficient (see {@link #nextFastSize(int)}).
+	 * Use a {@link FourierContext} when convolving repeatedly, e.g. with the same kernel.
+	 * 
+	 * @param img to be convolved
+	 * @param kernel to convolve with, centered at (width/2, height/2)
+	 * @param channel the channel to convolve
+	 * @param boundaryMode how to handle values beyond the image borders, one of the boundary modes
+	 * of {@link ColorImg}, e.g. {@link ColorImg#boundary_mode_mirror}, or any other value to use as constant.
+	 * @return new ColorImg containing the result in the specified channel
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but one of the images does not have an alpha channel
+	 */
+	public static ColorImg convolve(ColorImg img, ColorImg kernel, int channel, int boundaryMode) {
+		try(FourierContext ctx = new FourierContext()){
+			return ctx.convolve(img, kernel, channel, boundaryMode, null);
+		}
+	}
+	
+	/**
+	 * Cross correlates the specified channel of the specified image with the same channel of the specified 
+	 * kernel, e.g. for template matching. 
+	 * This is computed the same way as {@link #convolve(ColorImg, ColorImg, int, int)} but with the 
+	 * conjugate of the kernel's spectrum.
+	 * 
+	 * @param img to be correlated
+	 * @param kernel to correlate with, centered at (width/2, height/2)
+	 * @param channel the channel to correlate
+	 * @param boundaryMode how to handle values beyond the image borders, one of the boundary modes
+	 * of {@link ColorImg}, e.g. {@link ColorImg#boundary_mode_mirror}, or any other value to use as constant.
+	 * @return new ColorImg containing the result in the specified channel
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but one of the images does not have an alpha channel
+	 */
+	public static ColorImg correlate(ColorImg img, ColorImg kernel, int channel, int boundaryMode) {
+		try(FourierContext ctx = new FourierContext()){
+			return ctx.correlate(img, kernel, channel, boundaryMode, null);
+		}
+	}
+	
+	/**
+	 * Returns the smallest size greater or equal to the specified size that has no 
+	 * prime factors other than 2, 3, 5 and 7. FFTW computes transforms of such sizes efficiently.
+	 * @param n minimum size
+	 * @return size &ge; n that is a product of 2,3,5 and 7
+	 * @throws IllegalArgumentException if n is not positive
+	 */
+	public static int nextFastSize(int n) {
+		ArrayUtils.assertPositive(n, ()->"specified size is not positive. n="+n);
+		for(int m = n;; m++){
+			int r = m;
+			for(int p: new int[]{2,3,5,7}){
+				while(r % p == 0) r /= p;
+			}
+			if(r == 1) return m;
+		}
+	}
+	
 	/**
 	 * Executes row wise Fourier transforms of the specified channel of the specified {@link ColorImg}.
 	 * A 1-dimensional Fourier transform is done for each row of the image's channel.
@@ -171,23 +269,7 @@ public class Fourier {
 	 * but the specified image does not have an alpha channel 
 	 */
 	public static ComplexImg horizontalTransform(ColorImg img, int channel) {
-		// sanity checks
-		sanityCheckForward(img, channel);
-		// make transforms
-		ComplexImg transformed = new ComplexImg(img.getDimension());
-		try(
-				NativeRealArray row = new NativeRealArray(img.getWidth());
-				NativeRealArray fft_r = new NativeRealArray(row.length);
-				NativeRealArray fft_i = new NativeRealArray(row.length);
-		) {
-			for(int y = 0; y < img.getHeight(); y++){
-				row.set(0, img.getWidth(), y*img.getWidth(), img.getData()[channel]);
-				FFTW_Guru.execute_split_r2c(row, fft_r, fft_i, img.getWidth());
-				fft_r.get(0, img.getWidth(), y*img.getWidth(), transformed.getDataReal());
-				fft_i.get(0, img.getWidth(), y*img.getWidth(), transformed.getDataImag());
-			}
-		}
-		return transformed;
+		return realToComplex(FFTEngine.AXIS_X, img, channel);
 	}
 	
 	/**
@@ -203,46 +285,7 @@ public class Fourier {
 	 * @throws IllegalArgumentException if specified target does not match dimensions of transformed image
 	 */
 	public static ComplexImg horizontalTransform(final boolean inverse, ComplexImg toTransform, ComplexImg target){
-		if(target == null){
-			target = new ComplexImg(toTransform.getDimension());
-		} else if(!target.getDimension().equals(toTransform.getDimension())){
-			throw new IllegalArgumentException(String.format(
-					"specified target is of wrong dimensions. Expected %s but has %s.", 
-					toTransform.getDimension(), target.getDimension()));
-		}
-		final int w = toTransform.getWidth();
-		final int h = toTransform.getHeight();
-		try(
-				NativeRealArray inr = new NativeRealArray(w);
-				NativeRealArray ini = new NativeRealArray(w);
-				NativeRealArray outr = new NativeRealArray(w);
-				NativeRealArray outi = new NativeRealArray(w);
-		){
-			ComplexValuedSampler complexIn = getSamplerForShiftedComplexImg(toTransform);
-			ComplexValuedWriter  complexOut = getWriterForShiftedComplexImg(target);
-			for(int y = 0; y < h; y++){
-				for(int x = 0; x < w; x++){
-					inr.set(x, complexIn.getValueAt(false, x,y));
-					ini.set(x, complexIn.getValueAt(true,  x,y));
-				}
-				if(inverse){
-					FFTW_Guru.execute_split_c2c(ini,inr, outi,outr, w);
-				} else {
-					FFTW_Guru.execute_split_c2c(inr,ini, outr,outi, w);
-				}
-				for(int x = 0; x < w; x++){
-					complexOut.setValueAt(outr.get(x), false, x,y);
-					complexOut.setValueAt(outi.get(x), true,  x,y);
-				}
-			}
-		}
-		if(inverse){
-			// need to rescale
-			double scaling = 1.0/w;
-			ArrayUtils.scaleArray(target.getDataReal(), scaling);
-			ArrayUtils.scaleArray(target.getDataImag(), scaling);
-		}
-		return target;
+		return complexToComplex(FFTEngine.AXIS_X, inverse, toTransform, target);
 	}
 
 	/**
@@ -259,32 +302,7 @@ public class Fourier {
 	 * but the specified image does not have an alpha channel 
 	 */
 	public static ColorImg horizontalInverseTransform(ColorImg target, ComplexImg fourier, int channel) {
-		Dimension dim = fourier.getDimension();
-		// if no target was specified create a new one
-		if(target == null) {
-			target = new ColorImg(dim, channel==ColorImg.channel_a);
-		}
-		// continue sanity checks
-		sanityCheckInverse_target(target, dim, channel);
-		// now do the transforms
-		try(
-				NativeRealArray row = new NativeRealArray(target.getWidth());
-				NativeRealArray fft_r = new NativeRealArray(row.length);
-				NativeRealArray fft_i = new NativeRealArray(row.length);
-		){
-			ComplexValuedSampler complexIn = getSamplerForShiftedComplexImg(fourier);
-			for(int y = 0; y < target.getHeight(); y++){
-				for(int x = 0; x < target.getWidth(); x++){
-					fft_r.set(x, complexIn.getValueAt(false, x,y));
-					fft_i.set(x, complexIn.getValueAt(true,  x,y));
-				}
-				FFTW_Guru.execute_split_c2r(fft_r, fft_i, row, target.getWidth());
-				row.get(0, target.getWidth(), y*target.getWidth(), target.getData()[channel]);
-			}
-		}
-		double scaling = 1.0/target.getWidth();
-		ArrayUtils.scaleArray(target.getData()[channel], scaling);
-		return target;
+		return complexToReal(FFTEngine.AXIS_X, target, fourier, channel);
 	}
 
 	/**
@@ -298,29 +316,7 @@ public class Fourier {
 	 * but the specified image does not have an alpha channel 
 	 */
 	public static ComplexImg verticalTransform(ColorImg img, int channel) {
-		sanityCheckForward(img, channel);
-		// make transforms
-		ComplexImg transformed = new ComplexImg(img.getDimension());
-		try(
-				NativeRealArray col = new NativeRealArray(img.getHeight());
-				NativeRealArray fft_r = new NativeRealArray(col.length);
-				NativeRealArray fft_i = new NativeRealArray(col.length);
-		) {
-			ColorPixel px = img.getPixel();
-			ComplexPixel tpx = transformed.getPixel();
-			for(int x = 0; x < img.getWidth(); x++){
-				for(int y = 0; y < img.getHeight(); y++){
-					px.setPosition(x, y);
-					col.set(y, px.getValue(channel));
-				}
-				FFTW_Guru.execute_split_r2c(col, fft_r, fft_i, img.getHeight());
-				for(int y = 0; y < img.getHeight(); y++){
-					tpx.setPosition(x, y);
-					tpx.setComplex(fft_r.get(y), fft_i.get(y));
-				}
-			}
-		}
-		return transformed;
+		return realToComplex(FFTEngine.AXIS_Y, img, channel);
 	}
 	
 	/**
@@ -336,46 +332,7 @@ public class Fourier {
 	 * @throws IllegalArgumentException if specified target does not match dimensions of transformed image
 	 */
 	public static ComplexImg verticalTransform(final boolean inverse, ComplexImg toTransform, ComplexImg target){
-		if(target == null){
-			target = new ComplexImg(toTransform.getDimension());
-		} else if(!target.getDimension().equals(toTransform.getDimension())){
-			throw new IllegalArgumentException(String.format(
-					"specified target is of wrong dimensions. Expected %s but has %s.", 
-					toTransform.getDimension(), target.getDimension()));
-		}
-		final int w = toTransform.getWidth();
-		final int h = toTransform.getHeight();
-		try(
-				NativeRealArray inr = new NativeRealArray(h);
-				NativeRealArray ini = new NativeRealArray(h);
-				NativeRealArray outr = new NativeRealArray(h);
-				NativeRealArray outi = new NativeRealArray(h);
-		){
-			ComplexValuedSampler complexIn = getSamplerForShiftedComplexImg(toTransform);
-			ComplexValuedWriter  complexOut = getWriterForShiftedComplexImg(target);
-			for(int x = 0; x < w; x++){
-				for(int y = 0; y < h; y++){
-					inr.set(y, complexIn.getValueAt(false, x,y));
-					ini.set(y, complexIn.getValueAt(true,  x,y));
-				}
-				if(inverse){
-					FFTW_Guru.execute_split_c2c(ini,inr, outi,outr, h);
-				} else {
-					FFTW_Guru.execute_split_c2c(inr,ini, outr,outi, h);
-				}
-				for(int y = 0; y < h; y++){
-					complexOut.setValueAt(outr.get(y), false, x,y);
-					complexOut.setValueAt(outi.get(y), true,  x,y);
-				}
-			}
-		}
-		if(inverse){
-			// need to rescale
-			double scaling = 1.0/h;
-			ArrayUtils.scaleArray(target.getDataReal(), scaling);
-			ArrayUtils.scaleArray(target.getDataImag(), scaling);
-		}
-		return target;
+		return complexToComplex(FFTEngine.AXIS_Y, inverse, toTransform, target);
 	}
 
 	/**
@@ -392,41 +349,12 @@ public class Fourier {
 	 * but the specified image does not have an alpha channel 
 	 */
 	public static ColorImg verticalInverseTransform(ColorImg target, ComplexImg fourier, int channel) {
-		Dimension dim = fourier.getDimension();
-		// if no target was specified create a new one
-		if(target == null) {
-			target = new ColorImg(dim, channel==ColorImg.channel_a);
-		}
-		// continue sanity checks
-		sanityCheckInverse_target(target, dim, channel);
-		// now do the transforms
-		try(
-				NativeRealArray col = new NativeRealArray(target.getHeight());
-				NativeRealArray fft_r = new NativeRealArray(col.length);
-				NativeRealArray fft_i = new NativeRealArray(col.length);
-		){
-			ComplexValuedSampler complexIn = getSamplerForShiftedComplexImg(fourier);
-			ColorPixel px = target.getPixel();
-			for(int x = 0; x < target.getWidth(); x++){
-				for(int y = 0; y < target.getHeight(); y++){
-					fft_r.set(y, complexIn.getValueAt(false, x,y));
-					fft_i.set(y, complexIn.getValueAt(true,  x,y));
-				}
-				FFTW_Guru.execute_split_c2r(fft_r, fft_i, col, target.getHeight());
-				for(int y = 0; y < target.getHeight(); y++){
-					px.setPosition(x, y);
-					px.setValue(channel, col.get(y));
-				}
-			}
-		}
-		double scaling = 1.0/target.getHeight();
-		ArrayUtils.scaleArray(target.getData()[channel], scaling);
-		return target;
+		return complexToReal(FFTEngine.AXIS_Y, target, fourier, channel);
 	}
 	
 	
 	
-	private static void sanityCheckForward(ColorImg img, int channel) throws IllegalArgumentException {
+	static void sanityCheckForward(ColorImg img, int channel) throws IllegalArgumentException {
 		if( channel < 0 || channel > 3 || (channel > 2 && !img.hasAlpha()) ){
 			throw new IllegalArgumentException(String.format(
 					"Channels can be 0,1,2 (also 3 if image has alpha). But channel is %d and image %s alpha",
@@ -434,7 +362,7 @@ public class Fourier {
 		}
 	}
 	
-	private static void sanityCheckInverse_target(ColorImg target, Dimension dim, int channel) throws IllegalArgumentException {
+	static void sanityCheckInverse_target(ColorImg target, Dimension dim, int channel) throws IllegalArgumentException {
 		if(!target.getDimension().equals(dim)){
 			throw new IllegalArgumentException(String.format(
 					"The specified target image has wrong dimensions (%s). Fourier image has %s.", 
@@ -447,28 +375,63 @@ public class Fourier {
 		}
 	}
 	
-	private static ComplexValuedSampler getSamplerForShiftedComplexImg(ComplexImg img){
-		int x = img.getCurrentXshift();
-		int y = img.getCurrentYshift();
-		int w = img.getWidth();
-		int h = img.getHeight();
-		
-		RowMajorArrayAccessor real = new RowMajorArrayAccessor(img.getDataReal(), w,h);
-		RowMajorArrayAccessor imag = new RowMajorArrayAccessor(img.getDataImag(), w,h);
-		ComplexValuedSampler complex = real.combineToComplexSampler(imag);
-		return (imaginary, coords) -> complex.getValueAt(imaginary, (coords[0]+w-x)%w, (coords[1]+h-y)%h);
+	private static ComplexImg realToComplex(int axes, ColorImg img, int channel){
+		sanityCheckForward(img, channel);
+		ComplexImg transformed = new ComplexImg(img.getDimension());
+		engineFor(img.numValues()).transformReal(
+				img.getData()[channel], 
+				transformed.getDataReal(), 
+				transformed.getDataImag(), 
+				img.getWidth(), img.getHeight(), axes);
+		return transformed;
 	}
-	
-	private static ComplexValuedWriter getWriterForShiftedComplexImg(ComplexImg img){
-		int x = img.getCurrentXshift();
-		int y = img.getCurrentYshift();
-		int w = img.getWidth();
-		int h = img.getHeight();
-		
-		RowMajorArrayAccessor real = new RowMajorArrayAccessor(img.getDataReal(), w,h);
-		RowMajorArrayAccessor imag = new RowMajorArrayAccessor(img.getDataImag(), w,h);
-		ComplexValuedWriter complex = real.combineToComplexWriter(imag);
-		return (val, imaginary, coords) -> complex.setValueAt(val, imaginary, (coords[0]+w-x)%w, (coords[1]+h-y)%h);
+
+	/** 
+	 * Complex to complex transform along the specified axes, computed in place on the target's data arrays.
+	 * Shifts are taken into account by rearranging the data before and after the transform.
+	 */
+	private static ComplexImg complexToComplex(int axes, boolean inverse, ComplexImg toTransform, ComplexImg target){
+		target = FourierContext.targetFor(toTransform.getDimension(), target);
+		final int w = toTransform.getWidth();
+		final int h = toTransform.getHeight();
+		final int xs = toTransform.getStoredXshift();
+		final int ys = toTransform.getStoredYshift();
+		double[] real = target.getStoredReal();
+		double[] imag = target.getStoredImag();
+		if(target != toTransform){
+			System.arraycopy(toTransform.getStoredReal(), 0, real, 0, real.length);
+			System.arraycopy(toTransform.getStoredImag(), 0, imag, 0, imag.length);
+		}
+		// undo the stored shift, transform, then store in layout of target's shift
+		ArrayUtils.shift2D(real, w, h, -xs, -ys);
+		ArrayUtils.shift2D(imag, w, h, -xs, -ys);
+		engineFor(real.length).transform(inverse, real, imag, w, h, axes);
+		target.discardPendingShift();
+		ArrayUtils.shift2D(real, w, h, target.getCurrentXshift(), target.getCurrentYshift());
+		ArrayUtils.shift2D(imag, w, h, target.getCurrentXshift(), target.getCurrentYshift());
+		return target;
+	}
+
+	private static ColorImg complexToReal(int axes, ColorImg target, ComplexImg fourier, int channel){
+		Dimension dim = fourier.getDimension();
+		// if no target was specified create a new one
+		if(target == null) {
+			target = new ColorImg(dim, channel==ColorImg.channel_a);
+		}
+		sanityCheckInverse_target(target, dim, channel);
+		final int w = fourier.getWidth();
+		final int h = fourier.getHeight();
+		double[] real = fourier.getStoredReal();
+		double[] imag = fourier.getStoredImag();
+		if(fourier.getStoredXshift() != 0 || fourier.getStoredYshift() != 0){
+			// transform unshifted copy
+			real = real.clone();
+			imag = imag.clone();
+			ArrayUtils.shift2D(real, w, h, -fourier.getStoredXshift(), -fourier.getStoredYshift());
+			ArrayUtils.shift2D(imag, w, h, -fourier.getStoredXshift(), -fourier.getStoredYshift());
+		}
+		engineFor(real.length).inverseTransformReal(real, imag, target.getData()[channel], w, h, axes);
+		return target;
 	}
 	
 }
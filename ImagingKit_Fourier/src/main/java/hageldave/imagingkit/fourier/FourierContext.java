@@ -0,0 +1,1247 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import static org.bytedeco.javacpp.fftw3.*;
+
+import java.awt.Dimension;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.fftw3.fftw_iodim64;
+import org.bytedeco.javacpp.fftw3.fftw_plan;
+
+import hageldave.ezfftw.FFTW_Initializer;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * The FourierContext provides the transforms of the {@link Fourier} class for repeated use.
+ * While the methods of {@link Fourier} plan each transform from scratch and allocate native memory
+ * for every call, a FourierContext keeps the FFTW plans and the native buffers they operate on
+ * for each transform size and direction it has been used with. 
+ * Subsequent transforms of the same size thus only copy data to and from native memory 
+ * and execute the plan. Only the most recently used plans are kept, older ones are destroyed
+ * so that native memory does not grow with the number of distinct sizes.
+ * <p>
+ * A FourierContext is thread safe. Transforms of different sizes can run concurrently,
+ * transforms of the same size are executed one at a time since they share native buffers.
+ * The native resources are freed on {@link #close()}, after which the context cannot be used 
+ * anymore. 
+ * <pre>
+ * {@code
+ * try(FourierContext ctx = new FourierContext()){
+ *     ComplexImg spectrum = null;
+ *     for(ColorImg frame: frames){
+ *         spectrum = ctx.transform(frame, ColorImg.channel_r, spectrum);
+ *         // filter spectrum ...
+ *         ctx.inverseTransform(frame, spectrum, ColorImg.channel_r);
+ *     }
+ * }
+ * }
+ * </pre>
+ * 
+ * @author hageldave
+ */
+public class FourierContext implements AutoCloseable {
+
+	/** complex to complex transform */
+	static final int C2C = 0;
+	/** real to complex transform */
+	static final int R2C = 1;
+	/** complex to real transform */
+	static final int C2R = 2;
+	/** inverse complex to complex transform */
+	static final int C2C_INVERSE = 3;
+
+	/** no dimensions, i.e. a howmany rank of 0 */
+	static final long[][] NO_DIMS = {};
+
+	/** transform along both axes (2D) */
+	static final int AXES_XY = FFTEngine.AXES_XY;
+	/** transform along x axis (rows) */
+	static final int AXIS_X = FFTEngine.AXIS_X;
+	/** transform along y axis (columns) */
+	static final int AXIS_Y = FFTEngine.AXIS_Y;
+
+	/** number of kernel spectra kept by a context */
+	static final int KERNEL_CACHE_SIZE = 16;
+	/** number of plans (and their native buffers) kept by a context */
+	static final int PLAN_CACHE_SIZE = 16;
+
+	private final int planningFlags;
+	private final LinkedHashMap<PlanKey, Plan> plans = new LinkedHashMap<PlanKey, Plan>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<PlanKey, Plan> eldest) {
+			if(size() > PLAN_CACHE_SIZE){
+				retire(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+	private final LinkedHashMap<KernelKey, HalfComplexImg> kernelSpectra = new LinkedHashMap<KernelKey, HalfComplexImg>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<KernelKey, HalfComplexImg> eldest) {
+			return size() > KERNEL_CACHE_SIZE;
+		}
+	};
+	private boolean closed = false;
+
+	/**
+	 * Creates a new FourierContext that uses estimated plans, which are created quickly.
+	 */
+	public FourierContext() {
+		this(false);
+	}
+
+	/**
+	 * Creates a new FourierContext.
+	 * @param measure when true, plans are created by measuring the actual execution time of 
+	 * different algorithms (FFTW_MEASURE) instead of estimating it. This makes the first transform
+	 * of each size considerably slower but may speed up subsequent transforms.
+	 */
+	public FourierContext(boolean measure) {
+		FFTW_Initializer.initFFTW();
+		this.planningFlags = (int)(measure ? FFTW_MEASURE:FFTW_ESTIMATE);
+	}
+
+	/**
+	 * Fourier transforms the specified channel of the specified {@link ColorImg}.
+	 * See {@link Fourier#transform(ColorImg, int)}.
+	 * The result is stored in the specified target, taking its shift into account.
+	 * @param img of which one channel is to be transformed
+	 * @param channel the channel which will be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link ComplexImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the specified image does not have an alpha channel, or if specified target does not match 
+	 * dimensions of transformed image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg transform(ColorImg img, int channel, ComplexImg target) {
+		Fourier.sanityCheckForward(img, channel);
+		target = targetFor(img.getDimension(), target);
+		realToComplex(AXES_XY, img.getWidth(), img.getHeight(), new double[][]{img.getData()[channel]}, new ComplexImg[]{target});
+		return target;
+	}
+
+	/**
+	 * Fourier transforms the specified channel of the specified {@link ColorImg} into a 
+	 * {@link HalfComplexImg} which only holds the non redundant half of the transform.
+	 * See {@link Fourier#transformHalf(ColorImg, int)}.
+	 * @param img of which one channel is to be transformed
+	 * @param channel the channel which will be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link HalfComplexImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the specified image does not have an alpha channel, or if specified target does not match 
+	 * dimensions of transformed image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public HalfComplexImg transformHalf(ColorImg img, int channel, HalfComplexImg target) {
+		Fourier.sanityCheckForward(img, channel);
+		if(target == null){
+			target = new HalfComplexImg(img.getDimension());
+		}
+		sanityCheckDimension(img.getDimension(), target.getDimension());
+		final int w = img.getWidth(), h = img.getHeight(), hw = target.getHalfWidth();
+		Plan plan = getPlan(R2C, dims(AXES_XY, w, h, w, hw), howmany(AXES_XY, 1, w*h, hw*h, w, hw));
+		try {
+			synchronized (plan) {
+				plan.requireValid();
+				plan.in[0].put(img.getData()[channel], 0, w*h);
+				fftw_execute(plan.plan);
+				plan.out[0].get(target.getDataReal(), 0, hw*h);
+				plan.out[1].get(target.getDataImag(), 0, hw*h);
+			}
+		} finally {
+			releasePlan(plan);
+		}
+		return target;
+	}
+
+	/**
+	 * Executes the inverse Fourier transform on the specified {@link HalfComplexImg} that corresponds
+	 * to a specific channel of a {@link ColorImg} defined by the channel argument.
+	 * See {@link Fourier#inverseTransform(ColorImg, HalfComplexImg, int)}.
+	 * 
+	 * @param target image where the transform is stored to
+	 * @param fourier the HalfComplexImg that will be transformed and corresponds to the specified channel
+	 * @param channel the specified HalfComplexImg correspond to
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException <br>
+	 * if images are not of the same dimensions <br>
+	 * if alpha is specified as channel but specified target (if not null) is does not have an alpha channel
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg inverseTransform(ColorImg target, HalfComplexImg fourier, int channel) {
+		Dimension dim = fourier.getDimension();
+		if(target == null) {
+			target = new ColorImg(dim, channel==ColorImg.channel_a);
+		}
+		Fourier.sanityCheckInverse_target(target, dim, channel);
+		final int w = fourier.getWidth(), h = fourier.getHeight(), hw = fourier.getHalfWidth();
+		final double[] out = target.getData()[channel];
+		Plan plan = getPlan(C2R, dims(AXES_XY, w, h, hw, w), howmany(AXES_XY, 1, hw*h, w*h, hw, w));
+		try {
+			synchronized (plan) {
+				plan.requireValid();
+				plan.in[0].put(fourier.getDataReal(), 0, hw*h);
+				plan.in[1].put(fourier.getDataImag(), 0, hw*h);
+				fftw_execute(plan.plan);
+				plan.out[0].get(out, 0, w*h);
+			}
+		} finally {
+			releasePlan(plan);
+		}
+		ArrayUtils.scaleArray(out, 1.0/(w*h));
+		return target;
+	}
+
+	/**
+	 * Fourier transforms all channels of the specified {@link ColorImg} (r,g,b and a if present) 
+	 * in a single batched transform.
+	 * @param img to be transformed
+	 * @param targets (may be null, or contain null elements) the target images for the 
+	 * transforms of each channel, indexed by channel
+	 * @return the targets array, or a new array if targets was null, where null elements 
+	 * have been replaced by new {@link ComplexImg}s
+	 * 
+	 * @throws IllegalArgumentException if the number of targets does not match the number of 
+	 * channels of the image, or if a target does not match dimensions of the image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg[] transformAll(ColorImg img, ComplexImg[] targets) {
+		int numChannels = img.hasAlpha() ? 4:3;
+		targets = targetsFor(img.getDimension(), numChannels, targets);
+		realToComplex(AXES_XY, img.getWidth(), img.getHeight(), Arrays.copyOf(img.getData(), numChannels), targets);
+		return targets;
+	}
+
+	/**
+	 * Fourier transforms the specified channel of each of the specified {@link ColorImg}es 
+	 * in a single batched transform. All images need to be of the same dimensions.
+	 * @param imgs to be transformed
+	 * @param channel the channel which will be transformed
+	 * @param targets (may be null, or contain null elements) the target images for the 
+	 * transforms of each image
+	 * @return the targets array, or a new array if targets was null, where null elements 
+	 * have been replaced by new {@link ComplexImg}s
+	 * 
+	 * @throws IllegalArgumentException if images are not of the same dimensions, if the channel
+	 * is out of range for any of the images, or if the number of targets does not match the number
+	 * of images or a target does not match dimensions of the images
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg[] transformBatch(ColorImg[] imgs, int channel, ComplexImg[] targets) {
+		if(imgs.length == 0){
+			return targets == null ? new ComplexImg[0]:targets;
+		}
+		Dimension dim = imgs[0].getDimension();
+		double[][] inputs = new double[imgs.length][];
+		for(int i = 0; i < imgs.length; i++){
+			sanityCheckDimension(dim, imgs[i].getDimension());
+			Fourier.sanityCheckForward(imgs[i], channel);
+			inputs[i] = imgs[i].getData()[channel];
+		}
+		targets = targetsFor(dim, imgs.length, targets);
+		realToComplex(AXES_XY, dim.width, dim.height, inputs, targets);
+		return targets;
+	}
+
+	/**
+	 * Fourier transforms the specified {@link ComplexImg} (inversely if specified).
+	 * See {@link Fourier#transform(boolean, ComplexImg, ComplexImg)}.
+	 * @param inverse calculates inverse transform if true, otherwise forward transform
+	 * @param toTransform ComplexImg to be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link ComplexImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if specified target does not match dimensions of transformed image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg transform(final boolean inverse, ComplexImg toTransform, ComplexImg target) {
+		return complexToComplex(AXES_XY, inverse, toTransform, target);
+	}
+
+	/**
+	 * Fourier transforms the specified {@link NativeComplexImg} (inversely if specified).
+	 * FFTW reads from and writes to the native memory of the images directly, so that 
+	 * no data is copied. Only when transforming in place (target is toTransform), the result 
+	 * is copied from the plan's buffers to the image.
+	 * @param inverse calculates inverse transform if true, otherwise forward transform
+	 * @param toTransform image to be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link NativeComplexImg} if target was null (which has to be closed by the caller)
+	 * 
+	 * @throws IllegalArgumentException if specified target does not match dimensions of transformed image
+	 * @throws IllegalStateException if this context or one of the images is closed
+	 */
+	public NativeComplexImg transform(final boolean inverse, NativeComplexImg toTransform, NativeComplexImg target) {
+		final int w = toTransform.getWidth();
+		final int h = toTransform.getHeight();
+		if(target == null){
+			target = new NativeComplexImg(w, h);
+		} else {
+			target.sanityCheckDimension(toTransform.getDimension());
+		}
+		// the plan's buffers have the same layout as the images (imaginary part follows the w*h real values)
+		Plan plan = getPlan(inverse ? C2C_INVERSE:C2C, dims(AXES_XY, w, h, w, w), howmany(AXES_XY, 1, w*h, w*h, w, w));
+		DoublePointer inR = toTransform.real(), inI = toTransform.imag();
+		try {
+			synchronized (plan) {
+				plan.requireValid();
+				// new array execution requires same in-placeness as the plan (out of place)
+				boolean inPlace = target == toTransform;
+				DoublePointer outR = inPlace ? plan.out[0]:target.real();
+				DoublePointer outI = inPlace ? plan.out[1]:target.imag();
+				if(inverse){
+					// inverse plan was created with swapped real and imaginary parts
+					fftw_execute_split_dft(plan.plan, inI, inR, outI, outR);
+				} else {
+					fftw_execute_split_dft(plan.plan, inR, inI, outR, outI);
+				}
+				if(inPlace){
+					Pointer.memcpy(target.real(), outR, w*h*(long)Double.BYTES);
+					Pointer.memcpy(target.imag(), outI, w*h*(long)Double.BYTES);
+				}
+			}
+		} finally {
+			releasePlan(plan);
+		}
+		if(inverse){
+			// need to rescale
+			double scaling = 1.0/(w*h);
+			scale(target.getRealBuffer(), scaling);
+			scale(target.getImagBuffer(), scaling);
+		}
+		return target;
+	}
+
+	private static void scale(DoubleBuffer buffer, double factor){
+		for(int i = 0; i < buffer.capacity(); i++){
+			buffer.put(i, buffer.get(i)*factor);
+		}
+	}
+
+	/**
+	 * Executes the inverse Fourier transform on the specified {@link ComplexImg} that corresponds
+	 * to a specific channel of a {@link ColorImg} defined by the channel argument.
+	 * See {@link Fourier#inverseTransform(ColorImg, ComplexImg, int)}.
+	 * 
+	 * @param target image where the transform is stored to
+	 * @param fourier the ComplexImg that will be transformed and corresponds to the specified channel
+	 * @param channel the specified ComplexImg correspond to
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException <br>
+	 * if images are not of the same dimensions <br>
+	 * if alpha is specified as channel but specified target (if not null) is does not have an alpha channel
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg inverseTransform(ColorImg target, ComplexImg fourier, int channel) {
+		Dimension dim = fourier.getDimension();
+		if(target == null) {
+			target = new ColorImg(dim, channel==ColorImg.channel_a);
+		}
+		Fourier.sanityCheckInverse_target(target, dim, channel);
+		complexToReal(AXES_XY, new ComplexImg[]{fourier}, new double[][]{target.getData()[channel]});
+		return target;
+	}
+
+	/**
+	 * Executes the inverse Fourier transforms of the specified {@link ComplexImg}s that correspond
+	 * to the channels of a {@link ColorImg} in a single batched transform.
+	 * This is the inverse of {@link #transformAll(ColorImg, ComplexImg[])}.
+	 * 
+	 * @param target (may be null) image where the transforms are stored to
+	 * @param fouriers 3 or 4 ComplexImgs corresponding to the r,g,b and a channels
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException <br>
+	 * if images are not of the same dimensions <br>
+	 * if not 3 or 4 ComplexImgs were specified <br>
+	 * if 4 ComplexImgs were specified but the specified target (if not null) does not have an alpha channel
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg inverseTransformAll(ColorImg target, ComplexImg... fouriers) {
+		if(fouriers.length != 3 && fouriers.length != 4){
+			throw new IllegalArgumentException(String.format(
+					"Expected 3 or 4 Fourier images (one per channel) but got %d.", fouriers.length));
+		}
+		Dimension dim = fouriers[0].getDimension();
+		if(target == null) {
+			target = new ColorImg(dim, fouriers.length==4);
+		}
+		for(ComplexImg fourier: fouriers){
+			sanityCheckDimension(dim, fourier.getDimension());
+		}
+		Fourier.sanityCheckInverse_target(target, dim, fouriers.length-1);
+		complexToReal(AXES_XY, fouriers, Arrays.copyOf(target.getData(), fouriers.length));
+		return target;
+	}
+
+	/**
+	 * Executes the inverse Fourier transforms of the specified {@link ComplexImg}s in a single 
+	 * batched transform, storing the results in the specified channel of the corresponding targets.
+	 * This is the inverse of {@link #transformBatch(ColorImg[], int, ComplexImg[])}.
+	 * 
+	 * @param targets (may be null, or contain null elements) images where the transforms are stored to
+	 * @param fouriers the ComplexImgs that will be transformed, all of the same dimensions
+	 * @param channel the specified ComplexImgs correspond to
+	 * @return the targets array, or a new array if targets was null, where null elements 
+	 * have been replaced by new {@link ColorImg}s
+	 * 
+	 * @throws IllegalArgumentException <br>
+	 * if images are not of the same dimensions <br>
+	 * if the number of targets does not match the number of ComplexImgs <br>
+	 * if alpha is specified as channel but a specified target does not have an alpha channel
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg[] inverseTransformBatch(ColorImg[] targets, ComplexImg[] fouriers, int channel) {
+		if(targets == null){
+			targets = new ColorImg[fouriers.length];
+		} else if(targets.length != fouriers.length){
+			throw new IllegalArgumentException(String.format(
+					"Number of targets (%d) does not match number of Fourier images (%d).", 
+					targets.length, fouriers.length));
+		}
+		if(fouriers.length == 0){
+			return targets;
+		}
+		Dimension dim = fouriers[0].getDimension();
+		double[][] outputs = new double[fouriers.length][];
+		for(int i = 0; i < fouriers.length; i++){
+			sanityCheckDimension(dim, fouriers[i].getDimension());
+			if(targets[i] == null){
+				targets[i] = new ColorImg(dim, channel==ColorImg.channel_a);
+			}
+			Fourier.sanityCheckInverse_target(targets[i], dim, channel);
+			outputs[i] = targets[i].getData()[channel];
+		}
+		complexToReal(AXES_XY, fouriers, outputs);
+		return targets;
+	}
+
+	/**
+	 * Executes row wise Fourier transforms of the specified channel of the specified {@link ColorImg}.
+	 * See {@link Fourier#horizontalTransform(ColorImg, int)}.
+	 * All rows are transformed by a single batched FFTW plan.
+	 * @param img of which one channel is to be transformed
+	 * @param channel the channel which will be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link ComplexImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the specified image does not have an alpha channel, or if specified target does not match 
+	 * dimensions of transformed image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg horizontalTransform(ColorImg img, int channel, ComplexImg target) {
+		Fourier.sanityCheckForward(img, channel);
+		target = targetFor(img.getDimension(), target);
+		realToComplex(AXIS_X, img.getWidth(), img.getHeight(), new double[][]{img.getData()[channel]}, new ComplexImg[]{target});
+		return target;
+	}
+
+	/**
+	 * Executes row wise Fourier transforms of the specified {@link ComplexImg} (inversely if specified).
+	 * See {@link Fourier#horizontalTransform(boolean, ComplexImg, ComplexImg)}.
+	 * @param inverse calculates inverse transforms if true, otherwise forward transform
+	 * @param toTransform ComplexImg to be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link ComplexImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if specified target does not match dimensions of transformed image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg horizontalTransform(final boolean inverse, ComplexImg toTransform, ComplexImg target) {
+		return complexToComplex(AXIS_X, inverse, toTransform, target);
+	}
+
+	/**
+	 * Executes row wise inverse Fourier transforms of the specified {@link ComplexImg}.
+	 * See {@link Fourier#horizontalInverseTransform(ColorImg, ComplexImg, int)}.
+	 * @param target image  of which one channel is to be transformed
+	 * @param fourier the image that will be transformed
+	 * @param channel the channel to which the results are stored
+	 * @return the specified target or a new {@link ColorImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the specified image does not have an alpha channel, or if images are not of the same dimensions
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg horizontalInverseTransform(ColorImg target, ComplexImg fourier, int channel) {
+		Dimension dim = fourier.getDimension();
+		if(target == null) {
+			target = new ColorImg(dim, channel==ColorImg.channel_a);
+		}
+		Fourier.sanityCheckInverse_target(target, dim, channel);
+		complexToReal(AXIS_X, new ComplexImg[]{fourier}, new double[][]{target.getData()[channel]});
+		return target;
+	}
+
+	/**
+	 * Executes column wise Fourier transforms of the specified channel of the specified {@link ColorImg}.
+	 * See {@link Fourier#verticalTransform(ColorImg, int)}.
+	 * All columns are transformed in place by a single batched and strided FFTW plan, 
+	 * so that no gathering of columns is necessary.
+	 * @param img of which one channel is to be transformed
+	 * @param channel the channel which will be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link ComplexImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the specified image does not have an alpha channel, or if specified target does not match 
+	 * dimensions of transformed image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg verticalTransform(ColorImg img, int channel, ComplexImg target) {
+		Fourier.sanityCheckForward(img, channel);
+		target = targetFor(img.getDimension(), target);
+		realToComplex(AXIS_Y, img.getWidth(), img.getHeight(), new double[][]{img.getData()[channel]}, new ComplexImg[]{target});
+		return target;
+	}
+
+	/**
+	 * Executes column wise Fourier transforms of the specified {@link ComplexImg} (inversely if specified).
+	 * See {@link Fourier#verticalTransform(boolean, ComplexImg, ComplexImg)}.
+	 * @param inverse calculates inverse transforms if true, otherwise forward transform
+	 * @param toTransform ComplexImg to be transformed
+	 * @param target (may be null) the target image for the transform.
+	 * @return target image or new {@link ComplexImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if specified target does not match dimensions of transformed image
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ComplexImg verticalTransform(final boolean inverse, ComplexImg toTransform, ComplexImg target) {
+		return complexToComplex(AXIS_Y, inverse, toTransform, target);
+	}
+
+	/**
+	 * Executes column wise inverse Fourier transforms of the specified {@link ComplexImg}.
+	 * See {@link Fourier#verticalInverseTransform(ColorImg, ComplexImg, int)}.
+	 * @param target image  of which one channel is to be transformed
+	 * @param fourier the image that will be transformed
+	 * @param channel the channel to which the results are stored
+	 * @return the specified target or a new {@link ColorImg} if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the specified image does not have an alpha channel, or if images are not of the same dimensions
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg verticalInverseTransform(ColorImg target, ComplexImg fourier, int channel) {
+		Dimension dim = fourier.getDimension();
+		if(target == null) {
+			target = new ColorImg(dim, channel==ColorImg.channel_a);
+		}
+		Fourier.sanityCheckInverse_target(target, dim, channel);
+		complexToReal(AXIS_Y, new ComplexImg[]{fourier}, new double[][]{target.getData()[channel]});
+		return target;
+	}
+
+	/**
+	 * Convolves the specified channel of the specified image with the same channel of the specified kernel 
+	 * using the Fourier transform. See {@link Fourier#convolve(ColorImg, ColorImg, int, int)}.
+	 * The spectrum of the kernel is cached by this context (based on the kernel's values) so that 
+	 * repeated convolutions with the same kernel only need to transform the image.
+	 * 
+	 * @param img to be convolved
+	 * @param kernel to convolve with, centered at (width/2, height/2)
+	 * @param channel the channel to convolve
+	 * @param boundaryMode how to handle values beyond the image borders, one of the boundary modes
+	 * of {@link ColorImg}, e.g. {@link ColorImg#boundary_mode_mirror}, or any other value to use as constant.
+	 * @param target (may be null) image where the result is stored to (in the same channel)
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but one of the images does not have an alpha channel, or if target does not match dimensions of img
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg convolve(ColorImg img, ColorImg kernel, int channel, int boundaryMode, ColorImg target) {
+		return convolve(false, img, kernel, channel, boundaryMode, target);
+	}
+
+	/**
+	 * Cross correlates the specified channel of the specified image with the same channel of the specified 
+	 * kernel (template) using the Fourier transform. See {@link Fourier#correlate(ColorImg, ColorImg, int, int)}.
+	 * The spectrum of the kernel is cached by this context as with 
+	 * {@link #convolve(ColorImg, ColorImg, int, int, ColorImg)}.
+	 * 
+	 * @param img to be correlated
+	 * @param kernel to correlate with, centered at (width/2, height/2)
+	 * @param channel the channel to correlate
+	 * @param boundaryMode how to handle values beyond the image borders, one of the boundary modes
+	 * of {@link ColorImg}, e.g. {@link ColorImg#boundary_mode_mirror}, or any other value to use as constant.
+	 * @param target (may be null) image where the result is stored to (in the same channel)
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but one of the images does not have an alpha channel, or if target does not match dimensions of img
+	 * @throws IllegalStateException if this context is closed
+	 */
+	public ColorImg correlate(ColorImg img, ColorImg kernel, int channel, int boundaryMode, ColorImg target) {
+		return convolve(true, img, kernel, channel, boundaryMode, target);
+	}
+
+	/**
+	 * Linear convolution (or correlation) through cyclic convolution of padded arrays.
+	 * The padding is large enough so that the cyclic wrap around never reaches the 
+	 * part of the result that is cropped.
+	 */
+	private ColorImg convolve(boolean correlate, ColorImg img, ColorImg kernel, int channel, int boundaryMode, ColorImg target) {
+		target = sanityCheckConvolution(img, kernel, channel, target);
+		final int w = img.getWidth(), h = img.getHeight();
+		final int pw = Fourier.nextFastSize(w+kernel.getWidth()-1);
+		final int ph = Fourier.nextFastSize(h+kernel.getHeight()-1);
+		HalfComplexImg kernelSpectrum = getKernelSpectrum(kernel, channel, pw, ph);
+		convolveBlock(correlate, img, channel, boundaryMode, kernel.getWidth(), kernel.getHeight(), kernelSpectrum, 
+				0, 0, w, h, new ColorImg(pw, ph, false), null, target.getData()[channel]);
+		return target;
+	}
+
+	/** 
+	 * checks that kernel and image can be convolved in the specified channel, and that the target fits 
+	 * @return target or new ColorImg if target was null
+	 */
+	static ColorImg sanityCheckConvolution(ColorImg img, ColorImg kernel, int channel, ColorImg target){
+		Fourier.sanityCheckForward(img, channel);
+		Fourier.sanityCheckForward(kernel, channel);
+		if(target == null){
+			target = new ColorImg(img.getDimension(), channel==ColorImg.channel_a);
+		}
+		Fourier.sanityCheckInverse_target(target, img.getDimension(), channel);
+		return target;
+	}
+
+	/**
+	 * Convolves (or correlates) the block of size bw x bh at (x0,y0) of the specified image channel 
+	 * using overlap-save: the block is read with a margin of the kernel's size, transformed,
+	 * multiplied with the kernel spectrum and the part of the cyclic result that is unaffected 
+	 * by wrap around is written to dst (row major, width of img).
+	 * The padded image and the spectrum (may be null) serve as buffers of the kernel spectrum's size,
+	 * which has to be at least (bw+kw-1) x (bh+kh-1).
+	 */
+	void convolveBlock(boolean correlate, ColorImg img, int channel, int boundaryMode, int kw, int kh, 
+			HalfComplexImg kernelSpectrum, int x0, int y0, int bw, int bh, ColorImg padded, HalfComplexImg spectrum, double[] dst)
+	{
+		final int pw = padded.getWidth();
+		// offset of the image in the padded array and of the result in the cyclic convolution
+		final int ox = correlate ? kw/2 : kw-1-kw/2;
+		final int oy = correlate ? kh/2 : kh-1-kh/2;
+		final int rx = correlate ? 0 : kw-1;
+		final int ry = correlate ? 0 : kh-1;
+
+		pad(img, channel, boundaryMode, x0-ox, y0-oy, padded);
+		spectrum = transformHalf(padded, ColorImg.channel_r, spectrum);
+		// correlation is convolution with the mirrored kernel, which has the conjugate spectrum
+		ArrayUtils.multiplyComplex(
+				spectrum.getDataReal(), spectrum.getDataImag(), 
+				kernelSpectrum.getDataReal(), kernelSpectrum.getDataImag(), 
+				correlate);
+		inverseTransform(padded, spectrum, ColorImg.channel_r);
+		// crop
+		final double[] result = padded.getDataR();
+		for(int y = 0; y < bh; y++){
+			System.arraycopy(result, (y+ry)*pw+rx, dst, (y0+y)*img.getWidth()+x0, bw);
+		}
+	}
+
+	/** returns the (cached) spectrum of the kernel's channel placed at the origin of a pw x ph image */
+	HalfComplexImg getKernelSpectrum(ColorImg kernel, int channel, int pw, int ph){
+		final double[] data = kernel.getData()[channel];
+		KernelKey key = new KernelKey(data, kernel.getWidth(), pw, ph);
+		HalfComplexImg spectrum;
+		synchronized (kernelSpectra) {
+			spectrum = kernelSpectra.get(key);
+		}
+		if(spectrum == null){
+			ColorImg padded = new ColorImg(pw, ph, false);
+			for(int y = 0; y < kernel.getHeight(); y++){
+				System.arraycopy(data, y*kernel.getWidth(), padded.getDataR(), y*pw, kernel.getWidth());
+			}
+			spectrum = transformHalf(padded, ColorImg.channel_r, null);
+			synchronized (kernelSpectra) {
+				kernelSpectra.put(key.copy(), spectrum);
+			}
+		}
+		return spectrum;
+	}
+
+	/** 
+	 * fills the red channel of the padded image with the specified channel of the image, 
+	 * starting at (srcX,srcY) of the image and using the boundary mode outside of the image
+	 */
+	static void pad(ColorImg img, int channel, int boundaryMode, int srcX, int srcY, ColorImg padded){
+		final int w = img.getWidth(), h = img.getHeight();
+		final int pw = padded.getWidth(), ph = padded.getHeight();
+		final double[] src = img.getData()[channel];
+		final double[] dst = padded.getDataR();
+		// range of padded columns that lie inside the image
+		final int inStart = Math.min(pw, Math.max(0, -srcX));
+		final int inEnd = Math.max(inStart, Math.min(pw, w-srcX));
+		for(int y = 0; y < ph; y++){
+			int iy = y+srcY;
+			if(iy >= 0 && iy < h){
+				if(inEnd > inStart)
+					System.arraycopy(src, iy*w+inStart+srcX, dst, y*pw+inStart, inEnd-inStart);
+				for(int x = 0; x < inStart; x++)
+					dst[y*pw+x] = img.getValue(channel, x+srcX, iy, boundaryMode);
+				for(int x = inEnd; x < pw; x++)
+					dst[y*pw+x] = img.getValue(channel, x+srcX, iy, boundaryMode);
+			} else {
+				for(int x = 0; x < pw; x++)
+					dst[y*pw+x] = img.getValue(channel, x+srcX, iy, boundaryMode);
+			}
+		}
+	}
+
+	/**
+	 * Destroys all plans and frees the native buffers of this context.
+	 * Waits for transforms that are currently executed.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for(Plan plan: plans.values()){
+			plan.destroy();
+		}
+		plans.clear();
+		synchronized (kernelSpectra) {
+			kernelSpectra.clear();
+		}
+	}
+
+	/**
+	 * @return true when this context has been closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns the cached plan for the specified transform, creating it if necessary.
+	 * Dimensions are specified as {n, input stride, output stride} triples.
+	 * The returned plan has to be synchronized on while it is used and checked with
+	 * {@link Plan#requireValid()}. It has to be released with {@link #releasePlan(Plan)} afterwards,
+	 * so that it can be destroyed when it was evicted from the cache in the meantime.
+	 * @param kind {@link #C2C}, {@link #C2C_INVERSE}, {@link #R2C} or {@link #C2R}
+	 * @param dims dimensions of the transform
+	 * @param howmany dimensions of the batch of transforms
+	 * @return plan
+	 * @throws IllegalStateException if this context is closed
+	 */
+	synchronized Plan getPlan(int kind, long[][] dims, long[][] howmany) {
+		if(closed){
+			throw new IllegalStateException("FourierContext is closed.");
+		}
+		PlanKey key = new PlanKey(kind, dims, howmany);
+		Plan plan = plans.get(key);
+		if(plan == null){
+			plan = new Plan(kind, dims, howmany, planningFlags);
+			plans.put(key, plan);
+		}
+		plan.users++;
+		return plan;
+	}
+
+	/**
+	 * Releases a plan obtained from {@link #getPlan(int, long[][], long[][])}, 
+	 * destroying it if it has been evicted from the cache and is not used anymore.
+	 * @param plan to release
+	 */
+	synchronized void releasePlan(Plan plan) {
+		plan.users--;
+		if(plan.evicted && plan.users == 0){
+			plan.destroy();
+		}
+	}
+
+	/** @return number of plans currently kept by this context */
+	synchronized int numCachedPlans() {
+		return plans.size();
+	}
+
+	/** destroys an evicted plan, or defers destruction until the plan is released by its last user */
+	private void retire(Plan plan) {
+		plan.evicted = true;
+		if(plan.users == 0){
+			plan.destroy();
+		}
+	}
+
+	/** 
+	 * Batched real to complex transform of the specified row major arrays into the specified targets
+	 * along the specified axes ({@link #AXES_XY}, {@link #AXIS_X} or {@link #AXIS_Y}).
+	 * The transforms are planned as a single FFTW transform with howmany dimensions.
+	 */
+	private void realToComplex(int axes, int w, int h, double[][] inputs, ComplexImg[] targets){
+		final int n = inputs.length;
+		final int hw = axes == AXIS_Y ? w:w/2+1;
+		final int hh = axes == AXIS_Y ? h/2+1:h;
+		Plan plan = getPlan(R2C, dims(axes, w, h, w, hw), howmany(axes, n, w*h, hw*hh, w, hw));
+		try {
+			synchronized (plan) {
+				plan.requireValid();
+				for(int i = 0; i < n; i++){
+					plan.in[0].position(i*w*h).put(inputs[i], 0, w*h);
+				}
+				plan.in[0].position(0);
+				fftw_execute(plan.plan);
+				double[] halfR = plan.scratch(0, hw*hh);
+				double[] halfI = plan.scratch(1, hw*hh);
+				for(int i = 0; i < n; i++){
+					plan.out[0].position(i*hw*hh).get(halfR, 0, hw*hh);
+					plan.out[1].position(i*hw*hh).get(halfI, 0, hw*hh);
+					expandHermitian(axes, halfR, halfI, w, h, targets[i]);
+				}
+				plan.out[0].position(0);
+				plan.out[1].position(0);
+			}
+		} finally {
+			releasePlan(plan);
+		}
+	}
+
+	/** 
+	 * Batched complex to real transform of the specified Fourier images into the specified 
+	 * row major arrays along the specified axes, including rescaling.
+	 * The transforms are planned as a single FFTW transform with howmany dimensions.
+	 */
+	private void complexToReal(int axes, ComplexImg[] fouriers, double[][] outputs){
+		final int n = fouriers.length;
+		final int w = fouriers[0].getWidth();
+		final int h = fouriers[0].getHeight();
+		final int hw = axes == AXIS_Y ? w:w/2+1;
+		final int hh = axes == AXIS_Y ? h/2+1:h;
+		Plan plan = getPlan(C2R, dims(axes, w, h, hw, w), howmany(axes, n, hw*hh, w*h, hw, w));
+		try {
+			synchronized (plan) {
+				plan.requireValid();
+				double[] halfR = plan.scratch(0, hw*hh);
+				double[] halfI = plan.scratch(1, hw*hh);
+				for(int i = 0; i < n; i++){
+					extractHalf(axes, fouriers[i], halfR, halfI);
+					plan.in[0].position(i*hw*hh).put(halfR, 0, hw*hh);
+					plan.in[1].position(i*hw*hh).put(halfI, 0, hw*hh);
+				}
+				plan.in[0].position(0);
+				plan.in[1].position(0);
+				fftw_execute(plan.plan);
+				for(int i = 0; i < n; i++){
+					plan.out[0].position(i*w*h).get(outputs[i], 0, w*h);
+				}
+				plan.out[0].position(0);
+			}
+		} finally {
+			releasePlan(plan);
+		}
+		double scaling = 1.0/(axes == AXIS_X ? w : axes == AXIS_Y ? h : w*h);
+		for(double[] out: outputs){
+			ArrayUtils.scaleArray(out, scaling);
+		}
+	}
+
+	/** 
+	 * Complex to complex transform along the specified axes, taking shifts into account.
+	 * 1D transforms are planned as a single FFTW transform with howmany dimension.
+	 */
+	private ComplexImg complexToComplex(int axes, boolean inverse, ComplexImg toTransform, ComplexImg target){
+		target = targetFor(toTransform.getDimension(), target);
+		final int w = toTransform.getWidth();
+		final int h = toTransform.getHeight();
+		Plan plan = getPlan(inverse ? C2C_INVERSE:C2C, dims(axes, w, h, w, w), howmany(axes, 1, w*h, w*h, w, w));
+		try {
+			synchronized (plan) {
+				plan.requireValid();
+				// read data in its stored layout so that a pending shift does not need to be materialized
+				putUnshifted(toTransform.getStoredReal(), w, h, toTransform.getStoredXshift(), toTransform.getStoredYshift(), plan.in[0]);
+				putUnshifted(toTransform.getStoredImag(), w, h, toTransform.getStoredXshift(), toTransform.getStoredYshift(), plan.in[1]);
+				fftw_execute(plan.plan);
+				target.discardPendingShift();
+				getShifted(plan.out[0], w, h, target.getCurrentXshift(), target.getCurrentYshift(), target.getStoredReal());
+				getShifted(plan.out[1], w, h, target.getCurrentXshift(), target.getCurrentYshift(), target.getStoredImag());
+			}
+		} finally {
+			releasePlan(plan);
+		}
+		if(inverse){
+			// need to rescale
+			double scaling = 1.0/(axes == AXIS_X ? w : axes == AXIS_Y ? h : w*h);
+			ArrayUtils.scaleArray(target.getStoredReal(), scaling);
+			ArrayUtils.scaleArray(target.getStoredImag(), scaling);
+		}
+		return target;
+	}
+
+	/** 
+	 * Transform dimensions of a w x h image along the specified axes 
+	 * for the specified input and output row lengths. 
+	 */
+	static long[][] dims(int axes, int w, int h, int inRow, int outRow){
+		switch (axes) {
+		case AXIS_X: return new long[][]{{w,1,1}};
+		case AXIS_Y: return new long[][]{{h,inRow,outRow}};
+		default:     return new long[][]{{h,inRow,outRow},{w,1,1}};
+		}
+	}
+
+	/** 
+	 * Howmany dimensions for n images of the specified input and output sizes
+	 * and the rows or columns that are not transformed along the specified axes.
+	 */
+	static long[][] howmany(int axes, int n, int inSize, int outSize, int inRow, int outRow){
+		long[] images = {n, inSize, outSize};
+		switch (axes) {
+		case AXIS_X: return new long[][]{{inSize/inRow, inRow, outRow}, images};
+		case AXIS_Y: return new long[][]{{inRow, 1, 1}, images}; // rows have full width for column transforms
+		default:     return new long[][]{images};
+		}
+	}
+
+	static void sanityCheckDimension(Dimension expected, Dimension actual){
+		if(!expected.equals(actual)){
+			throw new IllegalArgumentException(String.format(
+					"Images have to be of same dimensions. Expected %s but got %s.", 
+					expected, actual));
+		}
+	}
+
+	static ComplexImg[] targetsFor(Dimension dim, int n, ComplexImg[] targets){
+		if(targets == null){
+			targets = new ComplexImg[n];
+		} else if(targets.length != n){
+			throw new IllegalArgumentException(String.format(
+					"Number of targets (%d) does not match number of transforms (%d).", targets.length, n));
+		}
+		for(int i = 0; i < n; i++){
+			targets[i] = targetFor(dim, targets[i]);
+		}
+		return targets;
+	}
+
+	static ComplexImg targetFor(Dimension dim, ComplexImg target){
+		if(target == null){
+			return new ComplexImg(dim);
+		} else if(!target.getDimension().equals(dim)){
+			throw new IllegalArgumentException(String.format(
+					"specified target is of wrong dimensions. Expected %s but has %s.", 
+					dim, target.getDimension()));
+		}
+		return target;
+	}
+
+	/** 
+	 * Copies the specified (shifted) row major array to the native array, undoing the shift.
+	 * An array shifted by (xs,ys) holds the unshifted value at (x,y) at ((x+xs)%w,(y+ys)%h).
+	 */
+	static void putUnshifted(double[] src, int w, int h, int xs, int ys, DoublePointer dst){
+		if(xs == 0 && ys == 0){
+			dst.put(src, 0, w*h);
+			return;
+		}
+		for(int y = 0; y < h; y++){
+			int srcRow = ((y+ys)%h)*w;
+			dst.position(y*w).put(src, srcRow+xs, w-xs);
+			if(xs > 0){
+				dst.position(y*w+w-xs).put(src, srcRow, xs);
+			}
+		}
+		dst.position(0);
+	}
+
+	/** 
+	 * Copies the native array to the specified row major array, applying the specified shift.
+	 * Inverse of {@link #putUnshifted(double[], int, int, int, int, DoublePointer)}.
+	 */
+	static void getShifted(DoublePointer src, int w, int h, int xs, int ys, double[] dst){
+		if(xs == 0 && ys == 0){
+			src.get(dst, 0, w*h);
+			return;
+		}
+		for(int y = 0; y < h; y++){
+			int dstRow = ((y+ys)%h)*w;
+			src.position(y*w).get(dst, dstRow+xs, w-xs);
+			if(xs > 0){
+				src.position(y*w+w-xs).get(dst, dstRow, xs);
+			}
+		}
+		src.position(0);
+	}
+
+	/** 
+	 * Fills the target with the full spectrum of a real signal from the non redundant half 
+	 * using Hermitian symmetry. For 2D transforms F(x,y) = conj(F(w-x,h-y)) with w/2+1 columns given, 
+	 * for row transforms F(x,y) = conj(F(w-x,y)) with w/2+1 columns given,
+	 * and for column transforms F(x,y) = conj(F(x,h-y)) with h/2+1 rows given.
+	 */
+	static void expandHermitian(int axes, double[] halfR, double[] halfI, int w, int h, ComplexImg target){
+		final int hw = axes == AXIS_Y ? w:w/2+1;
+		final int hh = axes == AXIS_Y ? h/2+1:h;
+		target.discardPendingShift();
+		final int xs = target.getCurrentXshift();
+		final int ys = target.getCurrentYshift();
+		final double[] real = target.getStoredReal();
+		final double[] imag = target.getStoredImag();
+		for(int y = 0; y < h; y++){
+			int row = ((y+ys)%h)*w;
+			if(y >= hh){
+				// only for column transforms, all columns are mirrored
+				int mirrorRow = (h-y)*hw;
+				for(int x = 0; x < w; x++){
+					int tx = (x+xs)%w;
+					real[row+tx] =  halfR[mirrorRow+x];
+					imag[row+tx] = -halfI[mirrorRow+x];
+				}
+				continue;
+			}
+			int halfRow = y*hw;
+			int mirrorRow = axes == AXES_XY ? ((h-y)%h)*hw : halfRow;
+			for(int x = 0; x < w; x++){
+				int tx = x+xs;
+				if(tx >= w) tx -= w;
+				if(x < hw){
+					real[row+tx] =  halfR[halfRow+x];
+					imag[row+tx] =  halfI[halfRow+x];
+				} else {
+					real[row+tx] =  halfR[mirrorRow+w-x];
+					imag[row+tx] = -halfI[mirrorRow+w-x];
+				}
+			}
+		}
+	}
+
+	/** 
+	 * copies the non redundant half of the (shifted) spectrum to the specified arrays,
+	 * i.e. the first w/2+1 columns, or the first h/2+1 rows for column transforms
+	 */
+	static void extractHalf(int axes, ComplexImg fourier, double[] halfR, double[] halfI){
+		final int w = fourier.getWidth();
+		final int h = fourier.getHeight();
+		final int hw = axes == AXIS_Y ? w:w/2+1;
+		final int hh = axes == AXIS_Y ? h/2+1:h;
+		final int xs = fourier.getStoredXshift();
+		final int ys = fourier.getStoredYshift();
+		final double[] real = fourier.getStoredReal();
+		final double[] imag = fourier.getStoredImag();
+		for(int y = 0; y < hh; y++){
+			int row = ((y+ys)%h)*w;
+			for(int x = 0; x < hw; x++){
+				int sx = x+xs;
+				if(sx >= w) sx -= w;
+				halfR[y*hw+x] = real[row+sx];
+				halfI[y*hw+x] = imag[row+sx];
+			}
+		}
+	}
+
+	/**
+	 * FFTW plan together with the native buffers it operates on.
+	 * Has to be synchronized on while in use.
+	 * FFTW requires the offsets between real and imaginary arrays of split transforms to be the 
+	 * same as when planned, which is why the inverse complex transform, which is a forward transform
+	 * with swapped real and imaginary parts, needs its own plan. 
+	 * The input and output arrays are each allocated as a single block with the imaginary part directly
+	 * following the real part, so that complex to complex plans can also be executed on 
+	 * {@link NativeComplexImg}s which use the same layout.
+	 */
+	static final class Plan {
+		final int kind;
+		final DoublePointer[] in;
+		final DoublePointer[] out;
+		fftw_plan plan;
+		private final double[][] scratch = new double[2][];
+		/* number of callers that obtained this plan from the context and did not release it yet (guarded by context) */
+		int users = 0;
+		/* true when removed from the context's cache (guarded by context) */
+		boolean evicted = false;
+
+		Plan(int kind, long[][] dims, long[][] howmany, int flags) {
+			this.kind = kind;
+			this.in = allocate(kind == R2C ? 1:2, extent(dims, howmany, 1, kind == C2R));
+			this.out = allocate(kind == C2R ? 1:2, extent(dims, howmany, 2, kind == R2C));
+			fftw_iodim64 dimsPtr = iodims(dims);
+			fftw_iodim64 howmanyPtr = iodims(howmany);
+			try {
+				synchronized (FFTW_Initializer.PLANNER_LOCK) {
+					switch (kind) {
+					case R2C:
+						plan = fftw_plan_guru64_split_dft_r2c(dims.length, dimsPtr, howmany.length, howmanyPtr, 
+								in[0], out[0], out[1], flags);
+						break;
+					case C2R:
+						plan = fftw_plan_guru64_split_dft_c2r(dims.length, dimsPtr, howmany.length, howmanyPtr, 
+								in[0], in[1], out[0], flags);
+						break;
+					case C2C_INVERSE:
+						plan = fftw_plan_guru64_split_dft(dims.length, dimsPtr, howmany.length, howmanyPtr, 
+								in[1], in[0], out[1], out[0], flags);
+						break;
+					default:
+						plan = fftw_plan_guru64_split_dft(dims.length, dimsPtr, howmany.length, howmanyPtr, 
+								in[0], in[1], out[0], out[1], flags);
+					}
+				}
+			} finally {
+				dimsPtr.close();
+				howmanyPtr.close();
+			}
+			if(plan == null || plan.isNull()){
+				plan = null;
+				free();
+				throw new IllegalStateException("FFTW could not create a plan for dimensions " + Arrays.deepToString(dims));
+			}
+		}
+
+		/** @throws IllegalStateException if the plan has been destroyed */
+		void requireValid(){
+			if(plan == null){
+				throw new IllegalStateException("FourierContext is closed.");
+			}
+		}
+
+		/** @return heap array of the specified length that is kept with this plan */
+		double[] scratch(int i, int length){
+			if(scratch[i] == null || scratch[i].length != length){
+				scratch[i] = new double[length];
+			}
+			return scratch[i];
+		}
+
+		synchronized void destroy(){
+			if(plan != null){
+				synchronized (FFTW_Initializer.PLANNER_LOCK) {
+					fftw_destroy_plan(plan);
+				}
+				plan = null;
+				free();
+			}
+		}
+
+		private void free(){
+			// arrays of in and out are each one block
+			fftw_free(in[0].position(0));
+			fftw_free(out[0].position(0));
+			scratch[0] = scratch[1] = null;
+		}
+
+		private static DoublePointer[] allocate(int count, long length){
+			DoublePointer[] buffers = NativeComplexImg.allocateSplit(count, length);
+			if(buffers == null){
+				throw new OutOfMemoryError("Could not allocate native buffer of " + count*length + " doubles.");
+			}
+			return buffers;
+		}
+
+		/** 
+		 * number of elements spanned by the specified dimensions for input (1) or output (2) strides.
+		 * The last dimension of the complex side of a real transform only has n/2+1 elements.
+		 */
+		private static long extent(long[][] dims, long[][] howmany, int strideIndex, boolean halfComplex){
+			long extent = 1;
+			for(int i = 0; i < dims.length; i++){
+				long n = (halfComplex && i == dims.length-1) ? dims[i][0]/2+1 : dims[i][0];
+				extent += (n-1)*dims[i][strideIndex];
+			}
+			for(long[] d: howmany) extent += (d[0]-1)*d[strideIndex];
+			return extent;
+		}
+
+		private static fftw_iodim64 iodims(long[][] dims){
+			fftw_iodim64 iodims = new fftw_iodim64(Math.max(1, dims.length));
+			for(int i = 0; i < dims.length; i++){
+				iodims.position(i).n(dims[i][0]).is(dims[i][1]).os(dims[i][2]);
+			}
+			return iodims.position(0);
+		}
+	}
+
+	/** key of a kernel spectrum, compares the kernel by value */
+	private static final class KernelKey {
+		final double[] kernel;
+		final int kernelWidth, width, height;
+		final int hash;
+
+		KernelKey(double[] kernel, int kernelWidth, int width, int height) {
+			this.kernel = kernel;
+			this.kernelWidth = kernelWidth;
+			this.width = width;
+			this.height = height;
+			this.hash = ((Arrays.hashCode(kernel)*31 + kernelWidth)*31 + width)*31 + height;
+		}
+
+		/** @return key with a copy of the kernel values, so that later changes of the kernel do not alter the key */
+		KernelKey copy(){
+			return new KernelKey(kernel.clone(), kernelWidth, width, height);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof KernelKey))
+				return false;
+			KernelKey other = (KernelKey) obj;
+			return hash == other.hash 
+					&& kernelWidth == other.kernelWidth 
+					&& width == other.width 
+					&& height == other.height 
+					&& Arrays.equals(kernel, other.kernel);
+		}
+	}
+
+	private static final class PlanKey {
+		final int kind;
+		final long[][] dims;
+		final long[][] howmany;
+
+		PlanKey(int kind, long[][] dims, long[][] howmany) {
+			this.kind = kind;
+			this.dims = dims;
+			this.howmany = howmany;
+		}
+
+		@Override
+		public int hashCode() {
+			return (kind*31 + Arrays.deepHashCode(dims))*31 + Arrays.deepHashCode(howmany);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof PlanKey))
+				return false;
+			PlanKey other = (PlanKey) obj;
+			return kind == other.kind 
+					&& Arrays.deepEquals(dims, other.dims) 
+					&& Arrays.deepEquals(howmany, other.howmany);
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.awt.Dimension;
+import java.util.Arrays;
+
+/**
+ * The HalfComplexImg represents the Fourier transform of a real valued image in a compact form.
+ * The transform F of a real image is Hermitian symmetric, {@code F(x,y) = conj(F(w-x,h-y))},
+ * so that only the columns 0 to w/2 have to be stored. A HalfComplexImg thus holds
+ * (w/2+1)*h complex values instead of w*h, which halves memory and computation time of transforms
+ * compared to a {@link ComplexImg}. 
+ * <p>
+ * The values of the redundant half can be accessed through {@link #getValueR(int, int)}, 
+ * {@link #getValueI(int, int)} and {@link #computePower(int, int)} which reconstruct them on demand,
+ * and {@link #toComplexImg(ComplexImg)} expands the whole spectrum (e.g. for display).
+ * Transforms from and to HalfComplexImg are obtained via {@link Fourier#transformHalf(hageldave.imagingkit.core.scientific.ColorImg, int)}
+ * and {@link Fourier#inverseTransform(hageldave.imagingkit.core.scientific.ColorImg, HalfComplexImg, int)}.
+ * 
+ * @author hageldave
+ */
+public class HalfComplexImg {
+
+	private final int width;
+	private final int height;
+	private final int halfWidth;
+
+	private final double[] real;
+	private final double[] imag;
+
+	/**
+	 * Creates a new HalfComplexImg for a transform of specified dimension
+	 * @param dims dimensions of the (full) transform
+	 */
+	public HalfComplexImg(Dimension dims) {
+		this(dims.width, dims.height);
+	}
+
+	/**
+	 * Creates a new HalfComplexImg for a transform of specified dimension
+	 * @param width of the (full) transform
+	 * @param height of the (full) transform
+	 * @throws IllegalArgumentException if width or height are not positive
+	 */
+	public HalfComplexImg(int width, int height) {
+		ArrayUtils.assertPositive(width, ()->"specified width is not positive. width="+width);
+		ArrayUtils.assertPositive(height, ()->"specified height is not positive. height="+height);
+		this.width = width;
+		this.height = height;
+		this.halfWidth = width/2+1;
+		this.real = new double[halfWidth*height];
+		this.imag = new double[halfWidth*height];
+	}
+
+	/**
+	 * @return width of the (full) transform
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the transform
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return dimension of the (full) transform
+	 */
+	public Dimension getDimension() {
+		return new Dimension(width, height);
+	}
+
+	/**
+	 * @return number of stored columns (width/2+1)
+	 */
+	public int getHalfWidth() {
+		return halfWidth;
+	}
+
+	/**
+	 * Returns the array of real parts of the stored half in row major order 
+	 * with {@link #getHalfWidth()} elements per row.
+	 * @return real part array
+	 */
+	public double[] getDataReal() {
+		return real;
+	}
+
+	/**
+	 * Returns the array of imaginary parts of the stored half in row major order 
+	 * with {@link #getHalfWidth()} elements per row.
+	 * @return imaginary part array
+	 */
+	public double[] getDataImag() {
+		return imag;
+	}
+
+	/** @return index of the stored value (or its conjugate for the redundant half) for (x,y) */
+	private int index(int x, int y){
+		if(x < halfWidth){
+			return y*halfWidth+x;
+		} else {
+			return ((height-y)%height)*halfWidth + width-x;
+		}
+	}
+
+	/**
+	 * Returns the real part at the specified position of the full transform.
+	 * @param x coordinate (in [0,width))
+	 * @param y coordinate (in [0,height))
+	 * @return real part
+	 */
+	public double getValueR(int x, int y) {
+		return real[index(x, y)];
+	}
+
+	/**
+	 * Returns the imaginary part at the specified position of the full transform.
+	 * Values of the redundant half are reconstructed as conjugate of the stored half.
+	 * @param x coordinate (in [0,width))
+	 * @param y coordinate (in [0,height))
+	 * @return imaginary part
+	 */
+	public double getValueI(int x, int y) {
+		double i = imag[index(x, y)];
+		return x < halfWidth ? i:-i;
+	}
+
+	/**
+	 * Returns the power (squared magnitude) at the specified position of the full transform.
+	 * @param x coordinate (in [0,width))
+	 * @param y coordinate (in [0,height))
+	 * @return power
+	 */
+	public double computePower(int x, int y) {
+		int idx = index(x, y);
+		return real[idx]*real[idx] + imag[idx]*imag[idx];
+	}
+
+	/**
+	 * Sets the complex value at the specified position of the full transform.
+	 * Since the image only stores one half of the Hermitian symmetric transform, 
+	 * this also sets the mirrored value at ((width-x)%width, (height-y)%height) to the conjugate.
+	 * For positions that are their own mirror (e.g. DC) the imaginary part should be 0 for the
+	 * transform to stay Hermitian.
+	 * @param x coordinate (in [0,width))
+	 * @param y coordinate (in [0,height))
+	 * @param real part
+	 * @param imag part
+	 */
+	public void setComplex(int x, int y, double real, double imag) {
+		int idx = index(x, y);
+		this.real[idx] = real;
+		this.imag[idx] = x < halfWidth ? imag:-imag;
+		if(x == 0 || 2*x == width){
+			// column is its own mirror, the mirrored value is stored separately
+			int mirrorIdx = ((height-y)%height)*halfWidth + x;
+			if(mirrorIdx != idx){
+				this.real[mirrorIdx] = real;
+				this.imag[mirrorIdx] = -imag;
+			}
+		}
+	}
+
+	/**
+	 * Returns the real part of the DC value, i.e. the zero frequency component.
+	 * @return DC value
+	 */
+	public double getDCreal() {
+		return real[0];
+	}
+
+	/**
+	 * Fills the stored half with the specified complex value. 
+	 * @param real part
+	 * @param imag part
+	 * @return this
+	 */
+	public HalfComplexImg fill(double real, double imag) {
+		Arrays.fill(this.real, real);
+		Arrays.fill(this.imag, imag);
+		return this;
+	}
+
+	/**
+	 * @return a deep copy of this image
+	 */
+	public HalfComplexImg copy() {
+		HalfComplexImg copy = new HalfComplexImg(width, height);
+		System.arraycopy(real, 0, copy.real, 0, real.length);
+		System.arraycopy(imag, 0, copy.imag, 0, imag.length);
+		return copy;
+	}
+
+	/**
+	 * Expands this half spectrum to the full spectrum which is stored in the specified 
+	 * {@link ComplexImg} (taking its shift into account).
+	 * @param target (may be null) image to store the full spectrum in
+	 * @return target or new ComplexImg if target was null
+	 * @throws IllegalArgumentException if target does not match the dimensions of this image
+	 */
+	public ComplexImg toComplexImg(ComplexImg target) {
+		target = FourierContext.targetFor(getDimension(), target);
+		FourierContext.expandHermitian(FourierContext.AXES_XY, real, imag, width, height, target);
+		return target;
+	}
+
+}
@@ -0,0 +1,371 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Pure Java {@link FFTEngine} implementation that does not require any native library.
+ * Transforms are computed in place on the specified arrays, which avoids the copying to 
+ * and from native memory that is necessary for FFTW. This makes the engine the faster choice for
+ * small transforms, while FFTW is faster for large ones.
+ * <p>
+ * 1D transforms of a length that is a power of 2 use an iterative radix-2 algorithm, lengths 
+ * with only small prime factors use a mixed radix algorithm and all other lengths use 
+ * Bluestein's algorithm. Rows (and blocks of columns) are transformed in parallel for large data.
+ * The precomputed twiddle factors for each length are kept by the engine, so an instance 
+ * should be reused. The engine is thread safe.
+ * 
+ * @author hageldave
+ */
+public class JavaFFTEngine implements FFTEngine {
+
+	/** number of values above which rows or columns are transformed in parallel */
+	static final int PARALLEL_THRESHOLD = 1<<15;
+	/** number of values of the rows processed by a single task */
+	static final int ROW_CHUNK_SIZE = 1<<12;
+	/** number of columns that are gathered and transformed together */
+	static final int COLUMN_BLOCK_SIZE = 16;
+	/** largest prime factor handled by the mixed radix algorithm, other lengths use Bluestein's algorithm */
+	static final int MAX_RADIX = 13;
+
+	private final ConcurrentHashMap<Integer, Plan> plans = new ConcurrentHashMap<>();
+
+	@Override
+	public void transform(boolean inverse, double[] real, double[] imag, int width, int height, int axes) {
+		ArrayUtils.assertPositive(width, ()->"specified width is not positive. w="+width);
+		ArrayUtils.assertPositive(height, ()->"specified height is not positive. h="+height);
+		ArrayUtils.assertArraySize(width*height, real, ()->"real array is not of length width*height");
+		ArrayUtils.assertArraySize(width*height, imag, ()->"imaginary array is not of length width*height");
+		if(axes != AXES_XY && axes != AXIS_X && axes != AXIS_Y){
+			throw FFTWEngine.invalidAxes(axes);
+		}
+		// inverse transform is the forward transform with swapped real and imaginary parts
+		double[] re = inverse ? imag:real;
+		double[] im = inverse ? real:imag;
+		if(axes != AXIS_Y){
+			transformRows(re, im, width, height);
+		}
+		if(axes != AXIS_X){
+			transformColumns(re, im, width, height);
+		}
+		if(inverse){
+			double scaling = 1.0/(axes == AXIS_X ? width : axes == AXIS_Y ? height : width*height);
+			ArrayUtils.scaleArray(real, scaling);
+			ArrayUtils.scaleArray(imag, scaling);
+		}
+	}
+
+	private void transformRows(double[] re, double[] im, int w, int h){
+		final Plan plan = getPlan(w);
+		final int rowsPerChunk = Math.max(1, ROW_CHUNK_SIZE/w);
+		final int numChunks = (h+rowsPerChunk-1)/rowsPerChunk;
+		IntStream chunks = IntStream.range(0, numChunks);
+		if((long)w*h >= PARALLEL_THRESHOLD){
+			chunks = chunks.parallel();
+		}
+		chunks.forEach(chunk->{
+			double[][] work = plan.createWork();
+			int rowEnd = Math.min(h, (chunk+1)*rowsPerChunk);
+			for(int row = chunk*rowsPerChunk; row < rowEnd; row++){
+				plan.execute(re, im, row*w, work);
+			}
+		});
+	}
+
+	private void transformColumns(double[] re, double[] im, int w, int h){
+		final Plan plan = getPlan(h);
+		final int numBlocks = (w+COLUMN_BLOCK_SIZE-1)/COLUMN_BLOCK_SIZE;
+		IntStream blocks = IntStream.range(0, numBlocks);
+		if((long)w*h >= PARALLEL_THRESHOLD){
+			blocks = blocks.parallel();
+		}
+		blocks.forEach(block->{
+			double[][] work = plan.createWork();
+			int x0 = block*COLUMN_BLOCK_SIZE;
+			int bw = Math.min(w, x0+COLUMN_BLOCK_SIZE)-x0;
+			// gather columns of block so that each column is contiguous
+			double[] colsR = new double[bw*h];
+			double[] colsI = new double[bw*h];
+			for(int y = 0; y < h; y++){
+				for(int c = 0; c < bw; c++){
+					colsR[c*h+y] = re[y*w+x0+c];
+					colsI[c*h+y] = im[y*w+x0+c];
+				}
+			}
+			for(int c = 0; c < bw; c++){
+				plan.execute(colsR, colsI, c*h, work);
+			}
+			for(int y = 0; y < h; y++){
+				for(int c = 0; c < bw; c++){
+					re[y*w+x0+c] = colsR[c*h+y];
+					im[y*w+x0+c] = colsI[c*h+y];
+				}
+			}
+		});
+	}
+
+	private Plan getPlan(int n){
+		return plans.computeIfAbsent(n, Plan::create);
+	}
+
+	/** 
+	 * Precomputed 1D forward transform of a specific length, 
+	 * executed in place on a segment of split complex arrays 
+	 */
+	static abstract class Plan {
+		final int n;
+
+		Plan(int n){
+			this.n = n;
+		}
+
+		static Plan create(int n){
+			if(Integer.bitCount(n) == 1){
+				return new Radix2Plan(n);
+			}
+			int[] factors = factorize(n);
+			if(factors[factors.length-1] <= MAX_RADIX){
+				return new MixedRadixPlan(n, factors);
+			}
+			return new BluesteinPlan(n);
+		}
+
+		/** @return work arrays needed by {@link #execute(double[], double[], int, double[][])}, one set per thread */
+		abstract double[][] createWork();
+
+		/** transforms the n values starting at offset in place */
+		abstract void execute(double[] re, double[] im, int offset, double[][] work);
+
+		/** @return prime factors of n in ascending order */
+		static int[] factorize(int n){
+			int[] factors = new int[32];
+			int count = 0;
+			for(int p = 2; (long)p*p <= n; p++){
+				while(n % p == 0){
+					factors[count++] = p;
+					n /= p;
+				}
+			}
+			if(n > 1){
+				factors[count++] = n;
+			}
+			return Arrays.copyOf(factors, count);
+		}
+	}
+
+	/** iterative radix-2 decimation in time for lengths that are powers of 2 */
+	static class Radix2Plan extends Plan {
+		final int[] bitReversed;
+		final double[] cos;
+		final double[] sin;
+
+		Radix2Plan(int n){
+			super(n);
+			int bits = Integer.numberOfTrailingZeros(n);
+			bitReversed = new int[n];
+			for(int i = 1; i < n; i++){
+				bitReversed[i] = Integer.reverse(i) >>> (32-bits);
+			}
+			cos = new double[n/2];
+			sin = new double[n/2];
+			for(int k = 0; k < n/2; k++){
+				cos[k] = Math.cos(2*Math.PI*k/n);
+				sin[k] = -Math.sin(2*Math.PI*k/n);
+			}
+		}
+
+		@Override
+		double[][] createWork() {
+			return null;
+		}
+
+		@Override
+		void execute(double[] re, double[] im, int offset, double[][] work) {
+			for(int i = 0; i < n; i++){
+				int j = bitReversed[i];
+				if(i < j){
+					double t = re[offset+i]; re[offset+i] = re[offset+j]; re[offset+j] = t;
+					t = im[offset+i]; im[offset+i] = im[offset+j]; im[offset+j] = t;
+				}
+			}
+			for(int size = 2; size <= n; size <<= 1){
+				final int half = size/2;
+				final int step = n/size;
+				for(int start = offset; start < offset+n; start += size){
+					for(int k = 0; k < half; k++){
+						final double wr = cos[k*step], wi = sin[k*step];
+						final int a = start+k, b = a+half;
+						final double tr = re[b]*wr - im[b]*wi;
+						final double ti = re[b]*wi + im[b]*wr;
+						re[b] = re[a]-tr;
+						im[b] = im[a]-ti;
+						re[a] += tr;
+						im[a] += ti;
+					}
+				}
+			}
+		}
+	}
+
+	/** recursive mixed radix decimation in time for lengths with small prime factors */
+	static class MixedRadixPlan extends Plan {
+		final int[] radices;
+		final double[] cos;
+		final double[] sin;
+
+		MixedRadixPlan(int n, int[] radices){
+			super(n);
+			this.radices = radices;
+			cos = new double[n];
+			sin = new double[n];
+			for(int k = 0; k < n; k++){
+				cos[k] = Math.cos(2*Math.PI*k/n);
+				sin[k] = -Math.sin(2*Math.PI*k/n);
+			}
+		}
+
+		@Override
+		double[][] createWork() {
+			int maxRadix = radices[radices.length-1];
+			return new double[][]{new double[n], new double[n], new double[maxRadix], new double[maxRadix]};
+		}
+
+		@Override
+		void execute(double[] re, double[] im, int offset, double[][] work) {
+			transform(re, im, offset, 1, work, 0, n, 0);
+			System.arraycopy(work[0], 0, re, offset, n);
+			System.arraycopy(work[1], 0, im, offset, n);
+		}
+
+		/** transforms len values of the input with specified stride into the work arrays at outOffset */
+		private void transform(double[] re, double[] im, int inOffset, int stride, double[][] work, int outOffset, int len, int level){
+			final double[] outR = work[0], outI = work[1];
+			if(len == 1){
+				outR[outOffset] = re[inOffset];
+				outI[outOffset] = im[inOffset];
+				return;
+			}
+			final int p = radices[level];
+			final int m = len/p;
+			for(int q = 0; q < p; q++){
+				transform(re, im, inOffset+q*stride, stride*p, work, outOffset+q*m, m, level+1);
+			}
+			// combine the p sub transforms of length m
+			final int twiddleStep = n/len;
+			if(p == 2){
+				for(int k = 0; k < m; k++){
+					final double wr = cos[k*twiddleStep], wi = sin[k*twiddleStep];
+					final int a = outOffset+k, b = a+m;
+					final double tr = outR[b]*wr - outI[b]*wi;
+					final double ti = outR[b]*wi + outI[b]*wr;
+					outR[b] = outR[a]-tr;
+					outI[b] = outI[a]-ti;
+					outR[a] += tr;
+					outI[a] += ti;
+				}
+				return;
+			}
+			final double[] yR = work[2], yI = work[3];
+			final int rootStep = n/p;
+			for(int k = 0; k < m; k++){
+				for(int q = 0; q < p; q++){
+					final int idx = outOffset+q*m+k;
+					final int t = q*k*twiddleStep;
+					yR[q] = outR[idx]*cos[t] - outI[idx]*sin[t];
+					yI[q] = outR[idx]*sin[t] + outI[idx]*cos[t];
+				}
+				for(int j = 0; j < p; j++){
+					double sr = yR[0], si = yI[0];
+					for(int q = 1; q < p; q++){
+						final int t = ((q*j)%p)*rootStep;
+						sr += yR[q]*cos[t] - yI[q]*sin[t];
+						si += yR[q]*sin[t] + yI[q]*cos[t];
+					}
+					outR[outOffset+j*m+k] = sr;
+					outI[outOffset+j*m+k] = si;
+				}
+			}
+		}
+	}
+
+	/** Bluestein's algorithm, expressing the transform as convolution of power of 2 length */
+	static class BluesteinPlan extends Plan {
+		final Radix2Plan convolutionPlan;
+		final double[] chirpR;
+		final double[] chirpI;
+		final double[] filterR;
+		final double[] filterI;
+
+		BluesteinPlan(int n){
+			super(n);
+			int m = Integer.highestOneBit(2*n-1);
+			if(m < 2*n-1) m <<= 1;
+			convolutionPlan = new Radix2Plan(m);
+			// chirp exp(-i*pi*k^2/n), k^2 taken modulo 2n for accuracy
+			chirpR = new double[n];
+			chirpI = new double[n];
+			for(int k = 0; k < n; k++){
+				long kk = ((long)k*k) % (2L*n);
+				chirpR[k] = Math.cos(Math.PI*kk/n);
+				chirpI[k] = -Math.sin(Math.PI*kk/n);
+			}
+			// transform of the conjugate chirp, wrapped around for negative indices
+			filterR = new double[m];
+			filterI = new double[m];
+			filterR[0] = chirpR[0];
+			filterI[0] = -chirpI[0];
+			for(int k = 1; k < n; k++){
+				filterR[k] = filterR[m-k] = chirpR[k];
+				filterI[k] = filterI[m-k] = -chirpI[k];
+			}
+			convolutionPlan.execute(filterR, filterI, 0, null);
+		}
+
+		@Override
+		double[][] createWork() {
+			return new double[][]{new double[convolutionPlan.n], new double[convolutionPlan.n]};
+		}
+
+		@Override
+		void execute(double[] re, double[] im, int offset, double[][] work) {
+			final int m = convolutionPlan.n;
+			final double[] aR = work[0], aI = work[1];
+			for(int k = 0; k < n; k++){
+				final double xr = re[offset+k], xi = im[offset+k];
+				aR[k] = xr*chirpR[k] - xi*chirpI[k];
+				aI[k] = xr*chirpI[k] + xi*chirpR[k];
+			}
+			Arrays.fill(aR, n, m, 0);
+			Arrays.fill(aI, n, m, 0);
+			convolutionPlan.execute(aR, aI, 0, null);
+			ArrayUtils.multiplyComplex(aR, aI, filterR, filterI, false);
+			// inverse via forward transform of swapped parts
+			convolutionPlan.execute(aI, aR, 0, null);
+			final double scaling = 1.0/m;
+			for(int k = 0; k < n; k++){
+				final double cr = aR[k]*scaling, ci = aI[k]*scaling;
+				re[offset+k] = cr*chirpR[k] - ci*chirpI[k];
+				im[offset+k] = cr*chirpI[k] + ci*chirpR[k];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,300 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import static org.bytedeco.javacpp.fftw3.fftw_alloc_real;
+import static org.bytedeco.javacpp.fftw3.fftw_free;
+
+import java.awt.Dimension;
+import java.nio.DoubleBuffer;
+
+import org.bytedeco.javacpp.DoublePointer;
+
+import hageldave.ezfftw.FFTW_Initializer;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * The NativeComplexImg is an image of complex values like {@link ComplexImg}, which stores its
+ * real and imaginary parts in native memory instead of Java arrays. 
+ * It can be transformed by {@link FourierContext#transform(boolean, NativeComplexImg, NativeComplexImg)}
+ * where FFTW reads and writes the image's memory directly, so that no copies between Java arrays and native
+ * buffers are necessary. 
+ * This is useful for processing pipelines on large images that go back and forth between 
+ * spatial and frequency domain, where the copies would otherwise cost about as much as the transforms.
+ * <p>
+ * The values can be accessed per pixel, or in bulk through direct {@link DoubleBuffer}s 
+ * ({@link #getRealBuffer()}, {@link #getImagBuffer()}). 
+ * Data is exchanged with heap based images using {@link #set(ComplexImg)}, {@link #set(ColorImg, int)},
+ * {@link #toComplexImg(ComplexImg)} and {@link #toColorImg(ColorImg, int)}.
+ * Values are stored unshifted, i.e. DC is at (0,0).
+ * Real and imaginary parts are stored in a single block of native memory with the imaginary part 
+ * directly following the real part, which is the layout of the buffers that {@link FourierContext} plans
+ * transforms with (FFTW requires the same distance between real and imaginary parts when executing a plan
+ * on different arrays).
+ * <p>
+ * The native memory is freed on {@link #close()}.
+ * 
+ * @author hageldave
+ */
+public class NativeComplexImg implements AutoCloseable {
+
+	private final int width;
+	private final int height;
+
+	private DoublePointer real;
+	private DoublePointer imag;
+
+	/**
+	 * Creates a new NativeComplexImg of specified dimension with all values zero.
+	 * @param dims desired dimensions
+	 * @throws IllegalArgumentException if width or height are not positive
+	 */
+	public NativeComplexImg(Dimension dims) {
+		this(dims.width, dims.height);
+	}
+
+	/**
+	 * Creates a new NativeComplexImg of specified dimension with all values zero.
+	 * @param width of the image
+	 * @param height of the image
+	 * @throws IllegalArgumentException if width or height are not positive
+	 */
+	public NativeComplexImg(int width, int height) {
+		ArrayUtils.assertPositive(width, ()->"specified width is not positive. w="+width);
+		ArrayUtils.assertPositive(height, ()->"specified height is not positive. h="+height);
+		FFTW_Initializer.initFFTW();
+		this.width = width;
+		this.height = height;
+		DoublePointer[] parts = allocateSplit(2, (long)width*height);
+		if(parts == null){
+			throw new OutOfMemoryError("Could not allocate native memory of " + (2L*width*height) + " doubles.");
+		}
+		this.real = parts[0];
+		this.imag = parts[1];
+	}
+
+	/**
+	 * Allocates a single zeroed block of native memory for the specified number of consecutive 
+	 * arrays of the specified length, i.e. array i starts at offset {@code i*length}.
+	 * Only the first array (which points to the start of the block) must be freed.
+	 * @param count number of arrays
+	 * @param length of each array
+	 * @return pointers to the arrays or null if the memory could not be allocated
+	 */
+	static DoublePointer[] allocateSplit(int count, long length){
+		DoublePointer block = fftw_alloc_real(count*length);
+		if(block == null || block.isNull()){
+			return null;
+		}
+		block.capacity(count*length).zero();
+		DoublePointer[] parts = new DoublePointer[count];
+		for(int i = 0; i < count; i++){
+			final long start = block.address() + i*length*Double.BYTES;
+			parts[i] = new DoublePointer(){{ 
+				address = start; 
+				limit = capacity = length;
+			}};
+		}
+		return parts;
+	}
+
+	/** @return width of this image */
+	public int getWidth() {
+		return width;
+	}
+
+	/** @return height of this image */
+	public int getHeight() {
+		return height;
+	}
+
+	/** @return dimension of this image */
+	public Dimension getDimension() {
+		return new Dimension(width, height);
+	}
+
+	/** @return number of values of this image (width*height) */
+	public int numValues() {
+		return width*height;
+	}
+
+	/**
+	 * Returns the real value at the specified position.
+	 * @param x coordinate
+	 * @param y coordinate
+	 * @return real value
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public double getValueR(int x, int y) {
+		return real().get(y*width+x);
+	}
+
+	/**
+	 * Returns the imaginary value at the specified position.
+	 * @param x coordinate
+	 * @param y coordinate
+	 * @return imaginary value
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public double getValueI(int x, int y) {
+		return imag().get(y*width+x);
+	}
+
+	/**
+	 * Sets the real and imaginary part at the specified position
+	 * @param x coordinate
+	 * @param y coordinate
+	 * @param real part to be set
+	 * @param imag imaginary part to be set
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public void setComplex(int x, int y, double real, double imag) {
+		real().put(y*width+x, real);
+		imag().put(y*width+x, imag);
+	}
+
+	/**
+	 * Returns a direct buffer of the real parts in row major order, which is backed by 
+	 * the native memory of this image. The buffer must not be used after closing this image.
+	 * @return real part buffer
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public DoubleBuffer getRealBuffer() {
+		return real().asBuffer();
+	}
+
+	/**
+	 * Returns a direct buffer of the imaginary parts in row major order, which is backed by 
+	 * the native memory of this image. The buffer must not be used after closing this image.
+	 * @return imaginary part buffer
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public DoubleBuffer getImagBuffer() {
+		return imag().asBuffer();
+	}
+
+	/**
+	 * Copies the values of the specified {@link ComplexImg} to this image, undoing its shift.
+	 * @param img to copy
+	 * @return this
+	 * @throws IllegalArgumentException if the specified image is not of the same dimensions
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public NativeComplexImg set(ComplexImg img) {
+		sanityCheckDimension(img.getDimension());
+		FourierContext.putUnshifted(img.getStoredReal(), width, height, img.getStoredXshift(), img.getStoredYshift(), real());
+		FourierContext.putUnshifted(img.getStoredImag(), width, height, img.getStoredXshift(), img.getStoredYshift(), imag());
+		return this;
+	}
+
+	/**
+	 * Sets the real parts of this image to the values of the specified channel of the specified image 
+	 * and the imaginary parts to zero, e.g. to prepare a Fourier transform of the channel.
+	 * @param img to copy from
+	 * @param channel to copy
+	 * @return this
+	 * @throws IllegalArgumentException if the specified image is not of the same dimensions or
+	 * if the specified channel is out of range ([0..3]) or is alpha (3) but the image does not have an alpha channel
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public NativeComplexImg set(ColorImg img, int channel) {
+		Fourier.sanityCheckForward(img, channel);
+		sanityCheckDimension(img.getDimension());
+		real().put(img.getData()[channel], 0, numValues());
+		imag().zero();
+		return this;
+	}
+
+	/**
+	 * Copies the values of this image to the specified {@link ComplexImg}, taking its shift into account.
+	 * @param target (may be null) image to copy to
+	 * @return the target or a new ComplexImg if target was null
+	 * @throws IllegalArgumentException if the target is not of the same dimensions
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public ComplexImg toComplexImg(ComplexImg target) {
+		target = FourierContext.targetFor(getDimension(), target);
+		target.discardPendingShift();
+		FourierContext.getShifted(real(), width, height, target.getCurrentXshift(), target.getCurrentYshift(), target.getStoredReal());
+		FourierContext.getShifted(imag(), width, height, target.getCurrentXshift(), target.getCurrentYshift(), target.getStoredImag());
+		return target;
+	}
+
+	/**
+	 * Copies the real parts of this image to the specified channel of the specified {@link ColorImg},
+	 * e.g. after an inverse Fourier transform.
+	 * @param target (may be null) image to copy to
+	 * @param channel to copy to
+	 * @return the target or a new ColorImg if target was null
+	 * @throws IllegalArgumentException if the target is not of the same dimensions or if the specified channel
+	 * is out of range ([0..3]) or is alpha (3) but the target does not have an alpha channel
+	 * @throws IllegalStateException if this image is closed
+	 */
+	public ColorImg toColorImg(ColorImg target, int channel) {
+		if(target == null){
+			target = new ColorImg(getDimension(), channel==ColorImg.channel_a);
+		}
+		Fourier.sanityCheckInverse_target(target, getDimension(), channel);
+		real().get(target.getData()[channel], 0, numValues());
+		return target;
+	}
+
+	/**
+	 * Frees the native memory of this image. Subsequent calls have no effect.
+	 */
+	@Override
+	public synchronized void close() {
+		if(real != null){
+			// imaginary part is in the same block
+			fftw_free(real);
+			real = imag = null;
+		}
+	}
+
+	/** @return true when this image has been closed */
+	public boolean isClosed() {
+		return real == null;
+	}
+
+	/** @return native real part memory (position 0) */
+	DoublePointer real() {
+		DoublePointer p = real;
+		if(p == null){
+			throw new IllegalStateException("NativeComplexImg is closed.");
+		}
+		return p.position(0);
+	}
+
+	/** @return native imaginary part memory (position 0) */
+	DoublePointer imag() {
+		DoublePointer p = imag;
+		if(p == null){
+			throw new IllegalStateException("NativeComplexImg is closed.");
+		}
+		return p.position(0);
+	}
+
+	void sanityCheckDimension(Dimension dim) {
+		if(!getDimension().equals(dim)){
+			throw new IllegalArgumentException(String.format(
+					"specified image is of wrong dimensions. Expected %s but has %s.", 
+					getDimension(), dim));
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * The Registration class provides image registration in the frequency domain.
+ * <p>
+ * {@link #phaseCorrelate(ColorImg, ColorImg)} estimates the translation between two images 
+ * of the same size by phase correlation: The normalized cross power spectrum of both images 
+ * is inversely transformed, which results in a correlation surface with a sharp peak at the 
+ * (circular) shift between the images. The peak is located with sub-pixel accuracy by parabola fitting.
+ * <p>
+ * The images are windowed before the transform (see {@link TiledFourierAnalysis#windowFunction(int, int)})
+ * to suppress the influence of the image borders, which would otherwise correlate at zero shift.
+ * Only the non redundant halves of the spectra are computed ({@link HalfComplexImg}), and the cross power 
+ * spectrum is computed in a single pass. When registering repeatedly (e.g. for video stabilization)
+ * a {@link FourierContext} should be passed to 
+ * {@link #phaseCorrelate(ColorImg, ColorImg, int, int, FourierContext)} so that plans are reused.
+ * 
+ * @author hageldave
+ */
+public class Registration {
+
+	/** number of values above which rows are processed in parallel */
+	static final int PARALLEL_THRESHOLD = 1<<15;
+
+	private Registration(){/* not constructable */}
+
+	/**
+	 * The result of a phase correlation
+	 */
+	public static class Shift {
+		private final double x, y, peak;
+
+		Shift(double x, double y, double peak) {
+			this.x = x;
+			this.y = y;
+			this.peak = peak;
+		}
+
+		/**
+		 * @return shift in x direction (to the right)
+		 */
+		public double getX() {
+			return x;
+		}
+
+		/**
+		 * @return shift in y direction (to the bottom)
+		 */
+		public double getY() {
+			return y;
+		}
+
+		/**
+		 * Returns the value of the correlation surface at the (integer) peak.
+		 * This is close to 1 for identical (circularly shifted) images (1-1/numValues since the
+		 * mean is removed) and decreases for less similar images, so it can be used as a measure of confidence.
+		 * @return peak value
+		 */
+		public double getPeak() {
+			return peak;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Shift(%f, %f peak=%f)", x, y, peak);
+		}
+	}
+
+	/**
+	 * Estimates the translation of image b relative to image a by phase correlation of their
+	 * red channels (e.g. of grayscale images) using a Hann window.
+	 * See {@link #phaseCorrelate(ColorImg, ColorImg, int, int, FourierContext)}.
+	 * @param a reference image
+	 * @param b shifted image
+	 * @return the shift of b relative to a
+	 * @throws IllegalArgumentException if the images are not of the same dimensions
+	 */
+	public static Shift phaseCorrelate(ColorImg a, ColorImg b) {
+		return phaseCorrelate(a, b, ColorImg.channel_r, TiledFourierAnalysis.WINDOW_HANN, null);
+	}
+
+	/**
+	 * Estimates the translation of image b relative to image a by phase correlation of the 
+	 * specified channel. The returned shift (x,y) is such that {@code b(px,py) ~ a(px-x, py-y)}, 
+	 * i.e. the same direction as {@link ComplexImg#shift(int, int)} or {@link ArrayUtils#shift2D(double[], int, int, int, int)}.
+	 * Shifts are in the range [-size/2, size/2] for each dimension since shifts are circular.
+	 * <p>
+	 * The mean of each image is subtracted before multiplying with the window. 
+	 * 
+	 * @param a reference image
+	 * @param b shifted image
+	 * @param channel the channel to correlate
+	 * @param window the apodization window, one of {@link TiledFourierAnalysis#WINDOW_RECTANGULAR}, 
+	 * {@link TiledFourierAnalysis#WINDOW_HANN}, {@link TiledFourierAnalysis#WINDOW_BLACKMAN}
+	 * @param context (may be null) the context to use for the transforms, a temporary one is used if null
+	 * @return the shift of b relative to a
+	 * 
+	 * @throws IllegalArgumentException if the images are not of the same dimensions, 
+	 * if the specified channel is out of range ([0..3]) or is alpha (3) but one of the 
+	 * images does not have an alpha channel, or if the window is unknown
+	 * @throws IllegalStateException if the specified context is closed
+	 */
+	public static Shift phaseCorrelate(ColorImg a, ColorImg b, int channel, int window, FourierContext context) {
+		FourierContext.sanityCheckDimension(a.getDimension(), b.getDimension());
+		Fourier.sanityCheckForward(a, channel);
+		Fourier.sanityCheckForward(b, channel);
+		if(context == null){
+			try(FourierContext ctx = new FourierContext()){
+				return phaseCorrelate(a, b, channel, window, ctx);
+			}
+		}
+		final int w = a.getWidth(), h = a.getHeight();
+		final boolean parallel = (long)w*h >= PARALLEL_THRESHOLD;
+		final double[] wx = TiledFourierAnalysis.windowFunction(window, w);
+		final double[] wy = TiledFourierAnalysis.windowFunction(window, h);
+		// windowed copies, afterwards one of them holds the correlation surface
+		double[] dataA = windowed(a.getData()[channel], w, h, wx, wy, parallel);
+		double[] dataB = windowed(b.getData()[channel], w, h, wx, wy, parallel);
+		ColorImg imgA = new ColorImg(w, h, dataA, dataA, dataA, null);
+		ColorImg imgB = new ColorImg(w, h, dataB, dataB, dataB, null);
+		HalfComplexImg fourierA = context.transformHalf(imgA, ColorImg.channel_r, null);
+		HalfComplexImg fourierB = context.transformHalf(imgB, ColorImg.channel_r, null);
+		normalizedCrossPower(fourierB, fourierA, parallel);
+		context.inverseTransform(imgA, fourierB, ColorImg.channel_r);
+		return findPeak(dataA, w, h, parallel);
+	}
+
+	/** @return copy of data with mean removed and multiplied by the separable window */
+	private static double[] windowed(double[] data, int w, int h, double[] wx, double[] wy, boolean parallel){
+		final double mean = rows(h, parallel).mapToDouble(y->{
+			double sum = 0;
+			for(int i = y*w; i < (y+1)*w; i++){
+				sum += data[i];
+			}
+			return sum;
+		}).sum()/(w*h);
+		double[] windowed = new double[w*h];
+		rows(h, parallel).forEach(y->{
+			for(int x = 0; x < w; x++){
+				windowed[y*w+x] = (data[y*w+x]-mean)*wx[x]*wy[y];
+			}
+		});
+		return windowed;
+	}
+
+	/** 
+	 * replaces b by {@code b*conj(a)/|b*conj(a)|} in a single pass, 
+	 * zero where the product vanishes and at DC
+	 */
+	private static void normalizedCrossPower(HalfComplexImg b, HalfComplexImg a, boolean parallel){
+		final double[] ar = a.getDataReal(), ai = a.getDataImag();
+		final double[] br = b.getDataReal(), bi = b.getDataImag();
+		final int hw = b.getHalfWidth();
+		rows(b.getHeight(), parallel).forEach(y->{
+			for(int i = y*hw; i < (y+1)*hw; i++){
+				double re = br[i]*ar[i] + bi[i]*ai[i];
+				double im = bi[i]*ar[i] - br[i]*ai[i];
+				double magnitude = Math.sqrt(re*re+im*im);
+				double scale = magnitude > 0 ? 1/magnitude : 0;
+				br[i] = re*scale;
+				bi[i] = im*scale;
+			}
+		});
+		// the mean was removed, DC only holds round off errors
+		br[0] = bi[0] = 0;
+	}
+
+	/** locates the maximum of the correlation surface and refines it by parabola fitting */
+	private static Shift findPeak(double[] surface, int w, int h, boolean parallel){
+		final int peakIdx = rows(h, parallel).map(y->{
+			int max = y*w;
+			for(int i = y*w+1; i < (y+1)*w; i++){
+				if(surface[i] > surface[max]){
+					max = i;
+				}
+			}
+			return max;
+		}).boxed().max(Comparator.comparingDouble(i->surface[i])).get();
+		final int px = peakIdx%w, py = peakIdx/w;
+		final double peak = surface[peakIdx];
+		double x = px + parabolaOffset(
+				surface[py*w+(px+w-1)%w], peak, surface[py*w+(px+1)%w]);
+		double y = py + parabolaOffset(
+				surface[((py+h-1)%h)*w+px], peak, surface[((py+1)%h)*w+px]);
+		// circular shifts beyond half the size are negative shifts
+		if(x > w/2.0) x -= w;
+		if(y > h/2.0) y -= h;
+		return new Shift(x, y, peak);
+	}
+
+	/** @return position of the vertex of the parabola through (-1,left),(0,center),(1,right) */
+	private static double parabolaOffset(double left, double center, double right){
+		double denominator = left - 2*center + right;
+		if(!(denominator < 0)){
+			// no maximum (e.g. size of 1 or plateau)
+			return 0;
+		}
+		double offset = 0.5*(left-right)/denominator;
+		return Math.max(-0.5, Math.min(0.5, offset));
+	}
+
+	private static IntStream rows(int h, boolean parallel){
+		IntStream rows = IntStream.range(0, h);
+		return parallel ? rows.parallel():rows;
+	}
+
+}
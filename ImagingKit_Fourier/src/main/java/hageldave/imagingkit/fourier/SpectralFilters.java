@@ -0,0 +1,303 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * The SpectralFilters class provides frequency domain filters that are applied in place to 
+ * {@link ComplexImg}s, e.g. spectra obtained from {@link Fourier}.
+ * <p>
+ * Filters are defined in terms of the frequencies of {@link ComplexPixel#getXFrequency()} and
+ * {@link ComplexPixel#getYFrequency()} (cycles per image), and radially symmetric filters 
+ * in terms of the distance {@code r = sqrt(fx*fx + fy*fy)} to the DC component.
+ * The shift of the image is respected, filters can thus be applied regardless of where DC is located.
+ * <p>
+ * Masks are computed from precomputed 1D frequency tables and are applied directly to the 
+ * data arrays (without materializing a pending shift). Rows are processed in parallel for large images.
+ * 
+ * @author hageldave
+ */
+public class SpectralFilters {
+
+	/** number of values above which rows are processed in parallel */
+	static final int PARALLEL_THRESHOLD = 1<<15;
+
+	private SpectralFilters(){/* not constructable */}
+
+	/**
+	 * Ideal low pass filter. Keeps frequencies with {@code r <= cutoff}, sets all others to zero.
+	 * @param img spectrum to filter
+	 * @param cutoff radius of the pass band
+	 * @return the filtered image
+	 * @throws IllegalArgumentException if cutoff is negative
+	 */
+	public static ComplexImg lowPass(ComplexImg img, double cutoff){
+		assertNonNegative(cutoff, "cutoff");
+		return idealBand(img, -1, cutoff);
+	}
+
+	/**
+	 * Ideal high pass filter. Keeps frequencies with {@code r > cutoff}, sets all others to zero.
+	 * @param img spectrum to filter
+	 * @param cutoff radius of the stop band
+	 * @return the filtered image
+	 * @throws IllegalArgumentException if cutoff is negative
+	 */
+	public static ComplexImg highPass(ComplexImg img, double cutoff){
+		assertNonNegative(cutoff, "cutoff");
+		return idealBand(img, cutoff, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Ideal band pass filter. Keeps frequencies with {@code low < r <= high}, sets all others to zero.
+	 * @param img spectrum to filter
+	 * @param low inner radius of the pass band
+	 * @param high outer radius of the pass band
+	 * @return the filtered image
+	 * @throws IllegalArgumentException if low is negative or high is smaller than low
+	 */
+	public static ComplexImg bandPass(ComplexImg img, double low, double high){
+		assertNonNegative(low, "low");
+		if(high < low){
+			throw new IllegalArgumentException(String.format(
+					"high needs to be greater or equal to low. low=%f high=%f", low, high));
+		}
+		return idealBand(img, low, high);
+	}
+
+	/**
+	 * Gaussian low pass filter, multiplies by {@code exp(-r*r/(2*sigma*sigma))}.
+	 * The mask is separable and computed as product of 1D tables.
+	 * @param img spectrum to filter
+	 * @param sigma standard deviation of the Gaussian (in frequency domain)
+	 * @return the filtered image
+	 * @throws IllegalArgumentException if sigma is not positive
+	 */
+	public static ComplexImg gaussianLowPass(ComplexImg img, double sigma){
+		assertPositive(sigma, "sigma");
+		DoubleUnaryOperator gauss = f->Math.exp(-f*f/(2*sigma*sigma));
+		return applySeparable(img, gauss, gauss);
+	}
+
+	/**
+	 * Gaussian high pass filter, multiplies by {@code 1-exp(-r*r/(2*sigma*sigma))}.
+	 * @param img spectrum to filter
+	 * @param sigma standard deviation of the Gaussian (in frequency domain)
+	 * @return the filtered image
+	 * @throws IllegalArgumentException if sigma is not positive
+	 */
+	public static ComplexImg gaussianHighPass(ComplexImg img, double sigma){
+		assertPositive(sigma, "sigma");
+		final int w = img.getWidth(), h = img.getHeight();
+		final double[] gx = table(frequencies(w, img.getStoredXshift()), f->Math.exp(-f*f/(2*sigma*sigma)));
+		final double[] gy = table(frequencies(h, img.getStoredYshift()), f->Math.exp(-f*f/(2*sigma*sigma)));
+		final double[] real = img.getStoredReal(), imag = img.getStoredImag();
+		forEachRow(img, row->{
+			final double y = gy[row];
+			for(int i = row*w, x = 0; x < w; i++, x++){
+				final double m = 1-y*gx[x];
+				real[i] *= m;
+				imag[i] *= m;
+			}
+		});
+		return img;
+	}
+
+	/**
+	 * Butterworth low pass filter, multiplies by {@code 1/(1+(r/cutoff)^(2*order))}.
+	 * @param img spectrum to filter
+	 * @param cutoff radius at which the mask is 0.5
+	 * @param order of the filter, the higher the steeper the transition
+	 * @return the filtered image
+	 * @throws IllegalArgumentException if cutoff or order are not positive
+	 */
+	public static ComplexImg butterworthLowPass(ComplexImg img, double cutoff, int order){
+		return butterworth(img, cutoff, order, false);
+	}
+
+	/**
+	 * Butterworth high pass filter, multiplies by {@code 1-1/(1+(r/cutoff)^(2*order))}.
+	 * @param img spectrum to filter
+	 * @param cutoff radius at which the mask is 0.5
+	 * @param order of the filter, the higher the steeper the transition
+	 * @return the filtered image
+	 * @throws IllegalArgumentException if cutoff or order are not positive
+	 */
+	public static ComplexImg butterworthHighPass(ComplexImg img, double cutoff, int order){
+		return butterworth(img, cutoff, order, true);
+	}
+
+	/**
+	 * Multiplies the specified image by a radially symmetric mask given as function of the 
+	 * distance r to DC. The profile is evaluated once per row for each distinct |fx|.
+	 * @param img spectrum to filter
+	 * @param profile mask value as function of r
+	 * @return the filtered image
+	 */
+	public static ComplexImg applyRadial(ComplexImg img, DoubleUnaryOperator profile){
+		final int w = img.getWidth(), h = img.getHeight();
+		final int[] absFx = absolute(frequencies(w, img.getStoredXshift()));
+		final int[] fy = frequencies(h, img.getStoredYshift());
+		final int maxAbsFx = w/2;
+		final double[] real = img.getStoredReal(), imag = img.getStoredImag();
+		forEachRow(img, row->{
+			final double fy2 = (double)fy[row]*fy[row];
+			final double[] mask = new double[maxAbsFx+1];
+			for(int f = 0; f <= maxAbsFx; f++){
+				mask[f] = profile.applyAsDouble(Math.sqrt(f*(double)f+fy2));
+			}
+			for(int i = row*w, x = 0; x < w; i++, x++){
+				final double m = mask[absFx[x]];
+				real[i] *= m;
+				imag[i] *= m;
+			}
+		});
+		return img;
+	}
+
+	/**
+	 * Multiplies the specified image by a separable mask {@code xProfile(fx)*yProfile(fy)}.
+	 * Both profiles are evaluated once per frequency into 1D tables.
+	 * @param img spectrum to filter
+	 * @param xProfile mask factor as function of x frequency
+	 * @param yProfile mask factor as function of y frequency
+	 * @return the filtered image
+	 */
+	public static ComplexImg applySeparable(ComplexImg img, DoubleUnaryOperator xProfile, DoubleUnaryOperator yProfile){
+		final int w = img.getWidth();
+		final double[] mx = table(frequencies(w, img.getStoredXshift()), xProfile);
+		final double[] my = table(frequencies(img.getHeight(), img.getStoredYshift()), yProfile);
+		final double[] real = img.getStoredReal(), imag = img.getStoredImag();
+		forEachRow(img, row->{
+			final double y = my[row];
+			if(y == 0){
+				Arrays.fill(real, row*w, row*w+w, 0);
+				Arrays.fill(imag, row*w, row*w+w, 0);
+				return;
+			}
+			for(int i = row*w, x = 0; x < w; i++, x++){
+				final double m = y*mx[x];
+				real[i] *= m;
+				imag[i] *= m;
+			}
+		});
+		return img;
+	}
+
+	private static ComplexImg butterworth(ComplexImg img, double cutoff, int order, boolean highPass){
+		assertPositive(cutoff, "cutoff");
+		assertPositive(order, "order");
+		final int w = img.getWidth(), h = img.getHeight();
+		// squared frequencies relative to cutoff, so that (r/cutoff)^2 = fx2[x]+fy2[y]
+		final double c2 = cutoff*cutoff;
+		final double[] fx2 = table(frequencies(w, img.getStoredXshift()), f->f*f/c2);
+		final double[] fy2 = table(frequencies(h, img.getStoredYshift()), f->f*f/c2);
+		final double[] real = img.getStoredReal(), imag = img.getStoredImag();
+		forEachRow(img, row->{
+			final double y2 = fy2[row];
+			for(int i = row*w, x = 0; x < w; i++, x++){
+				final double q = y2+fx2[x];
+				double p = q;
+				for(int k = 1; k < order; k++){
+					p *= q;
+				}
+				// p may overflow to infinity for high orders, p/(1+p) would then be NaN
+				final double m = highPass ? 1/(1+1/p) : 1/(1+p);
+				real[i] *= m;
+				imag[i] *= m;
+			}
+		});
+		return img;
+	}
+
+	/** zeroes all values with r &lt;= low or r &gt; high */
+	private static ComplexImg idealBand(ComplexImg img, double low, double high){
+		final int w = img.getWidth(), h = img.getHeight();
+		final int[] absFx = absolute(frequencies(w, img.getStoredXshift()));
+		final int[] fy = frequencies(h, img.getStoredYshift());
+		final double[] real = img.getStoredReal(), imag = img.getStoredImag();
+		forEachRow(img, row->{
+			final double fy2 = (double)fy[row]*fy[row];
+			// pass band of this row in terms of |fx|: low^2 < fx^2+fy^2 <= high^2
+			final double highLimit = high*high-fy2;
+			final double lowLimit = low < 0 ? -1:low*low-fy2;
+			for(int i = row*w, x = 0; x < w; i++, x++){
+				final double fx2 = (double)absFx[x]*absFx[x];
+				if(fx2 > highLimit || fx2 <= lowLimit){
+					real[i] = 0;
+					imag[i] = 0;
+				}
+			}
+		});
+		return img;
+	}
+
+	/** executes the row action for each stored row, in parallel for large images */
+	private static void forEachRow(ComplexImg img, IntConsumer rowAction){
+		IntStream rows = IntStream.range(0, img.getHeight());
+		if(img.numValues() >= PARALLEL_THRESHOLD){
+			rows = rows.parallel();
+		}
+		rows.forEach(rowAction);
+		img.storedDataModified();
+	}
+
+	/** 
+	 * @return frequency for each index of an axis of length n whose stored layout is shifted 
+	 * by the specified shift, consistent with {@link ComplexPixel#getXFrequency()}
+	 */
+	static int[] frequencies(int n, int storedShift){
+		int[] freqs = new int[n];
+		for(int p = 0; p < n; p++){
+			freqs[p] = (((p-storedShift+n)%n + (n-1)/2) % n) - (n-1)/2;
+		}
+		return freqs;
+	}
+
+	private static int[] absolute(int[] values){
+		for(int i = 0; i < values.length; i++){
+			values[i] = Math.abs(values[i]);
+		}
+		return values;
+	}
+
+	private static double[] table(int[] freqs, DoubleUnaryOperator fn){
+		double[] table = new double[freqs.length];
+		for(int i = 0; i < freqs.length; i++){
+			table[i] = fn.applyAsDouble(freqs[i]);
+		}
+		return table;
+	}
+
+	private static void assertPositive(double v, String name){
+		if(!(v > 0)){
+			throw new IllegalArgumentException(String.format("%s needs to be positive. %s=%f", name, name, v));
+		}
+	}
+
+	private static void assertNonNegative(double v, String name){
+		if(!(v >= 0)){
+			throw new IllegalArgumentException(String.format("%s cannot be negative. %s=%f", name, name, v));
+		}
+	}
+
+}
@@ -0,0 +1,349 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.awt.image.BufferedImage;
+import java.util.stream.IntStream;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.Pixel;
+import hageldave.imagingkit.core.operations.ColorSpaceTransformation;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * The SpectrumRenderer class renders the spectrum of a {@link ComplexImg} for display 
+ * directly into an ARGB {@link Img} or {@link BufferedImage}.
+ * It produces the same kinds of images as {@link ComplexImg#getPowerSpectrumImg()},
+ * {@link ComplexImg#getPhaseSpectrumImg()} and {@link ComplexImg#getPowerPhaseSpectrumImg()}
+ * but is intended for repeated rendering, e.g. for a live preview of a spectrum.
+ * <p>
+ * Every pixel is computed in a single pass from the real and imaginary parts 
+ * (respecting the current shift of the image without materializing it), rows are processed in parallel.
+ * The power is log-scaled using a table based logarithm and normalized by a running maximum 
+ * that is carried over from previously rendered frames and decays towards the maximum of the current frame
+ * (see {@link #setMaxDecay(double)}). Values above the running maximum are clamped.
+ * The phase is mapped to a color from a precomputed lookup table of CIE L*a*b* colors
+ * which is indexed by a pseudo angle, so no trigonometric functions or color space conversions 
+ * are evaluated per pixel.
+ * <p>
+ * A SpectrumRenderer is not thread safe since it keeps the running maximum as state.
+ * 
+ * @author hageldave
+ */
+public class SpectrumRenderer {
+
+	/** mode for rendering the log-scaled power spectrum in grayscale */
+	public static final int MODE_POWER = 0;
+	/** mode for rendering the phase mapped to colors of constant luminance */
+	public static final int MODE_PHASE = 1;
+	/** mode for rendering power as luminance and phase as color */
+	public static final int MODE_POWER_PHASE = 2;
+
+	/** number of values above which rows are rendered in parallel */
+	static final int PARALLEL_THRESHOLD = 1<<15;
+
+	/** number of phase colors of the phase lookup table (power of 2) */
+	static final int PHASE_BINS = 1<<10;
+	/** number of phase colors per luminance level of the power phase lookup table (power of 2) */
+	static final int POWER_PHASE_BINS = 1<<8;
+	/** number of luminance levels of the power phase lookup table */
+	static final int LUMINANCE_LEVELS = 1<<8;
+
+	/** number of mantissa bits used to index the log lookup table */
+	private static final int LOG_BITS = 10;
+	private static final double[] LOG2_MANTISSA = new double[(1<<LOG_BITS)+1];
+	private static final int[] PHASE_LUT;
+	private static final int[] POWER_PHASE_LUT;
+	static {
+		for(int i = 0; i < LOG2_MANTISSA.length; i++){
+			LOG2_MANTISSA[i] = Math.log(1+i/(double)(1<<LOG_BITS))/Math.log(2);
+		}
+		PHASE_LUT = createColorLUT(1, PHASE_BINS);
+		POWER_PHASE_LUT = createColorLUT(LUMINANCE_LEVELS, POWER_PHASE_BINS);
+	}
+
+	private int mode;
+	private double maxDecay = 0.98;
+	/** running maximum of log2(1+power), 0 when unknown */
+	private double maxLogPower = 0;
+
+	/**
+	 * Creates a new SpectrumRenderer
+	 * @param mode one of {@link #MODE_POWER}, {@link #MODE_PHASE}, {@link #MODE_POWER_PHASE}
+	 * @throws IllegalArgumentException if mode is unknown
+	 */
+	public SpectrumRenderer(int mode) {
+		setMode(mode);
+	}
+
+	/**
+	 * Creates a new SpectrumRenderer in {@link #MODE_POWER_PHASE}.
+	 */
+	public SpectrumRenderer() {
+		this(MODE_POWER_PHASE);
+	}
+
+	/**
+	 * Sets the rendering mode
+	 * @param mode one of {@link #MODE_POWER}, {@link #MODE_PHASE}, {@link #MODE_POWER_PHASE}
+	 * @return this
+	 * @throws IllegalArgumentException if mode is unknown
+	 */
+	public SpectrumRenderer setMode(int mode) {
+		if(mode != MODE_POWER && mode != MODE_PHASE && mode != MODE_POWER_PHASE){
+			throw new IllegalArgumentException(String.format("unknown rendering mode %d", mode));
+		}
+		this.mode = mode;
+		return this;
+	}
+
+	/**
+	 * @return the rendering mode
+	 */
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets the factor by which the running maximum (of log-scaled power) decays per rendered frame.
+	 * After rendering a frame the running maximum becomes {@code max(frameMax, decay*runningMax)}.
+	 * A decay of 1 only lets the maximum grow, a decay of 0 normalizes each frame by the maximum 
+	 * of the previous frame. Default is 0.98.
+	 * @param decay in [0,1]
+	 * @return this
+	 * @throws IllegalArgumentException if decay is not in [0,1]
+	 */
+	public SpectrumRenderer setMaxDecay(double decay) {
+		if(!(decay >= 0 && decay <= 1)){
+			throw new IllegalArgumentException(String.format("decay has to be in [0,1]. decay=%f", decay));
+		}
+		this.maxDecay = decay;
+		return this;
+	}
+
+	/**
+	 * @return the factor by which the running maximum decays per frame
+	 */
+	public double getMaxDecay() {
+		return maxDecay;
+	}
+
+	/**
+	 * Returns the running maximum power that is used to normalize the next frame.
+	 * @return running maximum power, or 0 if nothing was rendered since the last reset
+	 */
+	public double getRunningMax() {
+		return Math.pow(2, maxLogPower)-1;
+	}
+
+	/**
+	 * Resets the running maximum, so that the next frame is normalized by its exact maximum power.
+	 * @return this
+	 */
+	public SpectrumRenderer resetRunningMax() {
+		this.maxLogPower = 0;
+		return this;
+	}
+
+	/**
+	 * Renders the spectrum of the specified image into the specified target.
+	 * @param img complex image to render
+	 * @param target ARGB image of same dimensions, may be null in which case a new Img is created
+	 * @return the target
+	 * @throws IllegalArgumentException if the target's dimensions do not match the image's
+	 */
+	public Img render(ComplexImg img, Img target) {
+		final int w = img.getWidth(), h = img.getHeight();
+		if(target == null){
+			target = new Img(w, h);
+		} else if(target.getWidth() != w || target.getHeight() != h){
+			throw new IllegalArgumentException(String.format(
+					"target dimensions do not match image dimensions. target:%dx%d image:%dx%d", 
+					target.getWidth(), target.getHeight(), w, h));
+		}
+		final double[] real = img.getStoredReal();
+		final double[] imag = img.getStoredImag();
+		final int dx = Math.floorMod(img.getStoredXshift()-img.getCurrentXshift(), w);
+		final int dy = Math.floorMod(img.getStoredYshift()-img.getCurrentYshift(), h);
+		final int[] out = target.getData();
+		final boolean parallel = (long)w*h >= PARALLEL_THRESHOLD;
+
+		double logMax = maxLogPower;
+		if(logMax <= 0 && mode != MODE_PHASE){
+			// no running maximum yet, normalize by the exact one
+			logMax = log2(1+maxPower(real, imag, h, w, parallel));
+		}
+		final double invLogMax = logMax > 0 ? 1/logMax : 0;
+		final int renderMode = mode;
+		IntStream rows = IntStream.range(0, h);
+		if(parallel){
+			rows = rows.parallel();
+		}
+		double frameMax = rows.mapToDouble(y->{
+			final int srcRow = (y+dy < h ? y+dy : y+dy-h)*w;
+			final int dstRow = y*w;
+			double max = renderSegment(renderMode, real, imag, srcRow+dx, out, dstRow, w-dx, invLogMax);
+			return Math.max(max, renderSegment(renderMode, real, imag, srcRow, out, dstRow+w-dx, dx, invLogMax));
+		}).max().orElse(0);
+		if(mode != MODE_PHASE){
+			maxLogPower = Math.max(log2(1+frameMax), maxDecay*logMax);
+		}
+		return target;
+	}
+
+	/**
+	 * Renders the spectrum of the specified image into the specified target.
+	 * If the target is backed by an int ARGB or RGB raster, pixels are written to it directly.
+	 * @param img complex image to render
+	 * @param target image of same dimensions, may be null in which case a new BufferedImage is created
+	 * @return the target
+	 * @throws IllegalArgumentException if the target's dimensions do not match the image's
+	 */
+	public BufferedImage render(ComplexImg img, BufferedImage target) {
+		if(target == null){
+			return render(img, (Img)null).getRemoteBufferedImage();
+		}
+		if(target.getType() == BufferedImage.TYPE_INT_ARGB || target.getType() == BufferedImage.TYPE_INT_RGB){
+			render(img, Img.createRemoteImg(target));
+		} else {
+			Img rendered = render(img, new Img(target.getWidth(), target.getHeight()));
+			target.setRGB(0, 0, rendered.getWidth(), rendered.getHeight(), rendered.getData(), 0, rendered.getWidth());
+		}
+		return target;
+	}
+
+	/** renders len stored values starting at src to out starting at dst, returns the maximum power */
+	private static double renderSegment(int mode, double[] real, double[] imag, int src, int[] out, int dst, int len, double invLogMax){
+		double max = 0;
+		final int end = src+len;
+		switch (mode) {
+		case MODE_POWER:
+			for(; src < end; src++, dst++){
+				final double r = real[src], i = imag[src];
+				final double p = r*r+i*i;
+				if(p > max) max = p;
+				final int v = (int)(normalize(log2(1+p)*invLogMax)*0xff+0.5);
+				out[dst] = Pixel.rgb_fast(v, v, v);
+			}
+			break;
+		case MODE_PHASE:
+			for(; src < end; src++, dst++){
+				final double r = real[src], i = imag[src];
+				final double p = r*r+i*i;
+				if(p > max) max = p;
+				out[dst] = PHASE_LUT[phaseBin(r, i, PHASE_BINS)];
+			}
+			break;
+		default:
+			for(; src < end; src++, dst++){
+				final double r = real[src], i = imag[src];
+				final double p = r*r+i*i;
+				if(p > max) max = p;
+				final int level = (int)(normalize(log2(1+p)*invLogMax)*(LUMINANCE_LEVELS-1)+0.5);
+				out[dst] = POWER_PHASE_LUT[level*POWER_PHASE_BINS + phaseBin(r, i, POWER_PHASE_BINS)];
+			}
+			break;
+		}
+		return max;
+	}
+
+	private static double maxPower(double[] real, double[] imag, int h, int w, boolean parallel){
+		IntStream rows = IntStream.range(0, h);
+		if(parallel){
+			rows = rows.parallel();
+		}
+		return rows.mapToDouble(y->{
+			double max = 0;
+			for(int i = y*w; i < (y+1)*w; i++){
+				final double p = real[i]*real[i]+imag[i]*imag[i];
+				if(p > max) max = p;
+			}
+			return max;
+		}).max().orElse(0);
+	}
+
+	/** clamps to [0,1], NaN is mapped to 1 */
+	private static double normalize(double v){
+		return v < 1 ? v : 1;
+	}
+
+	/**
+	 * Table based base 2 logarithm for x &gt;= 1 with linear interpolation between 
+	 * 2^{@value #LOG_BITS} mantissa samples (absolute error below 1e-6).
+	 * @param x value &gt;= 1
+	 * @return log2(x)
+	 */
+	static double log2(double x){
+		final long bits = Double.doubleToRawLongBits(x);
+		final int exponent = (int)(bits>>>52)-1023;
+		final int idx = (int)(bits>>>(52-LOG_BITS)) & ((1<<LOG_BITS)-1);
+		final double t = (bits & ((1L<<(52-LOG_BITS))-1)) * (1.0/(1L<<(52-LOG_BITS)));
+		final double l0 = LOG2_MANTISSA[idx];
+		return exponent + l0 + t*(LOG2_MANTISSA[idx+1]-l0);
+	}
+
+	/**
+	 * Returns the bin of the phase of the complex number r+ii. 
+	 * The bin is determined from the diamond angle in [0,4) which is monotonic in the 
+	 * polar angle but only requires a division.
+	 * @param r real part
+	 * @param i imaginary part
+	 * @param bins number of bins (power of 2)
+	 * @return bin in [0,bins)
+	 */
+	static int phaseBin(double r, double i, int bins){
+		double diamond;
+		if(i >= 0){
+			diamond = r >= 0 ? i/(r+i) : 1-r/(i-r);
+		} else {
+			diamond = r < 0 ? 2-i/(-r-i) : 3+r/(r-i);
+		}
+		// 0/0 is NaN which is cast to bin 0 (phase of zero is 0), diamond of 4 wraps around to 0
+		return ((int)(diamond*(bins/4))) & (bins-1);
+	}
+
+	/** @return polar angle in [0,2pi) of the center of the specified phase bin */
+	static double binCenterAngle(int bin, int bins){
+		double diamond = (bin+0.5)*4/bins;
+		int quadrant = (int)diamond;
+		double f = diamond-quadrant;
+		return quadrant*Math.PI/2 + Math.atan2(f, 1-f);
+	}
+
+	/** 
+	 * creates lookup table of ARGB colors with power levels in rows and phase bins in columns.
+	 * Colors are chosen as in {@link ComplexImg#getPowerPhaseSpectrumImg()}, a single level
+	 * results in the colors of {@link ComplexImg#getPhaseSpectrumImg()}.
+	 */
+	private static int[] createColorLUT(int levels, int bins){
+		ColorImg lab = new ColorImg(bins, levels, false);
+		lab.forEach(px->{
+			double phase = binCenterAngle(px.getX(), bins);
+			double normLogPow = levels > 1 ? px.getY()/(levels-1.0) : 1;
+			double radius = 0.2*normLogPow;
+			px.setValue(0, 0.74*normLogPow);
+			px.setValue(1, 0.5+radius*Math.cos(phase));
+			px.setValue(2, 0.5+radius*Math.sin(phase));
+		});
+		lab.forEach(ColorSpaceTransformation.LAB_2_RGB);
+		int[] lut = new int[bins*levels];
+		lab.forEach(px->lut[px.getIndex()] = Pixel.rgb_fromNormalized(px.getValue(0), px.getValue(1), px.getValue(2)));
+		return lut;
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * The TiledConvolution computes FFT based convolutions and correlations of large images 
+ * block by block (overlap-save) instead of transforming the whole image at once.
+ * Each block is transformed with a fixed FFT size, so that memory requirements only depend on the
+ * block size and the number of blocks processed in parallel, not on the size of the image.
+ * The kernel spectrum is computed once per convolution and shared by all blocks.
+ * <p>
+ * The result is the same as with {@link Fourier#convolve(ColorImg, ColorImg, int, int)} 
+ * (up to numerical precision).
+ * A TiledConvolution holds a {@link FourierContext} per parallel worker and has to be closed
+ * when no longer needed.
+ * <pre>
+ * {@code
+ * try(TiledConvolution conv = new TiledConvolution()){
+ *     ColorImg blurred = conv.convolve(hugeImg, gaussKernel, ColorImg.channel_r, ColorImg.boundary_mode_mirror, null);
+ * }
+ * }
+ * </pre>
+ * 
+ * @author hageldave
+ */
+public class TiledConvolution implements AutoCloseable {
+
+	/** default FFT size of a block */
+	public static final int DEFAULT_BLOCK_SIZE = 512;
+
+	private final int blockSize;
+	private final FourierContext[] contexts;
+
+	/**
+	 * Creates a new TiledConvolution with {@link #DEFAULT_BLOCK_SIZE} and as many 
+	 * parallel workers as there are available processors.
+	 */
+	public TiledConvolution() {
+		this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new TiledConvolution.
+	 * @param blockSize the size of the (square) blocks that are transformed. 
+	 * Each block yields (blockSize-kernelSize+1) result values per dimension, so blocks have to be 
+	 * considerably larger than kernels for efficiency. The block size is increased to at least
+	 * twice the kernel size when necessary.
+	 * @param parallelism number of blocks that are processed in parallel
+	 * @throws IllegalArgumentException if block size or parallelism are not positive
+	 */
+	public TiledConvolution(int blockSize, int parallelism) {
+		ArrayUtils.assertPositive(blockSize, ()->"specified block size is not positive. blockSize="+blockSize);
+		ArrayUtils.assertPositive(parallelism, ()->"specified parallelism is not positive. parallelism="+parallelism);
+		this.blockSize = blockSize;
+		this.contexts = new FourierContext[parallelism];
+		for(int i = 0; i < parallelism; i++){
+			contexts[i] = new FourierContext();
+		}
+	}
+
+	/**
+	 * Convolves the specified channel of the specified image with the same channel of the specified kernel.
+	 * See {@link Fourier#convolve(ColorImg, ColorImg, int, int)}.
+	 * 
+	 * @param img to be convolved
+	 * @param kernel to convolve with, centered at (width/2, height/2)
+	 * @param channel the channel to convolve
+	 * @param boundaryMode how to handle values beyond the image borders, one of the boundary modes
+	 * of {@link ColorImg}, e.g. {@link ColorImg#boundary_mode_mirror}, or any other value to use as constant.
+	 * @param target (may be null) image where the result is stored to (in the same channel), 
+	 * must not be the same as img
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but one of the images does not have an alpha channel, if target does not match dimensions of img,
+	 * or if target is img
+	 * @throws IllegalStateException if this TiledConvolution is closed
+	 */
+	public ColorImg convolve(ColorImg img, ColorImg kernel, int channel, int boundaryMode, ColorImg target) {
+		return convolve(false, img, kernel, channel, boundaryMode, target);
+	}
+
+	/**
+	 * Cross correlates the specified channel of the specified image with the same channel of the specified kernel.
+	 * See {@link Fourier#correlate(ColorImg, ColorImg, int, int)}.
+	 * 
+	 * @param img to be correlated
+	 * @param kernel to correlate with, centered at (width/2, height/2)
+	 * @param channel the channel to correlate
+	 * @param boundaryMode how to handle values beyond the image borders, one of the boundary modes
+	 * of {@link ColorImg}, e.g. {@link ColorImg#boundary_mode_mirror}, or any other value to use as constant.
+	 * @param target (may be null) image where the result is stored to (in the same channel),
+	 * must not be the same as img
+	 * @return the target img or a new ColorImg if target was null
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but one of the images does not have an alpha channel, if target does not match dimensions of img,
+	 * or if target is img
+	 * @throws IllegalStateException if this TiledConvolution is closed
+	 */
+	public ColorImg correlate(ColorImg img, ColorImg kernel, int channel, int boundaryMode, ColorImg target) {
+		return convolve(true, img, kernel, channel, boundaryMode, target);
+	}
+
+	private ColorImg convolve(boolean correlate, ColorImg img, ColorImg kernel, int channel, int boundaryMode, ColorImg target) {
+		if(target == img){
+			throw new IllegalArgumentException("Target cannot be the convolved image, blocks are read with overlap.");
+		}
+		target = FourierContext.sanityCheckConvolution(img, kernel, channel, target);
+		final int w = img.getWidth(), h = img.getHeight();
+		final int kw = kernel.getWidth(), kh = kernel.getHeight();
+		// FFT size of blocks, not larger than needed for the whole image
+		final int pw = Math.min(Fourier.nextFastSize(Math.max(blockSize, 2*kw)), Fourier.nextFastSize(w+kw-1));
+		final int ph = Math.min(Fourier.nextFastSize(Math.max(blockSize, 2*kh)), Fourier.nextFastSize(h+kh-1));
+		// size of the result of a block
+		final int bw = pw-kw+1;
+		final int bh = ph-kh+1;
+		final int blocksX = (w+bw-1)/bw;
+		final int numBlocks = blocksX*((h+bh-1)/bh);
+		final HalfComplexImg kernelSpectrum = contexts[0].getKernelSpectrum(kernel, channel, pw, ph);
+		final double[] dst = target.getData()[channel];
+
+		AtomicInteger nextBlock = new AtomicInteger();
+		IntStream.range(0, Math.min(contexts.length, numBlocks)).parallel().forEach(worker->{
+			FourierContext ctx = contexts[worker];
+			// buffers of this worker
+			ColorImg padded = new ColorImg(pw, ph, false);
+			HalfComplexImg spectrum = new HalfComplexImg(pw, ph);
+			for(int block = nextBlock.getAndIncrement(); block < numBlocks; block = nextBlock.getAndIncrement()){
+				int x0 = (block%blocksX)*bw;
+				int y0 = (block/blocksX)*bh;
+				ctx.convolveBlock(correlate, img, channel, boundaryMode, kw, kh, kernelSpectrum, 
+						x0, y0, Math.min(bw, w-x0), Math.min(bh, h-y0), padded, spectrum, dst);
+			}
+		});
+		return target;
+	}
+
+	/**
+	 * @return the block size of this TiledConvolution
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the number of blocks processed in parallel
+	 */
+	public int getParallelism() {
+		return contexts.length;
+	}
+
+	/**
+	 * Closes the {@link FourierContext}s of this TiledConvolution, freeing native resources.
+	 */
+	@Override
+	public void close() {
+		for(FourierContext ctx: contexts){
+			ctx.close();
+		}
+	}
+
+}
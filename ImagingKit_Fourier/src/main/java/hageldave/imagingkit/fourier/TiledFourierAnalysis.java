@@ -0,0 +1,410 @@
+/*
+ * ImagingKit-Fourier - Copyright 2018 David Haegele
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package hageldave.imagingkit.fourier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+/**
+ * The TiledFourierAnalysis computes the spectra of (overlapping) tiles of an image for 
+ * local frequency analysis, e.g. texture classification or focus measures (short-time Fourier transform).
+ * Tiles of fixed size are placed at a fixed stride, multiplied by an apodization window
+ * (see {@link #WINDOW_HANN}, {@link #WINDOW_BLACKMAN}) and Fourier transformed.
+ * Only tiles that lie completely inside the image are analyzed.
+ * <p>
+ * Tiles are processed in parallel in batches, each worker reusing its tile and spectrum buffers.
+ * Large tiles are transformed by FFTW in a single batched transform per batch using a 
+ * {@link FourierContext} per worker, so that the plan is only created once.
+ * Small tiles (or all tiles if an engine was set with {@link Fourier#setEngine(FFTEngine)}) 
+ * are transformed one by one by the engine {@link Fourier} would use for their size.
+ * A TiledFourierAnalysis has to be closed when no longer needed.
+ * <pre>
+ * {@code
+ * try(TiledFourierAnalysis analysis = new TiledFourierAnalysis(32, 16, TiledFourierAnalysis.WINDOW_HANN)){
+ *     double[][] energies = analysis.bandEnergies(img, ColorImg.channel_r, 0.0, 0.1, 0.25, 0.75);
+ * }
+ * }
+ * </pre>
+ * 
+ * @author hageldave
+ */
+public class TiledFourierAnalysis implements AutoCloseable {
+
+	/** rectangular window, i.e. no apodization */
+	public static final int WINDOW_RECTANGULAR = 0;
+	/** Hann window {@code 0.5-0.5cos(2pi n/N)} */
+	public static final int WINDOW_HANN = 1;
+	/** Blackman window {@code 0.42-0.5cos(2pi n/N)+0.08cos(4pi n/N)} */
+	public static final int WINDOW_BLACKMAN = 2;
+
+	/** number of tiles that are transformed together */
+	static final int BATCH_SIZE = 16;
+
+	/**
+	 * Consumer of tile spectra, see {@link TiledFourierAnalysis#forEachTile(ColorImg, int, TileConsumer)}
+	 */
+	@FunctionalInterface
+	public static interface TileConsumer {
+		/**
+		 * Accepts the spectrum of a tile
+		 * @param tileX horizontal index of the tile (tile starts at pixel tileX*strideX)
+		 * @param tileY vertical index of the tile (tile starts at pixel tileY*strideY)
+		 * @param spectrum of the windowed tile (DC in the corner), only valid during this call
+		 */
+		public void accept(int tileX, int tileY, ComplexImg spectrum);
+	}
+
+	private final int tileWidth, tileHeight;
+	private final int strideX, strideY;
+	private final int window;
+	private final double[] windowValues;
+	private final int parallelism;
+	/** contexts of workers for batched transforms, null when transforming tile by tile */
+	private final FourierContext[] contexts;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new TiledFourierAnalysis for square tiles with as many 
+	 * parallel workers as there are available processors.
+	 * @param tileSize width and height of the tiles
+	 * @param stride distance between tiles in both directions
+	 * @param window the apodization window, one of {@link #WINDOW_RECTANGULAR}, {@link #WINDOW_HANN}, {@link #WINDOW_BLACKMAN}
+	 * @throws IllegalArgumentException if tile size or stride are not positive or window is unknown
+	 */
+	public TiledFourierAnalysis(int tileSize, int stride, int window) {
+		this(tileSize, tileSize, stride, stride, window, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new TiledFourierAnalysis.
+	 * @param tileWidth width of the tiles
+	 * @param tileHeight height of the tiles
+	 * @param strideX horizontal distance between tiles
+	 * @param strideY vertical distance between tiles
+	 * @param window the apodization window, one of {@link #WINDOW_RECTANGULAR}, {@link #WINDOW_HANN}, {@link #WINDOW_BLACKMAN}
+	 * @param parallelism number of batches processed in parallel
+	 * @throws IllegalArgumentException if tile sizes, strides or parallelism are not positive or window is unknown
+	 */
+	public TiledFourierAnalysis(int tileWidth, int tileHeight, int strideX, int strideY, int window, int parallelism) {
+		ArrayUtils.assertPositive(tileWidth, ()->"specified tile width is not positive. tileWidth="+tileWidth);
+		ArrayUtils.assertPositive(tileHeight, ()->"specified tile height is not positive. tileHeight="+tileHeight);
+		ArrayUtils.assertPositive(strideX, ()->"specified stride is not positive. strideX="+strideX);
+		ArrayUtils.assertPositive(strideY, ()->"specified stride is not positive. strideY="+strideY);
+		ArrayUtils.assertPositive(parallelism, ()->"specified parallelism is not positive. parallelism="+parallelism);
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.strideX = strideX;
+		this.strideY = strideY;
+		this.window = window;
+		this.parallelism = parallelism;
+		double[] wx = windowFunction(window, tileWidth);
+		double[] wy = windowFunction(window, tileHeight);
+		this.windowValues = new double[tileWidth*tileHeight];
+		for(int y = 0; y < tileHeight; y++){
+			for(int x = 0; x < tileWidth; x++){
+				windowValues[y*tileWidth+x] = wx[x]*wy[y];
+			}
+		}
+		boolean batched = Fourier.getEngine() == null 
+				&& tileWidth*tileHeight > Fourier.SMALL_TRANSFORM_SIZE 
+				&& FFTWEngine.isAvailable();
+		if(batched){
+			this.contexts = new FourierContext[parallelism];
+			for(int i = 0; i < parallelism; i++){
+				contexts[i] = new FourierContext();
+			}
+		} else {
+			this.contexts = null;
+		}
+	}
+
+	/**
+	 * Returns the values of the specified window function for a tile of the specified size.
+	 * The windows are periodic (DFT-even), i.e. the n+1 th value would be the first again.
+	 * @param window one of {@link #WINDOW_RECTANGULAR}, {@link #WINDOW_HANN}, {@link #WINDOW_BLACKMAN}
+	 * @param n number of values
+	 * @return window values
+	 * @throws IllegalArgumentException if window is unknown
+	 */
+	public static double[] windowFunction(int window, int n){
+		double[] values = new double[n];
+		for(int i = 0; i < n; i++){
+			double t = 2*Math.PI*i/n;
+			switch (window) {
+			case WINDOW_RECTANGULAR: values[i] = 1; break;
+			case WINDOW_HANN: values[i] = 0.5-0.5*Math.cos(t); break;
+			case WINDOW_BLACKMAN: values[i] = 0.42-0.5*Math.cos(t)+0.08*Math.cos(2*t); break;
+			default: throw new IllegalArgumentException(String.format(
+					"Window can be WINDOW_RECTANGULAR(0), WINDOW_HANN(1) or WINDOW_BLACKMAN(2). But window is %d", window));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Calls the specified consumer with the spectrum of each tile of the specified channel.
+	 * The consumer is called concurrently from multiple threads (in no particular order) 
+	 * and receives spectrum buffers that are reused for other tiles afterwards, 
+	 * so it must not keep references to them.
+	 * @param img to be analyzed
+	 * @param channel the channel to analyze
+	 * @param action to be performed for each tile spectrum
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the image does not have an alpha channel, or if the image is smaller than a tile
+	 * @throws IllegalStateException if this TiledFourierAnalysis is closed
+	 */
+	public void forEachTile(ColorImg img, int channel, TileConsumer action) {
+		if(closed){
+			throw new IllegalStateException("TiledFourierAnalysis is closed.");
+		}
+		Fourier.sanityCheckForward(img, channel);
+		final int w = img.getWidth();
+		final int tilesX = getNumTilesX(w);
+		final int numTiles = tilesX*getNumTilesY(img.getHeight());
+		final int numBatches = (numTiles+BATCH_SIZE-1)/BATCH_SIZE;
+		final double[] src = img.getData()[channel];
+		final int tw = tileWidth, th = tileHeight;
+
+		AtomicInteger nextBatch = new AtomicInteger();
+		IntStream.range(0, Math.min(parallelism, numBatches)).parallel().forEach(worker->{
+			// buffers of this worker
+			ColorImg[] tiles = new ColorImg[BATCH_SIZE];
+			ComplexImg[] spectra = new ComplexImg[BATCH_SIZE];
+			for(int i = 0; i < BATCH_SIZE; i++){
+				double[] data = new double[tw*th];
+				tiles[i] = new ColorImg(tw, th, data, data, data, null);
+				spectra[i] = new ComplexImg(tw, th);
+			}
+			for(int batch = nextBatch.getAndIncrement(); batch < numBatches; batch = nextBatch.getAndIncrement()){
+				final int firstTile = batch*BATCH_SIZE;
+				final int count = Math.min(BATCH_SIZE, numTiles-firstTile);
+				for(int i = 0; i < count; i++){
+					int tile = firstTile+i;
+					copyWindowedTile(src, w, (tile%tilesX)*strideX, (tile/tilesX)*strideY, tiles[i].getData()[0]);
+				}
+				if(contexts != null){
+					// always transform full batches so that a single plan is used
+					contexts[worker].transformBatch(tiles, ColorImg.channel_r, spectra);
+				} else {
+					FFTEngine engine = Fourier.engineFor(tw*th);
+					for(int i = 0; i < count; i++){
+						engine.transformReal(tiles[i].getData()[0], spectra[i].getStoredReal(), spectra[i].getStoredImag(), tw, th, FFTEngine.AXES_XY);
+						spectra[i].storedDataModified();
+					}
+				}
+				for(int i = 0; i < count; i++){
+					int tile = firstTile+i;
+					action.accept(tile%tilesX, tile/tilesX, spectra[i]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Fourier transforms each tile of the specified channel.
+	 * @param img to be analyzed
+	 * @param channel the channel to analyze
+	 * @return spectra of the tiles (DC in the corner) in row major order of tiles, 
+	 * i.e. the spectrum of tile (tileX,tileY) is at index {@code tileY*getNumTilesX(img.getWidth())+tileX}
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the image does not have an alpha channel, or if the image is smaller than a tile
+	 * @throws IllegalStateException if this TiledFourierAnalysis is closed
+	 */
+	public ComplexImg[] transformTiles(ColorImg img, int channel) {
+		final int tilesX = getNumTilesX(img.getWidth());
+		ComplexImg[] spectra = new ComplexImg[tilesX*getNumTilesY(img.getHeight())];
+		forEachTile(img, channel, (tileX, tileY, spectrum)->{
+			spectra[tileY*tilesX+tileX] = spectrum.copy();
+		});
+		return spectra;
+	}
+
+	/**
+	 * Computes the spectral energy of each tile of the specified channel within the specified frequency bands.
+	 * Band b contains the frequencies with radius {@code bandEdges[b] < r <= bandEdges[b+1]} where 
+	 * r is given in cycles per pixel, {@code r = sqrt((fx/tileWidth)^2 + (fy/tileHeight)^2)} 
+	 * (the Nyquist frequency is 0.5). The DC component (r=0) can be included by using a negative first edge.
+	 * The energy is the sum of the power of the frequencies in a band divided by the number of 
+	 * values of a tile, so that the energies of all frequencies sum up to the energy of the windowed tile.
+	 * @param img to be analyzed
+	 * @param channel the channel to analyze
+	 * @param bandEdges ascending edges of the bands (at least two)
+	 * @return energies in the bands for each tile, indexed by [tile][band] with tiles in row major order
+	 * 
+	 * @throws IllegalArgumentException if the specified channel is out of range ([0..3]) or is alpha (3)
+	 * but the image does not have an alpha channel, if the image is smaller than a tile, 
+	 * or if less than two band edges are specified or they are not ascending
+	 * @throws IllegalStateException if this TiledFourierAnalysis is closed
+	 */
+	public double[][] bandEnergies(ColorImg img, int channel, double... bandEdges) {
+		if(bandEdges.length < 2){
+			throw new IllegalArgumentException(String.format(
+					"At least two band edges are required, but %d were specified", bandEdges.length));
+		}
+		for(int i = 1; i < bandEdges.length; i++){
+			if(!(bandEdges[i-1] <= bandEdges[i])){
+				throw new IllegalArgumentException(String.format(
+						"Band edges need to be ascending. edge[%d]=%f edge[%d]=%f", i-1, bandEdges[i-1], i, bandEdges[i]));
+			}
+		}
+		final int numBands = bandEdges.length-1;
+		final int[] bandOfFrequency = bandTable(bandEdges);
+		final int tilesX = getNumTilesX(img.getWidth());
+		final double[][] energies = new double[tilesX*getNumTilesY(img.getHeight())][numBands];
+		final double norm = 1.0/(tileWidth*tileHeight);
+		forEachTile(img, channel, (tileX, tileY, spectrum)->{
+			double[] energy = energies[tileY*tilesX+tileX];
+			double[] real = spectrum.getDataReal();
+			double[] imag = spectrum.getDataImag();
+			for(int i = 0; i < bandOfFrequency.length; i++){
+				int band = bandOfFrequency[i];
+				if(band >= 0){
+					energy[band] += real[i]*real[i]+imag[i]*imag[i];
+				}
+			}
+			for(int b = 0; b < numBands; b++){
+				energy[b] *= norm;
+			}
+		});
+		return energies;
+	}
+
+	/** @return band index for each (unshifted) frequency of a tile spectrum, -1 if in no band */
+	private int[] bandTable(double[] bandEdges){
+		int[] bands = new int[tileWidth*tileHeight];
+		for(int y = 0; y < tileHeight; y++){
+			double fy = frequency(y, tileHeight);
+			for(int x = 0; x < tileWidth; x++){
+				double fx = frequency(x, tileWidth);
+				double r = Math.sqrt(fx*fx+fy*fy);
+				int band = -1;
+				for(int b = 0; b < bandEdges.length-1; b++){
+					if(bandEdges[b] < r && r <= bandEdges[b+1]){
+						band = b;
+						break;
+					}
+				}
+				bands[y*tileWidth+x] = band;
+			}
+		}
+		return bands;
+	}
+
+	/** @return frequency in cycles per pixel of the specified unshifted spectrum index */
+	private static double frequency(int u, int n){
+		return (((u+(n-1)/2)%n)-(n-1)/2)/(double)n;
+	}
+
+	private void copyWindowedTile(double[] src, int w, int x0, int y0, double[] tile){
+		for(int y = 0; y < tileHeight; y++){
+			int srcRow = (y0+y)*w+x0;
+			int row = y*tileWidth;
+			for(int x = 0; x < tileWidth; x++){
+				tile[row+x] = src[srcRow+x]*windowValues[row+x];
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of tiles in horizontal direction for an image of the specified width
+	 * @param width of the image
+	 * @return number of tiles that fit into the width
+	 * @throws IllegalArgumentException if the width is smaller than the tile width
+	 */
+	public int getNumTilesX(int width) {
+		return numTiles(width, tileWidth, strideX);
+	}
+
+	/**
+	 * Returns the number of tiles in vertical direction for an image of the specified height
+	 * @param height of the image
+	 * @return number of tiles that fit into the height
+	 * @throws IllegalArgumentException if the height is smaller than the tile height
+	 */
+	public int getNumTilesY(int height) {
+		return numTiles(height, tileHeight, strideY);
+	}
+
+	private static int numTiles(int size, int tileSize, int stride){
+		if(size < tileSize){
+			throw new IllegalArgumentException(String.format(
+					"The image is smaller than a tile. image size:%d tile size:%d", size, tileSize));
+		}
+		return (size-tileSize)/stride+1;
+	}
+
+	/**
+	 * @return the width of the tiles
+	 */
+	public int getTileWidth() {
+		return tileWidth;
+	}
+
+	/**
+	 * @return the height of the tiles
+	 */
+	public int getTileHeight() {
+		return tileHeight;
+	}
+
+	/**
+	 * @return the horizontal distance between tiles
+	 */
+	public int getStrideX() {
+		return strideX;
+	}
+
+	/**
+	 * @return the vertical distance between tiles
+	 */
+	public int getStrideY() {
+		return strideY;
+	}
+
+	/**
+	 * @return the apodization window
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * @return the number of batches processed in parallel
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Closes the {@link FourierContext}s of this TiledFourierAnalysis (if any), freeing native resources.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if(contexts != null){
+			for(FourierContext ctx: contexts){
+				ctx.close();
+			}
+		}
+	}
+
+}
@@ -13,6 +13,29 @@ public class ArrayUtilsTest {
 				testShift2Dwith(w, h);
 		
 	}
+	
+	@Test
+	public void testShift2DLarge(){
+		// sizes above the parallel threshold and wider than a column stripe
+		int[][] sizes = {{512,256},{513,255},{5000,20},{7,10000}};
+		for(int[] size: sizes){
+			int w=size[0], h=size[1];
+			double[] sourceArray = new double[w*h];
+			initArray(sourceArray);
+			int[][] shifts = {{w/2,h/2},{-(w/2),h/2},{1,0},{0,-1},{w/3,h-3},{-w+5,7},{3*w+1,-2*h-1}};
+			for(int[] shift: shifts){
+				double[] array = sourceArray.clone();
+				ArrayUtils.shift2D(array, w, h, shift[0], shift[1]);
+				for(int i = 0; i < sourceArray.length; i++){
+					int j = shiftedIndex(i, w, h, shift[0], shift[1]);
+					if(sourceArray[i] != array[j]){
+						String msg = String.format("error at w=%d h=%d, sx=%d sy=%d index=%d", w,h, shift[0],shift[1], i);
+						assertEquals(msg, sourceArray[i], array[j], 0);
+					}
+				}
+			}
+		}
+	}
 			
 	static void testShift2Dwith(final int w, final int h){
 		double[] sourceArray = new double[w*h];
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.awt.Dimension;
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 
@@ -11,6 +12,138 @@ import hageldave.imagingkit.core.scientific.ColorImg;
 
 public class ComplexImgTest {
 
+	@Test
+	public void testLazyShift() {
+		ComplexImg img = new ComplexImg(7, 5);
+		img.forEach(px->px.setComplex(px.getIndex(), -px.getIndex()));
+		ComplexImg reference = img.copy();
+		// shifts are pending until data arrays are accessed
+		img.shift(3, 4).shift(-1, 2);
+		assertEquals(2, img.getCurrentXshift());
+		assertEquals(1, img.getCurrentYshift());
+		assertEquals(0, img.getDCreal(), 0);
+		img.forEach(px->{
+			int x = (px.getX()+7-2)%7, y = (px.getY()+5-1)%5;
+			assertEquals(reference.getValueR(x, y), px.real(), 0);
+			assertEquals(reference.getValueI(x, y), img.getValueI(px.getX(), px.getY()), 0);
+		});
+		img.setComplex(2, 1, 100, 200);
+		assertEquals(100, img.getDCreal(), 0);
+		assertEquals(0, img.getPixel(2, 1).getXFrequency());
+		// materialized arrays are rotated accordingly
+		double[] real = img.getDataReal();
+		assertEquals(100, real[1*7+2], 0);
+		assertEquals(reference.getValueR(5, 4), real[0], 0);
+		// shifting back does not need to move data again
+		img.resetShift();
+		assertEquals(100, img.getValueR(0, 0), 0);
+		assertEquals(200, img.getValueI(0, 0), 0);
+		img.materializeShift();
+		reference.setComplex(0, 0, 100, 200);
+		assertArrayEquals(reference.getDataReal(), img.getDataReal(), 0);
+		assertArrayEquals(reference.getDataImag(), img.getDataImag(), 0);
+	}
+
+	@Test
+	public void testConcurrentShiftedReads() {
+		ComplexImg img = new ComplexImg(1024, 1024);
+		img.forEach(true, px->px.setComplex(px.getIndex(), px.getX()-px.getY()));
+		img.shiftCornerToCenter();
+		ComplexImg reference = img.copy().materializeShift();
+		// parallel reads with boundary mode do not rearrange the data
+		ComplexImg out = new ComplexImg(1024, 1024);
+		out.forEach(true, px->{
+			int x = px.getX()-1, y = px.getY();
+			px.setComplex(
+					img.getValueR(x, y, ColorImg.boundary_mode_zero), 
+					img.getValueI(x, y, ColorImg.boundary_mode_repeat_image));
+		});
+		out.forEach(px->{
+			int x = px.getX()-1, y = px.getY();
+			assertEquals(x < 0 ? 0:reference.getValueR(x, y), px.real(), 0);
+			assertEquals(reference.getValueI((x+1024)%1024, y), px.imag(), 0);
+		});
+		assertEquals(0, img.getStoredXshift());
+		assertEquals(reference.getIndexOfMaxValue(ComplexImg.CHANNEL_REAL), img.getIndexOfMaxValue(ComplexImg.CHANNEL_REAL));
+		assertEquals(reference.getIndexOfMinValue(ComplexImg.CHANNEL_IMAG), img.getIndexOfMinValue(ComplexImg.CHANNEL_IMAG));
+		assertEquals(reference.getMaxValue(ComplexImg.CHANNEL_POWER), img.getMaxValue(ComplexImg.CHANNEL_POWER), 0);
+		// concurrent access to the data arrays rearranges only once
+		IntStream.range(0, 64).parallel().forEach(i->img.getDataReal());
+		assertArrayEquals(reference.getDataReal(), img.getDataReal(), 0);
+		assertArrayEquals(reference.getDataImag(), img.getDataImag(), 0);
+	}
+
+	@Test
+	public void testLazyPower() {
+		ComplexImg img = new ComplexImg(300, 300);
+		img.forEach(px->px.setComplex(px.getX(), px.getY()));
+		img.enableSynchronizePowerSpectrum(true);
+		// power is computed when read
+		assertEquals(3*3+4*4, img.getValueP(3, 4), 0);
+		// only modified rows are recomputed
+		img.setComplex(7, 9, 2, 1);
+		img.getDataPower()[20*300+5] = -1;
+		assertEquals(5, img.getValueP(7, 9), 0);
+		assertEquals(-1, img.getValueP(5, 20), 0);
+		// modifications in parallel are all noticed
+		img.forEach(true, px->px.setImag(0));
+		for(int y = 0; y < 300; y++)
+			for(int x = 0; x < 300; x++)
+				assertEquals(img.computePower(x, y), img.getValueP(x, y), 0);
+		// power follows shifts
+		img.shift(10, 20);
+		assertEquals(7*7, img.getValueP(17, 20), 0);
+		assertEquals(7*7, img.getPixel(17, 20).power(), 0);
+		img.resetShift();
+		img.fill(ComplexImg.CHANNEL_REAL, 3);
+		for(double v: img.getDataPower())
+			assertEquals(9, v, 0);
+		// copies keep pending rows
+		img.setValueI(1, 1, 4);
+		assertEquals(25, img.copy().getValueP(1, 1), 0);
+		assertEquals(25, img.getValueP(1, 1), 0);
+		// not synchronized power is not updated
+		img.enableSynchronizePowerSpectrum(false);
+		img.setValueI(1, 1, 0);
+		assertEquals(25, img.getValueP(1, 1), 0);
+	}
+
+	@Test
+	public void testConcurrentPower() {
+		ComplexImg img = new ComplexImg(512, 512);
+		img.enableSynchronizePowerSpectrum(true);
+		// power read while other threads modify and read is up to date
+		img.forEach(true, px->{
+			px.setComplex(px.getX(), px.getY());
+			assertEquals(px.getX()*px.getX()+px.getY()*px.getY(), px.power(), 0);
+		});
+		for(int y = 0; y < 512; y++)
+			for(int x = 0; x < 512; x++)
+				assertEquals(x*x+y*y, img.getValueP(x, y), 0);
+		// concurrent first reads allocate the power channel only once
+		ComplexImg img2 = new ComplexImg(512, 512);
+		img2.forEach(px->px.setComplex(1, 1));
+		img2.enableSynchronizePowerSpectrum(true);
+		img2.forEach(true, px->assertEquals(2, px.power(), 0));
+		for(double v: img2.getDataPower())
+			assertEquals(2, v, 0);
+	}
+
+	@Test
+	public void testPowerReadInParallelLoop() {
+		ComplexImg img = new ComplexImg(512, 256).enableSynchronizePowerSpectrum(true);
+		for(int k = 0; k < 10; k++){
+			final int offset = k;
+			// bulk edit marks all rows, first reads inside the parallel loop recompute them
+			img.forEach(true, px->px.setComplex(px.getX()+offset, px.getY()));
+			img.forEach(true, px->{
+				double expected = (px.getX()+offset)*(px.getX()+offset)+px.getY()*px.getY();
+				assertEquals(expected, px.power(), 0);
+				assertEquals(expected, img.getValueP(px.getX(), px.getY()), 0);
+			});
+		}
+	}
+
 	@Test
 	public void test() {
 		ComplexImg img = new ComplexImg(new Dimension(100, 100));
@@ -0,0 +1,225 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class FourierContextTest {
+
+	@Test
+	public void testAgainstFourier() {
+		try(FourierContext ctx = new FourierContext()){
+			for(int[] size: new int[][]{{64,48},{31,17},{1,9},{10,1}}){
+				ColorImg img = FourierTest.createImg(size[0], size[1], 
+						(x,y)->FourierTest.CIRCLE.applyAsDouble(x+0.3, y-0.1)+x*y);
+				ComplexImg expected = Fourier.transform(img, ColorImg.channel_r);
+				// real to complex
+				ComplexImg transform = ctx.transform(img, ColorImg.channel_r, null);
+				assertArrayEquals(expected.getDataReal(), transform.getDataReal(), 1e-8);
+				assertArrayEquals(expected.getDataImag(), transform.getDataImag(), 1e-8);
+				// complex to complex, reusing plan
+				ComplexImg complex = new ComplexImg(size[0], size[1], img.getData()[ColorImg.channel_r].clone(), null, null);
+				ctx.transform(false, complex, transform);
+				assertArrayEquals(expected.getDataReal(), transform.getDataReal(), 1e-8);
+				assertArrayEquals(expected.getDataImag(), transform.getDataImag(), 1e-8);
+				// inverse
+				ColorImg inverse = ctx.inverseTransform(null, transform, ColorImg.channel_g);
+				assertArrayEquals(img.getData()[ColorImg.channel_r], inverse.getData()[ColorImg.channel_g], 1e-8);
+				ctx.transform(true, transform, complex);
+				assertArrayEquals(img.getData()[ColorImg.channel_r], complex.getDataReal(), 1e-8);
+			}
+		}
+	}
+
+	@Test
+	public void testShifted() {
+		ColorImg img = FourierTest.createImg(33, 20, (x,y)->FourierTest.CIRCLE.applyAsDouble(x*2, y)+x);
+		try(FourierContext ctx = new FourierContext()){
+			ComplexImg expected = ctx.transform(img, ColorImg.channel_r, null);
+			// transform into shifted target
+			ComplexImg shifted = new ComplexImg(img.getDimension()).shift(3, 5);
+			ctx.transform(img, ColorImg.channel_r, shifted);
+			assertEquals(expected.getDCreal(), shifted.getDCreal(), 1e-8);
+			shifted.resetShift();
+			assertArrayEquals(expected.getDataReal(), shifted.getDataReal(), 1e-8);
+			assertArrayEquals(expected.getDataImag(), shifted.getDataImag(), 1e-8);
+			// transform of shifted input
+			shifted.shift(7, 11);
+			ComplexImg fromShifted = ctx.transform(true, shifted, null);
+			assertArrayEquals(img.getData()[0], fromShifted.getDataReal(), 1e-8);
+			ColorImg inverse = ctx.inverseTransform(null, shifted, ColorImg.channel_b);
+			assertArrayEquals(img.getData()[0], inverse.getData()[ColorImg.channel_b], 1e-8);
+			// static transforms have to agree for arbitrary shifts
+			ComplexImg staticFromShifted = Fourier.transform(true, shifted, new ComplexImg(img.getDimension()).shift(1,2));
+			staticFromShifted.resetShift();
+			assertArrayEquals(img.getData()[0], staticFromShifted.getDataReal(), 1e-8);
+			inverse = Fourier.inverseTransform(null, shifted, ColorImg.channel_r);
+			assertArrayEquals(img.getData()[0], inverse.getData()[ColorImg.channel_r], 1e-8);
+		}
+	}
+
+	@Test
+	public void testAllChannelsAndBatch() {
+		ColorImg img = FourierTest.createImg(27, 16, FourierTest.CIRCLE);
+		img.forEach(px->px.setRGB_fromDouble_preserveAlpha(px.r_asDouble(), px.getXnormalized(), px.getYnormalized()*px.r_asDouble()));
+		// all channels
+		ComplexImg[] all = Fourier.transformAll(img);
+		assertEquals(3, all.length);
+		for(int c = 0; c < 3; c++){
+			ComplexImg expected = Fourier.transform(img, c);
+			assertArrayEquals(expected.getDataReal(), all[c].getDataReal(), 1e-8);
+			assertArrayEquals(expected.getDataImag(), all[c].getDataImag(), 1e-8);
+		}
+		all[1].shiftCornerToCenter();
+		ColorImg inverse = Fourier.inverseTransformAll(null, all);
+		for(int c = 0; c < 3; c++){
+			assertArrayEquals(img.getData()[c], inverse.getData()[c], 1e-8);
+		}
+		// batch of images reusing targets
+		try(FourierContext ctx = new FourierContext()){
+			ColorImg[] imgs = {img, inverse.copy(), FourierTest.createImg(27, 16, (x,y)->x)};
+			ComplexImg[] targets = new ComplexImg[]{null, new ComplexImg(27, 16), null};
+			ComplexImg second = targets[1];
+			assertTrue(targets == ctx.transformBatch(imgs, ColorImg.channel_b, targets));
+			assertTrue(second == targets[1]);
+			for(int i = 0; i < imgs.length; i++){
+				ComplexImg expected = Fourier.transform(imgs[i], ColorImg.channel_b);
+				assertArrayEquals(expected.getDataReal(), targets[i].getDataReal(), 1e-8);
+				assertArrayEquals(expected.getDataImag(), targets[i].getDataImag(), 1e-8);
+			}
+			ColorImg[] inverses = ctx.inverseTransformBatch(null, targets, ColorImg.channel_r);
+			for(int i = 0; i < imgs.length; i++){
+				assertArrayEquals(imgs[i].getData()[ColorImg.channel_b], inverses[i].getData()[ColorImg.channel_r], 1e-8);
+			}
+			// exceptions
+			JunitUtils.testException(()->{
+				ctx.transformBatch(new ColorImg[]{img, new ColorImg(16, 27, false)}, 0, null);
+			}, IllegalArgumentException.class);
+			JunitUtils.testException(()->{
+				ctx.transformAll(img, new ComplexImg[4]);
+			}, IllegalArgumentException.class);
+			JunitUtils.testException(()->{
+				ctx.inverseTransformAll(null, all[0], all[1]);
+			}, IllegalArgumentException.class);
+			JunitUtils.testException(()->{
+				ctx.inverseTransformAll(new ColorImg(27, 16, false), all[0], all[1], all[2], all[0]);
+			}, IllegalArgumentException.class);
+		}
+	}
+
+	@Test
+	public void testRowsAndColumns() {
+		try(FourierContext ctx = new FourierContext()){
+			for(int[] size: new int[][]{{32,24},{17,9},{1,6},{7,1}}){
+				ColorImg img = FourierTest.createImg(size[0], size[1], 
+						(x,y)->FourierTest.CIRCLE.applyAsDouble(x*2, y)-x*0.3);
+				ComplexImg expected = ctx.transform(img, ColorImg.channel_r, null);
+				// separable: rows then columns equals 2D transform
+				ComplexImg rows = ctx.horizontalTransform(img, ColorImg.channel_r, null);
+				ComplexImg both = ctx.verticalTransform(false, rows, null);
+				assertArrayEquals(expected.getDataReal(), both.getDataReal(), 1e-8);
+				assertArrayEquals(expected.getDataImag(), both.getDataImag(), 1e-8);
+				ComplexImg cols = ctx.verticalTransform(img, ColorImg.channel_r, null);
+				// shifted target and input
+				both = ctx.horizontalTransform(false, cols.shift(2, 3), new ComplexImg(img.getDimension()).shift(1, 1));
+				both.resetShift();
+				assertArrayEquals(expected.getDataReal(), both.getDataReal(), 1e-8);
+				assertArrayEquals(expected.getDataImag(), both.getDataImag(), 1e-8);
+				// inverse
+				ColorImg inverse = ctx.verticalInverseTransform(null, cols, ColorImg.channel_g);
+				assertArrayEquals(img.getData()[ColorImg.channel_r], inverse.getData()[ColorImg.channel_g], 1e-8);
+				ctx.horizontalInverseTransform(inverse, rows.shiftCornerToCenter(), ColorImg.channel_b);
+				assertArrayEquals(img.getData()[ColorImg.channel_r], inverse.getData()[ColorImg.channel_b], 1e-8);
+				ComplexImg back = ctx.horizontalTransform(true, ctx.verticalTransform(true, both, null), null);
+				assertArrayEquals(img.getData()[ColorImg.channel_r], back.getDataReal(), 1e-8);
+			}
+		}
+	}
+
+	@Test
+	public void testKernelCache() {
+		ColorImg img = FourierTest.createImg(30, 20, FourierTest.CIRCLE);
+		ColorImg kernel = new ColorImg(3, 3, false);
+		kernel.fill(ColorImg.channel_r, 1.0/9);
+		try(FourierContext ctx = new FourierContext()){
+			ColorImg blurred = ctx.convolve(img, kernel, ColorImg.channel_r, ColorImg.boundary_mode_mirror, null);
+			assertArrayEquals(blurred.getDataR(), 
+					ctx.convolve(img, kernel, ColorImg.channel_r, ColorImg.boundary_mode_mirror, null).getDataR(), 0);
+			// changing the kernel must not return the cached spectrum of the old kernel
+			kernel.fill(ColorImg.channel_r, 0).setValueR(1, 1, 1.0);
+			ColorImg identity = ctx.convolve(img, kernel, ColorImg.channel_r, ColorImg.boundary_mode_mirror, blurred);
+			assertTrue(identity == blurred);
+			assertArrayEquals(img.getDataR(), identity.getDataR(), 1e-8);
+		}
+	}
+
+	@Test
+	public void testPlanCache() {
+		try(FourierContext ctx = new FourierContext()){
+			FourierContext.Plan first = ctx.getPlan(FourierContext.C2C, FourierContext.dims(FourierContext.AXIS_X, 5, 1, 5, 5), FourierContext.NO_DIMS);
+			ctx.releasePlan(first);
+			// many distinct sizes, also concurrently so that plans are evicted while in use
+			IntStream.range(0, 3*FourierContext.PLAN_CACHE_SIZE).parallel().forEach(i->{
+				ColorImg img = FourierTest.createImg(8+i, 5, FourierTest.CIRCLE);
+				ComplexImg transform = ctx.transform(img, ColorImg.channel_r, null);
+				ColorImg inverse = ctx.inverseTransform(null, transform, ColorImg.channel_r);
+				assertArrayEquals(img.getDataR(), inverse.getDataR(), 1e-8);
+			});
+			assertTrue(ctx.numCachedPlans() <= FourierContext.PLAN_CACHE_SIZE);
+			// evicted plans are destroyed
+			assertTrue(first.plan == null);
+			// a plan in use is destroyed when released
+			FourierContext.Plan inUse = ctx.getPlan(FourierContext.C2C, FourierContext.dims(FourierContext.AXIS_X, 6, 1, 6, 6), FourierContext.NO_DIMS);
+			for(int i = 0; i < FourierContext.PLAN_CACHE_SIZE; i++){
+				ctx.transform(FourierTest.createImg(4, 3+i, FourierTest.CIRCLE), ColorImg.channel_r, null);
+			}
+			assertTrue(inUse.plan != null);
+			ctx.releasePlan(inUse);
+			assertTrue(inUse.plan == null);
+		}
+	}
+
+	@Test
+	public void testConcurrentUse() {
+		ColorImg img = FourierTest.createImg(40, 30, FourierTest.CIRCLE);
+		try(FourierContext ctx = new FourierContext()){
+			ComplexImg expected = ctx.transform(img, ColorImg.channel_r, null);
+			IntStream.range(0, 64).parallel().forEach(i->{
+				ComplexImg transform = ctx.transform(img, ColorImg.channel_r, null);
+				assertArrayEquals(expected.getDataReal(), transform.getDataReal(), 1e-8);
+				ColorImg inverse = ctx.inverseTransform(null, transform, ColorImg.channel_r);
+				assertArrayEquals(img.getData()[0], inverse.getData()[0], 1e-8);
+			});
+		}
+	}
+
+	@Test
+	public void testExceptions() {
+		ColorImg img = new ColorImg(10, 10, false);
+		FourierContext ctx = new FourierContext();
+		JunitUtils.testException(()->{
+			ctx.transform(img, ColorImg.channel_a, null);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			ctx.transform(img, ColorImg.channel_r, new ComplexImg(10, 11));
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			ctx.inverseTransform(new ColorImg(11, 10, false), new ComplexImg(10, 10), ColorImg.channel_r);
+		}, IllegalArgumentException.class);
+		ctx.transform(img, ColorImg.channel_r, null);
+		ctx.close();
+		assertTrue(ctx.isClosed());
+		JunitUtils.testException(()->{
+			ctx.transform(img, ColorImg.channel_r, null);
+		}, IllegalStateException.class);
+		// closing twice is fine
+		ctx.close();
+	}
+
+}
@@ -77,6 +77,41 @@ public class FourierTest {
 		});
 	}
 	
+	@Test
+	public void testConvolution() {
+		ColorImg img = createImg(23, 14, (x,y)->CIRCLE.applyAsDouble(x+0.2, y)+x*y);
+		int[] modes = {ColorImg.boundary_mode_zero, ColorImg.boundary_mode_mirror, ColorImg.boundary_mode_repeat_edge, ColorImg.boundary_mode_repeat_image};
+		for(int[] ksize: new int[][]{{5,3},{4,6},{1,1}}){
+			ColorImg kernel = createImg(ksize[0], ksize[1], (x,y)->1+x-y*y);
+			for(int mode: modes){
+				ColorImg convolved = Fourier.convolve(img, kernel, ColorImg.channel_g, mode);
+				ColorImg correlated = Fourier.correlate(img, kernel, ColorImg.channel_g, mode);
+				int cx = kernel.getWidth()/2, cy = kernel.getHeight()/2;
+				img.forEach(px->{
+					double conv = 0, corr = 0;
+					for(int j = 0; j < kernel.getHeight(); j++){
+						for(int i = 0; i < kernel.getWidth(); i++){
+							double k = kernel.getValueG(i, j);
+							conv += k*img.getValueG(px.getX()-i+cx, px.getY()-j+cy, mode);
+							corr += k*img.getValueG(px.getX()+i-cx, px.getY()+j-cy, mode);
+						}
+					}
+					assertEquals(conv, convolved.getValueG(px.getX(), px.getY()), 1e-8);
+					assertEquals(corr, correlated.getValueG(px.getX(), px.getY()), 1e-8);
+				});
+			}
+		}
+	}
+	
+	@Test
+	public void testNextFastSize() {
+		assertEquals(1, Fourier.nextFastSize(1));
+		assertEquals(12, Fourier.nextFastSize(11));
+		assertEquals(128, Fourier.nextFastSize(128));
+		assertEquals(1050, Fourier.nextFastSize(1031));
+		JunitUtils.testException(()->Fourier.nextFastSize(0), IllegalArgumentException.class);
+	}
+	
 	@Test
 	public void testExceptions() {
 		ColorImg img = new ColorImg(100, 100, false);
@@ -118,7 +153,10 @@ public class FourierTest {
 	static ColorImg createImg(int width, int height, DoubleBinaryOperator objectFn){
 		ColorImg img = new ColorImg(width,height, false);
 		img.forEach(px->{
-			double v = objectFn.applyAsDouble((px.getXnormalized()-0.5)*2, (px.getYnormalized()-0.5)*2);
+			// normalized coordinates are undefined (NaN) for images of width or height 1
+			double x = width > 1 ? (px.getXnormalized()-0.5)*2 : 0;
+			double y = height > 1 ? (px.getYnormalized()-0.5)*2 : 0;
+			double v = objectFn.applyAsDouble(x, y);
 			px.setRGB_fromDouble_preserveAlpha(v, v, v);
 		});
 		return img;
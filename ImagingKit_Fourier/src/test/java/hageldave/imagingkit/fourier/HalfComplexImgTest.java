@@ -0,0 +1,74 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class HalfComplexImgTest {
+
+	@Test
+	public void testTransform() {
+		for(int[] size: new int[][]{{40,30},{33,17},{1,5},{6,1}}){
+			ColorImg img = FourierTest.createImg(size[0], size[1], (x,y)->FourierTest.CIRCLE.applyAsDouble(x-0.1, y*2)+y);
+			ComplexImg full = Fourier.transform(img, ColorImg.channel_g);
+			HalfComplexImg half = Fourier.transformHalf(img, ColorImg.channel_g);
+			assertEquals(size[0]/2+1, half.getHalfWidth());
+			assertEquals(half.getHalfWidth()*size[1], half.getDataReal().length);
+			assertEquals(full.getDCreal(), half.getDCreal(), 1e-8);
+			// accessors reconstruct the redundant half
+			full.forEach(px->{
+				assertEquals(px.real(), half.getValueR(px.getX(), px.getY()), 1e-8);
+				assertEquals(px.imag(), half.getValueI(px.getX(), px.getY()), 1e-8);
+				assertEquals(px.real()*px.real()+px.imag()*px.imag(), half.computePower(px.getX(), px.getY()), 1e-8);
+			});
+			// expansion
+			ComplexImg expanded = half.toComplexImg(new ComplexImg(img.getDimension()).shiftCornerToCenter());
+			expanded.resetShift();
+			assertArrayEquals(full.getDataReal(), expanded.getDataReal(), 1e-8);
+			assertArrayEquals(full.getDataImag(), expanded.getDataImag(), 1e-8);
+			// inverse
+			ColorImg inverse = Fourier.inverseTransform(null, half, ColorImg.channel_b);
+			assertArrayEquals(img.getDataG(), inverse.getDataB(), 1e-8);
+		}
+	}
+
+	@Test
+	public void testSetAndCopy() {
+		HalfComplexImg half = new HalfComplexImg(8, 6);
+		half.setComplex(6, 2, 1.5, 2.5);
+		assertEquals(1.5, half.getValueR(6, 2), 0);
+		assertEquals(2.5, half.getValueI(6, 2), 0);
+		// stored as conjugate in the non redundant half
+		assertEquals(1.5, half.getValueR(2, 4), 0);
+		assertEquals(-2.5, half.getValueI(2, 4), 0);
+		// self mirrored columns (x=0 and x=width/2) also store the mirrored value
+		for(int x: new int[]{0, 4}){
+			half.setComplex(x, 1, 3, 4);
+			assertEquals(3, half.getValueR(x, 5), 0);
+			assertEquals(-4, half.getValueI(x, 5), 0);
+			ComplexImg full = half.toComplexImg(null);
+			assertEquals(full.getValueR(x, 1), full.getValueR(x, 5), 0);
+			assertEquals(full.getValueI(x, 1), -full.getValueI(x, 5), 0);
+		}
+		half.setComplex(4, 3, 7, 0);
+		assertEquals(7, half.getValueR(4, 3), 0);
+		HalfComplexImg copy = half.copy();
+		half.fill(0, 0);
+		assertEquals(1.5, copy.getValueR(6, 2), 0);
+		assertEquals(0, half.getValueR(6, 2), 0);
+
+		JunitUtils.testException(()->{
+			new HalfComplexImg(0, 5);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			half.toComplexImg(new ComplexImg(8, 5));
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			Fourier.inverseTransform(new ColorImg(8, 5, false), half, 0);
+		}, IllegalArgumentException.class);
+	}
+
+}
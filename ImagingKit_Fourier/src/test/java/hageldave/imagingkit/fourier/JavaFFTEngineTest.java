@@ -0,0 +1,89 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class JavaFFTEngineTest {
+
+	@Test
+	public void testAgainstFFTW() {
+		JavaFFTEngine javaEngine = new JavaFFTEngine();
+		FFTWEngine fftwEngine = new FFTWEngine();
+		Random rand = new Random(42);
+		// powers of 2, small prime factors, large prime factors (Bluestein) and parallel sizes
+		int[][] sizes = {{1,1},{8,16},{12,45},{17,1},{1,97},{34,19},{210,143},{256,256},{300,113}};
+		for(int[] size: sizes){
+			int w = size[0], h = size[1];
+			double[] real = rand.doubles(w*h, -1, 1).toArray();
+			double[] imag = rand.doubles(w*h, -1, 1).toArray();
+			for(int axes: new int[]{FFTEngine.AXES_XY, FFTEngine.AXIS_X, FFTEngine.AXIS_Y}){
+				for(boolean inverse: new boolean[]{false,true}){
+					double[] jr = real.clone(), ji = imag.clone();
+					double[] fr = real.clone(), fi = imag.clone();
+					javaEngine.transform(inverse, jr, ji, w, h, axes);
+					fftwEngine.transform(inverse, fr, fi, w, h, axes);
+					double eps = 1e-9*Math.max(1, inverse ? 1:w*h);
+					assertArrayEquals(fr, jr, eps);
+					assertArrayEquals(fi, ji, eps);
+					// back again
+					javaEngine.transform(!inverse, jr, ji, w, h, axes);
+					assertArrayEquals(real, jr, 1e-9);
+					assertArrayEquals(imag, ji, 1e-9);
+				}
+				// real valued transforms
+				double[] jr = new double[w*h], ji = new double[w*h];
+				double[] fr = new double[w*h], fi = new double[w*h];
+				javaEngine.transformReal(real, jr, ji, w, h, axes);
+				fftwEngine.transformReal(real, fr, fi, w, h, axes);
+				assertArrayEquals(fr, jr, 1e-9*w*h);
+				assertArrayEquals(fi, ji, 1e-9*w*h);
+				double[] out = new double[w*h];
+				javaEngine.inverseTransformReal(jr, ji, out, w, h, axes);
+				assertArrayEquals(real, out, 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testFourierWithEngines() {
+		ColorImg img = FourierTest.createImg(90, 77, (x,y)->FourierTest.CIRCLE.applyAsDouble(x+0.3, y-0.1)+x*y);
+		try {
+			Fourier.setEngine(new FFTWEngine());
+			ComplexImg expected = Fourier.transform(img, ColorImg.channel_r);
+			ComplexImg expectedRows = Fourier.horizontalTransform(img, ColorImg.channel_r);
+			Fourier.setEngine(new JavaFFTEngine());
+			assertEquals(JavaFFTEngine.class, Fourier.getEngine().getClass());
+			ComplexImg transform = Fourier.transform(img, ColorImg.channel_r);
+			assertArrayEquals(expected.getDataReal(), transform.getDataReal(), 1e-8);
+			assertArrayEquals(expected.getDataImag(), transform.getDataImag(), 1e-8);
+			ComplexImg rows = Fourier.horizontalTransform(img, ColorImg.channel_r);
+			assertArrayEquals(expectedRows.getDataReal(), rows.getDataReal(), 1e-8);
+			// shifted complex to complex and back
+			transform.shiftCornerToCenter();
+			ComplexImg target = new ComplexImg(transform.getDimension()).shift(3, 5);
+			Fourier.transform(true, transform, target);
+			target.resetShift();
+			assertArrayEquals(img.getDataR(), target.getDataReal(), 1e-9);
+			ColorImg inverse = Fourier.inverseTransform(null, transform, ColorImg.channel_g);
+			assertArrayEquals(img.getDataR(), inverse.getDataG(), 1e-9);
+		} finally {
+			Fourier.setEngine(null);
+		}
+	}
+
+	@Test
+	public void testExceptions() {
+		JavaFFTEngine engine = new JavaFFTEngine();
+		JunitUtils.testException(()->engine.transform(false, new double[4], new double[4], 0, 4, FFTEngine.AXES_XY), IllegalArgumentException.class);
+		JunitUtils.testException(()->engine.transform(false, new double[4], new double[3], 2, 2, FFTEngine.AXES_XY), IllegalArgumentException.class);
+		JunitUtils.testException(()->engine.transform(false, new double[4], new double[4], 2, 2, 3), IllegalArgumentException.class);
+		JunitUtils.testException(()->new FFTWEngine().transform(false, new double[4], new double[4], 2, 2, -1), IllegalArgumentException.class);
+	}
+
+}
@@ -0,0 +1,102 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.DoubleBuffer;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class NativeComplexImgTest {
+
+	@Test
+	public void testTransform() {
+		try(FourierContext ctx = new FourierContext()){
+			for(int[] size: new int[][]{{64,48},{31,17},{1,9}}){
+				int w = size[0], h = size[1];
+				ColorImg img = FourierTest.createImg(w, h, (x,y)->FourierTest.CIRCLE.applyAsDouble(x+0.3, y-0.1)+x*y);
+				ComplexImg expected = ctx.transform(img, ColorImg.channel_r, null);
+				try(
+						NativeComplexImg nimg = new NativeComplexImg(w, h).set(img, ColorImg.channel_r);
+						NativeComplexImg spectrum = ctx.transform(false, nimg, null);
+				){
+					ComplexImg transform = spectrum.toComplexImg(null);
+					assertArrayEquals(expected.getDataReal(), transform.getDataReal(), 1e-8);
+					assertArrayEquals(expected.getDataImag(), transform.getDataImag(), 1e-8);
+					assertEquals(expected.getValueI(1%w, 1%h), spectrum.getValueI(1%w, 1%h), 1e-8);
+					// inverse in place
+					ctx.transform(true, spectrum, spectrum);
+					assertArrayEquals(img.getDataR(), spectrum.toColorImg(null, ColorImg.channel_b).getDataB(), 1e-8);
+					DoubleBuffer imag = spectrum.getImagBuffer();
+					for(int i = 0; i < w*h; i++)
+						assertEquals(0, imag.get(i), 1e-8);
+					// forward in place
+					ctx.transform(false, spectrum, spectrum);
+					spectrum.toComplexImg(transform);
+					assertArrayEquals(expected.getDataReal(), transform.getDataReal(), 1e-8);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCachedPlanOnDifferentImages() {
+		try(FourierContext ctx = new FourierContext(true)){
+			int w = 31, h = 17;
+			ColorImg img = FourierTest.createImg(w, h, (x,y)->FourierTest.CIRCLE.applyAsDouble(x-0.2, y+0.4)-x);
+			ComplexImg expected = ctx.transform(img, ColorImg.channel_r, null);
+			// images allocated at different times (and addresses) are transformed with the same plan
+			try(
+					NativeComplexImg first = new NativeComplexImg(w, h).set(img, ColorImg.channel_r);
+					NativeComplexImg other = new NativeComplexImg(123, 45);
+					NativeComplexImg second = new NativeComplexImg(w, h).set(img, ColorImg.channel_r);
+					NativeComplexImg target = new NativeComplexImg(w, h);
+			){
+				for(NativeComplexImg nimg: new NativeComplexImg[]{first, second}){
+					ComplexImg transform = ctx.transform(false, nimg, target).toComplexImg(null);
+					assertArrayEquals(expected.getDataReal(), transform.getDataReal(), 1e-8);
+					assertArrayEquals(expected.getDataImag(), transform.getDataImag(), 1e-8);
+					ctx.transform(true, target, nimg);
+					assertArrayEquals(img.getDataR(), nimg.toColorImg(null, ColorImg.channel_r).getDataR(), 1e-8);
+				}
+				assertEquals(0, other.getValueR(0, 0), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testCopies() {
+		ComplexImg img = new ComplexImg(7, 5);
+		img.forEach(px->px.setComplex(px.getIndex(), -px.getIndex()));
+		ComplexImg shifted = img.copy().shift(2, 3);
+		try(NativeComplexImg nimg = new NativeComplexImg(img.getDimension())){
+			assertEquals(35, nimg.numValues());
+			assertEquals(0, nimg.getValueR(3, 3), 0);
+			// shifts are undone when copying to native image and applied when copying back
+			nimg.set(shifted);
+			assertEquals(img.getValueR(4, 1), nimg.getValueR(4, 1), 0);
+			ComplexImg target = nimg.toComplexImg(new ComplexImg(7, 5).shift(2, 3));
+			assertArrayEquals(shifted.getDataReal(), target.getDataReal(), 0);
+			assertArrayEquals(shifted.getDataImag(), target.getDataImag(), 0);
+			nimg.setComplex(1, 2, 100, 200);
+			assertEquals(100, nimg.getRealBuffer().get(2*7+1), 0);
+			assertEquals(200, nimg.getValueI(1, 2), 0);
+			nimg.close();
+			assertTrue(nimg.isClosed());
+			nimg.close();
+			JunitUtils.testException(()->nimg.getValueR(0, 0), IllegalStateException.class);
+		}
+		JunitUtils.testException(()->new NativeComplexImg(0, 3), IllegalArgumentException.class);
+		try(NativeComplexImg nimg = new NativeComplexImg(3, 3)){
+			JunitUtils.testException(()->nimg.set(img), IllegalArgumentException.class);
+			JunitUtils.testException(()->nimg.set(new ColorImg(3, 3, false), 3), IllegalArgumentException.class);
+			try(FourierContext ctx = new FourierContext(); NativeComplexImg other = new NativeComplexImg(3, 4)){
+				JunitUtils.testException(()->ctx.transform(false, nimg, other), IllegalArgumentException.class);
+			}
+		}
+	}
+
+}
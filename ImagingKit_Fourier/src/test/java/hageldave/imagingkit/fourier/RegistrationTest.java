@@ -0,0 +1,90 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class RegistrationTest {
+
+	@Test
+	public void testCircularShifts() {
+		for(int[] size: new int[][]{{64,48},{255,301},{17,1}}){
+			ColorImg a = FourierTest.createImg(size[0], size[1], (x,y)->FourierTest.CIRCLE.applyAsDouble(x+0.3, y*2)+Math.sin(x*9+y*4));
+			try(FourierContext ctx = new FourierContext()){
+				for(int[] shift: new int[][]{{0,0},{5,-3},{-20,size[1]/3},{size[0]/2-1,0}}){
+					ColorImg b = a.copy();
+					ArrayUtils.shift2D(b.getDataR(), size[0], size[1], shift[0], shift[1]);
+					Registration.Shift s = Registration.phaseCorrelate(a, b, ColorImg.channel_r, TiledFourierAnalysis.WINDOW_RECTANGULAR, ctx);
+					assertEquals(circular(shift[0], size[0]), s.getX(), 1e-6);
+					assertEquals(circular(shift[1], size[1]), s.getY(), 1e-6);
+					// DC is removed, all other frequencies contribute to the peak
+					assertEquals(1-1.0/(size[0]*size[1]), s.getPeak(), 1e-6);
+				}
+			}
+		}
+	}
+
+	/** @return shift in [-size/2, size/2] equivalent to the specified circular shift */
+	static int circular(int shift, int size){
+		shift = Math.floorMod(shift, size);
+		return shift > size/2.0 ? shift-size : shift;
+	}
+
+	@Test
+	public void testSubPixelShift() {
+		int w = 96, h = 80;
+		ColorImg a = FourierTest.createImg(w, h, (x,y)->Math.exp(-(x*x+y*y)*4)+0.5*Math.exp(-((x-0.3)*(x-0.3)+y*y)*20));
+		double dx = 3.3, dy = -7.6;
+		// shift by applying a phase ramp in frequency domain
+		ComplexImg fourier = Fourier.transform(a, ColorImg.channel_r);
+		fourier.forEach(px->{
+			double angle = -2*Math.PI*(px.getXFrequency()*dx/w + px.getYFrequency()*dy/h);
+			px.mult(Math.cos(angle), Math.sin(angle));
+		});
+		ColorImg b = Fourier.inverseTransform(null, fourier, ColorImg.channel_r);
+		Registration.Shift s = Registration.phaseCorrelate(a, b, ColorImg.channel_r, TiledFourierAnalysis.WINDOW_RECTANGULAR, null);
+		assertEquals(dx, s.getX(), 0.2);
+		assertEquals(dy, s.getY(), 0.2);
+	}
+
+	@Test
+	public void testWindowedCrops() {
+		ColorImg scene = FourierTest.createImg(300, 260, (x,y)->Math.sin(x*13)*Math.cos(y*7)+FourierTest.CIRCLE.applyAsDouble(x*3, y*3));
+		ColorImg a = new ColorImg(200, 180, false);
+		ColorImg b = new ColorImg(200, 180, false);
+		scene.copyArea(40, 30, 200, 180, a, 0, 0);
+		scene.copyArea(27, 39, 200, 180, b, 0, 0);
+		Registration.Shift s = Registration.phaseCorrelate(a, b);
+		assertEquals(13, s.getX(), 0.5);
+		assertEquals(-9, s.getY(), 0.5);
+		assertTrue(s.getPeak() > 0.1);
+		// unrelated image has low confidence
+		ColorImg noise = new ColorImg(200, 180, false);
+		java.util.Random rand = new java.util.Random(3);
+		noise.forEach(px->px.setValue(0, rand.nextDouble()));
+		assertTrue(Registration.phaseCorrelate(a, noise).getPeak() < s.getPeak()/2);
+	}
+
+	@Test
+	public void testExceptions() {
+		ColorImg a = new ColorImg(20, 20, false);
+		JunitUtils.testException(()->{
+			Registration.phaseCorrelate(a, new ColorImg(20, 21, false));
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			Registration.phaseCorrelate(a, a, ColorImg.channel_a, TiledFourierAnalysis.WINDOW_HANN, null);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			Registration.phaseCorrelate(a, a, 0, 5, null);
+		}, IllegalArgumentException.class);
+		FourierContext ctx = new FourierContext();
+		ctx.close();
+		JunitUtils.testException(()->{
+			Registration.phaseCorrelate(a, a, 0, TiledFourierAnalysis.WINDOW_HANN, ctx);
+		}, IllegalStateException.class);
+	}
+
+}
@@ -0,0 +1,89 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+public class SpectralFiltersTest {
+
+	@Test
+	public void testAgainstPerPixelMasks() {
+		for(int[] size: new int[][]{{16,9},{7,12},{1,5},{300,200}}){
+			for(int[] shift: new int[][]{{0,0},{size[0]/2,size[1]/2},{3,1}}){
+				double sigma = 2.5, cutoff = 3.2, low = 1.5;
+				testFilter(size, shift, img->SpectralFilters.lowPass(img, cutoff), r->r <= cutoff ? 1:0);
+				testFilter(size, shift, img->SpectralFilters.highPass(img, cutoff), r->r > cutoff ? 1:0);
+				testFilter(size, shift, img->SpectralFilters.bandPass(img, low, cutoff), r->r > low && r <= cutoff ? 1:0);
+				testFilter(size, shift, img->SpectralFilters.gaussianLowPass(img, sigma), r->Math.exp(-r*r/(2*sigma*sigma)));
+				testFilter(size, shift, img->SpectralFilters.gaussianHighPass(img, sigma), r->1-Math.exp(-r*r/(2*sigma*sigma)));
+				testFilter(size, shift, img->SpectralFilters.butterworthLowPass(img, cutoff, 2), r->1/(1+Math.pow(r/cutoff, 4)));
+				testFilter(size, shift, img->SpectralFilters.butterworthHighPass(img, cutoff, 3), r->1-1/(1+Math.pow(r/cutoff, 6)));
+				testFilter(size, shift, img->SpectralFilters.applyRadial(img, r->Math.cos(r)), r->Math.cos(r));
+			}
+		}
+	}
+
+	@Test
+	public void testHighOrderButterworth() {
+		// (r/cutoff)^(2*order) exceeds the double range for most frequencies
+		int[] size = {512, 512};
+		testFilter(size, new int[]{256, 256}, img->SpectralFilters.butterworthHighPass(img, 1, 100), r->r < 1 ? 0 : r > 1 ? 1 : 0.5);
+		testFilter(size, new int[]{256, 256}, img->SpectralFilters.butterworthLowPass(img, 1, 100), r->r < 1 ? 1 : r > 1 ? 0 : 0.5);
+	}
+
+	@Test
+	public void testSeparable() {
+		ComplexImg img = createSpectrum(20, 11).shift(4, 7);
+		ComplexImg expected = img.copy();
+		expected.forEach(px->px.mult(px.getXFrequency()+0.5, 0).mult(px.getYFrequency() == 2 ? 0:px.getYFrequency(), 0));
+		SpectralFilters.applySeparable(img, fx->fx+0.5, fy->fy == 2 ? 0:fy);
+		img.forEach(px->{
+			assertEquals(expected.getValueR(px.getX(), px.getY()), px.real(), 1e-9);
+			assertEquals(expected.getValueI(px.getX(), px.getY()), px.imag(), 1e-9);
+		});
+	}
+
+	@Test
+	public void testPowerSynchronization() {
+		ComplexImg img = createSpectrum(10, 10).enableSynchronizePowerSpectrum(true);
+		img.getDataPower();
+		SpectralFilters.lowPass(img, 2);
+		img.forEach(px->assertEquals(px.real()*px.real()+px.imag()*px.imag(), px.power(), 0));
+	}
+
+	@Test
+	public void testExceptions() {
+		ComplexImg img = createSpectrum(4, 4);
+		JunitUtils.testException(()->SpectralFilters.lowPass(img, -1), IllegalArgumentException.class);
+		JunitUtils.testException(()->SpectralFilters.bandPass(img, 3, 2), IllegalArgumentException.class);
+		JunitUtils.testException(()->SpectralFilters.gaussianLowPass(img, 0), IllegalArgumentException.class);
+		JunitUtils.testException(()->SpectralFilters.butterworthLowPass(img, 2, 0), IllegalArgumentException.class);
+		JunitUtils.testException(()->SpectralFilters.butterworthHighPass(img, Double.NaN, 1), IllegalArgumentException.class);
+	}
+
+	static void testFilter(int[] size, int[] shift, UnaryOperator<ComplexImg> filter, DoubleUnaryOperator mask){
+		ComplexImg img = createSpectrum(size[0], size[1]);
+		// materialized shift
+		img.shift(shift[0], shift[1]).materializeShift();
+		// pending shift on top
+		img.shift(1, 2);
+		ComplexImg reference = img.copy();
+		filter.apply(img);
+		reference.forEach(px->{
+			double r = Math.sqrt(px.getXFrequency()*px.getXFrequency() + px.getYFrequency()*px.getYFrequency());
+			double m = mask.applyAsDouble(r);
+			assertEquals(px.real()*m, img.getValueR(px.getX(), px.getY()), 1e-9);
+			assertEquals(px.imag()*m, img.getValueI(px.getX(), px.getY()), 1e-9);
+		});
+	}
+
+	static ComplexImg createSpectrum(int w, int h){
+		ComplexImg img = new ComplexImg(w, h);
+		img.forEach(px->px.setComplex(1+px.getX()*0.5, 2-px.getY()));
+		return img;
+	}
+
+}
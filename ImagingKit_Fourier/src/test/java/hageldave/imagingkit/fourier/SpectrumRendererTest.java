@@ -0,0 +1,132 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.Img;
+import hageldave.imagingkit.core.Pixel;
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class SpectrumRendererTest {
+
+	@Test
+	public void testAgainstSpectrumImgs() {
+		for(int[] size: new int[][]{{16,9},{1,5},{300,200}}){
+			ComplexImg img = createSpectrum(size[0], size[1]);
+			SpectrumRenderer renderer = new SpectrumRenderer(SpectrumRenderer.MODE_POWER);
+			assertEqualColors(img.getPowerSpectrumImg(), renderer.render(img, (Img)null), 2);
+			renderer.setMode(SpectrumRenderer.MODE_PHASE);
+			assertEqualColors(img.getPhaseSpectrumImg(), renderer.render(img, (Img)null), 2);
+			renderer.setMode(SpectrumRenderer.MODE_POWER_PHASE);
+			assertEqualColors(img.getPowerPhaseSpectrumImg(), renderer.render(img, (Img)null), 3);
+		}
+	}
+
+	@Test
+	public void testShift() {
+		ComplexImg img = createSpectrum(31, 20);
+		for(int mode = 0; mode < 3; mode++){
+			SpectrumRenderer renderer = new SpectrumRenderer(mode);
+			img.shift(7, 3);
+			Img shifted = renderer.render(img, (Img)null);
+			img.materializeShift();
+			Img materialized = renderer.render(img, new Img(31, 20));
+			assertArrayEquals(materialized.getData(), shifted.getData());
+			img.resetShift();
+			renderer.render(img, shifted);
+			img.materializeShift();
+			assertArrayEquals(renderer.render(img, materialized).getData(), shifted.getData());
+		}
+	}
+
+	@Test
+	public void testRunningMax() {
+		ComplexImg img = new ComplexImg(40, 30);
+		img.setComplex(3, 4, 3, 4);
+		SpectrumRenderer renderer = new SpectrumRenderer(SpectrumRenderer.MODE_POWER).setMaxDecay(0.5);
+		assertEquals(0xffffffff, renderer.render(img, (Img)null).getValue(3, 4));
+		assertEquals(25, renderer.getRunningMax(), 1e-9);
+		// brighter frame is clamped to previous maximum
+		img.setComplex(0, 0, 0, 10);
+		Img rendered = renderer.render(img, (Img)null);
+		assertEquals(0xffffffff, rendered.getValue(0, 0));
+		assertEquals(0xffffffff, rendered.getValue(3, 4));
+		assertEquals(100, renderer.getRunningMax(), 1e-9);
+		// darker frames let the maximum decay
+		img.setComplex(0, 0, 0, 0);
+		img.setComplex(3, 4, 0, 1);
+		renderer.render(img, (Img)null);
+		assertEquals(Math.sqrt(101)-1, renderer.getRunningMax(), 1e-9);
+		renderer.render(img, (Img)null);
+		assertEquals(Math.pow(101, 0.25)-1, renderer.getRunningMax(), 1e-9);
+		renderer.setMaxDecay(0).render(img, (Img)null);
+		assertEquals(1, renderer.getRunningMax(), 1e-9);
+		assertEquals(0, renderer.resetRunningMax().getRunningMax(), 0);
+	}
+
+	@Test
+	public void testBufferedImage() {
+		ComplexImg img = createSpectrum(20, 10);
+		SpectrumRenderer renderer = new SpectrumRenderer();
+		int[] expected = renderer.render(img, (Img)null).getData();
+		for(int type: new int[]{BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR}){
+			BufferedImage bimg = new BufferedImage(20, 10, type);
+			assertEquals(bimg, renderer.render(img, bimg));
+			for(int i = 0; i < expected.length; i++)
+				assertEquals(expected[i]|0xff000000, bimg.getRGB(i%20, i/20));
+		}
+		BufferedImage bimg = renderer.render(img, (BufferedImage)null);
+		assertEquals(expected[0], bimg.getRGB(0, 0));
+		JunitUtils.testException(()->renderer.render(img, new Img(20, 11)), IllegalArgumentException.class);
+		JunitUtils.testException(()->renderer.setMode(3), IllegalArgumentException.class);
+		JunitUtils.testException(()->renderer.setMaxDecay(1.5), IllegalArgumentException.class);
+	}
+
+	@Test
+	public void testLog2AndPhaseBins() {
+		Random rand = new Random(1);
+		for(int i = 0; i < 10000; i++){
+			double x = 1+Math.pow(10, rand.nextDouble()*20-5);
+			assertEquals(Math.log(x)/Math.log(2), SpectrumRenderer.log2(x), 1e-6);
+		}
+		int bins = SpectrumRenderer.PHASE_BINS;
+		assertEquals(0, SpectrumRenderer.phaseBin(0, 0, bins));
+		for(int i = 0; i < 10000; i++){
+			double r = rand.nextGaussian(), im = rand.nextGaussian();
+			int bin = SpectrumRenderer.phaseBin(r, im, bins);
+			double angleError = Math.abs(SpectrumRenderer.binCenterAngle(bin, bins)-ComplexImg.atan2(r, im));
+			angleError = Math.min(angleError, 2*Math.PI-angleError);
+			assertTrue(angleError < 4.0/bins);
+		}
+	}
+
+	static void assertEqualColors(ColorImg expected, Img actual, int tolerance){
+		expected.forEach(px->{
+			int argb = actual.getValue(px.getX(), px.getY());
+			int[] channels = {Pixel.r(argb), Pixel.g(argb), Pixel.b(argb)};
+			for(int c = 0; c < 3; c++){
+				double v = Math.min(1, Math.max(0, px.getValue(c)))*0xff;
+				assertEquals(String.format("channel %d at (%d,%d)", c, px.getX(), px.getY()), v, channels[c], tolerance);
+			}
+		});
+	}
+
+	static ComplexImg createSpectrum(int w, int h){
+		ComplexImg img = new ComplexImg(w, h);
+		Random rand = new Random(w*31+h);
+		img.forEach(px->{
+			double magnitude = Math.exp(rand.nextGaussian()*3);
+			double phase = rand.nextDouble()*Math.PI*2;
+			px.setComplex(magnitude*Math.cos(phase), magnitude*Math.sin(phase));
+		});
+		// minimum power of zero, so that power spectrum images are comparable
+		img.setComplex(0, 0, 0, 0);
+		return img;
+	}
+}
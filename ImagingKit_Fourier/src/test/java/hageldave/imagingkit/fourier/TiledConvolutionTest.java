@@ -0,0 +1,55 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class TiledConvolutionTest {
+
+	@Test
+	public void testAgainstFourier() {
+		ColorImg img = FourierTest.createImg(53, 37, (x,y)->FourierTest.CIRCLE.applyAsDouble(x+0.2, y)+x*y);
+		int[] modes = {ColorImg.boundary_mode_zero, ColorImg.boundary_mode_mirror, ColorImg.boundary_mode_repeat_image};
+		try(TiledConvolution conv = new TiledConvolution(16, 3)){
+			for(int[] ksize: new int[][]{{5,3},{4,6},{1,1},{11,9}}){
+				ColorImg kernel = FourierTest.createImg(ksize[0], ksize[1], (x,y)->1+x-y*y);
+				for(int mode: modes){
+					ColorImg expected = Fourier.convolve(img, kernel, ColorImg.channel_b, mode);
+					ColorImg result = conv.convolve(img, kernel, ColorImg.channel_b, mode, null);
+					assertArrayEquals(expected.getDataB(), result.getDataB(), 1e-8);
+					expected = Fourier.correlate(img, kernel, ColorImg.channel_b, mode);
+					ColorImg target = new ColorImg(img.getDimension(), false);
+					assertTrue(target == conv.correlate(img, kernel, ColorImg.channel_b, mode, target));
+					assertArrayEquals(expected.getDataB(), target.getDataB(), 1e-8);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testExceptions() {
+		ColorImg img = new ColorImg(20, 20, false);
+		ColorImg kernel = new ColorImg(3, 3, false);
+		JunitUtils.testException(()->{
+			new TiledConvolution(0, 1);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			new TiledConvolution(8, 0);
+		}, IllegalArgumentException.class);
+		TiledConvolution conv = new TiledConvolution(8, 2);
+		JunitUtils.testException(()->{
+			conv.convolve(img, kernel, 0, ColorImg.boundary_mode_zero, img);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			conv.convolve(img, kernel, ColorImg.channel_a, ColorImg.boundary_mode_zero, null);
+		}, IllegalArgumentException.class);
+		conv.close();
+		JunitUtils.testException(()->{
+			conv.convolve(img, kernel, 0, ColorImg.boundary_mode_zero, null);
+		}, IllegalStateException.class);
+	}
+
+}
@@ -0,0 +1,110 @@
+package hageldave.imagingkit.fourier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import hageldave.imagingkit.core.scientific.ColorImg;
+
+public class TiledFourierAnalysisTest {
+
+	@Test
+	public void testAgainstFourier() {
+		ColorImg img = FourierTest.createImg(203, 151, (x,y)->FourierTest.CIRCLE.applyAsDouble(x+0.2, y)+x*y);
+		// small tiles are transformed one by one, large tiles in batches (when FFTW is available)
+		int[][] configs = {{8,6,5,3},{16,16,16,16},{128,65,20,17},{7,3,1,1}};
+		int[] windows = {TiledFourierAnalysis.WINDOW_RECTANGULAR, TiledFourierAnalysis.WINDOW_HANN, TiledFourierAnalysis.WINDOW_BLACKMAN};
+		for(int[] c: configs){
+			for(int window: windows){
+				try(TiledFourierAnalysis analysis = new TiledFourierAnalysis(c[0], c[1], c[2], c[3], window, 3)){
+					int tilesX = analysis.getNumTilesX(img.getWidth());
+					int tilesY = analysis.getNumTilesY(img.getHeight());
+					assertEquals((img.getWidth()-c[0])/c[2]+1, tilesX);
+					ComplexImg[] spectra = analysis.transformTiles(img, ColorImg.channel_g);
+					assertEquals(tilesX*tilesY, spectra.length);
+					double[] wx = TiledFourierAnalysis.windowFunction(window, c[0]);
+					double[] wy = TiledFourierAnalysis.windowFunction(window, c[1]);
+					for(int tile: new int[]{0, tilesX+1, spectra.length-1}){
+						if(tile >= spectra.length)
+							continue;
+						int x0 = (tile%tilesX)*c[2], y0 = (tile/tilesX)*c[3];
+						ColorImg windowed = new ColorImg(c[0], c[1], false);
+						windowed.forEach(px->px.setValue(ColorImg.channel_g, 
+								img.getValue(ColorImg.channel_g, x0+px.getX(), y0+px.getY())*wx[px.getX()]*wy[px.getY()]));
+						ComplexImg expected = Fourier.transform(windowed, ColorImg.channel_g);
+						assertArrayEquals(expected.getDataReal(), spectra[tile].getDataReal(), 1e-8);
+						assertArrayEquals(expected.getDataImag(), spectra[tile].getDataImag(), 1e-8);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBandEnergies() {
+		ColorImg img = FourierTest.createImg(64, 40, (x,y)->Math.cos(x*7)+Math.sin(y*3)+0.5);
+		try(TiledFourierAnalysis analysis = new TiledFourierAnalysis(16, 8, 16, 8, TiledFourierAnalysis.WINDOW_HANN, 2)){
+			double[][] energies = analysis.bandEnergies(img, ColorImg.channel_r, -1, 0, 0.1, 0.3, 1);
+			ComplexImg[] spectra = analysis.transformTiles(img, ColorImg.channel_r);
+			assertEquals(spectra.length, energies.length);
+			for(int t = 0; t < spectra.length; t++){
+				double[] expected = new double[4];
+				spectra[t].forEach(px->{
+					double fx = px.getXFrequency()/16.0, fy = px.getYFrequency()/8.0;
+					double r = Math.sqrt(fx*fx+fy*fy);
+					int band = r == 0 ? 0 : r <= 0.1 ? 1 : r <= 0.3 ? 2 : 3;
+					expected[band] += (px.real()*px.real()+px.imag()*px.imag())/(16*8);
+				});
+				assertArrayEquals(expected, energies[t], 1e-8);
+				// energies of all frequencies sum up to energy of windowed tile (Parseval)
+				double[] wx = TiledFourierAnalysis.windowFunction(TiledFourierAnalysis.WINDOW_HANN, 16);
+				double[] wy = TiledFourierAnalysis.windowFunction(TiledFourierAnalysis.WINDOW_HANN, 8);
+				int x0 = (t%analysis.getNumTilesX(64))*16, y0 = (t/analysis.getNumTilesX(64))*8;
+				double energy = 0;
+				for(int y = 0; y < 8; y++)
+					for(int x = 0; x < 16; x++){
+						double v = img.getValueR(x0+x, y0+y)*wx[x]*wy[y];
+						energy += v*v;
+					}
+				assertEquals(energy, energies[t][0]+energies[t][1]+energies[t][2]+energies[t][3], 1e-8);
+			}
+		}
+	}
+
+	@Test
+	public void testWindows() {
+		assertArrayEquals(new double[]{0, 0.5, 1, 0.5}, TiledFourierAnalysis.windowFunction(TiledFourierAnalysis.WINDOW_HANN, 4), 1e-12);
+		assertArrayEquals(new double[]{0, 0.34, 1, 0.34}, TiledFourierAnalysis.windowFunction(TiledFourierAnalysis.WINDOW_BLACKMAN, 4), 1e-12);
+		assertArrayEquals(new double[]{1, 1, 1}, TiledFourierAnalysis.windowFunction(TiledFourierAnalysis.WINDOW_RECTANGULAR, 3), 0);
+	}
+
+	@Test
+	public void testExceptions() {
+		ColorImg img = new ColorImg(20, 20, false);
+		JunitUtils.testException(()->{
+			new TiledFourierAnalysis(0, 1, TiledFourierAnalysis.WINDOW_HANN);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			new TiledFourierAnalysis(8, 8, 4, 4, 3, 1);
+		}, IllegalArgumentException.class);
+		TiledFourierAnalysis analysis = new TiledFourierAnalysis(8, 4, TiledFourierAnalysis.WINDOW_HANN);
+		JunitUtils.testException(()->{
+			analysis.transformTiles(img, ColorImg.channel_a);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			analysis.transformTiles(new ColorImg(7, 20, false), 0);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			analysis.bandEnergies(img, 0, 0.5, 0.1);
+		}, IllegalArgumentException.class);
+		JunitUtils.testException(()->{
+			analysis.bandEnergies(img, 0, 0.5);
+		}, IllegalArgumentException.class);
+		analysis.close();
+		JunitUtils.testException(()->{
+			analysis.transformTiles(img, 0);
+		}, IllegalStateException.class);
+	}
+
+}